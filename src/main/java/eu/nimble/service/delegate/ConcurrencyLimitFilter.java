@@ -0,0 +1,130 @@
+package eu.nimble.service.delegate;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import eu.nimble.service.delegate.metrics.Metrics;
+import eu.nimble.service.delegate.metrics.MetricsSource;
+import eu.nimble.service.delegate.resilience.AdaptiveConcurrencyLimit;
+
+/**
+ * Concurrency Limit Filter - sheds the inbound load which is above the adaptive concurrency limit.
+ * The requests are limited separately for the federated APIs (which fan out to all the delegates), the local APIs
+ * (called by the other delegates) and the export APIs, and a rejected request gets 503 with a Retry-After header.
+ *
+ * Registered as a servlet filter (and not as a JAX-RS filter) so the concurrency slot is released even when
+ * the request fails with an exception. The slot of a suspended (asynchronous) request is held until it completes.
+ */
+public class ConcurrencyLimitFilter implements Filter {
+	private static Logger logger = LogManager.getLogger(ConcurrencyLimitFilter.class);
+
+	private static final String ENABLED = "DELEGATE_CONCURRENCY_LIMIT_ENABLED";
+	private static final String RETRY_AFTER_SEC = "DELEGATE_CONCURRENCY_LIMIT_RETRY_AFTER_SEC";
+	private static final String ENV_PREFIX = "DELEGATE_CONCURRENCY_LIMIT_";
+
+	public static final String FEDERATED = "federated";
+	public static final String LOCAL = "local";
+	public static final String EXPORT = "export";
+
+	private boolean enabled;
+	private String retryAfterSec;
+	private final Map<String, AdaptiveConcurrencyLimit> limits = new LinkedHashMap<String, AdaptiveConcurrencyLimit>();
+
+	@Override
+	public void init(FilterConfig filterConfig) throws ServletException {
+		String enabledValue = System.getenv(ENABLED);
+		enabled = enabledValue == null || Boolean.parseBoolean(enabledValue);
+		retryAfterSec = String.valueOf(getIntEnv(RETRY_AFTER_SEC, 1));
+		addLimit(FEDERATED, 50, 10, 500);
+		addLimit(LOCAL, 100, 10, 1000);
+		addLimit(EXPORT, 4, 1, 20);
+		Metrics.register("inboundConcurrency", new MetricsSource() {
+			@Override
+			public Object getMetrics() {
+				Map<String, Object> metrics = new LinkedHashMap<String, Object>();
+				for (AdaptiveConcurrencyLimit limit : limits.values()) {
+					metrics.put(limit.getName(), limit.getMetrics());
+				}
+				return metrics;
+			}
+		});
+		logger.info("inbound concurrency limits are " + (enabled ? "enabled" : "disabled"));
+	}
+
+	// e.g. DELEGATE_CONCURRENCY_LIMIT_LOCAL_INITIAL, DELEGATE_CONCURRENCY_LIMIT_LOCAL_MIN, DELEGATE_CONCURRENCY_LIMIT_LOCAL_MAX
+	private void addLimit(String name, int initialLimit, int minLimit, int maxLimit) {
+		String prefix = ENV_PREFIX + name.toUpperCase();
+		limits.put(name, new AdaptiveConcurrencyLimit(name,
+				getIntEnv(prefix + "_INITIAL", initialLimit),
+				getIntEnv(prefix + "_MIN", minLimit),
+				getIntEnv(prefix + "_MAX", maxLimit)));
+	}
+
+	@Override
+	public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
+		HttpServletRequest httpRequest = (HttpServletRequest) request;
+		String limitName = enabled ? classify(httpRequest) : null;
+		if (limitName == null) {
+			chain.doFilter(request, response);
+			return;
+		}
+		final AdaptiveConcurrencyLimit limit = limits.get(limitName);
+		if (!limit.tryAcquire()) {
+			logger.warn("rejecting {} {}, the {} concurrency limit is reached", httpRequest.getMethod(), httpRequest.getRequestURI(), limitName);
+			HttpServletResponse httpResponse = (HttpServletResponse) response;
+			httpResponse.setHeader("Access-Control-Allow-Origin", "*");
+			httpResponse.setHeader("Retry-After", retryAfterSec);
+			httpResponse.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "the delegate service is overloaded");
+			return;
+		}
+		final long start = System.nanoTime();
+		try {
+			chain.doFilter(request, response);
+		} finally {
+			// the latency of a suspended request is measured until it's resumed and completed
+			InboundRequests.whenDone(request, new Runnable() {
+				@Override
+				public void run() {
+					limit.release(System.nanoTime() - start);
+				}
+			});
+		}
+	}
+
+	// Returns the limit of the request, or null for requests which are not limited (preflight, monitoring APIs)
+	static String classify(HttpServletRequest request) {
+		String path = InboundRequests.getPath(request);
+		if (InboundRequests.isExempt(request, path)) {
+			return null;
+		}
+		if (InboundRequests.isExport(path)) {
+			return EXPORT;
+		}
+		return InboundRequests.isLocal(path) ? LOCAL : FEDERATED;
+	}
+
+	@Override
+	public void destroy() {
+	}
+
+	private static int getIntEnv(String name, int defaultValue) {
+		try {
+			return Integer.parseInt(System.getenv(name));
+		} catch (Exception ex) {
+			return defaultValue;
+		}
+	}
+}
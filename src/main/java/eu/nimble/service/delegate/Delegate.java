@@ -11,17 +11,33 @@ import org.apache.logging.log4j.Logger;
 
 import com.fasterxml.jackson.core.JsonParseException;
 import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 
 import eu.nimble.service.delegate.catalog.CatalogHandler;
+import eu.nimble.service.delegate.discovery.DiscoveryHandler;
+import eu.nimble.service.delegate.discovery.FallbackDiscoveryHandler;
+import eu.nimble.service.delegate.discovery.ServiceEndpoint;
+import eu.nimble.service.delegate.discovery.StaticDiscoveryHandler;
 import eu.nimble.service.delegate.eureka.EurekaHandler;
-import eu.nimble.service.delegate.eureka.ServiceEndpoint;
+import eu.nimble.service.delegate.http.BatchHandler;
+import eu.nimble.service.delegate.http.EndpointResult;
+import eu.nimble.service.delegate.http.FanOutResults;
 import eu.nimble.service.delegate.http.HttpHelper;
+import eu.nimble.service.delegate.http.InProcessCalls;
 import eu.nimble.service.delegate.identity.IdentityHandler;
 import eu.nimble.service.delegate.indexing.IndexingHandler;
 import eu.nimble.service.delegate.indexing.IndexingServiceResult;
+import eu.nimble.service.delegate.indexing.SearchPrefetcher;
+import eu.nimble.service.delegate.indexing.SearchResultCache;
+import eu.nimble.service.delegate.metrics.Metrics;
+import eu.nimble.service.delegate.resilience.PeerQuotas;
 
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.ws.rs.*;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.container.TimeoutHandler;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
@@ -29,11 +45,17 @@ import javax.ws.rs.core.MultivaluedHashMap;
 import javax.ws.rs.core.MultivaluedMap;
 import javax.ws.rs.core.Response.Status;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.UriInfo;
 import javax.servlet.ServletContextListener;
 import javax.servlet.ServletContextEvent;
 
 import java.net.URLEncoder;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
 import java.io.IOException;
 import java.net.URI;
 
@@ -60,6 +82,17 @@ public class Delegate implements ServletContextListener {
     private static String IDENTITY_FEDERATION_SERVICE_PORT = "IDENTITY_FEDERATION_SERVICE_PORT";
     private static String DELEGATE_FEDERATED_USERNAME = "DELEGATE_FEDERATED_USERNAME";
     private static String DELEGATE_FEDERATED_PASSWORD = "DELEGATE_FEDERATED_PASSWORD";
+    // discovery
+    private static String DELEGATE_DISCOVERY_MODE = "DELEGATE_DISCOVERY_MODE";
+    private static String DISCOVERY_MODE_STATIC = "static";
+    private static String DELEGATE_PEERS_FILE = "DELEGATE_PEERS_FILE";
+    private static String DELEGATE_PEERS_FILE_RELOAD_SEC = "DELEGATE_PEERS_FILE_RELOAD_SEC";
+    private static String NIMBLE_INSTANCE_NAME = "NIMBLE_INSTANCE_NAME";
+    private static String DELEGATE_SERVICE_BASE_URL = "DELEGATE_SERVICE_BASE_URL";
+    private static String DELEGATE_SERVICE_PORT = "DELEGATE_SERVICE_PORT";
+    // max time a federated request waits (suspended) for the delegates
+    private static String DELEGATE_ASYNC_TIMEOUT_SEC = "DELEGATE_ASYNC_TIMEOUT_SEC";
+    private static int _asyncTimeoutSec = 60;
 
     // headers
     // bearer token of the user who calls the REST service
@@ -70,25 +103,46 @@ public class Delegate implements ServletContextListener {
     private final String TOKEN_TO_BE_CHECKED_HEADER = "tokenToBeCheckedHeader";
     // federation id of the client calling the REST service
     private final String CLIENT_FEDERATION_ID_HEADER = "clientFederationIdHeader";
+    // tells if the results of a federated search were served from the cache (see SearchResultCache)
+    private static final String SEARCH_CACHE_HEADER = "searchCache";
 
-    private static EurekaHandler _eurekaHandler;
+    private static DiscoveryHandler _discoveryHandler;
     private static HttpHelper _httpHelper;
+    private static PeerQuotas _peerQuotas;
 
     private static IdentityHandler _identityLocalHandler;
     private static IdentityHandler _identityFederationHandler;
     private static IndexingHandler _indexingHandler;
     private static CatalogHandler _catalogHandler;
     private static BusinessProcessHandler _businessProcessHandler;
+    private static BatchHandler _batchHandler;
+    private static SearchResultCache _searchCache;
+    private static SearchPrefetcher _searchPrefetcher;
+    private static final ObjectMapper _searchResultMapper = new ObjectMapper();
+
+    // the servlet request of the resource call, its asynchronous context reports a client which disconnected
+    @Context
+    private HttpServletRequest _servletRequest;
 
     /***********************************   Servlet Context   ***********************************/
     public void contextInitialized(ServletContextEvent arg0)
     {
-        _eurekaHandler = new EurekaHandler();
-        if (!_eurekaHandler.initEureka()) {
-            logger.error("Failed to initialize Eureka client");
+        _discoveryHandler = createDiscoveryHandler();
+        if (!_discoveryHandler.init()) {
+            logger.error("Failed to initialize the delegates discovery");
             return;
         }
-        _httpHelper = new HttpHelper(_eurekaHandler);
+        _httpHelper = new HttpHelper(_discoveryHandler);
+        _peerQuotas = new PeerQuotas();
+        _batchHandler = new BatchHandler();
+        _searchCache = new SearchResultCache();
+        _searchPrefetcher = new SearchPrefetcher(_searchCache);
+        Metrics.register("peerQuotas", _peerQuotas);
+        Metrics.register("searchCache", _searchCache);
+        Metrics.register("searchPrefetch", _searchPrefetcher);
+        try {
+            _asyncTimeoutSec = Integer.parseInt(System.getenv(DELEGATE_ASYNC_TIMEOUT_SEC));
+        } catch (Exception ex) {}
 
         try {
             _frontendServiceUrl = System.getenv(FRONTEND_URL);
@@ -109,6 +163,7 @@ public class Delegate implements ServletContextListener {
             String password = System.getenv(DELEGATE_LOCAL_PASSWORD);
 
             _identityLocalHandler = new IdentityHandler(_httpHelper, identityBaseUrl, identityPort, identityPrefix, username, password);
+            _httpHelper.registerBackend("identity", identityBaseUrl, identityPort);
 
             // federation identity service
             identityBaseUrl = System.getenv(IDENTITY_FEDERATION_SERVICE_URL);
@@ -126,22 +181,57 @@ public class Delegate implements ServletContextListener {
             password = System.getenv(DELEGATE_FEDERATED_PASSWORD);
 
             _identityFederationHandler = new IdentityHandler(_httpHelper, identityBaseUrl, identityPort, identityPrefix, username, password);
+            _httpHelper.registerBackend("identity-federation", identityBaseUrl, identityPort);
         }
         catch (Exception ex) {
             logger.error("service env vars are not set as expected");
             return;
         }
 
-        _indexingHandler = new IndexingHandler(_httpHelper, _eurekaHandler);
+        _indexingHandler = new IndexingHandler(_httpHelper, _discoveryHandler);
         _catalogHandler = new CatalogHandler();
         _businessProcessHandler = new BusinessProcessHandler();
+        _httpHelper.registerBackend("indexing", _indexingHandler.BaseUrl, _indexingHandler.Port);
+        _httpHelper.registerBackend("catalog", _catalogHandler.BaseUrl, _catalogHandler.Port);
+        _httpHelper.registerBackend("business-process", _businessProcessHandler.BaseUrl, _businessProcessHandler.Port);
 
         logger.info("Delegate service has been initialized");
     }
 
+    // quotas of the other delegates on the local APIs, null until the service is initialized
+    static PeerQuotas getPeerQuotas() {
+        return _peerQuotas;
+    }
+
+    // eureka is used by default. with a peers file, the file is used either instead of eureka (static mode)
+    // or as a fallback peer list when eureka is not available
+    private static DiscoveryHandler createDiscoveryHandler() {
+        String peersFile = System.getenv(DELEGATE_PEERS_FILE);
+        if (peersFile == null || peersFile.isEmpty()) {
+            return new EurekaHandler();
+        }
+        int reloadIntervalSec = 5;
+        try {
+            reloadIntervalSec = Integer.parseInt(System.getenv(DELEGATE_PEERS_FILE_RELOAD_SEC));
+        } catch (Exception ex) {}
+        String port = System.getenv(DELEGATE_SERVICE_PORT);
+        String id = System.getenv(DELEGATE_SERVICE_BASE_URL) + (port == null || port.isEmpty() ? "" : ":" + port);
+        StaticDiscoveryHandler staticHandler = new StaticDiscoveryHandler(peersFile, reloadIntervalSec, id, System.getenv(NIMBLE_INSTANCE_NAME));
+        if (DISCOVERY_MODE_STATIC.equalsIgnoreCase(System.getenv(DELEGATE_DISCOVERY_MODE))) {
+            return staticHandler;
+        }
+        return new FallbackDiscoveryHandler(new EurekaHandler(), staticHandler);
+    }
+
     @Override
     public void contextDestroyed(ServletContextEvent arg0) {
-        _eurekaHandler.destroy();
+        if (_httpHelper != null) {
+            _httpHelper.destroy();
+        }
+        if (_batchHandler != null) {
+            _batchHandler.destroy();
+        }
+        _discoveryHandler.destroy();
         logger.info("Delegate service has been destroyed");
     }
 
@@ -161,7 +251,7 @@ public class Delegate implements ServletContextListener {
     @Produces({ MediaType.APPLICATION_JSON })
     // Return the Delegate services registered in Eureka server (Used for debug)
     public Response eureka() {
-        List<ServiceEndpoint> endpointList = _eurekaHandler.getEndpointsFromEureka();
+        List<ServiceEndpoint> endpointList = _discoveryHandler.getEndpoints();
         return Response.status(Response.Status.OK).entity(endpointList).build();
     }
 
@@ -169,7 +259,28 @@ public class Delegate implements ServletContextListener {
     @Path("/eureka/app-name")
     @Produces({ MediaType.APPLICATION_JSON })
     public Response eurekaAppName() {
-        return Response.status(Response.Status.OK).entity(_eurekaHandler.getAppName()).build();
+        return Response.status(Response.Status.OK).entity(_discoveryHandler.getAppName()).build();
+    }
+
+    @GET
+    @Path("/metrics")
+    @Produces({ MediaType.APPLICATION_JSON })
+    // Return the metrics of the delegate service (timeouts, circuit breakers etc.)
+    public Response metrics() {
+        return Response.status(Response.Status.OK).entity(Metrics.snapshot()).build();
+    }
+
+    // a REST call that should be used between delegates.
+    // the origin delegate sends a batch of calls to the local APIs, and the target delegate runs them concurrently and
+    // streams back their responses (see BatchHandler). the authorization of the batch is validated once for its calls
+    @POST
+    @Path(BatchHandler.PATH)
+    @Consumes(MediaType.APPLICATION_JSON)
+    public Response batchLocal(@Context HttpHeaders headers, @Context UriInfo uriInfo, String batch) {
+        if (!isFederationUser(headers)) {
+            return Response.status(Response.Status.UNAUTHORIZED).build();
+        }
+        return _batchHandler.execute(uriInfo.getBaseUri(), headers, batch);
     }
 
     /***************************************************   INDEXING SERVICE   ***************************************************/
@@ -178,11 +289,12 @@ public class Delegate implements ServletContextListener {
     @GET
     @Produces(MediaType.APPLICATION_JSON)
     @Path("/item/fields")
-    public Response federatedGetItemFields(@Context HttpHeaders headers, @QueryParam("fieldName") List<String> fieldName) throws JsonParseException, JsonMappingException, IOException {
+    public void federatedGetItemFields(@Context HttpHeaders headers, @QueryParam("fieldName") List<String> fieldName, @Suspended final AsyncResponse asyncResponse) throws JsonParseException, JsonMappingException, IOException {
         logger.info("called federated get item fields (indexing service call)");
         // validation check of the authorization header in the local identity service
         if (_identityLocalHandler.userExist(headers.getHeaderString(HttpHeaders.AUTHORIZATION)) == false) {
-            return Response.status(Response.Status.UNAUTHORIZED).build();
+            asyncResponse.resume(Response.status(Response.Status.UNAUTHORIZED).build());
+            return;
         }
         HashMap<String, List<String>> queryParams = new HashMap<String, List<String>>();
         if (fieldName != null && !fieldName.isEmpty()) {
@@ -192,13 +304,7 @@ public class Delegate implements ServletContextListener {
         MultivaluedMap<String, Object> headersToSend = new MultivaluedHashMap<String, Object>();
         headersToSend.add(HttpHeaders.AUTHORIZATION, _identityFederationHandler.getAccessToken());
 
-        HashMap<ServiceEndpoint, String> resultList = _httpHelper.sendGetRequestToAllDelegates(IndexingHandler.GET_ITEM_FIELDS_LOCAL_PATH, headersToSend, queryParams);
-        List<Map<String, Object>> aggregatedResults = _indexingHandler.mergeGetResponsesByFieldName(resultList);
-
-        return Response.status(Response.Status.OK)
-                .type(MediaType.APPLICATION_JSON)
-                .entity(aggregatedResults)
-                .build();
+        resumeWhenDone(asyncResponse, _httpHelper.sendGetRequestToAllDelegatesAsync(IndexingHandler.GET_ITEM_FIELDS_LOCAL_PATH, headersToSend, queryParams, false), fieldsMerger);
     }
 
     // a REST call that should be used between delegates.
@@ -206,7 +312,7 @@ public class Delegate implements ServletContextListener {
     @GET
     @Path("/item/fields/local")
     public Response getItemFields(@Context HttpHeaders headers, @QueryParam("fieldName") List<String> fieldName) throws IOException {
-        if (_identityFederationHandler.userExist(headers.getHeaderString(HttpHeaders.AUTHORIZATION)) == false) {
+        if (isFederationUser(headers) == false) {
             return Response.status(Response.Status.UNAUTHORIZED).build();
         }
         HashMap<String, List<String>> queryParams = new HashMap<String, List<String>>();
@@ -224,10 +330,11 @@ public class Delegate implements ServletContextListener {
     @GET
     @Produces(MediaType.APPLICATION_JSON)
     @Path("/party/fields")
-    public Response federatedGetPartyFields(@Context HttpHeaders headers, @QueryParam("fieldName") List<String> fieldName) throws JsonParseException, JsonMappingException, IOException {
+    public void federatedGetPartyFields(@Context HttpHeaders headers, @QueryParam("fieldName") List<String> fieldName, @Suspended final AsyncResponse asyncResponse) throws JsonParseException, JsonMappingException, IOException {
         logger.info("called federated get party fields (indexing service call)");
         if (_identityLocalHandler.userExist(headers.getHeaderString(HttpHeaders.AUTHORIZATION)) == false) {
-            return Response.status(Response.Status.UNAUTHORIZED).build();
+            asyncResponse.resume(Response.status(Response.Status.UNAUTHORIZED).build());
+            return;
         }
         HashMap<String, List<String>> queryParams = new HashMap<String, List<String>>();
         if (fieldName != null && !fieldName.isEmpty()) {
@@ -237,13 +344,7 @@ public class Delegate implements ServletContextListener {
         MultivaluedMap<String, Object> headersToSend = new MultivaluedHashMap<String, Object>();
         headersToSend.add(HttpHeaders.AUTHORIZATION, _identityFederationHandler.getAccessToken());
 
-        HashMap<ServiceEndpoint, String> resultList = _httpHelper.sendGetRequestToAllDelegates(IndexingHandler.GET_PARTY_FIELDS_LOCAL_PATH, headersToSend, queryParams);
-        List<Map<String, Object>> aggregatedResults = _indexingHandler.mergeGetResponsesByFieldName(resultList);
-
-        return Response.status(Response.Status.OK)
-                .type(MediaType.APPLICATION_JSON)
-                .entity(aggregatedResults)
-                .build();
+        resumeWhenDone(asyncResponse, _httpHelper.sendGetRequestToAllDelegatesAsync(IndexingHandler.GET_PARTY_FIELDS_LOCAL_PATH, headersToSend, queryParams, false), fieldsMerger);
     }
 
     // a REST call that should be used between delegates.
@@ -251,7 +352,7 @@ public class Delegate implements ServletContextListener {
     @GET
     @Path("/party/fields/local")
     public Response getPartyFields(@Context HttpHeaders headers, @QueryParam("fieldName") List<String> fieldName) throws IOException {
-        if (_identityFederationHandler.userExist(headers.getHeaderString(HttpHeaders.AUTHORIZATION)) == false) {
+        if (isFederationUser(headers) == false) {
             return Response.status(Response.Status.UNAUTHORIZED).build();
         }
         HashMap<String, List<String>> queryParams = new HashMap<String, List<String>>();
@@ -270,28 +371,54 @@ public class Delegate implements ServletContextListener {
     @Produces(MediaType.APPLICATION_JSON)
     @Consumes(MediaType.APPLICATION_JSON)
     @Path("/item/search")
-    public Response federatedPostItemSearch(@Context HttpHeaders headers, Map<String, Object> body) throws JsonParseException, JsonMappingException, IOException {
+    public void federatedPostItemSearch(@Context HttpHeaders headers, Map<String, Object> body, @Suspended final AsyncResponse asyncResponse) throws JsonParseException, JsonMappingException, IOException {
         logger.info("called federated post item search (indexing service call)");
         if (_identityLocalHandler.userExist(headers.getHeaderString(HttpHeaders.AUTHORIZATION)) == false) {
-            return Response.status(Response.Status.UNAUTHORIZED).build();
+            asyncResponse.resume(Response.status(Response.Status.UNAUTHORIZED).build());
+            return;
         }
-        //initialize result from the request body
-        IndexingServiceResult indexingServiceResult = new IndexingServiceResult(Integer.parseInt(body.get("rows").toString()),
-                Integer.parseInt(body.get("start").toString()));
-
-        MultivaluedMap<String, Object> headersToSend = new MultivaluedHashMap<String, Object>();
+        final MultivaluedMap<String, Object> headersToSend = new MultivaluedHashMap<String, Object>();
         headersToSend.add(HttpHeaders.AUTHORIZATION, _identityFederationHandler.getAccessToken());
 
-        HashMap<ServiceEndpoint, String> resultList = _indexingHandler.getPostItemSearchAggregatedResults(headersToSend, body);
-
-        for (ServiceEndpoint endpoint : resultList.keySet()) {
-            String results = resultList.get(endpoint);
-            indexingServiceResult.addEndpointResponse(endpoint, results, endpoint.getAppName().equals(_eurekaHandler.getAppName()));
+        // a search which is paged with a cursor keeps its state in the cursor, its pages aren't cached
+        if (body.get(IndexingHandler.SEARCH_CURSOR_FIELD) != null) {
+            resumeWhenDone(asyncResponse, _indexingHandler.getItemSearchPage(headersToSend, body), new ResultMerger<Map<String, Object>>() {
+                @Override
+                public Response merge(Map<String, Object> page) throws IOException {
+                    if (page == null) {
+                        return Response.status(Response.Status.GONE).type(MediaType.TEXT_PLAIN).entity("the search cursor expired").build();
+                    }
+                    return Response.status(Response.Status.OK).type(MediaType.APPLICATION_JSON).entity(_searchResultMapper.writeValueAsString(page)).build();
+                }
+            });
+            return;
         }
-        return Response.status(Response.Status.OK)
-                .type(MediaType.APPLICATION_JSON)
-                .entity(indexingServiceResult.getFinalResult())
-                .build();
+        cachedSearch(asyncResponse, "item", body, itemSearch(headersToSend, body));
+    }
+
+    private FederatedSearch itemSearch(final MultivaluedMap<String, Object> headersToSend, Map<String, Object> body) {
+        final int rows = Integer.parseInt(body.get("rows").toString());
+        final int start = Integer.parseInt(body.get("start").toString());
+
+        final Map<String, Object> searchBody = new LinkedHashMap<String, Object>(body);
+        return new FederatedSearch() {
+            @Override
+            public CompletableFuture<HashMap<ServiceEndpoint, EndpointResult>> send() {
+                // the search sets the rows of the body it's given, and it may be sent again to refresh the cached results
+                return _indexingHandler.getPostItemSearchAggregatedResults(headersToSend, new LinkedHashMap<String, Object>(searchBody));
+            }
+
+            @Override
+            public IndexingServiceResult newResult() {
+                //initialize result from the request body
+                return new IndexingServiceResult(rows, start);
+            }
+
+            @Override
+            public FederatedSearch nextPage(Map<String, Object> nextBody) {
+                return itemSearch(headersToSend, nextBody);
+            }
+        };
     }
 
     // a REST call that should be used between delegates.
@@ -300,7 +427,7 @@ public class Delegate implements ServletContextListener {
     @Consumes(MediaType.APPLICATION_JSON)
     @Path("/item/search/local")
     public Response postItemSearch(@Context HttpHeaders headers, Map<String, Object> body) throws IOException {
-        if (_identityFederationHandler.userExist(headers.getHeaderString(HttpHeaders.AUTHORIZATION)) == false) {
+        if (isFederationUser(headers) == false) {
             return Response.status(Response.Status.UNAUTHORIZED).build();
         }
         MultivaluedMap<String, Object> headersToSend = new MultivaluedHashMap<String, Object>();
@@ -324,36 +451,41 @@ public class Delegate implements ServletContextListener {
     @Produces(MediaType.APPLICATION_JSON)
     @Consumes(MediaType.APPLICATION_JSON)
     @Path("/party/search")
-    public Response federatedPostPartySearch(@Context HttpHeaders headers, Map<String, Object> body) throws JsonParseException, JsonMappingException, IOException {
+    public void federatedPostPartySearch(@Context HttpHeaders headers, Map<String, Object> body, @Suspended final AsyncResponse asyncResponse) throws JsonParseException, JsonMappingException, IOException {
         logger.info("called federated post party search (indexing service call)");
         if (_identityLocalHandler.userExist(headers.getHeaderString(HttpHeaders.AUTHORIZATION)) == false) {
-            return Response.status(Response.Status.UNAUTHORIZED).build();
-        }
-        List<ServiceEndpoint> endpointList = _eurekaHandler.getEndpointsFromEureka();
-        //initialize result from the request body
-        IndexingServiceResult indexingServiceResult;
-        if (body.get("start") != null) {
-            indexingServiceResult = new IndexingServiceResult(Integer.parseInt(body.get("rows").toString()),
-                    Integer.parseInt(body.get("start").toString()));
-        }
-        else {
-            indexingServiceResult = new IndexingServiceResult(Integer.parseInt(body.get("rows").toString()), 0);
+            asyncResponse.resume(Response.status(Response.Status.UNAUTHORIZED).build());
+            return;
         }
-
-        MultivaluedMap<String, Object> headersToSend = new MultivaluedHashMap<String, Object>();
+        final MultivaluedMap<String, Object> headersToSend = new MultivaluedHashMap<String, Object>();
         headersToSend.add(HttpHeaders.AUTHORIZATION, _identityFederationHandler.getAccessToken());
 
-        HashMap<ServiceEndpoint, String> resultList = _httpHelper.sendPostRequestToAllDelegates(endpointList, IndexingHandler.POST_PARTY_SEARCH_LOCAL_PATH, headersToSend, body);
+        cachedSearch(asyncResponse, "party", body, partySearch(headersToSend, body));
+    }
 
-        for (ServiceEndpoint endpoint : resultList.keySet()) {
-            String results = resultList.get(endpoint);
-            indexingServiceResult.addEndpointResponse(endpoint, results, endpoint.getAppName().equals(_eurekaHandler.getAppName()));
-        }
-        return Response.status(Response.Status.OK)
-                .type(MediaType.APPLICATION_JSON)
-                .entity(indexingServiceResult.getFinalResult())
-                .build();
+    private FederatedSearch partySearch(final MultivaluedMap<String, Object> headersToSend, Map<String, Object> body) {
+        final int rows = Integer.parseInt(body.get("rows").toString());
+        final int start = body.get("start") != null ? Integer.parseInt(body.get("start").toString()) : 0;
+
+        final Map<String, Object> searchBody = body;
+        return new FederatedSearch() {
+            @Override
+            public CompletableFuture<HashMap<ServiceEndpoint, EndpointResult>> send() {
+                List<ServiceEndpoint> endpointList = _httpHelper.selectDelegates();
+                return _httpHelper.sendPostRequestToAllDelegatesAsync(endpointList, IndexingHandler.POST_PARTY_SEARCH_LOCAL_PATH, headersToSend, searchBody, true);
+            }
 
+            @Override
+            public IndexingServiceResult newResult() {
+                //initialize result from the request body
+                return new IndexingServiceResult(rows, start);
+            }
+
+            @Override
+            public FederatedSearch nextPage(Map<String, Object> nextBody) {
+                return partySearch(headersToSend, nextBody);
+            }
+        };
     }
 
     // a REST call that should be used between delegates.
@@ -362,7 +494,7 @@ public class Delegate implements ServletContextListener {
     @Consumes(MediaType.APPLICATION_JSON)
     @Path("/party/search/local")
     public Response postPartySearch(@Context HttpHeaders headers, Map<String, Object> body) throws IOException {
-        if (_identityFederationHandler.userExist(headers.getHeaderString(HttpHeaders.AUTHORIZATION)) == false) {
+        if (isFederationUser(headers) == false) {
             return Response.status(Response.Status.UNAUTHORIZED).build();
         }
 
@@ -385,6 +517,177 @@ public class Delegate implements ServletContextListener {
     }
     /***********************************   indexing-service/party/search - END   ***********************************/
 
+    /***********************************   indexing-service - helper function   ***********************************/
+    private final ResultMerger<HashMap<ServiceEndpoint, EndpointResult>> fieldsMerger = new ResultMerger<HashMap<ServiceEndpoint, EndpointResult>>() {
+        @Override
+        public Response merge(HashMap<ServiceEndpoint, EndpointResult> resultList) {
+            List<Map<String, Object>> aggregatedResults = _indexingHandler.mergeGetResponsesByFieldName(resultList);
+
+            return Response.status(Response.Status.OK)
+                    .type(MediaType.APPLICATION_JSON)
+                    .entity(aggregatedResults)
+                    .build();
+        }
+    };
+
+    // a federated search, which is sent again to refresh its cached results
+    private interface FederatedSearch {
+        CompletableFuture<HashMap<ServiceEndpoint, EndpointResult>> send();
+
+        IndexingServiceResult newResult();
+
+        // the same search for another page, to prefetch it
+        FederatedSearch nextPage(Map<String, Object> nextBody);
+    }
+
+    // Serves a federated search from the search results cache (see SearchResultCache). on a miss the search is sent and
+    // its merged results are cached, a stale result is served while the search is sent again in the background, and an
+    // older result is served instead of a search which failed or in which some of the delegates failed (see FanOutResults).
+    // a search which was sent to fewer delegates (e.g. since a delegate left the registry) replaces the cached result.
+    // a page of a search which is being prefetched waits for the prefetch, and the next page may be prefetched (see SearchPrefetcher)
+    private void cachedSearch(AsyncResponse asyncResponse, String searchType, Map<String, Object> body, final FederatedSearch search) {
+        final String key = _searchCache.isEnabled() ? _searchCache.fingerprint(searchType, body) : null;
+        final SearchResultCache.Lookup cached = _searchCache.get(key);
+        _searchPrefetcher.pageServed(searchType, key, body);
+        if (cached != null && cached.isFresh()) {
+            asyncResponse.resume(searchResponse(cached.getJson(), "hit"));
+            prefetchNextPage(searchType, body, search, cached.getJson());
+            return;
+        }
+        if (cached != null && cached.isRevalidated()) {
+            asyncResponse.resume(searchResponse(cached.getJson(), "stale"));
+            prefetchNextPage(searchType, body, search, cached.getJson());
+            if (_searchCache.startRefresh(key)) {
+                final IndexingServiceResult indexingServiceResult = search.newResult();
+                search.send().whenComplete(new BiConsumer<HashMap<ServiceEndpoint, EndpointResult>, Throwable>() {
+                    @Override
+                    public void accept(HashMap<ServiceEndpoint, EndpointResult> resultList, Throwable failure) {
+                        try {
+                            if (failure == null && FanOutResults.getFailedDelegates(resultList).isEmpty()) {
+                                _searchCache.put(key, mergeSearchResults(indexingServiceResult, resultList));
+                            }
+                        } catch (Exception e) {
+                            logger.error("failed to refresh the cached search results", e);
+                        } finally {
+                            _searchCache.refreshDone(key);
+                        }
+                    }
+                });
+            }
+            return;
+        }
+        final String searchTypeToPrefetch = searchType;
+        final Map<String, Object> bodyToPrefetch = body;
+        CompletableFuture<byte[]> prefetch = cached == null ? _searchPrefetcher.<byte[]>joinPrefetch(key) : null;
+        if (prefetch != null) {
+            resumeWhenDone(asyncResponse, prefetch, new ResultMerger<byte[]>() {
+                @Override
+                public Response merge(byte[] json) {
+                    prefetchNextPage(searchTypeToPrefetch, bodyToPrefetch, search, json);
+                    return searchResponse(json, "prefetched");
+                }
+            });
+            return;
+        }
+        final IndexingServiceResult indexingServiceResult = search.newResult();
+        resumeWhenDone(asyncResponse, search.send(), new ResultMerger<HashMap<ServiceEndpoint, EndpointResult>>() {
+            @Override
+            public Response merge(HashMap<ServiceEndpoint, EndpointResult> resultList) throws IOException {
+                Set<String> failedDelegates = FanOutResults.getFailedDelegates(resultList);
+                if (cached != null && !failedDelegates.isEmpty()) {
+                    logger.warn("the delegates {} failed in the search, serving the cached results", failedDelegates);
+                    _searchCache.degradedHit();
+                    return searchResponse(cached.getJson(), "degraded");
+                }
+                byte[] json = mergeSearchResults(indexingServiceResult, resultList);
+                _searchCache.put(key, json);
+                prefetchNextPage(searchTypeToPrefetch, bodyToPrefetch, search, json);
+                return searchResponse(json, "miss");
+            }
+        }, new FailureFallback() {
+            @Override
+            public Response fallback() {
+                if (cached == null) {
+                    return null;
+                }
+                logger.warn("serving the cached results of the failed search");
+                _searchCache.degradedHit();
+                return searchResponse(cached.getJson(), "degraded");
+            }
+        });
+    }
+
+    // Prefetches the next page of the search into the search results cache, unless it's the last page or it's cached
+    private void prefetchNextPage(String searchType, Map<String, Object> body, FederatedSearch search, byte[] json) {
+        if (!_searchPrefetcher.isEnabled()) {
+            return;
+        }
+        final Map<String, Object> nextBody = SearchPrefetcher.nextPage(body);
+        final String key = _searchCache.fingerprint(searchType, nextBody);
+        try {
+            int rows = Integer.parseInt(nextBody.get("rows").toString());
+            int nextPage = Integer.parseInt(nextBody.get("start").toString());
+            if (key == null || rows <= 0 || (long) nextPage * rows >= _searchResultMapper.readTree(json).path("totalElements").asLong()
+                    || _searchCache.isFresh(key) || !_searchPrefetcher.tryStart(searchType, body, key, _httpHelper.getDelegatesLoad())) {
+                return;
+            }
+        } catch (Exception e) {
+            logger.warn("not prefetching the next page of the search: " + e.getMessage());
+            return;
+        }
+        FederatedSearch nextSearch = search.nextPage(nextBody);
+        final IndexingServiceResult indexingServiceResult = nextSearch.newResult();
+        CompletableFuture<byte[]> prefetch;
+        try {
+            // the page is merged and cached once, a search which waits for the prefetch gets the merged page
+            prefetch = nextSearch.send().thenApply(new Function<HashMap<ServiceEndpoint, EndpointResult>, byte[]>() {
+                @Override
+                public byte[] apply(HashMap<ServiceEndpoint, EndpointResult> resultList) {
+                    try {
+                        byte[] nextJson = mergeSearchResults(indexingServiceResult, resultList);
+                        _searchCache.put(key, nextJson);
+                        return nextJson;
+                    } catch (IOException e) {
+                        throw new CompletionException(e);
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            _searchPrefetcher.prefetchDone(key, false);
+            logger.warn("failed to prefetch the next page of the search: " + e.getMessage());
+            return;
+        }
+        _searchPrefetcher.prefetchStarted(key, prefetch);
+        prefetch.whenComplete(new BiConsumer<byte[], Throwable>() {
+            @Override
+            public void accept(byte[] nextJson, Throwable failure) {
+                if (failure != null) {
+                    logger.warn("failed to prefetch the next page of the search: " + failure.getMessage());
+                }
+                _searchPrefetcher.prefetchDone(key, failure == null);
+            }
+        });
+    }
+
+    private byte[] mergeSearchResults(IndexingServiceResult indexingServiceResult, HashMap<ServiceEndpoint, EndpointResult> resultList) throws IOException {
+        for (EndpointResult result : resultList.values()) {
+            indexingServiceResult.addEndpointResponse(result, result.getEndpoint().getAppName().equals(_discoveryHandler.getAppName()));
+        }
+        return _searchResultMapper.writeValueAsBytes(indexingServiceResult.getFinalResult());
+    }
+
+    // the searchCache header tells if the results were cached (hit, stale or degraded) or not (miss)
+    private static Response searchResponse(byte[] json, String cacheStatus) {
+        Response.ResponseBuilder response = Response.status(Response.Status.OK)
+                .type(MediaType.APPLICATION_JSON)
+                .entity(json);
+        if (_searchCache.isEnabled()) {
+            response.header(SEARCH_CACHE_HEADER, cacheStatus).header("Access-Control-Expose-Headers", SEARCH_CACHE_HEADER);
+        }
+        return response.build();
+    }
+    /***********************************   indexing-service - helper function - END   ***********************************/
+
     /************************************************   INDEXING SERVICE - END   ************************************************/
 
     /***************************************************   CATALOG SERVICE   ***************************************************/
@@ -393,9 +696,9 @@ public class Delegate implements ServletContextListener {
     @GET
     @Produces(MediaType.APPLICATION_JSON)
     @Path("/catalogue/{standard}/{uuid}")
-    public Response getCatalog(@PathParam("standard") String standard, @PathParam("uuid") String uuid, @Context HttpHeaders headers) throws JsonParseException, JsonMappingException, IOException {
+    public void getCatalog(@PathParam("standard") String standard, @PathParam("uuid") String uuid, @Context HttpHeaders headers, @Suspended final AsyncResponse asyncResponse) throws JsonParseException, JsonMappingException, IOException {
         logger.info("called federated get catalog (catalog service call)");
-        return catalogServiceCallWrapper(headers.getHeaderString(HttpHeaders.AUTHORIZATION), String.format(CatalogHandler.GET_CATALOG_LOCAL_PATH, standard, uuid), null);
+        catalogServiceCallWrapper(asyncResponse, headers.getHeaderString(HttpHeaders.AUTHORIZATION), String.format(CatalogHandler.GET_CATALOG_LOCAL_PATH, standard, uuid), null);
     }
 
     // a REST call that should be used between delegates.
@@ -403,7 +706,7 @@ public class Delegate implements ServletContextListener {
     @GET
     @Path("/catalogue/{standard}/{uuid}/local")
     public Response getCatalogLocal(@PathParam("standard") String standard, @PathParam("uuid") String uuid, @Context HttpHeaders headers) throws JsonParseException, JsonMappingException, IOException {
-        if (_identityFederationHandler.userExist(headers.getHeaderString(HttpHeaders.AUTHORIZATION)) == false) {
+        if (isFederationUser(headers) == false) {
             return Response.status(Response.Status.UNAUTHORIZED).build();
         }
         URI uri = _httpHelper.buildUri(_catalogHandler.BaseUrl, _catalogHandler.Port, String.format(_catalogHandler.PathPrefix+CatalogHandler.GET_CATALOG_PATH, standard, uuid), null);
@@ -419,9 +722,9 @@ public class Delegate implements ServletContextListener {
     @GET
     @Produces(MediaType.APPLICATION_JSON)
     @Path("/catalogueline/{hjid}")
-    public Response getCatalogLineByHjid(@PathParam("hjid") long hjid, @Context HttpHeaders headers) throws JsonParseException, JsonMappingException, IOException {
+    public void getCatalogLineByHjid(@PathParam("hjid") long hjid, @Context HttpHeaders headers, @Suspended final AsyncResponse asyncResponse) throws JsonParseException, JsonMappingException, IOException {
         logger.info("called federated get catalog line by hjid (catalog service call)");
-        return catalogServiceCallWrapper(headers.getHeaderString(HttpHeaders.AUTHORIZATION), String.format(CatalogHandler.GET_CATALOG_LINE_BY_HJID_LOCAL_PATH, hjid), null);
+        catalogServiceCallWrapper(asyncResponse, headers.getHeaderString(HttpHeaders.AUTHORIZATION), String.format(CatalogHandler.GET_CATALOG_LINE_BY_HJID_LOCAL_PATH, hjid), null);
     }
 
     // a REST call that should be used between delegates.
@@ -429,7 +732,7 @@ public class Delegate implements ServletContextListener {
     @GET
     @Path("/catalogueline/{hjid}/local")
     public Response getCatalogLineByHjidLocal(@PathParam("hjid") long hjid, @Context HttpHeaders headers) throws JsonParseException, JsonMappingException, IOException {
-        if (_identityFederationHandler.userExist(headers.getHeaderString(HttpHeaders.AUTHORIZATION)) == false) {
+        if (isFederationUser(headers) == false) {
             return Response.status(Response.Status.UNAUTHORIZED).build();
         }
         URI uri = _httpHelper.buildUri(_catalogHandler.BaseUrl, _catalogHandler.Port, String.format(_catalogHandler.PathPrefix+CatalogHandler.GET_CATALOG_LINE_BY_HJID_PATH, hjid), null);
@@ -445,11 +748,12 @@ public class Delegate implements ServletContextListener {
     @GET
     @Produces(MediaType.APPLICATION_JSON)
     @Path("/cataloguelines")
-    public Response getCatalogueLinesByHjids(@QueryParam("ids") List<String> hjid,
+    public void getCatalogueLinesByHjids(@QueryParam("ids") List<String> hjid,
                                              @QueryParam("limit") Integer limit,
                                              @QueryParam("offset") Integer offset,
                                              @QueryParam("sortOption") String sortOption,
-                                             @Context HttpHeaders headers) throws JsonParseException, JsonMappingException, IOException {
+                                             @Context HttpHeaders headers,
+                                             @Suspended final AsyncResponse asyncResponse) throws JsonParseException, JsonMappingException, IOException {
         logger.info("called federated get catalog line by hjid (catalog service call)");
         HashMap<String, List<String>> queryParams = new HashMap<String, List<String>>();
         if (hjid != null) {
@@ -464,7 +768,7 @@ public class Delegate implements ServletContextListener {
         if (sortOption != null) {
             queryParams.put("sortOption", Arrays.asList(sortOption));
         }
-        return catalogServiceCallWrapper(headers.getHeaderString(HttpHeaders.AUTHORIZATION), CatalogHandler.GET_CATALOG_LINES_BY_HJIDS_LOCAL_PATH, queryParams,MergeOption.ListResults);
+        catalogServiceCallWrapper(asyncResponse, headers.getHeaderString(HttpHeaders.AUTHORIZATION), CatalogHandler.GET_CATALOG_LINES_BY_HJIDS_LOCAL_PATH, queryParams,MergeOption.ListResults);
     }
 
     // a REST call that should be used between delegates.
@@ -476,7 +780,7 @@ public class Delegate implements ServletContextListener {
                                                   @QueryParam("offset") Integer offset,
                                                   @QueryParam("sortOption") String sortOption,
                                                   @Context HttpHeaders headers) throws JsonParseException, JsonMappingException, IOException {
-        if (_identityFederationHandler.userExist(headers.getHeaderString(HttpHeaders.AUTHORIZATION)) == false) {
+        if (isFederationUser(headers) == false) {
             return Response.status(Response.Status.UNAUTHORIZED).build();
         }
         HashMap<String, String> queryParams = new HashMap<String, String>();
@@ -506,14 +810,15 @@ public class Delegate implements ServletContextListener {
     @GET
     @Produces(MediaType.APPLICATION_JSON)
     @Path("/catalogue/contract")
-    public Response getContractForCatalogue(@QueryParam("catalogueUuids") List<String> catalogueUuids,
-                                             @Context HttpHeaders headers) throws JsonParseException, JsonMappingException, IOException {
+    public void getContractForCatalogue(@QueryParam("catalogueUuids") List<String> catalogueUuids,
+                                             @Context HttpHeaders headers,
+                                             @Suspended final AsyncResponse asyncResponse) throws JsonParseException, JsonMappingException, IOException {
         logger.info("called federated get contract for catalogue (catalog service call)");
         HashMap<String, List<String>> queryParams = new HashMap<String, List<String>>();
         if (catalogueUuids != null) {
             queryParams.put("catalogueUuids", Arrays.asList(catalogueUuids.toString()));
         }
-        return catalogServiceCallWrapper(headers.getHeaderString(HttpHeaders.AUTHORIZATION), CatalogHandler.GET_CONTRACT_FOR_CATALOGUE_LOCAL_PATH, queryParams,MergeOption.MapResults);
+        catalogServiceCallWrapper(asyncResponse, headers.getHeaderString(HttpHeaders.AUTHORIZATION), CatalogHandler.GET_CONTRACT_FOR_CATALOGUE_LOCAL_PATH, queryParams,MergeOption.MapResults);
     }
 
     // a REST call that should be used between delegates.
@@ -522,7 +827,7 @@ public class Delegate implements ServletContextListener {
     @Path("/catalogue/contract/local")
     public Response getContractForCatalogueLocal(@QueryParam("catalogueUuids") List<String> catalogueUuids,
                                                   @Context HttpHeaders headers) throws JsonParseException, JsonMappingException, IOException {
-        if (_identityFederationHandler.userExist(headers.getHeaderString(HttpHeaders.AUTHORIZATION)) == false) {
+        if (isFederationUser(headers) == false) {
             return Response.status(Response.Status.UNAUTHORIZED).build();
         }
         HashMap<String, String> queryParams = new HashMap<String, String>();
@@ -542,9 +847,9 @@ public class Delegate implements ServletContextListener {
     @GET
     @Produces(MediaType.APPLICATION_JSON)
     @Path("/catalogue/{catalogueUuid}/catalogueline/{lineId}")
-    public Response getCatalogLine(@PathParam("catalogueUuid") String catalogueUuid, @PathParam("lineId") String lineId, @Context HttpHeaders headers) throws JsonParseException, JsonMappingException, IOException {
+    public void getCatalogLine(@PathParam("catalogueUuid") String catalogueUuid, @PathParam("lineId") String lineId, @Context HttpHeaders headers, @Suspended final AsyncResponse asyncResponse) throws JsonParseException, JsonMappingException, IOException {
         logger.info("called federated get catalog line (catalog service call)");
-        return catalogServiceCallWrapper(headers.getHeaderString(HttpHeaders.AUTHORIZATION), String.format(CatalogHandler.GET_CATALOG_LINE_LOCAL_PATH, catalogueUuid, lineId), null);
+        catalogServiceCallWrapper(asyncResponse, headers.getHeaderString(HttpHeaders.AUTHORIZATION), String.format(CatalogHandler.GET_CATALOG_LINE_LOCAL_PATH, catalogueUuid, lineId), null);
     }
 
     // a REST call that should be used between delegates.
@@ -552,7 +857,7 @@ public class Delegate implements ServletContextListener {
     @GET
     @Path("/catalogue/{catalogueUuid}/catalogueline/{lineId}/local")
     public Response getCatalogLineLocal(@PathParam("catalogueUuid") String catalogueUuid, @PathParam("lineId") String lineId, @Context HttpHeaders headers) throws JsonParseException, JsonMappingException, IOException {
-        if (_identityFederationHandler.userExist(headers.getHeaderString(HttpHeaders.AUTHORIZATION)) == false) {
+        if (isFederationUser(headers) == false) {
             return Response.status(Response.Status.UNAUTHORIZED).build();
         }
         URI uri = _httpHelper.buildUri(_catalogHandler.BaseUrl, _catalogHandler.Port, String.format(_catalogHandler.PathPrefix+CatalogHandler.GET_CATALOG_LINE_PATH, catalogueUuid, lineId), null);
@@ -568,7 +873,7 @@ public class Delegate implements ServletContextListener {
     @GET
     @Produces(MediaType.APPLICATION_JSON)
     @Path("/binary-content")
-    public Response getBinaryContent(@Context HttpHeaders headers, @QueryParam("uri") String uri) throws JsonParseException, JsonMappingException, IOException {
+    public void getBinaryContent(@Context HttpHeaders headers, @QueryParam("uri") String uri, @Suspended final AsyncResponse asyncResponse) throws JsonParseException, JsonMappingException, IOException {
         logger.info("called federated get binary content (catalog service call)");
         HashMap<String, List<String>> queryParams = new HashMap<String, List<String>>();
         if (uri != null) {
@@ -576,7 +881,7 @@ public class Delegate implements ServletContextListener {
             list.add(uri);
             queryParams.put("uri", list);
         }
-        return catalogServiceCallWrapper(headers.getHeaderString(HttpHeaders.AUTHORIZATION), CatalogHandler.GET_BINARY_CONTENT_LOCAL_PATH, queryParams);
+        catalogServiceCallWrapper(asyncResponse, headers.getHeaderString(HttpHeaders.AUTHORIZATION), CatalogHandler.GET_BINARY_CONTENT_LOCAL_PATH, queryParams);
     }
 
     // a REST call that should be used between delegates.
@@ -584,7 +889,7 @@ public class Delegate implements ServletContextListener {
     @GET
     @Path("/binary-content/local")
     public Response getBinaryContentLocal(@Context HttpHeaders headers, @QueryParam("uri") String uri) throws JsonParseException, JsonMappingException, IOException {
-        if (_identityFederationHandler.userExist(headers.getHeaderString(HttpHeaders.AUTHORIZATION)) == false) {
+        if (isFederationUser(headers) == false) {
             return Response.status(Response.Status.UNAUTHORIZED).build();
         }
         HashMap<String, List<String>> queryParams = new HashMap<String, List<String>>();
@@ -606,13 +911,13 @@ public class Delegate implements ServletContextListener {
     @GET
     @Produces(MediaType.APPLICATION_JSON)
     @Path("/catalogue/{catalogueUuid}/cataloguelines")
-    public Response getCatalogLines(@PathParam("catalogueUuid") String catalogueUuid, @Context HttpHeaders headers, @QueryParam("lineIds") List<String> lineIds) throws JsonParseException, JsonMappingException, IOException {
+    public void getCatalogLines(@PathParam("catalogueUuid") String catalogueUuid, @Context HttpHeaders headers, @QueryParam("lineIds") List<String> lineIds, @Suspended final AsyncResponse asyncResponse) throws JsonParseException, JsonMappingException, IOException {
         logger.info("called federated get catalog lines (catalog service call)");
         HashMap<String, List<String>> queryParams = new HashMap<String, List<String>>();
         if (lineIds != null && !lineIds.isEmpty()) {
             queryParams.put("lineIds", lineIds);
         }
-        return catalogServiceCallWrapper(headers.getHeaderString(HttpHeaders.AUTHORIZATION), String.format(CatalogHandler.GET_CATALOG_LINES_LOCAL_PATH, catalogueUuid), queryParams);
+        catalogServiceCallWrapper(asyncResponse, headers.getHeaderString(HttpHeaders.AUTHORIZATION), String.format(CatalogHandler.GET_CATALOG_LINES_LOCAL_PATH, catalogueUuid), queryParams);
     }
 
     // a REST call that should be used between delegates.
@@ -620,7 +925,7 @@ public class Delegate implements ServletContextListener {
     @GET
     @Path("/catalogue/{catalogueUuid}/cataloguelines/local")
     public Response getCatalogLinesLocal(@PathParam("catalogueUuid") String catalogueUuid, @Context HttpHeaders headers, @QueryParam("lineIds") List<String> lineIds) throws JsonParseException, JsonMappingException, IOException {
-        if (_identityFederationHandler.userExist(headers.getHeaderString(HttpHeaders.AUTHORIZATION)) == false) {
+        if (isFederationUser(headers) == false) {
             return Response.status(Response.Status.UNAUTHORIZED).build();
         }
         HashMap<String, List<String>> queryParams = new HashMap<String, List<String>>();
@@ -650,7 +955,7 @@ public class Delegate implements ServletContextListener {
             queryParams.put("catalogueUuids", getStringQueryParam(catalogueUuids));
         }
 
-        ServiceEndpoint nimbleInfo = _eurekaHandler.getEndpointByAppName(delegateId);
+        ServiceEndpoint nimbleInfo = _httpHelper.selectDelegate(delegateId);
         URI targetUri = _httpHelper.buildUriWithStringParams(nimbleInfo.getHostName(), nimbleInfo.getPort(), CatalogHandler.GET_MULTIPLE_CATALOG_LINES_LOCAL_PATH, queryParams);
 
         MultivaluedMap<String, Object> headersToSend = new MultivaluedHashMap<String, Object>();
@@ -664,7 +969,7 @@ public class Delegate implements ServletContextListener {
     @GET
     @Path("/catalogue/cataloguelines/local")
     public Response getCatalogueLinesLocal(@QueryParam("catalogueUuids") List<String> catalogueUuids, @Context HttpHeaders headers, @QueryParam("lineIds") List<String> lineIds) throws JsonParseException, JsonMappingException, IOException {
-        if (_identityFederationHandler.userExist(headers.getHeaderString(HttpHeaders.AUTHORIZATION)) == false) {
+        if (isFederationUser(headers) == false) {
             return Response.status(Response.Status.UNAUTHORIZED).build();
         }
         HashMap<String, String> queryParams = new HashMap<String, String>();
@@ -687,11 +992,12 @@ public class Delegate implements ServletContextListener {
     @GET
     @Produces(MediaType.APPLICATION_JSON)
     @Path("/binary-contents")
-    public Response getBinaryContents(@Context HttpHeaders headers, @QueryParam("uris") List<String> uris) throws IOException {
+    public void getBinaryContents(@Context HttpHeaders headers, @QueryParam("uris") List<String> uris, @Suspended final AsyncResponse asyncResponse) throws IOException {
         logger.info("called federated get binary contents (catalog service call)");
         // validation check of the authorization header in the local identity service
         if (_identityLocalHandler.userExist(headers.getHeaderString(HttpHeaders.AUTHORIZATION)) == false) {
-            return Response.status(Response.Status.UNAUTHORIZED).build();
+            asyncResponse.resume(Response.status(Response.Status.UNAUTHORIZED).build());
+            return;
         }
         HashMap<String, List<String>> queryParams = new HashMap<String, List<String>>();
         if (uris != null && !uris.isEmpty()) {
@@ -700,7 +1006,7 @@ public class Delegate implements ServletContextListener {
         logger.info("query params: " + queryParams.toString());
 
 //        // TODO change and send to all delegates
-//        ServiceEndpoint nimbleInfo = _eurekaHandler.getEndpointByAppName(headers.getHeaderString("nimbleInstanceName"));
+//        ServiceEndpoint nimbleInfo = _discoveryHandler.getEndpointByAppName(headers.getHeaderString("nimbleInstanceName"));
 //        URI targetUri = _httpHelper.buildUri(nimbleInfo.getHostName(), nimbleInfo.getPort(), CatalogHandler.GET_BINARY_CONTENTS_LOCAL_PATH, queryParams);
 //
 //        MultivaluedMap<String, Object> headersToSend = new MultivaluedHashMap<String, Object>();
@@ -710,7 +1016,7 @@ public class Delegate implements ServletContextListener {
 //        // TODO send to all delegates and aggregate results
 //        return _httpHelper.sendGetRequest(targetUri, headersToSend);
 
-        return catalogServiceCallWrapper(headers.getHeaderString(HttpHeaders.AUTHORIZATION), CatalogHandler.GET_BINARY_CONTENTS_LOCAL_PATH, queryParams,MergeOption.ListResults);
+        catalogServiceCallWrapper(asyncResponse, headers.getHeaderString(HttpHeaders.AUTHORIZATION), CatalogHandler.GET_BINARY_CONTENTS_LOCAL_PATH, queryParams,MergeOption.ListResults);
     }
 
     // a REST call that should be used between delegates.
@@ -718,7 +1024,7 @@ public class Delegate implements ServletContextListener {
     @GET
     @Path("/binary-contents/local")
     public Response getBinaryContentsLocal(@Context HttpHeaders headers, @QueryParam("uris") List<String> uris) throws JsonParseException, JsonMappingException, IOException {
-        if (_identityFederationHandler.userExist(headers.getHeaderString(HttpHeaders.AUTHORIZATION)) == false) {
+        if (isFederationUser(headers) == false) {
             return Response.status(Response.Status.UNAUTHORIZED).build();
         }
         HashMap<String, String> queryParams = new HashMap<String, String>();
@@ -746,7 +1052,7 @@ public class Delegate implements ServletContextListener {
             queryParams.put("catalogueUuids", getStringQueryParam(catalogueUuids));
         }
 
-        ServiceEndpoint nimbleInfo = _eurekaHandler.getEndpointByAppName(delegateId);
+        ServiceEndpoint nimbleInfo = _httpHelper.selectDelegate(delegateId);
         URI targetUri = _httpHelper.buildUriWithStringParams(nimbleInfo.getHostName(), nimbleInfo.getPort(), CatalogHandler.GET_PRODUCT_STATUS_LOCAL_PATH, queryParams);
 
         MultivaluedMap<String, Object> headersToSend = new MultivaluedHashMap<String, Object>();
@@ -760,7 +1066,7 @@ public class Delegate implements ServletContextListener {
     @GET
     @Path("/catalogue/cataloguelines/valid/local")
     public Response areProductsValidLocal(@QueryParam("catalogueUuids") List<String> catalogueUuids, @Context HttpHeaders headers, @QueryParam("lineIds") List<String> lineIds) throws JsonParseException, JsonMappingException, IOException {
-        if (_identityFederationHandler.userExist(headers.getHeaderString(HttpHeaders.AUTHORIZATION)) == false) {
+        if (isFederationUser(headers) == false) {
             return Response.status(Response.Status.UNAUTHORIZED).build();
         }
         HashMap<String, String> queryParams = new HashMap<String, String>();
@@ -780,13 +1086,14 @@ public class Delegate implements ServletContextListener {
     /************************************   catalog-service/catalogue/cataloguelines/valid - END   ************************************/
 
     /***********************************   catalog-service - helper function   ***********************************/
-    private Response catalogServiceCallWrapper(String userAccessToken, String pathToSendRequest, HashMap<String, List<String>> queryParams) throws JsonParseException, JsonMappingException, IOException {
-        return catalogServiceCallWrapper(userAccessToken,pathToSendRequest,queryParams,null);
+    private void catalogServiceCallWrapper(AsyncResponse asyncResponse, String userAccessToken, String pathToSendRequest, HashMap<String, List<String>> queryParams) throws JsonParseException, JsonMappingException, IOException {
+        catalogServiceCallWrapper(asyncResponse,userAccessToken,pathToSendRequest,queryParams,null);
     }
-    private Response catalogServiceCallWrapper(String userAccessToken, String pathToSendRequest, HashMap<String, List<String>> queryParams,MergeOption mergeOption) throws JsonParseException, JsonMappingException, IOException {
+    private void catalogServiceCallWrapper(AsyncResponse asyncResponse, String userAccessToken, String pathToSendRequest, HashMap<String, List<String>> queryParams,final MergeOption mergeOption) throws JsonParseException, JsonMappingException, IOException {
         // validation check of the authorization header in the local identity service
         if (_identityLocalHandler.userExist(userAccessToken) == false) {
-            return Response.status(Response.Status.UNAUTHORIZED).build();
+            asyncResponse.resume(Response.status(Response.Status.UNAUTHORIZED).build());
+            return;
         }
         if (queryParams != null) {
             logger.info("query params: " + queryParams.toString());
@@ -795,19 +1102,23 @@ public class Delegate implements ServletContextListener {
         MultivaluedMap<String, Object> headers = new MultivaluedHashMap<String, Object>();
         headers.add(HttpHeaders.AUTHORIZATION, _identityFederationHandler.getAccessToken());
 
-        HashMap<ServiceEndpoint, String> delegatesResponse = _httpHelper.sendGetRequestToAllDelegates(pathToSendRequest, headers, queryParams);
-        if(mergeOption == MergeOption.ListResults){
-            return Response.status(Response.Status.OK)
-                    .type(MediaType.APPLICATION_JSON)
-                    .entity(CatalogHandler.mergeListResults(delegatesResponse))
-                    .build();
-        } else if (mergeOption == MergeOption.MapResults){
-            return Response.status(Response.Status.OK)
-                    .type(MediaType.APPLICATION_JSON)
-                    .entity(CatalogHandler.mergeMapResults(delegatesResponse))
-                    .build();
-        }
-        return _catalogHandler.buildResponseFromSingleDelegate(delegatesResponse);
+        resumeWhenDone(asyncResponse, _httpHelper.sendGetRequestToAllDelegatesAsync(pathToSendRequest, headers, queryParams, mergeOption != null && mergeOption.isJson()), new ResultMerger<HashMap<ServiceEndpoint, EndpointResult>>() {
+            @Override
+            public Response merge(HashMap<ServiceEndpoint, EndpointResult> delegatesResponse) {
+                if(mergeOption == MergeOption.ListResults){
+                    return Response.status(Response.Status.OK)
+                            .type(MediaType.APPLICATION_JSON)
+                            .entity(CatalogHandler.mergeListResults(delegatesResponse))
+                            .build();
+                } else if (mergeOption == MergeOption.MapResults){
+                    return Response.status(Response.Status.OK)
+                            .type(MediaType.APPLICATION_JSON)
+                            .entity(CatalogHandler.mergeMapResults(delegatesResponse))
+                            .build();
+                }
+                return _catalogHandler.buildResponseFromSingleDelegate(delegatesResponse);
+            }
+        });
     }
     /***********************************   catalog-service - helper function - END   ***********************************/
 
@@ -827,7 +1138,7 @@ public class Delegate implements ServletContextListener {
     @GET
     @Path("/document/json/{documentID}/local")
     public Response getDocumentJsonContentLocal(@Context HttpHeaders headers, @PathParam("documentID") String documentID) throws JsonParseException, JsonMappingException, IOException {
-        if (!_identityFederationHandler.userExist(headers.getHeaderString(HttpHeaders.AUTHORIZATION))) {
+        if (!isFederationUser(headers)) {
             return Response.status(Response.Status.UNAUTHORIZED).build();
         }
         URI businessProcessServiceUri = _httpHelper.buildUri(_businessProcessHandler.BaseUrl, _businessProcessHandler.Port, String.format(_businessProcessHandler.PathPrefix+BusinessProcessHandler.GET_DOCUMENT_JSON_CONTENT_PATH, documentID), null);
@@ -851,7 +1162,7 @@ public class Delegate implements ServletContextListener {
     @GET
     @Path("/document/xml/{documentID}/local")
     public Response getDocumentXmlContentLocal(@Context HttpHeaders headers, @PathParam("documentID") String documentID) throws JsonParseException, JsonMappingException, IOException {
-        if (!_identityFederationHandler.userExist(headers.getHeaderString(HttpHeaders.AUTHORIZATION))) {
+        if (!isFederationUser(headers)) {
             return Response.status(Response.Status.UNAUTHORIZED).build();
         }
         URI businessProcessServiceUri = _httpHelper.buildUri(_businessProcessHandler.BaseUrl, _businessProcessHandler.Port, String.format(_businessProcessHandler.PathPrefix+BusinessProcessHandler.GET_DOCUMENT_XML_CONTENT_PATH, documentID), null);
@@ -877,7 +1188,7 @@ public class Delegate implements ServletContextListener {
     @Consumes(MediaType.APPLICATION_JSON)
     @Path("/collaboration-groups/{id}/archive/local")
     public Response archiveCollaborationGroupLocal(@Context HttpHeaders headers, @PathParam("id") String id) throws JsonParseException, JsonMappingException, IOException {
-        if (!_identityFederationHandler.userExist(headers.getHeaderString(HttpHeaders.AUTHORIZATION))) {
+        if (!isFederationUser(headers)) {
             return Response.status(Response.Status.UNAUTHORIZED).build();
         }
         URI businessProcessServiceUri = _httpHelper.buildUri(_businessProcessHandler.BaseUrl, _businessProcessHandler.Port, String.format(_businessProcessHandler.PathPrefix+BusinessProcessHandler.ARCHIVE_COLLABORATION_GROUP_PATH, id), null);
@@ -901,7 +1212,7 @@ public class Delegate implements ServletContextListener {
     @DELETE
     @Path("/collaboration-groups/{id}/local")
     public Response deleteCollaborationGroupLocal(@Context HttpHeaders headers, @PathParam("id") String id) throws JsonParseException, JsonMappingException, IOException {
-        if (!_identityFederationHandler.userExist(headers.getHeaderString(HttpHeaders.AUTHORIZATION))) {
+        if (!isFederationUser(headers)) {
             return Response.status(Response.Status.UNAUTHORIZED).build();
         }
         URI businessProcessServiceUri = _httpHelper.buildUri(_businessProcessHandler.BaseUrl, _businessProcessHandler.Port, String.format(_businessProcessHandler.PathPrefix+BusinessProcessHandler.DELETE_COLLABORATION_GROUP_PATH, id), null);
@@ -925,7 +1236,7 @@ public class Delegate implements ServletContextListener {
     @GET
     @Path("/collaboration-groups/{id}/local")
     public Response getCollaborationGroupLocal(@Context HttpHeaders headers, @PathParam("id") String id) throws JsonParseException, JsonMappingException, IOException {
-        if (!_identityFederationHandler.userExist(headers.getHeaderString(HttpHeaders.AUTHORIZATION))) {
+        if (!isFederationUser(headers)) {
             return Response.status(Response.Status.UNAUTHORIZED).build();
         }
         URI businessProcessServiceUri = _httpHelper.buildUri(_businessProcessHandler.BaseUrl, _businessProcessHandler.Port, String.format(_businessProcessHandler.PathPrefix+BusinessProcessHandler.GET_COLLABORATION_GROUP_PATH, id), null);
@@ -951,7 +1262,7 @@ public class Delegate implements ServletContextListener {
     @Consumes(MediaType.APPLICATION_JSON)
     @Path("/collaboration-groups/{id}/restore/local")
     public Response restoreCollaborationGroupLocal(@Context HttpHeaders headers, @PathParam("id") String id) throws JsonParseException, JsonMappingException, IOException {
-        if (!_identityFederationHandler.userExist(headers.getHeaderString(HttpHeaders.AUTHORIZATION))) {
+        if (!isFederationUser(headers)) {
             return Response.status(Response.Status.UNAUTHORIZED).build();
         }
         URI businessProcessServiceUri = _httpHelper.buildUri(_businessProcessHandler.BaseUrl, _businessProcessHandler.Port, String.format(_businessProcessHandler.PathPrefix+BusinessProcessHandler.RESTORE_COLLABORATION_GROUP_PATH, id), null);
@@ -977,7 +1288,7 @@ public class Delegate implements ServletContextListener {
     @Consumes(MediaType.APPLICATION_JSON)
     @Path("/processInstance/{processInstanceId}/cancel/local")
     public Response cancelProcessInstanceLocal(@Context HttpHeaders headers, @PathParam("processInstanceId") String processInstanceId) throws JsonParseException, JsonMappingException, IOException {
-//        if (!_identityFederationHandler.userExist(headers.getHeaderString(HttpHeaders.AUTHORIZATION))) {
+//        if (!isFederationUser(headers)) {
 //            return Response.status(Response.Status.UNAUTHORIZED).build();
 //        }
         URI businessProcessServiceUri = _httpHelper.buildUri(_businessProcessHandler.BaseUrl, _businessProcessHandler.Port, String.format(_businessProcessHandler.PathPrefix+BusinessProcessHandler.CANCEL_PROCESS_INSTANCE_PATH, processInstanceId), null);
@@ -1003,7 +1314,7 @@ public class Delegate implements ServletContextListener {
     @GET
     @Path("/processInstance/{processInstanceId}/isRated/local")
     public Response isRatedLocal(@Context HttpHeaders headers, @PathParam("processInstanceId") String processInstanceId,@QueryParam("partyId") String partyId) throws JsonParseException, JsonMappingException, IOException {
-        if (!_identityFederationHandler.userExist(headers.getHeaderString(HttpHeaders.AUTHORIZATION))) {
+        if (!isFederationUser(headers)) {
             return Response.status(Response.Status.UNAUTHORIZED).build();
         }
         HashMap<String, String> queryParams = new HashMap<String, String>();
@@ -1046,7 +1357,7 @@ public class Delegate implements ServletContextListener {
                                                @QueryParam("reviews") String reviewsString,
                                                @QueryParam("partyId") String partyId,
                                                @QueryParam("processInstanceID") String processInstanceID) throws JsonParseException, JsonMappingException, IOException {
-        if (!_identityFederationHandler.userExist(headers.getHeaderString(HttpHeaders.AUTHORIZATION))) {
+        if (!isFederationUser(headers)) {
             return Response.status(Response.Status.UNAUTHORIZED).build();
         }
         HashMap<String, String> queryParams = new HashMap<String, String>();
@@ -1087,7 +1398,7 @@ public class Delegate implements ServletContextListener {
                                                  String body,
                                                  @QueryParam("gid") String gid,
                                                  @QueryParam("collaborationGID") String collaborationGID) throws JsonParseException, JsonMappingException, IOException {
-        if (!_identityFederationHandler.userExist(headers.getHeaderString(HttpHeaders.AUTHORIZATION))) {
+        if (!isFederationUser(headers)) {
             return Response.status(Response.Status.UNAUTHORIZED).build();
         }
         HashMap<String, String> queryParams = new HashMap<String, String>();
@@ -1121,7 +1432,7 @@ public class Delegate implements ServletContextListener {
     @Path("/process-document/local")
     public Response startProcessWithDocumentLocal(@Context HttpHeaders headers,
                                                   String body) throws JsonParseException, JsonMappingException, IOException {
-        if (!_identityFederationHandler.userExist(headers.getHeaderString(HttpHeaders.AUTHORIZATION))) {
+        if (!isFederationUser(headers)) {
             return Response.status(Response.Status.UNAUTHORIZED).build();
         }
         URI businessProcessServiceUri = _httpHelper.buildUriWithStringParams(_businessProcessHandler.BaseUrl, _businessProcessHandler.Port, _businessProcessHandler.PathPrefix+BusinessProcessHandler.START_PROCESS_WITH_DOCUMENT_PATH, null);
@@ -1161,7 +1472,7 @@ public class Delegate implements ServletContextListener {
                                               @QueryParam("gid") String gid,
                                               @QueryParam("precedingGid") String precedingGid,
                                               @QueryParam("collaborationGID") String collaborationGID) throws JsonParseException, JsonMappingException, IOException {
-        if (!_identityFederationHandler.userExist(headers.getHeaderString(HttpHeaders.AUTHORIZATION))) {
+        if (!isFederationUser(headers)) {
             return Response.status(Response.Status.UNAUTHORIZED).build();
         }
         HashMap<String, String> queryParams = new HashMap<String, String>();
@@ -1194,7 +1505,7 @@ public class Delegate implements ServletContextListener {
     @Path("/processInstance/{processInstanceId}/collaboration-group/local")
     public Response getAssociatedCollaborationGroupLocal(@Context HttpHeaders headers,
                                                          @PathParam("processInstanceId") String processInstanceId) throws JsonParseException, JsonMappingException, IOException {
-        if (!_identityFederationHandler.userExist(headers.getHeaderString(HttpHeaders.AUTHORIZATION))) {
+        if (!isFederationUser(headers)) {
             return Response.status(Response.Status.UNAUTHORIZED).build();
         }
         URI businessProcessServiceUri = _httpHelper.buildUriWithStringParams(_businessProcessHandler.BaseUrl, _businessProcessHandler.Port, String.format(_businessProcessHandler.PathPrefix+BusinessProcessHandler.GET_ASSOCIATED_COLLABORATION_GROUP_PATH, processInstanceId), null);
@@ -1223,7 +1534,7 @@ public class Delegate implements ServletContextListener {
     @Path("/process-instance-groups/{id}/local")
     public Response deleteProcessInstanceGroupLocal(@Context HttpHeaders headers,
                                                     @PathParam("id") String id) throws JsonParseException, JsonMappingException, IOException {
-        if (!_identityFederationHandler.userExist(headers.getHeaderString(HttpHeaders.AUTHORIZATION))) {
+        if (!isFederationUser(headers)) {
             return Response.status(Response.Status.UNAUTHORIZED).build();
         }
         URI businessProcessServiceUri = _httpHelper.buildUri(_businessProcessHandler.BaseUrl, _businessProcessHandler.Port, String.format(_businessProcessHandler.PathPrefix+BusinessProcessHandler.DELETE_PROCESS_INSTANCE_GROUP_PATH, id), null);
@@ -1250,7 +1561,7 @@ public class Delegate implements ServletContextListener {
     @Path("/process-instance-groups/{id}")
     public Response getProcessInstanceGroupLocal(@Context HttpHeaders headers,
                                                  @PathParam("id") String id) throws JsonParseException, JsonMappingException, IOException {
-        if (!_identityFederationHandler.userExist(headers.getHeaderString(HttpHeaders.AUTHORIZATION))) {
+        if (!isFederationUser(headers)) {
             return Response.status(Response.Status.UNAUTHORIZED).build();
         }
         URI businessProcessServiceUri = _httpHelper.buildUriWithStringParams(_businessProcessHandler.BaseUrl, _businessProcessHandler.Port, String.format(_businessProcessHandler.PathPrefix+BusinessProcessHandler.GET_PROCESS_INSTANCE_GROUP_PATH, id), null);
@@ -1281,7 +1592,7 @@ public class Delegate implements ServletContextListener {
     public Response cancelCollaborationLocal(@Context HttpHeaders headers,
                                         @PathParam("id") String id,
                                         String cancellationReason) throws JsonParseException, JsonMappingException, IOException {
-        if (!_identityFederationHandler.userExist(headers.getHeaderString(HttpHeaders.AUTHORIZATION))) {
+        if (!isFederationUser(headers)) {
             return Response.status(Response.Status.UNAUTHORIZED).build();
         }
         URI businessProcessServiceUri = _httpHelper.buildUriWithStringParams(_businessProcessHandler.BaseUrl, _businessProcessHandler.Port, String.format(_businessProcessHandler.PathPrefix+BusinessProcessHandler.CANCEL_COLLABORATION_PATH,id), null);
@@ -1309,7 +1620,7 @@ public class Delegate implements ServletContextListener {
     @Path("/process-instance-groups/{id}/finished/local")
     public Response checkCollaborationFinishedLocal(@Context HttpHeaders headers,
                                                     @PathParam("id") String id) throws JsonParseException, JsonMappingException, IOException {
-        if (!_identityFederationHandler.userExist(headers.getHeaderString(HttpHeaders.AUTHORIZATION))) {
+        if (!isFederationUser(headers)) {
             return Response.status(Response.Status.UNAUTHORIZED).build();
         }
         URI businessProcessServiceUri = _httpHelper.buildUriWithStringParams(_businessProcessHandler.BaseUrl, _businessProcessHandler.Port, String.format(_businessProcessHandler.PathPrefix+BusinessProcessHandler.CHECK_COLLABORATION_FINISHED_PATH, id), null);
@@ -1336,7 +1647,7 @@ public class Delegate implements ServletContextListener {
     @Path("/process-instance-groups/{id}/process-instances/local")
     public Response getProcessInstancesIncludedInTheGroupLocal(@Context HttpHeaders headers,
                                                                @PathParam("id") String id) throws JsonParseException, JsonMappingException, IOException {
-        if (!_identityFederationHandler.userExist(headers.getHeaderString(HttpHeaders.AUTHORIZATION))) {
+        if (!isFederationUser(headers)) {
             return Response.status(Response.Status.UNAUTHORIZED).build();
         }
         URI businessProcessServiceUri = _httpHelper.buildUriWithStringParams(_businessProcessHandler.BaseUrl, _businessProcessHandler.Port, String.format(_businessProcessHandler.PathPrefix+BusinessProcessHandler.GET_PROCESS_INSTANCES_INCLUDED_IN_THE_GROUP_PATH, id), null);
@@ -1352,14 +1663,15 @@ public class Delegate implements ServletContextListener {
     @GET
     @Produces(MediaType.APPLICATION_JSON)
     @Path("/collaboration-groups/all-finished")
-    public Response checkAllCollaborationsFinished(@Context HttpHeaders headers,
+    public void checkAllCollaborationsFinished(@Context HttpHeaders headers,
                                                    @QueryParam("partyId") String partyId,
-                                                   @QueryParam("collaborationRole") @DefaultValue("SELLER") String collaborationRole) throws JsonParseException, JsonMappingException, IOException {
+                                                   @QueryParam("collaborationRole") @DefaultValue("SELLER") String collaborationRole,
+                                                   @Suspended final AsyncResponse asyncResponse) throws JsonParseException, JsonMappingException, IOException {
         logger.info("called federated get document xml content");
         HashMap<String, String> queryParams = new HashMap<String, String>();
         queryParams.put("partyId", partyId);
         queryParams.put("collaborationRole", collaborationRole);
-        return businessProcessServiceCallWrapper(headers.getHeaderString(HttpHeaders.AUTHORIZATION), BusinessProcessHandler.CHECK_ALL_COLLABORATIONS_FINISHED_LOCAL_PATH, queryParams,headers.getHeaderString("federationId"), MergeOption.BooleanResults);
+        businessProcessServiceCallWrapper(asyncResponse, headers.getHeaderString(HttpHeaders.AUTHORIZATION), BusinessProcessHandler.CHECK_ALL_COLLABORATIONS_FINISHED_LOCAL_PATH, queryParams,headers.getHeaderString("federationId"), MergeOption.BooleanResults);
     }
 
     @GET
@@ -1367,7 +1679,7 @@ public class Delegate implements ServletContextListener {
     public Response checkAllCollaborationsFinishedLocal(@Context HttpHeaders headers,
                                                         @QueryParam("partyId") String partyId,
                                                         @QueryParam("collaborationRole") @DefaultValue("SELLER") String collaborationRole) throws JsonParseException, JsonMappingException, IOException {
-        if (!_identityFederationHandler.userExist(headers.getHeaderString(HttpHeaders.AUTHORIZATION))) {
+        if (!isFederationUser(headers)) {
             return Response.status(Response.Status.UNAUTHORIZED).build();
         }
         HashMap<String, String> queryParams = new HashMap<String, String>();
@@ -1386,16 +1698,17 @@ public class Delegate implements ServletContextListener {
     @GET
     @Produces(MediaType.APPLICATION_JSON)
     @Path("/statistics/total-number/business-process/action-required")
-    public Response getActionRequiredProcessCount(@Context HttpHeaders headers,
+    public void getActionRequiredProcessCount(@Context HttpHeaders headers,
                                                   @QueryParam("partyId") String partyId,
                                                   @QueryParam("archived") Boolean archived,
-                                                  @QueryParam("role") String role) throws JsonParseException, JsonMappingException, IOException {
+                                                  @QueryParam("role") String role,
+                                                  @Suspended final AsyncResponse asyncResponse) throws JsonParseException, JsonMappingException, IOException {
         logger.info("called federated get document xml content");
         HashMap<String, String> queryParams = new HashMap<String, String>();
         queryParams.put("partyId", partyId);
         queryParams.put("archived", archived.toString());
         queryParams.put("role", role);
-        return businessProcessServiceCallWrapper(headers.getHeaderString(HttpHeaders.AUTHORIZATION), BusinessProcessHandler.GET_ACTION_REQUIRED_PROCESS_COUNT_LOCAL_PATH, queryParams,headers.getHeaderString("federationId"), MergeOption.DoubleResults);
+        businessProcessServiceCallWrapper(asyncResponse, headers.getHeaderString(HttpHeaders.AUTHORIZATION), BusinessProcessHandler.GET_ACTION_REQUIRED_PROCESS_COUNT_LOCAL_PATH, queryParams,headers.getHeaderString("federationId"), MergeOption.DoubleResults);
     }
 
     @GET
@@ -1404,7 +1717,7 @@ public class Delegate implements ServletContextListener {
                                                        @QueryParam("partyId") String partyId,
                                                        @QueryParam("archived") Boolean archived,
                                                        @QueryParam("role") String role) throws JsonParseException, JsonMappingException, IOException {
-        if (!_identityFederationHandler.userExist(headers.getHeaderString(HttpHeaders.AUTHORIZATION))) {
+        if (!isFederationUser(headers)) {
             return Response.status(Response.Status.UNAUTHORIZED).build();
         }
         HashMap<String, String> queryParams = new HashMap<String, String>();
@@ -1424,13 +1737,14 @@ public class Delegate implements ServletContextListener {
     @GET
     @Produces(MediaType.APPLICATION_JSON)
     @Path("/statistics/total-number/business-process")
-    public Response getProcessCount(@Context HttpHeaders headers,
+    public void getProcessCount(@Context HttpHeaders headers,
                                     @QueryParam("businessProcessType") String businessProcessType,
                                     @QueryParam("startDateStr") String startDateStr,
                                     @QueryParam("endDateStr") String endDateStr,
                                     @QueryParam("partyId") String partyId,
                                     @QueryParam("role") String role,
-                                    @QueryParam("status") String status) throws JsonParseException, JsonMappingException, IOException {
+                                    @QueryParam("status") String status,
+                                    @Suspended final AsyncResponse asyncResponse) throws JsonParseException, JsonMappingException, IOException {
         logger.info("called federated get document xml content");
         HashMap<String, String> queryParams = new HashMap<String, String>();
         queryParams.put("businessProcessType", businessProcessType);
@@ -1439,7 +1753,7 @@ public class Delegate implements ServletContextListener {
         queryParams.put("partyId", partyId);
         queryParams.put("role", role);
         queryParams.put("status", status);
-        return businessProcessServiceCallWrapper(headers.getHeaderString(HttpHeaders.AUTHORIZATION), BusinessProcessHandler.GET_PROCESS_COUNT_LOCAL_PATH, queryParams,headers.getHeaderString("federationId"), MergeOption.DoubleResults);
+        businessProcessServiceCallWrapper(asyncResponse, headers.getHeaderString(HttpHeaders.AUTHORIZATION), BusinessProcessHandler.GET_PROCESS_COUNT_LOCAL_PATH, queryParams,headers.getHeaderString("federationId"), MergeOption.DoubleResults);
     }
 
     @GET
@@ -1451,7 +1765,7 @@ public class Delegate implements ServletContextListener {
                                          @QueryParam("partyId") String partyId,
                                          @QueryParam("role") String role,
                                          @QueryParam("status") String status) throws JsonParseException, JsonMappingException, IOException {
-        if (!_identityFederationHandler.userExist(headers.getHeaderString(HttpHeaders.AUTHORIZATION))) {
+        if (!isFederationUser(headers)) {
             return Response.status(Response.Status.UNAUTHORIZED).build();
         }
         HashMap<String, String> queryParams = new HashMap<String, String>();
@@ -1474,12 +1788,13 @@ public class Delegate implements ServletContextListener {
     @GET
     @Produces(MediaType.APPLICATION_JSON)
     @Path("/statistics/trading-volume")
-    public Response getTradingVolume(@Context HttpHeaders headers,
+    public void getTradingVolume(@Context HttpHeaders headers,
                                      @QueryParam("startDateStr") String startDateStr,
                                      @QueryParam("endDateStr") String endDateStr,
                                      @QueryParam("partyId") String partyId,
                                      @QueryParam("role") String role,
-                                     @QueryParam("status") String status) throws JsonParseException, JsonMappingException, IOException {
+                                     @QueryParam("status") String status,
+                                     @Suspended final AsyncResponse asyncResponse) throws JsonParseException, JsonMappingException, IOException {
         logger.info("called federated get document xml content");
         HashMap<String, String> queryParams = new HashMap<String, String>();
         queryParams.put("startDateStr", startDateStr);
@@ -1487,7 +1802,7 @@ public class Delegate implements ServletContextListener {
         queryParams.put("partyId", partyId);
         queryParams.put("role", role);
         queryParams.put("status", status);
-        return businessProcessServiceCallWrapper(headers.getHeaderString(HttpHeaders.AUTHORIZATION), BusinessProcessHandler.GET_TRADING_VOLUME_LOCAL_PATH, queryParams,headers.getHeaderString("federationId"), MergeOption.DoubleResults);
+        businessProcessServiceCallWrapper(asyncResponse, headers.getHeaderString(HttpHeaders.AUTHORIZATION), BusinessProcessHandler.GET_TRADING_VOLUME_LOCAL_PATH, queryParams,headers.getHeaderString("federationId"), MergeOption.DoubleResults);
     }
 
     @GET
@@ -1498,7 +1813,7 @@ public class Delegate implements ServletContextListener {
                                           @QueryParam("partyId") String partyId,
                                           @QueryParam("role") String role,
                                           @QueryParam("status") String status) throws JsonParseException, JsonMappingException, IOException {
-        if (!_identityFederationHandler.userExist(headers.getHeaderString(HttpHeaders.AUTHORIZATION))) {
+        if (!isFederationUser(headers)) {
             return Response.status(Response.Status.UNAUTHORIZED).build();
         }
         HashMap<String, String> queryParams = new HashMap<String, String>();
@@ -1520,19 +1835,20 @@ public class Delegate implements ServletContextListener {
     @GET
     @Produces(MediaType.APPLICATION_JSON)
     @Path("/statistics/response-time")
-    public Response getAverageResponseTime(@Context HttpHeaders headers,
-                                           @QueryParam("partyId") String partyId) throws JsonParseException, JsonMappingException, IOException {
+    public void getAverageResponseTime(@Context HttpHeaders headers,
+                                           @QueryParam("partyId") String partyId,
+                                           @Suspended final AsyncResponse asyncResponse) throws JsonParseException, JsonMappingException, IOException {
         logger.info("called federated get document xml content");
         HashMap<String, String> queryParams = new HashMap<String, String>();
         queryParams.put("partyId", partyId);
-        return businessProcessServiceCallWrapper(headers.getHeaderString(HttpHeaders.AUTHORIZATION), BusinessProcessHandler.GET_AVERAGE_RESPONSE_TIME_LOCAL_PATH, queryParams,headers.getHeaderString("federationId"), MergeOption.DoubleResults);
+        businessProcessServiceCallWrapper(asyncResponse, headers.getHeaderString(HttpHeaders.AUTHORIZATION), BusinessProcessHandler.GET_AVERAGE_RESPONSE_TIME_LOCAL_PATH, queryParams,headers.getHeaderString("federationId"), MergeOption.DoubleResults);
     }
 
     @GET
     @Path("/statistics/response-time/local")
     public Response getAverageResponseTimeLocal(@Context HttpHeaders headers,
                                                 @QueryParam("partyId") String partyId) throws JsonParseException, JsonMappingException, IOException {
-        if (!_identityFederationHandler.userExist(headers.getHeaderString(HttpHeaders.AUTHORIZATION))) {
+        if (!isFederationUser(headers)) {
             return Response.status(Response.Status.UNAUTHORIZED).build();
         }
         HashMap<String, String> queryParams = new HashMap<String, String>();
@@ -1550,19 +1866,20 @@ public class Delegate implements ServletContextListener {
     @GET
     @Produces(MediaType.APPLICATION_JSON)
     @Path("/statistics/collaboration-time")
-    public Response getAverageCollaborationTime(@Context HttpHeaders headers,
-                                                @QueryParam("partyId") String partyId) throws JsonParseException, JsonMappingException, IOException {
+    public void getAverageCollaborationTime(@Context HttpHeaders headers,
+                                                @QueryParam("partyId") String partyId,
+                                                @Suspended final AsyncResponse asyncResponse) throws JsonParseException, JsonMappingException, IOException {
         logger.info("called federated get document xml content");
         HashMap<String, String> queryParams = new HashMap<String, String>();
         queryParams.put("partyId", partyId);
-        return businessProcessServiceCallWrapper(headers.getHeaderString(HttpHeaders.AUTHORIZATION), BusinessProcessHandler.GET_AVERAGE_COLLABORATION_TIME_LOCAL_PATH, queryParams,headers.getHeaderString("federationId"), MergeOption.DoubleResults);
+        businessProcessServiceCallWrapper(asyncResponse, headers.getHeaderString(HttpHeaders.AUTHORIZATION), BusinessProcessHandler.GET_AVERAGE_COLLABORATION_TIME_LOCAL_PATH, queryParams,headers.getHeaderString("federationId"), MergeOption.DoubleResults);
     }
 
     @GET
     @Path("/statistics/collaboration-time/local")
     public Response getAverageCollaborationTimeLocal(@Context HttpHeaders headers,
                                                      @QueryParam("partyId") String partyId) throws JsonParseException, JsonMappingException, IOException {
-        if (!_identityFederationHandler.userExist(headers.getHeaderString(HttpHeaders.AUTHORIZATION))) {
+        if (!isFederationUser(headers)) {
             return Response.status(Response.Status.UNAUTHORIZED).build();
         }
         HashMap<String, String> queryParams = new HashMap<String, String>();
@@ -1580,19 +1897,20 @@ public class Delegate implements ServletContextListener {
     @GET
     @Produces(MediaType.APPLICATION_JSON)
     @Path("/ratingsSummary")
-    public Response getRatingsSummary(@Context HttpHeaders headers,
-                                      @QueryParam("partyId") String partyId) throws JsonParseException, JsonMappingException, IOException {
+    public void getRatingsSummary(@Context HttpHeaders headers,
+                                      @QueryParam("partyId") String partyId,
+                                      @Suspended final AsyncResponse asyncResponse) throws JsonParseException, JsonMappingException, IOException {
         logger.info("called federated get document xml content");
         HashMap<String, String> queryParams = new HashMap<String, String>();
         queryParams.put("partyId", partyId);
-        return businessProcessServiceCallWrapper(headers.getHeaderString(HttpHeaders.AUTHORIZATION), BusinessProcessHandler.GET_RATING_SUMMARY_LOCAL_PATH, queryParams,headers.getHeaderString("federationId"), MergeOption.RatingSummaries);
+        businessProcessServiceCallWrapper(asyncResponse, headers.getHeaderString(HttpHeaders.AUTHORIZATION), BusinessProcessHandler.GET_RATING_SUMMARY_LOCAL_PATH, queryParams,headers.getHeaderString("federationId"), MergeOption.RatingSummaries);
     }
 
     @GET
     @Path("/ratingsSummary/local")
     public Response getRatingsSummaryLocal(@Context HttpHeaders headers,
                                            @QueryParam("partyId") String partyId) throws JsonParseException, JsonMappingException, IOException {
-        if (!_identityFederationHandler.userExist(headers.getHeaderString(HttpHeaders.AUTHORIZATION))) {
+        if (!isFederationUser(headers)) {
             return Response.status(Response.Status.UNAUTHORIZED).build();
         }
         HashMap<String, String> queryParams = new HashMap<String, String>();
@@ -1625,7 +1943,7 @@ public class Delegate implements ServletContextListener {
     public Response getFederatedCollaborationGroupLocal(@Context HttpHeaders headers,
                                                         @QueryParam("id") List<String> groupId,
                                                         @QueryParam("federationId") List<String> federationId) throws JsonParseException, JsonMappingException, IOException {
-        if (!_identityFederationHandler.userExist(headers.getHeaderString(HttpHeaders.AUTHORIZATION))) {
+        if (!isFederationUser(headers)) {
             return Response.status(Response.Status.UNAUTHORIZED).build();
         }
 
@@ -1707,7 +2025,7 @@ public class Delegate implements ServletContextListener {
                                                 @QueryParam("status") List<String> status,
                                                 @QueryParam("collaborationRole") String collaborationRole,
                                                 @QueryParam("isProject") @DefaultValue("false") Boolean isProject) throws JsonParseException, JsonMappingException, IOException {
-        if (!_identityFederationHandler.userExist(headers.getHeaderString(HttpHeaders.AUTHORIZATION))) {
+        if (!isFederationUser(headers)) {
             return Response.status(Response.Status.UNAUTHORIZED).build();
         }
 
@@ -1761,8 +2079,9 @@ public class Delegate implements ServletContextListener {
             JsonObject jsonObject = parser.parse(body).getAsJsonObject();
 
             JsonArray instanceNames = new JsonArray();
-            for (ServiceEndpoint serviceEndpoint : _eurekaHandler.getEndpointsFromEureka()) {
-                instanceNames.add(serviceEndpoint.getAppName());
+            // replicas share the app name, so every instance name is listed once
+            for (String instanceName : _discoveryHandler.getRegistry().getEndpointsByAppName().keySet()) {
+                instanceNames.add(instanceName);
             }
             jsonObject.add("instanceNames",instanceNames);
             return Response.status(Response.Status.OK)
@@ -1783,7 +2102,7 @@ public class Delegate implements ServletContextListener {
                                                         @QueryParam("archived") @DefaultValue("false") Boolean archived,
                                                         @QueryParam("status") List<String> status,
                                                         @QueryParam("collaborationRole") String collaborationRole) throws JsonParseException, JsonMappingException, IOException {
-        if (!_identityFederationHandler.userExist(headers.getHeaderString(HttpHeaders.AUTHORIZATION))) {
+        if (!isFederationUser(headers)) {
             return Response.status(Response.Status.UNAUTHORIZED).build();
         }
 
@@ -1819,7 +2138,7 @@ public class Delegate implements ServletContextListener {
     @Path("/processInstance/{processInstanceId}/details/local")
     public Response getDashboardProcessInstanceDetailsLocal(@Context HttpHeaders headers,
                                                             @PathParam("processInstanceId") String processInstanceId) throws JsonParseException, JsonMappingException, IOException {
-        if (!_identityFederationHandler.userExist(headers.getHeaderString(HttpHeaders.AUTHORIZATION))) {
+        if (!isFederationUser(headers)) {
             return Response.status(Response.Status.UNAUTHORIZED).build();
         }
         URI businessProcessServiceUri = _httpHelper.buildUriWithStringParams(_businessProcessHandler.BaseUrl, _businessProcessHandler.Port, String.format(_businessProcessHandler.PathPrefix+BusinessProcessHandler.GET_DASHBOARD_PROCESS_INSTANCE_DETAILS_PATH, processInstanceId), null);
@@ -1851,7 +2170,7 @@ public class Delegate implements ServletContextListener {
     public Response updateCollaborationGroupNameLocal(@Context HttpHeaders headers,
                                                       @PathParam("id") String id,
                                                       @QueryParam("groupName") String groupName) throws JsonParseException, JsonMappingException, IOException {
-        if (!_identityFederationHandler.userExist(headers.getHeaderString(HttpHeaders.AUTHORIZATION))) {
+        if (!isFederationUser(headers)) {
             return Response.status(Response.Status.UNAUTHORIZED).build();
         }
         HashMap<String, String> queryParams = new HashMap<String, String>();
@@ -1888,7 +2207,7 @@ public class Delegate implements ServletContextListener {
                                         String content,
                                         @PathParam("documentID") String documentID,
                                         @QueryParam("documentType") String documentType) throws JsonParseException, JsonMappingException, IOException {
-        if (!_identityFederationHandler.userExist(headers.getHeaderString(HttpHeaders.AUTHORIZATION))) {
+        if (!isFederationUser(headers)) {
             return Response.status(Response.Status.UNAUTHORIZED).build();
         }
         HashMap<String, String> queryParams = new HashMap<String, String>();
@@ -1931,7 +2250,7 @@ public class Delegate implements ServletContextListener {
                                                @QueryParam("processInstanceID") String processInstanceID,
                                                @QueryParam("creatorUserID") String creatorUserID,
                                                @QueryParam("processID") String documentType) throws JsonParseException, JsonMappingException, IOException {
-        if (!_identityFederationHandler.userExist(headers.getHeaderString(HttpHeaders.AUTHORIZATION))) {
+        if (!isFederationUser(headers)) {
             return Response.status(Response.Status.UNAUTHORIZED).build();
         }
         HashMap<String, String> queryParams = new HashMap<String, String>();
@@ -1968,7 +2287,7 @@ public class Delegate implements ServletContextListener {
     public Response getOrderDocumentLocal(@Context HttpHeaders headers,
                                           @QueryParam("processInstanceId") String processInstanceId,
                                           @QueryParam("orderResponseId") String orderResponseId) throws JsonParseException, JsonMappingException, IOException {
-        if (!_identityFederationHandler.userExist(headers.getHeaderString(HttpHeaders.AUTHORIZATION))) {
+        if (!isFederationUser(headers)) {
             return Response.status(Response.Status.UNAUTHORIZED).build();
         }
         HashMap<String, String> queryParams = new HashMap<String, String>();
@@ -1988,19 +2307,20 @@ public class Delegate implements ServletContextListener {
     @GET
     @Produces(MediaType.APPLICATION_JSON)
     @Path("/ratingsAndReviews")
-    public Response listAllIndividualRatingsAndReviews(@Context HttpHeaders headers,
-                                                       @QueryParam("partyId") String partyId) throws JsonParseException, JsonMappingException, IOException {
+    public void listAllIndividualRatingsAndReviews(@Context HttpHeaders headers,
+                                                       @QueryParam("partyId") String partyId,
+                                                       @Suspended final AsyncResponse asyncResponse) throws JsonParseException, JsonMappingException, IOException {
         logger.info("called federated get document xml content");
         HashMap<String, String> queryParams = new HashMap<String, String>();
         queryParams.put("partyId",partyId);
-        return businessProcessServiceCallWrapper(headers.getHeaderString(HttpHeaders.AUTHORIZATION), BusinessProcessHandler.LIST_ALL_INDIVIDUAL_RATINGS_AND_REVIEWS_LOCAL_PATH, queryParams,headers.getHeaderString("federationId"), MergeOption.IndividualRatingsAndReviews);
+        businessProcessServiceCallWrapper(asyncResponse, headers.getHeaderString(HttpHeaders.AUTHORIZATION), BusinessProcessHandler.LIST_ALL_INDIVIDUAL_RATINGS_AND_REVIEWS_LOCAL_PATH, queryParams,headers.getHeaderString("federationId"), MergeOption.IndividualRatingsAndReviews);
     }
 
     @GET
     @Path("/ratingsAndReviews/local")
     public Response listAllIndividualRatingsAndReviewsLocal(@Context HttpHeaders headers,
                                                             @QueryParam("partyId") String partyId) throws JsonParseException, JsonMappingException, IOException {
-        if (!_identityFederationHandler.userExist(headers.getHeaderString(HttpHeaders.AUTHORIZATION))) {
+        if (!isFederationUser(headers)) {
             return Response.status(Response.Status.UNAUTHORIZED).build();
         }
 
@@ -2033,7 +2353,7 @@ public class Delegate implements ServletContextListener {
     @Path("/contracts/local")
     public Response constructContractForProcessInstancesLocal(@Context HttpHeaders headers,
                                                               @QueryParam("processInstanceId") String processInstanceId) throws JsonParseException, JsonMappingException, IOException {
-        if (!_identityFederationHandler.userExist(headers.getHeaderString(HttpHeaders.AUTHORIZATION))) {
+        if (!isFederationUser(headers)) {
             return Response.status(Response.Status.UNAUTHORIZED).build();
         }
         HashMap<String, String> queryParams = new HashMap<String, String>();
@@ -2062,7 +2382,7 @@ public class Delegate implements ServletContextListener {
     @Path("/contracts/{contractId}/clauses/local")
     public Response getClausesOfContractLocal(@Context HttpHeaders headers,
                                               @PathParam("contractId") String contractId) throws JsonParseException, JsonMappingException, IOException {
-        if (!_identityFederationHandler.userExist(headers.getHeaderString(HttpHeaders.AUTHORIZATION))) {
+        if (!isFederationUser(headers)) {
             return Response.status(Response.Status.UNAUTHORIZED).build();
         }
         HashMap<String, String> queryParams = new HashMap<String, String>();
@@ -2093,7 +2413,7 @@ public class Delegate implements ServletContextListener {
     public Response getClauseDetailsLocal(@Context HttpHeaders headers,
                                           @PathParam("documentId") String documentId,
                                           @QueryParam("clauseType") String clauseType) throws JsonParseException, JsonMappingException, IOException {
-        if (!_identityFederationHandler.userExist(headers.getHeaderString(HttpHeaders.AUTHORIZATION))) {
+        if (!isFederationUser(headers)) {
             return Response.status(Response.Status.UNAUTHORIZED).build();
         }
         HashMap<String, String> queryParams = new HashMap<String, String>();
@@ -2125,7 +2445,7 @@ public class Delegate implements ServletContextListener {
     public Response addDocumentClauseToContractLocal(@Context HttpHeaders headers,
                                                      @PathParam("documentId") String documentId,
                                                      @QueryParam("clauseDocumentId") String clauseDocumentId) throws JsonParseException, JsonMappingException, IOException {
-        if (!_identityFederationHandler.userExist(headers.getHeaderString(HttpHeaders.AUTHORIZATION))) {
+        if (!isFederationUser(headers)) {
             return Response.status(Response.Status.UNAUTHORIZED).build();
         }
         HashMap<String, String> queryParams = new HashMap<String, String>();
@@ -2160,7 +2480,7 @@ public class Delegate implements ServletContextListener {
     public Response addDataMonitoringClauseToContractLocal(@Context HttpHeaders headers,
                                                            @PathParam("documentId") String documentId,
                                                            String dataMonitoringClause) throws JsonParseException, JsonMappingException, IOException {
-        if (!_identityFederationHandler.userExist(headers.getHeaderString(HttpHeaders.AUTHORIZATION))) {
+        if (!isFederationUser(headers)) {
             return Response.status(Response.Status.UNAUTHORIZED).build();
         }
         HashMap<String, String> queryParams = new HashMap<String, String>();
@@ -2190,7 +2510,7 @@ public class Delegate implements ServletContextListener {
     @Path("/contract/digital-agreement/{id}/local")
     public Response getDigitalAgreementForPartiesAndProductLocal(@Context HttpHeaders headers,
                                                                  @PathParam("id") String id) throws JsonParseException, JsonMappingException, IOException {
-        if (!_identityFederationHandler.userExist(headers.getHeaderString(HttpHeaders.AUTHORIZATION))) {
+        if (!isFederationUser(headers)) {
             return Response.status(Response.Status.UNAUTHORIZED).build();
         }
         HashMap<String, String> queryParams = new HashMap<String, String>();
@@ -2226,7 +2546,7 @@ public class Delegate implements ServletContextListener {
                                                                  @QueryParam("buyerId") String buyerId,
                                                                  @QueryParam("sellerId") String sellerId,
                                                                  @QueryParam("productIds") List<String> productIds) throws JsonParseException, JsonMappingException, IOException {
-        if (!_identityFederationHandler.userExist(headers.getHeaderString(HttpHeaders.AUTHORIZATION))) {
+        if (!isFederationUser(headers)) {
             return Response.status(Response.Status.UNAUTHORIZED).build();
         }
         HashMap<String, String> queryParams = new HashMap<String, String>();
@@ -2247,19 +2567,20 @@ public class Delegate implements ServletContextListener {
     @GET
     @Produces(MediaType.APPLICATION_JSON)
     @Path("/contract/digital-agreement/all")
-    public Response getDigitalAgreementForPartiesAndProductAll(@Context HttpHeaders headers,
-                                                               @QueryParam("partyId") String partyId) throws JsonParseException, JsonMappingException, IOException {
+    public void getDigitalAgreementForPartiesAndProductAll(@Context HttpHeaders headers,
+                                                               @QueryParam("partyId") String partyId,
+                                                               @Suspended final AsyncResponse asyncResponse) throws JsonParseException, JsonMappingException, IOException {
         logger.info("called federated update document");
         HashMap<String, String> queryParams = new HashMap<String, String>();
         queryParams.put("partyId",partyId);
-        return businessProcessServiceCallWrapper(headers.getHeaderString(HttpHeaders.AUTHORIZATION), BusinessProcessHandler.GET_DIGITAL_AGREEMENT_FOR_PARTIES_AND_PRODUCT_3_LOCAL_PATH, queryParams,headers.getHeaderString("federationId"),MergeOption.ListResults);
+        businessProcessServiceCallWrapper(asyncResponse, headers.getHeaderString(HttpHeaders.AUTHORIZATION), BusinessProcessHandler.GET_DIGITAL_AGREEMENT_FOR_PARTIES_AND_PRODUCT_3_LOCAL_PATH, queryParams,headers.getHeaderString("federationId"),MergeOption.ListResults);
     }
 
     @GET
     @Path("/contract/digital-agreement/all/local")
     public Response getDigitalAgreementForPartiesAndProductAllLocal(@Context HttpHeaders headers,
                                                                     @QueryParam("partyId") String partyId) throws JsonParseException, JsonMappingException, IOException {
-        if (!_identityFederationHandler.userExist(headers.getHeaderString(HttpHeaders.AUTHORIZATION))) {
+        if (!isFederationUser(headers)) {
             return Response.status(Response.Status.UNAUTHORIZED).build();
         }
         HashMap<String, String> queryParams = new HashMap<String, String>();
@@ -2292,7 +2613,7 @@ public class Delegate implements ServletContextListener {
     public Response getGroupIdTupleLocal(@Context HttpHeaders headers,
                                          @PathParam("documentId") String documentId,
                                          @QueryParam("partyId") String partyId) throws JsonParseException, JsonMappingException, IOException {
-        if (!_identityFederationHandler.userExist(headers.getHeaderString(HttpHeaders.AUTHORIZATION))) {
+        if (!isFederationUser(headers)) {
             return Response.status(Response.Status.UNAUTHORIZED).build();
         }
         HashMap<String, String> queryParams = new HashMap<String, String>();
@@ -2323,7 +2644,7 @@ public class Delegate implements ServletContextListener {
     @Path("/collaboration-groups/unmerge/local")
     public Response unMergeCollaborationGroupLocal(@Context HttpHeaders headers,
                                                    @QueryParam("groupId") String groupId) throws JsonParseException, JsonMappingException, IOException {
-        if (!_identityFederationHandler.userExist(headers.getHeaderString(HttpHeaders.AUTHORIZATION))) {
+        if (!isFederationUser(headers)) {
             return Response.status(Response.Status.UNAUTHORIZED).build();
         }
         HashMap<String, String> queryParams = new HashMap<String, String>();
@@ -2359,7 +2680,7 @@ public class Delegate implements ServletContextListener {
                                                                   @PathParam("documentId") String documentId,
                                                                   String body,
                                                                   @QueryParam("partyId") String partyId) throws JsonParseException, JsonMappingException, IOException {
-        if (!_identityFederationHandler.userExist(headers.getHeaderString(HttpHeaders.AUTHORIZATION))) {
+        if (!isFederationUser(headers)) {
             return Response.status(Response.Status.UNAUTHORIZED).build();
         }
         HashMap<String, String> queryParams = new HashMap<String, String>();
@@ -2408,7 +2729,7 @@ public class Delegate implements ServletContextListener {
                                                @QueryParam("archived") Boolean archived,
                                                @QueryParam("partyId") String partyId,
                                                @Context   HttpServletResponse response) throws JsonParseException, JsonMappingException, IOException {
-        if (!_identityFederationHandler.userExist(headers.getHeaderString(HttpHeaders.AUTHORIZATION))) {
+        if (!isFederationUser(headers)) {
             response.setStatus(Response.Status.UNAUTHORIZED.getStatusCode());
             return;
         }
@@ -2484,7 +2805,7 @@ public class Delegate implements ServletContextListener {
                                                   @QueryParam("status") List<String> status,
                                                   @QueryParam("isProject") @DefaultValue("false") Boolean isProject,
                                                   @QueryParam("collaborationRole") String collaborationRole) throws JsonParseException, JsonMappingException, IOException {
-        if (!_identityFederationHandler.userExist(headers.getHeaderString(HttpHeaders.AUTHORIZATION))) {
+        if (!isFederationUser(headers)) {
             return Response.status(Response.Status.UNAUTHORIZED).build();
         }
 
@@ -2529,7 +2850,7 @@ public class Delegate implements ServletContextListener {
     public Response mergeCollaborationGroupsLocal(@Context HttpHeaders headers,
                                                   String body,
                                                   @QueryParam("bcid") String bcid) throws JsonParseException, JsonMappingException, IOException {
-        if (!_identityFederationHandler.userExist(headers.getHeaderString(HttpHeaders.AUTHORIZATION))) {
+        if (!isFederationUser(headers)) {
             return Response.status(Response.Status.UNAUTHORIZED).build();
         }
         HashMap<String, String> queryParams = new HashMap<String, String>();
@@ -2546,14 +2867,15 @@ public class Delegate implements ServletContextListener {
     @GET
     @Produces(MediaType.APPLICATION_JSON)
     @Path("/documents/expected-orders")
-    public Response getExpectedOrders(@Context HttpHeaders headers,
+    public void getExpectedOrders(@Context HttpHeaders headers,
                                                              @QueryParam("forAll") @DefaultValue("false")  Boolean forAll,
-                                                             @QueryParam("unShippedOrderIds") List<String> unShippedOrderIds) throws JsonParseException, JsonMappingException, IOException {
+                                                             @QueryParam("unShippedOrderIds") List<String> unShippedOrderIds,
+                                                             @Suspended final AsyncResponse asyncResponse) throws JsonParseException, JsonMappingException, IOException {
         logger.info("called federated update document");
         HashMap<String, String> queryParams = new HashMap<String, String>();
         queryParams.put("forAll",forAll.toString());
         queryParams.put("unShippedOrderIds",getStringQueryParam(unShippedOrderIds));
-        return businessProcessServiceCallWrapper(headers.getHeaderString(HttpHeaders.AUTHORIZATION), BusinessProcessHandler.GET_EXPECTED_ORDERS_LOCAL_PATH, queryParams,MergeOption.ListResults);
+        businessProcessServiceCallWrapper(asyncResponse, headers.getHeaderString(HttpHeaders.AUTHORIZATION), BusinessProcessHandler.GET_EXPECTED_ORDERS_LOCAL_PATH, queryParams,MergeOption.ListResults);
     }
 
     @GET
@@ -2561,7 +2883,7 @@ public class Delegate implements ServletContextListener {
     public Response getExpectedOrdersLocal(@Context HttpHeaders headers,
                                                                   @QueryParam("forAll") @DefaultValue("false") Boolean forAll,
                                                                   @QueryParam("unShippedOrderIds") List<String> unShippedOrderIds) throws JsonParseException, JsonMappingException, IOException {
-        if (!_identityFederationHandler.userExist(headers.getHeaderString(HttpHeaders.AUTHORIZATION))) {
+        if (!isFederationUser(headers)) {
             return Response.status(Response.Status.UNAUTHORIZED).build();
         }
         HashMap<String, String> queryParams = new HashMap<String, String>();
@@ -2581,14 +2903,15 @@ public class Delegate implements ServletContextListener {
     @GET
     @Produces(MediaType.APPLICATION_JSON)
     @Path("/statistics/overall")
-    public Response getStatistics(@Context HttpHeaders headers,
+    public void getStatistics(@Context HttpHeaders headers,
                                   @QueryParam("partyId") String partyId,
-                                  @QueryParam("role") @DefaultValue("SELLER") String role) throws JsonParseException, JsonMappingException, IOException {
+                                  @QueryParam("role") @DefaultValue("SELLER") String role,
+                                  @Suspended final AsyncResponse asyncResponse) throws JsonParseException, JsonMappingException, IOException {
         logger.info("called federated get document xml content");
         HashMap<String, String> queryParams = new HashMap<String, String>();
         queryParams.put("partyId", partyId);
         queryParams.put("role", role);
-        return businessProcessServiceCallWrapper(headers.getHeaderString(HttpHeaders.AUTHORIZATION), BusinessProcessHandler.GET_STATISTICS_LOCAL_PATH, queryParams,headers.getHeaderString("federationId"), MergeOption.OverallStatistics);
+        businessProcessServiceCallWrapper(asyncResponse, headers.getHeaderString(HttpHeaders.AUTHORIZATION), BusinessProcessHandler.GET_STATISTICS_LOCAL_PATH, queryParams,headers.getHeaderString("federationId"), MergeOption.OverallStatistics);
     }
 
     @GET
@@ -2596,7 +2919,7 @@ public class Delegate implements ServletContextListener {
     public Response getStatisticsLocal(@Context HttpHeaders headers,
                                        @QueryParam("partyId") String partyId,
                                        @QueryParam("role") @DefaultValue("SELLER") String role) throws JsonParseException, JsonMappingException, IOException {
-        if (!_identityFederationHandler.userExist(headers.getHeaderString(HttpHeaders.AUTHORIZATION))) {
+        if (!isFederationUser(headers)) {
             return Response.status(Response.Status.UNAUTHORIZED).build();
         }
         HashMap<String, String> queryParams = new HashMap<String, String>();
@@ -2631,7 +2954,7 @@ public class Delegate implements ServletContextListener {
     public void generateContractLocal(@Context HttpHeaders headers,
                                       @QueryParam("orderId") String orderId,
                                       @Context   HttpServletResponse response) throws JsonParseException, JsonMappingException, IOException {
-        if (!_identityFederationHandler.userExist(headers.getHeaderString(HttpHeaders.AUTHORIZATION))) {
+        if (!isFederationUser(headers)) {
             response.setStatus(Response.Status.UNAUTHORIZED.getStatusCode());
             return;
         }
@@ -2663,7 +2986,7 @@ public class Delegate implements ServletContextListener {
     @GET
     @Path("/paymentDone/{orderId}/local")
     public Response isPaymentDoneLocal(@Context HttpHeaders headers, @PathParam("orderId") String orderId) throws JsonParseException, JsonMappingException, IOException {
-        if (!_identityFederationHandler.userExist(headers.getHeaderString(HttpHeaders.AUTHORIZATION))) {
+        if (!isFederationUser(headers)) {
             return Response.status(Response.Status.UNAUTHORIZED).build();
         }
         URI businessProcessServiceUri = _httpHelper.buildUri(_businessProcessHandler.BaseUrl, _businessProcessHandler.Port, String.format(_businessProcessHandler.PathPrefix+BusinessProcessHandler.IS_PAYMENT_DONE_PATH, orderId), null);
@@ -2687,7 +3010,7 @@ public class Delegate implements ServletContextListener {
     @POST
     @Path("/paymentDone/{orderId}/local")
     public Response paymentDoneLocal(@Context HttpHeaders headers, @PathParam("orderId") String orderId) throws JsonParseException, JsonMappingException, IOException {
-        if (!_identityFederationHandler.userExist(headers.getHeaderString(HttpHeaders.AUTHORIZATION))) {
+        if (!isFederationUser(headers)) {
             return Response.status(Response.Status.UNAUTHORIZED).build();
         }
         URI businessProcessServiceUri = _httpHelper.buildUri(_businessProcessHandler.BaseUrl, _businessProcessHandler.Port, String.format(_businessProcessHandler.PathPrefix+BusinessProcessHandler.PAYMENT_DONE_PATH, orderId), null);
@@ -2711,7 +3034,7 @@ public class Delegate implements ServletContextListener {
     @DELETE
     @Path("/contract/digital-agreement/{id}/local")
     public Response deleteDigitalAgreementLocal(@Context HttpHeaders headers, @PathParam("id") Long id) throws JsonParseException, JsonMappingException, IOException {
-        if (!_identityFederationHandler.userExist(headers.getHeaderString(HttpHeaders.AUTHORIZATION))) {
+        if (!isFederationUser(headers)) {
             return Response.status(Response.Status.UNAUTHORIZED).build();
         }
         URI businessProcessServiceUri = _httpHelper.buildUri(_businessProcessHandler.BaseUrl, _businessProcessHandler.Port, String.format(_businessProcessHandler.PathPrefix+BusinessProcessHandler.DELETE_DIGITAL_AGREEMENT_PATH, id.toString()), null);
@@ -2735,7 +3058,7 @@ public class Delegate implements ServletContextListener {
     @POST
     @Path("/process-instance-groups/{id}/finish/local")
     public Response finishCollaborationLocal(@Context HttpHeaders headers, @PathParam("id") String id) throws JsonParseException, JsonMappingException, IOException {
-        if (!_identityFederationHandler.userExist(headers.getHeaderString(HttpHeaders.AUTHORIZATION))) {
+        if (!isFederationUser(headers)) {
             return Response.status(Response.Status.UNAUTHORIZED).build();
         }
         URI businessProcessServiceUri = _httpHelper.buildUri(_businessProcessHandler.BaseUrl, _businessProcessHandler.Port, String.format(_businessProcessHandler.PathPrefix+BusinessProcessHandler.FINISH_COLLABORATION_PATH, id), null);
@@ -2761,7 +3084,7 @@ public class Delegate implements ServletContextListener {
     @GET
     @Path("/processInstance/document/{documentId}/local")
     public Response getProcessInstanceIdForDocumentLocal(@Context HttpHeaders headers, @PathParam("documentId") String documentId) throws JsonParseException, JsonMappingException, IOException {
-        if (!_identityFederationHandler.userExist(headers.getHeaderString(HttpHeaders.AUTHORIZATION))) {
+        if (!isFederationUser(headers)) {
             return Response.status(Response.Status.UNAUTHORIZED).build();
         }
         URI businessProcessServiceUri = _httpHelper.buildUri(_businessProcessHandler.BaseUrl, _businessProcessHandler.Port, String.format(_businessProcessHandler.PathPrefix+BusinessProcessHandler.GET_PROCESS_INSTANCE_ID_FOR_DOCUMENT_PATH, documentId), null);
@@ -2777,19 +3100,20 @@ public class Delegate implements ServletContextListener {
     @GET
     @Produces(MediaType.APPLICATION_JSON)
     @Path("/statistics/response-time-months")
-    public Response getAverageResponseTimeForMonths(@Context HttpHeaders headers,
-                                                @QueryParam("partyId") String partyId) throws JsonParseException, JsonMappingException, IOException {
+    public void getAverageResponseTimeForMonths(@Context HttpHeaders headers,
+                                                @QueryParam("partyId") String partyId,
+                                                @Suspended final AsyncResponse asyncResponse) throws JsonParseException, JsonMappingException, IOException {
         logger.info("called federated get average response time for months");
         HashMap<String, String> queryParams = new HashMap<String, String>();
         queryParams.put("partyId", partyId);
-        return businessProcessServiceCallWrapper(headers.getHeaderString(HttpHeaders.AUTHORIZATION), BusinessProcessHandler.GET_AVERAGE_RESPONSE_TIME_FOR_MONTHS_LOCAL_PATH, queryParams,headers.getHeaderString("federationId"), MergeOption.AverageResponseTimeForMonths);
+        businessProcessServiceCallWrapper(asyncResponse, headers.getHeaderString(HttpHeaders.AUTHORIZATION), BusinessProcessHandler.GET_AVERAGE_RESPONSE_TIME_FOR_MONTHS_LOCAL_PATH, queryParams,headers.getHeaderString("federationId"), MergeOption.AverageResponseTimeForMonths);
     }
 
     @GET
     @Path("/statistics/response-time-months/local")
     public Response getAverageResponseTimeForMonthsLocal(@Context HttpHeaders headers,
                                                      @QueryParam("partyId") String partyId) throws JsonParseException, JsonMappingException, IOException {
-        if (!_identityFederationHandler.userExist(headers.getHeaderString(HttpHeaders.AUTHORIZATION))) {
+        if (!isFederationUser(headers)) {
             return Response.status(Response.Status.UNAUTHORIZED).build();
         }
         HashMap<String, String> queryParams = new HashMap<String, String>();
@@ -2817,7 +3141,7 @@ public class Delegate implements ServletContextListener {
     @GET
     @Path("/statistics/fulfilment/local")
     public Response getFulfilmentStatisticsLocal(@Context HttpHeaders headers, @QueryParam("orderId") String orderId) throws JsonParseException, JsonMappingException, IOException {
-        if (!_identityFederationHandler.userExist(headers.getHeaderString(HttpHeaders.AUTHORIZATION))) {
+        if (!isFederationUser(headers)) {
             return Response.status(Response.Status.UNAUTHORIZED).build();
         }
         HashMap<String, String> queryParams = new HashMap<String, String>();
@@ -2866,7 +3190,7 @@ public class Delegate implements ServletContextListener {
                                                @QueryParam("buyerPartyId") String buyerPartyId,
                                                @QueryParam("incoterms") String incoterms,
                                                @QueryParam("tradingTerm") String tradingTerm) throws JsonParseException, JsonMappingException, IOException {
-        if (!_identityFederationHandler.userExist(headers.getHeaderString(HttpHeaders.AUTHORIZATION))) {
+        if (!isFederationUser(headers)) {
             return Response.status(Response.Status.UNAUTHORIZED).build();
         }
         HashMap<String, String> queryParams = new HashMap<String, String>();
@@ -2912,7 +3236,7 @@ public class Delegate implements ServletContextListener {
     @Path("/rest/engine/default/history/variable-instance/local")
     public Response getProcessDetailsHistoryLocal(@Context HttpHeaders headers,
                                                   @QueryParam("processInstanceIdIn") String processInstanceIdIn) throws JsonParseException, JsonMappingException, IOException {
-        if (!_identityFederationHandler.userExist(headers.getHeaderString(HttpHeaders.AUTHORIZATION))) {
+        if (!isFederationUser(headers)) {
             return Response.status(Response.Status.UNAUTHORIZED).build();
         }
         HashMap<String, String> queryParams = new HashMap<String, String>();
@@ -2977,14 +3301,6 @@ public class Delegate implements ServletContextListener {
     }
 
 
-    private Response businessProcessServiceCallWrapper(String userAccessToken,
-                                                       String pathToSendRequest,
-                                                       HashMap<String, String> queryParams,
-                                                       String federationIdHeader,
-                                                       MergeOption mergeOption) throws IOException {
-        return businessProcessServiceCallWrapper("GET",userAccessToken,pathToSendRequest,queryParams,null,federationIdHeader,null,null,null,mergeOption,null,null);
-    }
-
     private Response businessProcessServiceCallWrapper(String method,
                                                        String userAccessToken,
                                                        String pathToSendRequest,
@@ -3011,6 +3327,48 @@ public class Delegate implements ServletContextListener {
         return businessProcessServiceCallWrapper("GET",userAccessToken,pathToSendRequest,queryParams,null,null,null,null,delegateIds,MergeOption.ListResults,null,null);
     }
 
+    private void businessProcessServiceCallWrapper(AsyncResponse asyncResponse,
+                                                   String userAccessToken,
+                                                   String pathToSendRequest,
+                                                   HashMap<String, String> queryParams,
+                                                   MergeOption mergeOption) throws IOException {
+        businessProcessServiceCallWrapper(asyncResponse,userAccessToken,pathToSendRequest,queryParams,null,null,mergeOption);
+    }
+
+    private void businessProcessServiceCallWrapper(AsyncResponse asyncResponse,
+                                                   String userAccessToken,
+                                                   String pathToSendRequest,
+                                                   HashMap<String, String> queryParams,
+                                                   String federationIdHeader,
+                                                   MergeOption mergeOption) throws IOException {
+        businessProcessServiceCallWrapper(asyncResponse,userAccessToken,pathToSendRequest,queryParams,federationIdHeader,null,mergeOption);
+    }
+
+    // sends the get request to the given (or all) delegates and resumes the suspended request with the merged results
+    private void businessProcessServiceCallWrapper(AsyncResponse asyncResponse,
+                                                   String userAccessToken,
+                                                   String pathToSendRequest,
+                                                   HashMap<String, String> queryParams,
+                                                   String federationIdHeader,
+                                                   List<String> delegateIds,
+                                                   MergeOption mergeOption) throws IOException {
+        // validation check of the authorization header in the local identity service
+        if (!_identityLocalHandler.userExist(userAccessToken)) {
+            asyncResponse.resume(Response.status(Response.Status.UNAUTHORIZED).build());
+            return;
+        }
+        if (queryParams != null) {
+            logger.info("query params: " + queryParams.toString());
+        }
+        MultivaluedMap<String, Object> headers = businessProcessHeaders(userAccessToken,federationIdHeader,null,null,null);
+        resumeWhenDone(asyncResponse, _httpHelper.sendGetRequestToAllDelegatesAsync(pathToSendRequest, headers, queryParams, mergeOption, delegateIds), new ResultMerger<DelegateResponse>() {
+            @Override
+            public Response merge(DelegateResponse delegateResponse) {
+                return buildResponse(delegateResponse);
+            }
+        });
+    }
+
     private Response businessProcessServiceCallWrapper(String method,
                                                        String userAccessToken,
                                                        String pathToSendRequest,
@@ -3030,6 +3388,37 @@ public class Delegate implements ServletContextListener {
         if (queryParams != null) {
             logger.info("query params: " + queryParams.toString());
         }
+        MultivaluedMap<String, Object> headers = businessProcessHeaders(userAccessToken,federationIdHeader,initiatorFederationIdHeader,responderFederationIdHeader,tokenToBeCheckedHeader);
+
+        if(response != null){
+            headers.add("Accept","application/zip");
+        }
+
+        DelegateResponse delegateResponse = null;
+        if(method.contentEquals("GET") && delegateIds != null && delegateIds.size() == 1){
+            delegateResponse = _httpHelper.sendGetRequestToSingleDelegate(pathToSendRequest, headers, queryParams,delegateIds.get(0),response);
+        }
+        else if(method.contentEquals("GET") && (delegateIds == null || delegateIds.size() > 1)){
+            delegateResponse = _httpHelper.sendGetRequestToAllDelegates(pathToSendRequest, headers, queryParams,mergeOption,response,delegateIds);
+        }
+        else if(method.contentEquals("POST") && delegateIds != null){
+            delegateResponse = _httpHelper.sendPostRequestToSingleDelegate(pathToSendRequest, headers, queryParams,body,delegateIds.get(0));
+        }
+        else if(method.contentEquals("DELETE") && delegateIds != null){
+            delegateResponse = _httpHelper.sendDeleteRequestToSingleDelegate(pathToSendRequest, headers, queryParams,delegateIds.get(0));
+        }
+        else if(method.contentEquals("PATCH")){
+            delegateResponse = _httpHelper.sendPatchRequestToSingleDelegate(pathToSendRequest, headers,queryParams,body,delegateIds.get(0));
+        }
+
+        return buildResponse(delegateResponse);
+    }
+
+    private MultivaluedMap<String, Object> businessProcessHeaders(String userAccessToken,
+                                                                  String federationIdHeader,
+                                                                  String initiatorFederationIdHeader,
+                                                                  String responderFederationIdHeader,
+                                                                  String tokenToBeCheckedHeader) throws IOException {
         // replace the authorization header to the federation identity of the delegate service
         MultivaluedMap<String, Object> headers = new MultivaluedHashMap<String, Object>();
         headers.add(HttpHeaders.AUTHORIZATION, _identityFederationHandler.getAccessToken());
@@ -3050,35 +3439,102 @@ public class Delegate implements ServletContextListener {
         // add ORIGINAL_AUTHORIZATION_HEADER and CLIENT_FEDERATION_ID_HEADER to header list
         // since they are required for some bp services
         headers.add(ORIGINAL_AUTHORIZATION_HEADER,userAccessToken);
-        headers.add(CLIENT_FEDERATION_ID_HEADER,_eurekaHandler.getAppName());
+        headers.add(CLIENT_FEDERATION_ID_HEADER,_discoveryHandler.getAppName());
+        return headers;
+    }
 
-        if(response != null){
-            headers.add("Accept","application/zip");
-        }
-
-        DelegateResponse delegateResponse = null;
-        if(method.contentEquals("GET") && delegateIds != null && delegateIds.size() == 1){
-            delegateResponse = _httpHelper.sendGetRequestToSingleDelegate(pathToSendRequest, headers, queryParams,delegateIds.get(0),response);
-        }
-        else if(method.contentEquals("GET") && (delegateIds == null || delegateIds.size() > 1)){
-            delegateResponse = _httpHelper.sendGetRequestToAllDelegates(pathToSendRequest, headers, queryParams,mergeOption,response,delegateIds);
-        }
-        else if(method.contentEquals("POST") && delegateIds != null){
-            delegateResponse = _httpHelper.sendPostRequestToSingleDelegate(pathToSendRequest, headers, queryParams,body,delegateIds.get(0));
-        }
-        else if(method.contentEquals("DELETE") && delegateIds != null){
-            delegateResponse = _httpHelper.sendDeleteRequestToSingleDelegate(pathToSendRequest, headers, queryParams,delegateIds.get(0));
-        }
-        else if(method.contentEquals("PATCH")){
-            delegateResponse = _httpHelper.sendPatchRequestToSingleDelegate(pathToSendRequest, headers,queryParams,body,delegateIds.get(0));
+    // the local APIs are called by the other delegates with a federation token, which is validated by the identity
+    // service. the calls which this delegate dispatched to itself in process are trusted without the validation
+    private boolean isFederationUser(HttpHeaders headers) {
+        if (InProcessCalls.isInProcess(headers.getHeaderString(InProcessCalls.HEADER))) {
+            return true;
         }
+        return _identityFederationHandler.userExist(headers.getHeaderString(HttpHeaders.AUTHORIZATION));
+    }
 
+    private static Response buildResponse(DelegateResponse delegateResponse) {
         return Response.status(Response.Status.fromStatusCode(delegateResponse.getStatus()))
                 .type(MediaType.APPLICATION_JSON)
                 .entity(delegateResponse.getData())
                 .build();
     }
 
+    /***********************************   asynchronous federated calls - helper function   ***********************************/
+    // builds the response of a suspended request from the results of the delegates
+    private interface ResultMerger<T> {
+        Response merge(T result) throws IOException;
+    }
+
+    // builds the response of a suspended request whose fan-out failed or timed out, or returns null for the usual error
+    private interface FailureFallback {
+        Response fallback();
+    }
+
+    // Resumes the suspended request with the merged results when the fan-out to the delegates is done, so no container
+    // thread waits for the delegates. the fan-out (with the delegate calls which are still pending) is cancelled when
+    // the client disconnects or when the request times out
+    private <T> void resumeWhenDone(final AsyncResponse asyncResponse, final CompletableFuture<T> fanOut, final ResultMerger<T> merger) {
+        resumeWhenDone(asyncResponse, fanOut, merger, null);
+    }
+
+    private <T> void resumeWhenDone(final AsyncResponse asyncResponse, final CompletableFuture<T> fanOut, final ResultMerger<T> merger, final FailureFallback fallback) {
+        asyncResponse.setTimeoutHandler(new TimeoutHandler() {
+            @Override
+            public void handleTimeout(AsyncResponse timedOut) {
+                logger.error("the federated request timed out after {} seconds", _asyncTimeoutSec);
+                fanOut.cancel(true);
+                Response fallbackResponse = fallback == null ? null : fallback.fallback();
+                if (fallbackResponse != null) {
+                    timedOut.resume(fallbackResponse);
+                    return;
+                }
+                timedOut.resume(Response.status(Response.Status.SERVICE_UNAVAILABLE)
+                        .header("Access-Control-Allow-Origin", "*")
+                        .entity("the delegates did not respond in time")
+                        .build());
+            }
+        });
+        asyncResponse.setTimeout(_asyncTimeoutSec, TimeUnit.SECONDS);
+        // Jersey reports a disconnect (ConnectionCallback) only when the response fails to be written, after the
+        // fan-out is done, so the fan-out is cancelled by the error which the servlet container reports
+        if (_servletRequest != null) {
+            InboundRequests.whenAborted(_servletRequest, new Runnable() {
+                @Override
+                public void run() {
+                    if (!fanOut.isDone()) {
+                        logger.info("the request was aborted (the client disconnected), cancelling the calls to the delegates");
+                        fanOut.cancel(true);
+                    }
+                }
+            });
+        }
+        fanOut.whenComplete(new BiConsumer<T, Throwable>() {
+            @Override
+            public void accept(T result, Throwable failure) {
+                if (fanOut.isCancelled()) {
+                    return;
+                }
+                if (failure != null) {
+                    logger.error("the federated request failed", failure);
+                    Response fallbackResponse = fallback == null ? null : fallback.fallback();
+                    if (fallbackResponse != null) {
+                        asyncResponse.resume(fallbackResponse);
+                        return;
+                    }
+                    asyncResponse.resume(failure instanceof CompletionException && failure.getCause() != null ? failure.getCause() : failure);
+                    return;
+                }
+                try {
+                    asyncResponse.resume(merger.merge(result));
+                } catch (Exception e) {
+                    logger.error("failed to merge the results of the delegates", e);
+                    asyncResponse.resume(e);
+                }
+            }
+        });
+    }
+    /***********************************   asynchronous federated calls - helper function - END   ***********************************/
+
     //TODO: remove this method
     private String getStringQueryParam(List<String> list){
         StringBuilder queryParam = new StringBuilder();
@@ -3109,7 +3565,7 @@ public class Delegate implements ServletContextListener {
     @GET
     @Path("/company-settings/{companyID}/local")
     public Response getSettingsLocal(@Context HttpHeaders headers, @PathParam("companyID") Long companyID) throws JsonParseException, JsonMappingException, IOException {
-        if (!_identityFederationHandler.userExist(headers.getHeaderString(HttpHeaders.AUTHORIZATION))) {
+        if (!isFederationUser(headers)) {
             return Response.status(Response.Status.UNAUTHORIZED).build();
         }
 
@@ -3134,7 +3590,7 @@ public class Delegate implements ServletContextListener {
     @GET
     @Path("/company-settings/{companyID}/negotiation/local")
     public Response getNegotiationSettingsLocal(@Context HttpHeaders headers, @PathParam("companyID") Long companyID) throws JsonParseException, JsonMappingException, IOException {
-        if (!_identityFederationHandler.userExist(headers.getHeaderString(HttpHeaders.AUTHORIZATION))) {
+        if (!isFederationUser(headers)) {
             return Response.status(Response.Status.UNAUTHORIZED).build();
         }
 
@@ -3161,7 +3617,7 @@ public class Delegate implements ServletContextListener {
     @GET
     @Path("/party/{partyId}/local")
     public Response getPartyLocal(@Context HttpHeaders headers,@PathParam("partyId") Long partyId,@QueryParam("includeRoles") boolean includeRoles) throws JsonParseException, JsonMappingException, IOException {
-        if (!_identityFederationHandler.userExist(headers.getHeaderString(HttpHeaders.AUTHORIZATION))) {
+        if (!isFederationUser(headers)) {
             return Response.status(Response.Status.UNAUTHORIZED).build();
         }
 
@@ -3192,7 +3648,7 @@ public class Delegate implements ServletContextListener {
     @GET
     @Path("/parties/{partyIds}/local")
     public Response getPartyLocal(@Context HttpHeaders headers,@PathParam("partyIds") List<String> partyIds,@QueryParam("includeRoles") boolean includeRoles) throws JsonParseException, JsonMappingException, IOException {
-        if (!_identityFederationHandler.userExist(headers.getHeaderString(HttpHeaders.AUTHORIZATION))) {
+        if (!isFederationUser(headers)) {
             return Response.status(Response.Status.UNAUTHORIZED).build();
         }
 
@@ -3221,7 +3677,7 @@ public class Delegate implements ServletContextListener {
     @GET
     @Path("/person/{personId}/local")
     public Response getPersonLocal(@Context HttpHeaders headers,@PathParam("personId") Long personId) throws JsonParseException, JsonMappingException, IOException {
-        if (!_identityFederationHandler.userExist(headers.getHeaderString(HttpHeaders.AUTHORIZATION))) {
+        if (!isFederationUser(headers)) {
             return Response.status(Response.Status.UNAUTHORIZED).build();
         }
 
@@ -3247,7 +3703,7 @@ public class Delegate implements ServletContextListener {
     @GET
     @Path("/person/local")
     public Response getPersonViaTokenLocal(@Context HttpHeaders headers) throws JsonParseException, JsonMappingException, IOException {
-        if (!_identityFederationHandler.userExist(headers.getHeaderString(HttpHeaders.AUTHORIZATION))) {
+        if (!isFederationUser(headers)) {
             return Response.status(Response.Status.UNAUTHORIZED).build();
         }
 
@@ -3274,7 +3730,7 @@ public class Delegate implements ServletContextListener {
     @GET
     @Path("/party_by_person/{personId}/local")
     public Response getPartyByPersonIDLocal(@Context HttpHeaders headers,@PathParam("personId") Long personId,@QueryParam("includeRoles") @DefaultValue("false") Boolean includeRoles) throws JsonParseException, JsonMappingException, IOException {
-        if (!_identityFederationHandler.userExist(headers.getHeaderString(HttpHeaders.AUTHORIZATION))) {
+        if (!isFederationUser(headers)) {
             return Response.status(Response.Status.UNAUTHORIZED).build();
         }
 
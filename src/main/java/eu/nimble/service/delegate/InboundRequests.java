@@ -0,0 +1,100 @@
+package eu.nimble.service.delegate;
+
+import java.io.IOException;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletRequest;
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Classification of the inbound requests by their path, shared by the admission filters and the in-process
+ * dispatch of the delegate calls.
+ */
+public final class InboundRequests {
+	private InboundRequests() {
+	}
+
+	// path of the request within the application, without a trailing slash
+	static String getPath(HttpServletRequest request) {
+		String path = request.getRequestURI().substring(request.getContextPath().length());
+		if (path.length() > 1 && path.endsWith("/")) {
+			path = path.substring(0, path.length() - 1);
+		}
+		return path.isEmpty() ? "/" : path;
+	}
+
+	// preflight requests and the monitoring APIs are never limited
+	static boolean isExempt(HttpServletRequest request, String path) {
+		return "OPTIONS".equals(request.getMethod()) || path.equals("/") || path.startsWith("/metrics") || path.startsWith("/eureka");
+	}
+
+	// the APIs called by the other delegates
+	static boolean isLocal(String path) {
+		return path.endsWith("/local");
+	}
+
+	// the zip export and the contract bundle generation
+	public static boolean isExport(String path) {
+		return path.startsWith("/processInstance/export") || path.startsWith("/contracts/create-bundle");
+	}
+
+	// the dashboard counters and statistics
+	static boolean isBackground(String path) {
+		return path.startsWith("/statistics");
+	}
+
+	// Runs the action when the request is done. The filter chain returns before a suspended (asynchronous) request
+	// is resumed, so for such a request the action runs when it completes (also after an error or a timeout)
+	static void whenDone(ServletRequest request, final Runnable action) {
+		if (!request.isAsyncStarted()) {
+			action.run();
+			return;
+		}
+		request.getAsyncContext().addListener(new AsyncListener() {
+			@Override
+			public void onComplete(AsyncEvent event) throws IOException {
+				action.run();
+			}
+
+			@Override
+			public void onTimeout(AsyncEvent event) throws IOException {
+			}
+
+			@Override
+			public void onError(AsyncEvent event) throws IOException {
+			}
+
+			@Override
+			public void onStartAsync(AsyncEvent event) throws IOException {
+			}
+		});
+	}
+
+	// Runs the action when a suspended (asynchronous) request fails before it's resumed - the client disconnected
+	// (the container reports it as an error of the request) or the request timed out
+	static void whenAborted(ServletRequest request, final Runnable action) {
+		if (!request.isAsyncStarted()) {
+			return;
+		}
+		request.getAsyncContext().addListener(new AsyncListener() {
+			@Override
+			public void onComplete(AsyncEvent event) throws IOException {
+			}
+
+			@Override
+			public void onTimeout(AsyncEvent event) throws IOException {
+				action.run();
+			}
+
+			@Override
+			public void onError(AsyncEvent event) throws IOException {
+				action.run();
+			}
+
+			@Override
+			public void onStartAsync(AsyncEvent event) throws IOException {
+			}
+		});
+	}
+}
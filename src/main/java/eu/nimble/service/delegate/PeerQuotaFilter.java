@@ -0,0 +1,50 @@
+package eu.nimble.service.delegate;
+
+import java.io.IOException;
+
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.ext.Provider;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import eu.nimble.service.delegate.http.BatchHandler;
+import eu.nimble.service.delegate.http.HttpHelper;
+import eu.nimble.service.delegate.http.InProcessCalls;
+import eu.nimble.service.delegate.resilience.PeerQuotas;
+
+/**
+ * Peer Quota Filter - throttles the requests of the other delegates to the local APIs by their quotas.
+ * The calling delegate is identified by the client federation id header, and a throttled request gets
+ * 429 with a Retry-After header. The header is set by the caller, so only the calls which this delegate
+ * dispatched in process (with the in-process secret) are exempted.
+ */
+@Provider
+public class PeerQuotaFilter implements ContainerRequestFilter {
+	private static Logger logger = LogManager.getLogger(PeerQuotaFilter.class);
+
+	@Override
+	public void filter(ContainerRequestContext requestContext) throws IOException {
+		PeerQuotas peerQuotas = Delegate.getPeerQuotas();
+		String path = requestContext.getUriInfo().getPath();
+		// the calls of a batch are throttled one by one
+		if (peerQuotas == null || !peerQuotas.isEnabled() || !path.endsWith("/local") || BatchHandler.isBatch(path)) {
+			return;
+		}
+		if (InProcessCalls.isInProcess(requestContext.getHeaderString(InProcessCalls.HEADER))) {
+			peerQuotas.localCallAccepted();
+			return;
+		}
+		String peer = requestContext.getHeaderString(HttpHelper.CLIENT_FEDERATION_ID_HEADER);
+		long waitMillis = peerQuotas.tryAcquire(peer);
+		if (waitMillis > 0) {
+			logger.warn("throttling the request of {} to {}, its quota is used", peer, requestContext.getUriInfo().getPath());
+			requestContext.abortWith(Response.status(429)
+					.header("Retry-After", String.valueOf((waitMillis + 999) / 1000))
+					.entity("the quota of " + peer + " is used")
+					.build());
+		}
+	}
+}
@@ -0,0 +1,92 @@
+package eu.nimble.service.delegate;
+
+import java.io.IOException;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import eu.nimble.service.delegate.metrics.Metrics;
+import eu.nimble.service.delegate.resilience.FairScheduler;
+import eu.nimble.service.delegate.resilience.FairScheduler.Lane;
+
+/**
+ * Priority Lane Filter - runs the inbound requests by priority lanes and fair queuing between the tenants.
+ * Exports are bulk requests and statistics are background requests, all the other requests are interactive.
+ * The tenant is the federationId header, and a request which waited too long for its turn gets 503 with
+ * a Retry-After header.
+ * The local APIs are not queued, since a federated request holds its slot while it waits for the local API of this
+ * delegate (they are limited by the peer quotas and the concurrency limit).
+ */
+public class PriorityLaneFilter implements Filter {
+	private static Logger logger = LogManager.getLogger(PriorityLaneFilter.class);
+
+	private static final String FEDERATION_ID_HEADER = "federationId";
+	private static final String ANONYMOUS_TENANT = "anonymous";
+
+	private FairScheduler scheduler;
+
+	@Override
+	public void init(FilterConfig filterConfig) throws ServletException {
+		scheduler = new FairScheduler();
+		Metrics.register("lanes", scheduler);
+	}
+
+	@Override
+	public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
+		HttpServletRequest httpRequest = (HttpServletRequest) request;
+		String path = InboundRequests.getPath(httpRequest);
+		if (!scheduler.isEnabled() || InboundRequests.isExempt(httpRequest, path) || InboundRequests.isLocal(path)) {
+			chain.doFilter(request, response);
+			return;
+		}
+		final Lane lane = getLane(path);
+		String tenant = getTenant(httpRequest);
+		if (!scheduler.acquire(lane, tenant)) {
+			logger.warn("rejecting {} {} of {}, it waited too long in the {} lane", httpRequest.getMethod(), httpRequest.getRequestURI(), tenant, lane);
+			HttpServletResponse httpResponse = (HttpServletResponse) response;
+			httpResponse.setHeader("Access-Control-Allow-Origin", "*");
+			httpResponse.setHeader("Retry-After", "1");
+			httpResponse.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "the delegate service is busy");
+			return;
+		}
+		try {
+			chain.doFilter(request, response);
+		} finally {
+			// a suspended request holds its slot until it completes
+			InboundRequests.whenDone(request, new Runnable() {
+				@Override
+				public void run() {
+					scheduler.release(lane);
+				}
+			});
+		}
+	}
+
+	static Lane getLane(String path) {
+		if (InboundRequests.isExport(path)) {
+			return Lane.BULK;
+		}
+		if (InboundRequests.isBackground(path)) {
+			return Lane.BACKGROUND;
+		}
+		return Lane.INTERACTIVE;
+	}
+
+	static String getTenant(HttpServletRequest request) {
+		String tenant = request.getHeader(FEDERATION_ID_HEADER);
+		return tenant == null || tenant.isEmpty() ? ANONYMOUS_TENANT : tenant;
+	}
+
+	@Override
+	public void destroy() {
+	}
+}
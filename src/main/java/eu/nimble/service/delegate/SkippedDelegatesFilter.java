@@ -0,0 +1,41 @@
+package eu.nimble.service.delegate;
+
+import java.io.IOException;
+import java.util.Set;
+
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.ext.Provider;
+
+import eu.nimble.service.delegate.resilience.SkippedDelegates;
+
+/**
+ * Skipped Delegates Filter - adds the delegates which were left out of the fan-out (open circuit breaker)
+ * to the response, as a comma separated list in the skippedDelegates header.
+ */
+@Provider
+public class SkippedDelegatesFilter implements ContainerRequestFilter, ContainerResponseFilter {
+	@Override
+	public void filter(ContainerRequestContext requestContext) throws IOException {
+		SkippedDelegates.clear();
+		// a suspended request is resumed by another thread, so the delegates skipped by the request thread are kept with the request
+		requestContext.setProperty(SkippedDelegates.HEADER, SkippedDelegates.get());
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public void filter(ContainerRequestContext requestContext,
+					   ContainerResponseContext responseContext) throws IOException {
+		Set<String> skipped = (Set<String>) requestContext.getProperty(SkippedDelegates.HEADER);
+		if (skipped == null) {
+			skipped = SkippedDelegates.get();
+		}
+		if (!skipped.isEmpty()) {
+			responseContext.getHeaders().add(SkippedDelegates.HEADER, String.join(",", skipped));
+			responseContext.getHeaders().add("Access-Control-Expose-Headers", SkippedDelegates.HEADER);
+		}
+		SkippedDelegates.clear();
+	}
+}
@@ -6,7 +6,8 @@ import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
-import eu.nimble.service.delegate.eureka.ServiceEndpoint;
+import eu.nimble.service.delegate.discovery.ServiceEndpoint;
+import eu.nimble.service.delegate.http.EndpointResult;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
@@ -178,20 +179,14 @@ public class BusinessProcessHandler {
         logger.info("Service Handler is being initialized with base url = " + BaseUrl + ", path prefix = " + PathPrefix + ", port = " + Port + "...");
     }
 
-    public static String mergeBooleanResults(List<Future<Response>> futureList){
-        // Wait (one by one) for the responses from all the services
-        HashMap<ServiceEndpoint, String> resList = new HashMap<ServiceEndpoint, String>();
-        for(int i = 0; i< futureList.size(); i++) {
-            Future<Response> response = futureList.get(i);
+    public static String mergeBooleanResults(List<EndpointResult> results){
+        for (EndpointResult result : results) {
+            // failed responses are already logged while collecting them
+            if (!result.isSuccessful()) {
+                continue;
+            }
             try {
-                Response res = response.get(REQ_TIMEOUT_SEC, TimeUnit.SECONDS);
-                if (res.getStatus() > 300) {
-//                    logger.warn("got failure status code " + res.getStatus() + " from appName:" + endpoint.getAppName() +
-//                            " (" + endpoint.getHostName() +
-//                            ":" + endpoint.getPort() + ")");
-                    continue;
-                }
-                String data = res.readEntity(String.class);
+                String data = result.getData();
                 if(data.contentEquals("false")){
                     return "false";
                 }
@@ -207,22 +202,16 @@ public class BusinessProcessHandler {
         return "true";
     }
 
-    public static String mergeDoubleResults(List<Future<Response>> futureList){
-        double result = 0.0;
-        // Wait (one by one) for the responses from all the services
-        HashMap<ServiceEndpoint, String> resList = new HashMap<ServiceEndpoint, String>();
-        for(int i = 0; i< futureList.size(); i++) {
-            Future<Response> response = futureList.get(i);
+    public static String mergeDoubleResults(List<EndpointResult> results){
+        double sum = 0.0;
+        for (EndpointResult result : results) {
+            // failed responses are already logged while collecting them
+            if (!result.isSuccessful()) {
+                continue;
+            }
             try {
-                Response res = response.get(REQ_TIMEOUT_SEC, TimeUnit.SECONDS);
-                if (res.getStatus() > 300) {
-//                    logger.warn("got failure status code " + res.getStatus() + " from appName:" + endpoint.getAppName() +
-//                            " (" + endpoint.getHostName() +
-//                            ":" + endpoint.getPort() + ")");
-                    continue;
-                }
-                String data = res.readEntity(String.class);
-                result += Double.parseDouble(data);
+                String data = result.getData();
+                sum += Double.parseDouble(data);
             } catch(Exception e) {
                 logger.error("Failed to get response while merging double results:",e);
 //                logger.warn("Failed to send request to eureka endpoint: app name: " +  endpoint.getAppName() +
@@ -232,30 +221,21 @@ public class BusinessProcessHandler {
 //                        e.getMessage());
             }
         }
-        return Double.toString(result);
+        return Double.toString(sum);
     }
 
-    public static String mergeAverageResponseTimeForMonths(List<Future<Response>> futureList){
+    public static String mergeAverageResponseTimeForMonths(List<EndpointResult> results){
         Map<Integer,Double> map = new HashMap<>();
 
-        JsonParser jsonParser = new JsonParser();
-
         Set<Integer> keySet = null;
 
-        // Wait (one by one) for the responses from all the services
-        HashMap<ServiceEndpoint, String> resList = new HashMap<ServiceEndpoint, String>();
-        for(int i = 0; i< futureList.size(); i++) {
-            Future<Response> response = futureList.get(i);
+        for (EndpointResult result : results) {
+            // failed responses are already logged while collecting them
+            if (!result.isSuccessful()) {
+                continue;
+            }
             try {
-                Response res = response.get(REQ_TIMEOUT_SEC, TimeUnit.SECONDS);
-                if (res.getStatus() > 300) {
-//                    logger.warn("got failure status code " + res.getStatus() + " from appName:" + endpoint.getAppName() +
-//                            " (" + endpoint.getHostName() +
-//                            ":" + endpoint.getPort() + ")");
-                    continue;
-                }
-                String data = res.readEntity(String.class);
-                JsonObject jsonObject = jsonParser.parse(data).getAsJsonObject();
+                JsonObject jsonObject = result.getJson().getAsJsonObject();
                 if(keySet == null){
                     keySet = new HashSet<>();
                 }
@@ -304,7 +284,7 @@ public class BusinessProcessHandler {
         return result;
     }
 
-    public static String mergeRatingSummaries(List<Future<Response>> futureList){
+    public static String mergeRatingSummaries(List<EndpointResult> results){
         int responseTimeRating = 0;
         int deliveryAndPackaging = 0;
         int totalNumberOfRatings = 0;
@@ -312,21 +292,13 @@ public class BusinessProcessHandler {
         int qualityOfOrderingProcess = 0;
         int listingAccuracy = 0;
         int conformanceToContractualTerms = 0;
-        JsonParser parser = new JsonParser();
-        // Wait (one by one) for the responses from all the services
-        HashMap<ServiceEndpoint, String> resList = new HashMap<ServiceEndpoint, String>();
-        for(int i = 0; i< futureList.size(); i++) {
-            Future<Response> response = futureList.get(i);
+        for (EndpointResult result : results) {
+            // failed responses are already logged while collecting them
+            if (!result.isSuccessful()) {
+                continue;
+            }
             try {
-                Response res = response.get(REQ_TIMEOUT_SEC, TimeUnit.SECONDS);
-                if (res.getStatus() > 300) {
-//                    logger.warn("got failure status code " + res.getStatus() + " from appName:" + endpoint.getAppName() +
-//                            " (" + endpoint.getHostName() +
-//                            ":" + endpoint.getPort() + ")");
-                    continue;
-                }
-                String data = res.readEntity(String.class);
-                JsonObject object = parser.parse(data).getAsJsonObject();
+                JsonObject object = result.getJson().getAsJsonObject();
 
                 responseTimeRating += object.get("responseTimeRating").getAsInt();
                 deliveryAndPackaging += object.get("deliveryAndPackaging").getAsInt();
@@ -355,31 +327,21 @@ public class BusinessProcessHandler {
         return object.toString();
     }
 
-    public static String mergeCollaborationGroups(List<ServiceEndpoint> endpointList, List<Future<Response>> futureList){
-        // Wait (one by one) for the responses from all the services
+    public static String mergeCollaborationGroups(List<EndpointResult> results){
         JsonArray jsonArray = new JsonArray();
-        JsonParser parser = new JsonParser();
-        for(int i = 0; i< futureList.size(); i++) {
-            Future<Response> response = futureList.get(i);
-            ServiceEndpoint endpoint = endpointList.get(i);
-            logger.info("got response from " + endpoint.toString());
+        for (EndpointResult result : results) {
+            if (!result.isSuccessful()) {
+                continue;
+            }
+            ServiceEndpoint endpoint = result.getEndpoint();
             try {
-                Response res = response.get(REQ_TIMEOUT_SEC, TimeUnit.SECONDS);
-                if (res.getStatus() > 300) {
-                    logger.warn("got failure status code " + res.getStatus() + " from appName:" + endpoint.getAppName() +
-                            " (" + endpoint.getHostName() +
-                            ":" + endpoint.getPort() + ")");
-                    continue;
-                }
-                String data = res.readEntity(String.class);
-
                 JsonObject jsonObject = new JsonObject();
                 jsonObject.addProperty("federationId",endpoint.getAppName());
-                jsonObject.add("collaborationGroups",parser.parse(data));
+                jsonObject.add("collaborationGroups",result.getJson());
 
                 jsonArray.add(jsonObject);
             } catch(Exception e) {
-                logger.error("Failed to send request to eureka endpoint: app name: {}, ({}:{})",endpoint.getAppName(),endpoint.getHostName(),endpoint.getPort(),e);
+                logger.error("Failed to parse collaboration groups of eureka endpoint: app name: {}, ({}:{})",endpoint.getAppName(),endpoint.getHostName(),endpoint.getPort(),e);
             }
         }
         logger.info("aggregated results: \n" + jsonArray.toString());
@@ -455,25 +417,16 @@ public class BusinessProcessHandler {
         return jsonObject.toString();
     }
 
-    public static String mergeIndividualRatingsAndReviews(List<Future<Response>> futureList){
+    public static String mergeIndividualRatingsAndReviews(List<EndpointResult> results){
         JsonArray jsonArray = new JsonArray();
 
-        JsonParser jsonParser = new JsonParser();
-
-        // Wait (one by one) for the responses from all the services
-        HashMap<ServiceEndpoint, String> resList = new HashMap<ServiceEndpoint, String>();
-        for(int i = 0; i< futureList.size(); i++) {
-            Future<Response> response = futureList.get(i);
+        for (EndpointResult result : results) {
+            // failed responses are already logged while collecting them
+            if (!result.isSuccessful()) {
+                continue;
+            }
             try {
-                Response res = response.get(REQ_TIMEOUT_SEC, TimeUnit.SECONDS);
-                if (res.getStatus() > 300) {
-//                    logger.warn("got failure status code " + res.getStatus() + " from appName:" + endpoint.getAppName() +
-//                            " (" + endpoint.getHostName() +
-//                            ":" + endpoint.getPort() + ")");
-                    continue;
-                }
-                String data = res.readEntity(String.class);
-                JsonArray individualReviewsAndRatings = jsonParser.parse(data).getAsJsonArray();
+                JsonArray individualReviewsAndRatings = result.getJson().getAsJsonArray();
                 jsonArray.addAll(individualReviewsAndRatings);
             } catch(Exception e) {
                 logger.error("Failed to get response while merging individual ratings:",e);
@@ -482,24 +435,16 @@ public class BusinessProcessHandler {
         return jsonArray.toString();
     }
 
-    public static String mergeListResults(List<Future<Response>> futureList){
+    public static String mergeListResults(List<EndpointResult> results){
         JsonArray jsonArray = new JsonArray();
 
-        JsonParser jsonParser = new JsonParser();
-
-        // Wait (one by one) for the responses from all the services
-        for(int i = 0; i< futureList.size(); i++) {
-            Future<Response> response = futureList.get(i);
+        for (EndpointResult result : results) {
+            // failed responses are already logged while collecting them
+            if (!result.isSuccessful()) {
+                continue;
+            }
             try {
-                Response res = response.get(REQ_TIMEOUT_SEC, TimeUnit.SECONDS);
-                if (res.getStatus() > 300) {
-//                    logger.warn("got failure status code " + res.getStatus() + " from appName:" + endpoint.getAppName() +
-//                            " (" + endpoint.getHostName() +
-//                            ":" + endpoint.getPort() + ")");
-                    continue;
-                }
-                String data = res.readEntity(String.class);
-                JsonArray elements = (JsonArray) jsonParser.parse(data);
+                JsonArray elements = (JsonArray) result.getJson();
                 for (JsonElement element : elements) {
                     jsonArray.add(element);
                 }
@@ -584,7 +529,7 @@ public class BusinessProcessHandler {
 
     }
 
-    public static String mergeOverallStatistics(List<Future<Response>> futureList){
+    public static String mergeOverallStatistics(List<EndpointResult> results){
         double totalCollaborationTime = 0.0;
         double numberOfCollaborationTimeResponse = 0;
         double totalResponseTime = 0.0;
@@ -592,19 +537,13 @@ public class BusinessProcessHandler {
         double totalTradingVolume = 0.0;
         int totalNumberOfTransaction = 0;
 
-        JsonParser jsonParser = new JsonParser();
-        for(int i = 0; i< futureList.size(); i++) {
-            Future<Response> response = futureList.get(i);
+        for (EndpointResult result : results) {
+            // failed responses are already logged while collecting them
+            if (!result.isSuccessful()) {
+                continue;
+            }
             try {
-                Response res = response.get(REQ_TIMEOUT_SEC, TimeUnit.SECONDS);
-                if (res.getStatus() > 300) {
-//                    logger.warn("got failure status code " + res.getStatus() + " from appName:" + endpoint.getAppName() +
-//                            " (" + endpoint.getHostName() +
-//                            ":" + endpoint.getPort() + ")");
-                    continue;
-                }
-                String data = res.readEntity(String.class);
-                JsonObject jsonObject = jsonParser.parse(data).getAsJsonObject();
+                JsonObject jsonObject = result.getJson().getAsJsonObject();
 
                 double averageCollaborationTime = jsonObject.get("averageCollaborationTime").getAsDouble();
                 double averageResponseTime = jsonObject.get("averageResponseTime").getAsDouble();
@@ -1,14 +1,25 @@
 package eu.nimble.service.delegate.businessprocess;
 
 public enum MergeOption {
-    BooleanResults,
-    DoubleResults,
-    RatingSummaries,
-    CollaborationGroups,
-    IndividualRatingsAndReviews,
-    ProcessInstanceData,
-    OverallStatistics,
-    AverageResponseTimeForMonths,
-    ListResults,
-    MapResults
+    BooleanResults(false),
+    DoubleResults(false),
+    RatingSummaries(true),
+    CollaborationGroups(true),
+    IndividualRatingsAndReviews(true),
+    ProcessInstanceData(false),
+    OverallStatistics(true),
+    AverageResponseTimeForMonths(true),
+    ListResults(true),
+    MapResults(true);
+
+    private final boolean json;
+
+    MergeOption(boolean json) {
+        this.json = json;
+    }
+
+    // whether the merge parses the responses as json, so they can be parsed as soon as they arrive
+    public boolean isJson() {
+        return json;
+    }
 }
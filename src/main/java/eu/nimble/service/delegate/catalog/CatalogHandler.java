@@ -10,11 +10,11 @@ import javax.ws.rs.core.Response;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import eu.nimble.service.delegate.eureka.ServiceEndpoint;
+import eu.nimble.service.delegate.discovery.ServiceEndpoint;
+import eu.nimble.service.delegate.http.EndpointResult;
 
 /**
  * Catalog Service Handler
@@ -81,7 +81,7 @@ public class CatalogHandler {
 	// the solution - we send the request to all delegates, all except for one should return back 404 (not found) while only one 
 	// should return back the real result.
 	// this function is used to build the single response from all delegates responses.
-	public Response buildResponseFromSingleDelegate(HashMap<ServiceEndpoint, String> responses) {
+	public Response buildResponseFromSingleDelegate(HashMap<ServiceEndpoint, EndpointResult> responses) {
 		if (responses.size() == 0) {
     		return Response.status(Response.Status.NOT_FOUND).build();
     	}
@@ -90,7 +90,7 @@ public class CatalogHandler {
     		return Response.status(Response.Status.INTERNAL_SERVER_ERROR).build();
     	}
 		for (ServiceEndpoint endpoint : responses.keySet()) {
-    		String results = responses.get(endpoint);
+    		String results = responses.get(endpoint).getData();
     		return Response.status(Response.Status.OK)
     				.type(MediaType.APPLICATION_JSON)
     				.entity(results)
@@ -99,13 +99,11 @@ public class CatalogHandler {
 		return null;
 	}
 
-	public static String mergeListResults(HashMap<ServiceEndpoint, String> delegateResponses){
+	public static String mergeListResults(HashMap<ServiceEndpoint, EndpointResult> delegateResponses){
 		JsonArray jsonArray = new JsonArray();
 
-		JsonParser jsonParser = new JsonParser();
-
-		for (String value : delegateResponses.values()) {
-			JsonArray elements = (JsonArray) jsonParser.parse(value);
+		for (EndpointResult result : delegateResponses.values()) {
+			JsonArray elements = (JsonArray) result.getJson();
 			for (JsonElement element : elements) {
 				jsonArray.add(element);
 			}
@@ -113,15 +111,13 @@ public class CatalogHandler {
 		return jsonArray.toString();
 	}
 
-	public static String mergeMapResults(HashMap<ServiceEndpoint, String> delegateResponses){
+	public static String mergeMapResults(HashMap<ServiceEndpoint, EndpointResult> delegateResponses){
 		JsonObject jsonObject = new JsonObject();
 
-		JsonParser jsonParser = new JsonParser();
-
 		Set<String> keys = null;
 
-		for (String value : delegateResponses.values()) {
-			JsonObject elements = (JsonObject) jsonParser.parse(value);
+		for (EndpointResult result : delegateResponses.values()) {
+			JsonObject elements = (JsonObject) result.getJson();
 			if(keys == null){
 				keys = elements.keySet();
 			}
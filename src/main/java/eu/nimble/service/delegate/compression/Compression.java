@@ -0,0 +1,472 @@
+package eu.nimble.service.delegate.compression;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.StreamingOutput;
+import javax.ws.rs.ext.ReaderInterceptorContext;
+import javax.ws.rs.ext.WriterInterceptorContext;
+
+import eu.nimble.service.delegate.metrics.Metrics;
+import eu.nimble.service.delegate.metrics.MetricsSource;
+import eu.nimble.service.delegate.resilience.AdaptiveTimeouts;
+
+/**
+ * Compression of the delegate to delegate traffic (gzip or deflate). The bodies are compressed in memory once they
+ * reach the minimal size, with Deflater and Inflater instances which are pooled, so their native buffers are not
+ * allocated for every message. Content which is already compressed (zip, images etc.) is sent as is.
+ * Streamed bodies (the batches of local calls) are compressed as they're written, without the minimal size.
+ * The compression ratio and the time spent in the codec (in memory, so it's the CPU cost) are kept per route.
+ *
+ * DELEGATE_COMPRESSION - false to disable the compression (default true)
+ * DELEGATE_COMPRESSION_MIN_BYTES - minimal size of a compressed body (default 1024)
+ * DELEGATE_COMPRESSION_LEVEL - deflate level, 1 (fastest) to 9 (smallest) (default 6)
+ * DELEGATE_COMPRESSION_POOL_SIZE - maximal number of pooled deflaters and inflaters per encoding (default 32)
+ * DELEGATE_COMPRESSION_MAX_REQUEST_MB - maximal decompressed size of a request body, larger bodies get 413 (default 16)
+ */
+public final class Compression {
+    public static final String GZIP = "gzip";
+    public static final String DEFLATE = "deflate";
+    // the encodings accepted by the delegates, in the order of preference
+    public static final String ACCEPTED_ENCODINGS = GZIP + ", " + DEFLATE;
+
+    private static final int GZIP_MAGIC = 0x8b1f;
+    private static final int FHCRC = 2;
+    private static final int FEXTRA = 4;
+    private static final int FNAME = 8;
+    private static final int FCOMMENT = 16;
+    // magic, deflate, no flags, no modification time, no extra flags, unknown OS
+    private static final byte[] GZIP_HEADER = {(byte) 0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+    private static final boolean enabled = !"false".equalsIgnoreCase(System.getenv("DELEGATE_COMPRESSION"));
+    private static final int minBytes = getIntEnv("DELEGATE_COMPRESSION_MIN_BYTES", 1024);
+    private static final int level = getIntEnv("DELEGATE_COMPRESSION_LEVEL", 6);
+    private static final int poolSize = getIntEnv("DELEGATE_COMPRESSION_POOL_SIZE", 32);
+    private static final int maxRequestBytes = (int) Math.min(Integer.MAX_VALUE - 8, Math.max(1, getIntEnv("DELEGATE_COMPRESSION_MAX_REQUEST_MB", 16)) * 1024L * 1024L);
+    // the decoded buffer is sized from the encoded body up to this size, and grows as it's filled
+    private static final int MAX_INITIAL_DECODED_BYTES = 1024 * 1024;
+
+    // gzip uses raw deflate (nowrap) with its own header and trailer, deflate uses the zlib format
+    private static final BlockingQueue<Deflater> gzipDeflaters = new ArrayBlockingQueue<Deflater>(poolSize);
+    private static final BlockingQueue<Deflater> zlibDeflaters = new ArrayBlockingQueue<Deflater>(poolSize);
+    private static final BlockingQueue<Inflater> gzipInflaters = new ArrayBlockingQueue<Inflater>(poolSize);
+    private static final BlockingQueue<Inflater> zlibInflaters = new ArrayBlockingQueue<Inflater>(poolSize);
+
+    private static final Stats stats = new Stats();
+
+    static {
+        Metrics.register("compression", stats);
+    }
+
+    private Compression() {
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    // true if a body of the given type and size should be compressed
+    static boolean shouldCompress(MediaType mediaType, int size) {
+        return size >= minBytes && !isCompressed(mediaType);
+    }
+
+    // archives, images, audio and video are already compressed
+    private static boolean isCompressed(MediaType mediaType) {
+        if (mediaType == null) {
+            return false;
+        }
+        String type = mediaType.getType();
+        String subtype = mediaType.getSubtype();
+        if ("image".equals(type) || "audio".equals(type) || "video".equals(type)) {
+            return true;
+        }
+        return "application".equals(type) && (subtype.equals("zip") || subtype.equals("gzip") || subtype.equals("x-gzip")
+                || subtype.equals("x-7z-compressed") || subtype.equals("x-bzip2") || subtype.equals("pdf") || subtype.equals("octet-stream"));
+    }
+
+    // Returns the preferred encoding which the Accept-Encoding (or Content-Encoding) header allows, null if none.
+    // encodings with q=0 are refused
+    static String selectEncoding(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return null;
+        }
+        boolean gzip = false;
+        boolean deflate = false;
+        for (String element : acceptEncoding.split(",")) {
+            String[] parts = element.trim().split(";");
+            String coding = parts[0].trim().toLowerCase();
+            boolean refused = false;
+            for (int i = 1; i < parts.length; i++) {
+                String param = parts[i].trim().replace(" ", "");
+                if (param.startsWith("q=")) {
+                    try {
+                        refused = Double.parseDouble(param.substring(2)) <= 0;
+                    } catch (NumberFormatException e) {
+                        refused = true;
+                    }
+                }
+            }
+            if (refused) {
+                continue;
+            }
+            gzip |= coding.equals(GZIP) || coding.equals("x-gzip");
+            deflate |= coding.equals(DEFLATE);
+        }
+        return gzip ? GZIP : deflate ? DEFLATE : null;
+    }
+
+    // encoding of the Content-Encoding header which this codec can decode, null if the body is not encoded
+    static String contentEncoding(String header) {
+        if (header == null) {
+            return null;
+        }
+        String coding = header.trim().toLowerCase();
+        if (coding.equals(GZIP) || coding.equals("x-gzip")) {
+            return GZIP;
+        }
+        return coding.equals(DEFLATE) ? DEFLATE : null;
+    }
+
+    // the route of the given path in the metrics, with the ids replaced
+    static String route(String path) {
+        return AdaptiveTimeouts.normalizeRoute(path);
+    }
+
+    // Writes the body, compressed with the given encoding if it's big enough and not compressed already
+    static void write(WriterInterceptorContext context, String encoding, String route) throws IOException, WebApplicationException {
+        MultivaluedMap<String, Object> headers = context.getHeaders();
+        if (encoding == null || headers.containsKey(HttpHeaders.CONTENT_ENCODING)) {
+            context.proceed();
+            return;
+        }
+        if (context.getEntity() instanceof StreamingOutput) {
+            if (isCompressed(context.getMediaType())) {
+                context.proceed();
+            } else {
+                writeStream(context, encoding, route);
+            }
+            return;
+        }
+        // the body is buffered, so the headers can still be changed when its size is known
+        OutputStream out = context.getOutputStream();
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        context.setOutputStream(buffer);
+        context.proceed();
+        byte[] body = buffer.toByteArray();
+        if (shouldCompress(context.getMediaType(), body.length)) {
+            body = encode(body, encoding, route);
+            headers.putSingle(HttpHeaders.CONTENT_ENCODING, encoding);
+            headers.remove(HttpHeaders.CONTENT_LENGTH);
+        }
+        context.setOutputStream(out);
+        out.write(body);
+    }
+
+    // a streamed body is compressed as it's written, and every flush sends what was written so far,
+    // so the parts of the body which are ready are not held back until the whole body is
+    private static void writeStream(WriterInterceptorContext context, String encoding, String route) throws IOException, WebApplicationException {
+        boolean gzip = GZIP.equals(encoding);
+        BlockingQueue<Deflater> pool = gzip ? gzipDeflaters : zlibDeflaters;
+        Deflater deflater = pool.poll();
+        if (deflater == null) {
+            deflater = new Deflater(level, gzip);
+        }
+        context.getHeaders().putSingle(HttpHeaders.CONTENT_ENCODING, encoding);
+        context.getHeaders().remove(HttpHeaders.CONTENT_LENGTH);
+        OutputStream out = context.getOutputStream();
+        try {
+            StreamEncoder encoder = new StreamEncoder(out, deflater, gzip);
+            context.setOutputStream(encoder);
+            context.proceed();
+            encoder.finish();
+            stats.record("sent " + route, deflater.getBytesRead(), encoder.getEncodedBytes(), encoder.nanos);
+        } finally {
+            context.setOutputStream(out);
+            deflater.reset();
+            if (!pool.offer(deflater)) {
+                deflater.end();
+            }
+        }
+    }
+
+    // the maximal decompressed size of the request bodies, which come from untrusted callers
+    static int getMaxRequestBytes() {
+        return maxRequestBytes;
+    }
+
+    // Reads the body, decompressed (up to the max decoded bytes) if it's encoded with gzip or deflate
+    static Object read(ReaderInterceptorContext context, String route, int maxDecodedBytes) throws IOException, WebApplicationException {
+        String encoding = contentEncoding(context.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING));
+        if (encoding != null) {
+            byte[] body = decode(readAll(context.getInputStream()), encoding, route, maxDecodedBytes);
+            context.getHeaders().remove(HttpHeaders.CONTENT_ENCODING);
+            context.getHeaders().remove(HttpHeaders.CONTENT_LENGTH);
+            context.setInputStream(new ByteArrayInputStream(body));
+        }
+        return context.proceed();
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int length;
+        while ((length = in.read(buffer)) != -1) {
+            out.write(buffer, 0, length);
+        }
+        return out.toByteArray();
+    }
+
+    static byte[] encode(byte[] body, String encoding, String route) {
+        long start = System.nanoTime();
+        boolean gzip = GZIP.equals(encoding);
+        BlockingQueue<Deflater> pool = gzip ? gzipDeflaters : zlibDeflaters;
+        Deflater deflater = pool.poll();
+        if (deflater == null) {
+            deflater = new Deflater(level, gzip);
+        }
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(body.length / 4 + 64);
+            if (gzip) {
+                out.write(GZIP_HEADER, 0, GZIP_HEADER.length);
+            }
+            deflater.setInput(body);
+            deflater.finish();
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                int length = deflater.deflate(buffer);
+                out.write(buffer, 0, length);
+            }
+            if (gzip) {
+                CRC32 crc = new CRC32();
+                crc.update(body);
+                writeIntLE(out, (int) crc.getValue());
+                writeIntLE(out, body.length);
+            }
+            byte[] encoded = out.toByteArray();
+            stats.record("sent " + route, body.length, encoded.length, System.nanoTime() - start);
+            return encoded;
+        } finally {
+            deflater.reset();
+            if (!pool.offer(deflater)) {
+                deflater.end();
+            }
+        }
+    }
+
+    static byte[] decode(byte[] body, String encoding, String route, int maxDecodedBytes) throws IOException {
+        long start = System.nanoTime();
+        boolean gzip = GZIP.equals(encoding);
+        BlockingQueue<Inflater> pool = gzip ? gzipInflaters : zlibInflaters;
+        Inflater inflater = pool.poll();
+        if (inflater == null) {
+            inflater = new Inflater(gzip);
+        }
+        try {
+            int offset = gzip ? readGzipHeader(body) : 0;
+            inflater.setInput(body, offset, body.length - offset);
+            ByteArrayOutputStream out = new ByteArrayOutputStream((int) Math.min(body.length * 4L, Math.min(maxDecodedBytes, MAX_INITIAL_DECODED_BYTES)));
+            byte[] buffer = new byte[8192];
+            while (!inflater.finished()) {
+                int length = inflater.inflate(buffer);
+                if (length == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("truncated " + encoding + " body");
+                }
+                if ((long) out.size() + length > maxDecodedBytes) {
+                    throw new DecodedBodyTooLargeException("the " + encoding + " body is larger than " + maxDecodedBytes + " bytes decompressed");
+                }
+                out.write(buffer, 0, length);
+            }
+            byte[] decoded = out.toByteArray();
+            if (gzip) {
+                int trailer = body.length - inflater.getRemaining();
+                if (body.length - trailer < 8) {
+                    throw new IOException("truncated gzip body");
+                }
+                CRC32 crc = new CRC32();
+                crc.update(decoded);
+                if (readIntLE(body, trailer) != (int) crc.getValue()) {
+                    throw new IOException("corrupt gzip body, crc mismatch");
+                }
+            }
+            stats.record("received " + route, decoded.length, body.length, System.nanoTime() - start);
+            return decoded;
+        } catch (DataFormatException e) {
+            throw new IOException("corrupt " + encoding + " body", e);
+        } finally {
+            inflater.reset();
+            if (!pool.offer(inflater)) {
+                inflater.end();
+            }
+        }
+    }
+
+    // a compressed body which decompresses beyond the allowed size
+    static class DecodedBodyTooLargeException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        DecodedBodyTooLargeException(String message) {
+            super(message);
+        }
+    }
+
+    // returns the offset of the deflate data
+    private static int readGzipHeader(byte[] body) throws IOException {
+        if (body.length < 18 || ((body[0] & 0xff) | ((body[1] & 0xff) << 8)) != GZIP_MAGIC || body[2] != 8) {
+            throw new IOException("not a gzip body");
+        }
+        int flags = body[3] & 0xff;
+        int offset = 10;
+        if ((flags & FEXTRA) != 0) {
+            offset += 2 + ((body[offset] & 0xff) | ((body[offset + 1] & 0xff) << 8));
+        }
+        if ((flags & FNAME) != 0) {
+            offset = skipZeroTerminated(body, offset);
+        }
+        if ((flags & FCOMMENT) != 0) {
+            offset = skipZeroTerminated(body, offset);
+        }
+        if ((flags & FHCRC) != 0) {
+            offset += 2;
+        }
+        if (offset >= body.length) {
+            throw new IOException("truncated gzip header");
+        }
+        return offset;
+    }
+
+    private static int skipZeroTerminated(byte[] body, int offset) throws IOException {
+        while (offset < body.length && body[offset] != 0) {
+            offset++;
+        }
+        if (offset == body.length) {
+            throw new IOException("truncated gzip header");
+        }
+        return offset + 1;
+    }
+
+    private static void writeIntLE(ByteArrayOutputStream out, int value) {
+        out.write(value);
+        out.write(value >>> 8);
+        out.write(value >>> 16);
+        out.write(value >>> 24);
+    }
+
+    private static int readIntLE(byte[] body, int offset) {
+        return (body[offset] & 0xff) | ((body[offset + 1] & 0xff) << 8) | ((body[offset + 2] & 0xff) << 16) | ((body[offset + 3] & 0xff) << 24);
+    }
+
+    // compresses a streamed body with a pooled deflater (which it doesn't end), flushing the compressed data on flush.
+    // gzip gets its header and trailer around the raw deflate data, like the buffered bodies
+    private static class StreamEncoder extends DeflaterOutputStream {
+        private final CRC32 crc;
+        private long nanos;
+
+        StreamEncoder(OutputStream out, Deflater deflater, boolean gzip) throws IOException {
+            super(out, deflater, 8192, true);
+            crc = gzip ? new CRC32() : null;
+            if (gzip) {
+                out.write(GZIP_HEADER);
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            long start = System.nanoTime();
+            super.write(b, off, len);
+            if (crc != null) {
+                crc.update(b, off, len);
+            }
+            nanos += System.nanoTime() - start;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            long start = System.nanoTime();
+            super.flush();
+            nanos += System.nanoTime() - start;
+        }
+
+        @Override
+        public void finish() throws IOException {
+            long start = System.nanoTime();
+            super.finish();
+            if (crc != null) {
+                ByteArrayOutputStream trailer = new ByteArrayOutputStream(8);
+                writeIntLE(trailer, (int) crc.getValue());
+                writeIntLE(trailer, (int) def.getBytesRead());
+                out.write(trailer.toByteArray());
+            }
+            out.flush();
+            nanos += System.nanoTime() - start;
+        }
+
+        long getEncodedBytes() {
+            return def.getBytesWritten() + (crc != null ? GZIP_HEADER.length + 8 : 0);
+        }
+    }
+
+    // the bodies which were compressed (sent) and decompressed (received) per route
+    private static class Stats implements MetricsSource {
+        private final Map<String, long[]> routes = new ConcurrentHashMap<String, long[]>();
+
+        // count, raw bytes, encoded bytes, nanos
+        void record(String route, long rawBytes, long encodedBytes, long nanos) {
+            long[] counters = routes.get(route);
+            if (counters == null) {
+                routes.putIfAbsent(route, new long[4]);
+                counters = routes.get(route);
+            }
+            synchronized (counters) {
+                counters[0]++;
+                counters[1] += rawBytes;
+                counters[2] += encodedBytes;
+                counters[3] += nanos;
+            }
+        }
+
+        @Override
+        public Object getMetrics() {
+            Map<String, Object> metrics = new TreeMap<String, Object>();
+            for (Map.Entry<String, long[]> entry : routes.entrySet()) {
+                long[] counters;
+                synchronized (entry.getValue()) {
+                    counters = entry.getValue().clone();
+                }
+                Map<String, Object> routeMetrics = new LinkedHashMap<String, Object>();
+                routeMetrics.put("count", counters[0]);
+                routeMetrics.put("rawBytes", counters[1]);
+                routeMetrics.put("encodedBytes", counters[2]);
+                routeMetrics.put("ratio", counters[2] == 0 ? 0 : Math.round(counters[1] * 100.0 / counters[2]) / 100.0);
+                routeMetrics.put("codecMs", Math.round(counters[3] / 10000.0) / 100.0);
+                metrics.put(entry.getKey(), routeMetrics);
+            }
+            return metrics;
+        }
+    }
+
+    private static int getIntEnv(String name, int defaultValue) {
+        try {
+            return Integer.parseInt(System.getenv(name));
+        } catch (Exception ex) {
+            return defaultValue;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package eu.nimble.service.delegate.compression;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.Priority;
+import javax.ws.rs.ConstrainedTo;
+import javax.ws.rs.Priorities;
+import javax.ws.rs.RuntimeType;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.client.ClientRequestContext;
+import javax.ws.rs.client.ClientRequestFilter;
+import javax.ws.rs.client.ClientResponseContext;
+import javax.ws.rs.client.ClientResponseFilter;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.ext.ReaderInterceptor;
+import javax.ws.rs.ext.ReaderInterceptorContext;
+import javax.ws.rs.ext.WriterInterceptor;
+import javax.ws.rs.ext.WriterInterceptorContext;
+
+/**
+ * Compression of the calls to the other delegates (registered on the client of these calls) - the responses are
+ * requested compressed and decompressed when they arrive, and the request bodies are compressed for the delegates
+ * which advertised (in the Accept-Encoding header of the responses of their local APIs) that they decode them.
+ */
+@ConstrainedTo(RuntimeType.CLIENT)
+@Priority(Priorities.ENTITY_CODER)
+public class CompressionClientFilter implements ClientRequestFilter, ClientResponseFilter, ReaderInterceptor, WriterInterceptor {
+    private static final String ROUTE_PROPERTY = "delegate.compression.route";
+    private static final String ENCODING_PROPERTY = "delegate.compression.encoding";
+
+    // the encoding of the requests to every delegate (host:port), as advertised by its last response
+    private final Map<String, String> requestEncodings = new ConcurrentHashMap<String, String>();
+
+    @Override
+    public void filter(ClientRequestContext requestContext) throws IOException {
+        URI uri = requestContext.getUri();
+        requestContext.setProperty(ROUTE_PROPERTY, Compression.route(uri.getPath()));
+        if (!Compression.isEnabled()) {
+            return;
+        }
+        if (!requestContext.getHeaders().containsKey(HttpHeaders.ACCEPT_ENCODING)) {
+            requestContext.getHeaders().putSingle(HttpHeaders.ACCEPT_ENCODING, Compression.ACCEPTED_ENCODINGS);
+        }
+        if (requestContext.hasEntity()) {
+            requestContext.setProperty(ENCODING_PROPERTY, requestEncodings.get(peer(uri)));
+        }
+    }
+
+    @Override
+    public void filter(ClientRequestContext requestContext, ClientResponseContext responseContext) throws IOException {
+        if (!requestContext.getUri().getPath().endsWith("/local")) {
+            return;
+        }
+        String encoding = Compression.selectEncoding(responseContext.getHeaderString(HttpHeaders.ACCEPT_ENCODING));
+        String peer = peer(requestContext.getUri());
+        if (encoding != null) {
+            requestEncodings.put(peer, encoding);
+        } else {
+            requestEncodings.remove(peer);
+        }
+    }
+
+    @Override
+    public Object aroundReadFrom(ReaderInterceptorContext context) throws IOException, WebApplicationException {
+        // the responses of the other delegates are trusted, like their uncompressed responses
+        return Compression.read(context, (String) context.getProperty(ROUTE_PROPERTY), Integer.MAX_VALUE);
+    }
+
+    @Override
+    public void aroundWriteTo(WriterInterceptorContext context) throws IOException, WebApplicationException {
+        Compression.write(context, (String) context.getProperty(ENCODING_PROPERTY), (String) context.getProperty(ROUTE_PROPERTY));
+    }
+
+    private static String peer(URI uri) {
+        return uri.getHost() + ":" + uri.getPort();
+    }
+}
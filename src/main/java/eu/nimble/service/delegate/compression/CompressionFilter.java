@@ -0,0 +1,76 @@
+package eu.nimble.service.delegate.compression;
+
+import java.io.IOException;
+
+import javax.annotation.Priority;
+import javax.ws.rs.ConstrainedTo;
+import javax.ws.rs.Priorities;
+import javax.ws.rs.RuntimeType;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.ext.Provider;
+import javax.ws.rs.ext.ReaderInterceptor;
+import javax.ws.rs.ext.ReaderInterceptorContext;
+import javax.ws.rs.ext.WriterInterceptor;
+import javax.ws.rs.ext.WriterInterceptorContext;
+
+/**
+ * Compression Filter - compresses the responses of the local APIs (called by the other delegates) with the encoding
+ * which the caller accepts, and decompresses the compressed request bodies. The local APIs advertise the encodings
+ * they decode in the Accept-Encoding header of their responses (RFC 7694), so the other delegates compress their
+ * requests to this delegate only once they know it can decode them.
+ * It runs as an entity coder, so the other interceptors get the bodies decompressed. Only the request bodies of the
+ * local APIs are decompressed, up to a maximal decompressed size (a larger body gets 413), so a small compressed body
+ * sent to a public API can't expand in memory.
+ */
+@Provider
+@ConstrainedTo(RuntimeType.SERVER)
+@Priority(Priorities.ENTITY_CODER)
+public class CompressionFilter implements ContainerRequestFilter, ContainerResponseFilter, ReaderInterceptor, WriterInterceptor {
+	private static final String ROUTE_PROPERTY = "delegate.compression.route";
+	private static final String ENCODING_PROPERTY = "delegate.compression.encoding";
+	private static final String DECODE_PROPERTY = "delegate.compression.decode";
+
+	@Override
+	public void filter(ContainerRequestContext requestContext) throws IOException {
+		String path = requestContext.getUriInfo().getPath();
+		requestContext.setProperty(ROUTE_PROPERTY, Compression.route(path));
+		if (path.endsWith("/local")) {
+			requestContext.setProperty(DECODE_PROPERTY, Boolean.TRUE);
+		}
+		if (Compression.isEnabled() && path.endsWith("/local")) {
+			requestContext.setProperty(ENCODING_PROPERTY, Compression.selectEncoding(requestContext.getHeaderString(HttpHeaders.ACCEPT_ENCODING)));
+		}
+	}
+
+	@Override
+	public void filter(ContainerRequestContext requestContext, ContainerResponseContext responseContext) throws IOException {
+		if (!Compression.isEnabled() || !requestContext.getUriInfo().getPath().endsWith("/local")) {
+			return;
+		}
+		responseContext.getHeaders().putSingle(HttpHeaders.ACCEPT_ENCODING, Compression.ACCEPTED_ENCODINGS);
+		responseContext.getHeaders().add(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+	}
+
+	@Override
+	public Object aroundReadFrom(ReaderInterceptorContext context) throws IOException, WebApplicationException {
+		if (!Boolean.TRUE.equals(context.getProperty(DECODE_PROPERTY))) {
+			return context.proceed();
+		}
+		try {
+			return Compression.read(context, (String) context.getProperty(ROUTE_PROPERTY), Compression.getMaxRequestBytes());
+		} catch (Compression.DecodedBodyTooLargeException e) {
+			throw new WebApplicationException(e.getMessage(), Response.status(Response.Status.REQUEST_ENTITY_TOO_LARGE).entity(e.getMessage()).build());
+		}
+	}
+
+	@Override
+	public void aroundWriteTo(WriterInterceptorContext context) throws IOException, WebApplicationException {
+		Compression.write(context, (String) context.getProperty(ENCODING_PROPERTY), (String) context.getProperty(ROUTE_PROPERTY));
+	}
+}
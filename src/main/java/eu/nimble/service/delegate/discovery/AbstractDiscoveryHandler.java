@@ -0,0 +1,99 @@
+package eu.nimble.service.delegate.discovery;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.ws.rs.client.Client;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Keeps the endpoint registry snapshot and its listeners, shared by all the discovery implementations.
+ * Implementations only need to call {@link #updateEndpoints(List)} whenever they get a fresh list of peers.
+ */
+public abstract class AbstractDiscoveryHandler implements DiscoveryHandler {
+    private static Logger logger = LogManager.getLogger(AbstractDiscoveryHandler.class);
+
+    // the current snapshot of the known delegates. replaced (never modified) when the peer list changes
+    private volatile EndpointRegistry registry = EndpointRegistry.EMPTY;
+    private List<EndpointRegistryListener> registryListeners = new CopyOnWriteArrayList<EndpointRegistryListener>();
+    private volatile Client httpClient;
+
+    @Override
+    public List<ServiceEndpoint> getEndpoints() {
+        return registry.getEndpoints();
+    }
+
+    @Override
+    public ServiceEndpoint getEndpointByAppName(String appName) {
+        return registry.getEndpointByAppName(appName);
+    }
+
+    @Override
+    public EndpointRegistry getRegistry() {
+        return registry;
+    }
+
+    @Override
+    public void addRegistryListener(EndpointRegistryListener listener) {
+        registryListeners.add(listener);
+    }
+
+    @Override
+    public synchronized void setHttpClient(Client httpClient) {
+        this.httpClient = httpClient;
+        // the endpoints themselves didn't change, so the registry is republished with the targets
+        publishRegistry(registry.getEndpoints());
+    }
+
+    // Rebuilds the registry snapshot from the given peer list, if the set of delegates has changed
+    protected synchronized void updateEndpoints(List<ServiceEndpoint> endpoints) {
+        if (sameEndpoints(registry.getEndpoints(), endpoints)) {
+            return;
+        }
+        publishRegistry(endpoints);
+    }
+
+    private void publishRegistry(List<ServiceEndpoint> endpoints) {
+        List<ServiceEndpoint> endpointsWithTargets = new ArrayList<ServiceEndpoint>(endpoints.size());
+        for (ServiceEndpoint endpoint : endpoints) {
+            endpointsWithTargets.add(withTarget(endpoint));
+        }
+        EndpointRegistry newRegistry = new EndpointRegistry(registry.getVersion() + 1, endpointsWithTargets);
+        registry = newRegistry;
+        logger.info("endpoint registry has been updated to version " + newRegistry.getVersion() + " with " + endpoints.size() + " delegates");
+        for (EndpointRegistryListener listener : registryListeners) {
+            try {
+                listener.onRegistryChanged(newRegistry);
+            } catch (Exception e) {
+                logger.error("endpoint registry listener failed", e);
+            }
+        }
+    }
+
+    private ServiceEndpoint withTarget(ServiceEndpoint endpoint) {
+        Client client = httpClient;
+        if (client == null || endpoint.getTarget() != null) {
+            return endpoint;
+        }
+        return new ServiceEndpoint(endpoint.getId(), endpoint.getHostName(), endpoint.getPort(), endpoint.getAppName(), client.target(endpoint.getBaseUri()));
+    }
+
+    // peers may be returned in a different order on every fetch, so the lists are compared as sets
+    private static boolean sameEndpoints(List<ServiceEndpoint> current, List<ServiceEndpoint> updated) {
+        if (current.size() != updated.size()) {
+            return false;
+        }
+        Set<ServiceEndpoint> currentEndpoints = new HashSet<ServiceEndpoint>(current);
+        for (ServiceEndpoint endpoint : updated) {
+            if (!currentEndpoints.contains(endpoint)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,35 @@
+package eu.nimble.service.delegate.discovery;
+
+import java.util.List;
+
+import javax.ws.rs.client.Client;
+
+/**
+ * Discovery of the Delegate services of the federation.
+ * Implementations publish an immutable {@link EndpointRegistry} snapshot which is replaced whenever the set of peers changes.
+ */
+public interface DiscoveryHandler {
+    // Initializes the discovery (registers the local delegate, loads the peer list etc.), returns false on failure
+    boolean init();
+
+    // Returns the Delegate services which are currently known.
+    // the returned list is an immutable snapshot, callers that need to modify it should copy it first
+    List<ServiceEndpoint> getEndpoints();
+
+    ServiceEndpoint getEndpointByAppName(String appName);
+
+    EndpointRegistry getRegistry();
+
+    void addRegistryListener(EndpointRegistryListener listener);
+
+    // the http client is used to pre-build a web target for every endpoint in the registry
+    void setHttpClient(Client httpClient);
+
+    // id of the local Delegate service
+    String getId();
+
+    // app name (federation id) of the local Delegate service
+    String getAppName();
+
+    void destroy();
+}
@@ -0,0 +1,71 @@
+package eu.nimble.service.delegate.discovery;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable snapshot of the Delegate services registered in Eureka.
+ * A new snapshot (with a new version) is built only when the registry content changes,
+ * so readers can hold on to a snapshot without locking and use its version as a cache key.
+ */
+public final class EndpointRegistry {
+    public static final EndpointRegistry EMPTY = new EndpointRegistry(0, Collections.<ServiceEndpoint>emptyList());
+
+    private final long version;
+    private final List<ServiceEndpoint> endpoints;
+    private final Map<String, List<ServiceEndpoint>> endpointsByAppName;
+    private final Map<String, ServiceEndpoint> endpointsById;
+
+    public EndpointRegistry(long version, List<ServiceEndpoint> endpoints) {
+        this.version = version;
+        this.endpoints = Collections.unmodifiableList(new ArrayList<ServiceEndpoint>(endpoints));
+
+        Map<String, List<ServiceEndpoint>> byAppName = new LinkedHashMap<String, List<ServiceEndpoint>>();
+        Map<String, ServiceEndpoint> byId = new HashMap<String, ServiceEndpoint>();
+        for (ServiceEndpoint endpoint : this.endpoints) {
+            List<ServiceEndpoint> instances = byAppName.get(endpoint.getAppName());
+            if (instances == null) {
+                instances = new ArrayList<ServiceEndpoint>();
+                byAppName.put(endpoint.getAppName(), instances);
+            }
+            instances.add(endpoint);
+            byId.put(endpoint.getId(), endpoint);
+        }
+        for (Map.Entry<String, List<ServiceEndpoint>> entry : byAppName.entrySet()) {
+            entry.setValue(Collections.unmodifiableList(entry.getValue()));
+        }
+        this.endpointsByAppName = Collections.unmodifiableMap(byAppName);
+        this.endpointsById = Collections.unmodifiableMap(byId);
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    // all UP endpoints, in the order they were returned by eureka
+    public List<ServiceEndpoint> getEndpoints() {
+        return endpoints;
+    }
+
+    public List<ServiceEndpoint> getEndpointsByAppName(String appName) {
+        List<ServiceEndpoint> instances = endpointsByAppName.get(appName);
+        return instances == null ? Collections.<ServiceEndpoint>emptyList() : instances;
+    }
+
+    public ServiceEndpoint getEndpointByAppName(String appName) {
+        List<ServiceEndpoint> instances = endpointsByAppName.get(appName);
+        return instances == null ? null : instances.get(0);
+    }
+
+    public ServiceEndpoint getEndpointById(String id) {
+        return endpointsById.get(id);
+    }
+
+    public Map<String, List<ServiceEndpoint>> getEndpointsByAppName() {
+        return endpointsByAppName;
+    }
+}
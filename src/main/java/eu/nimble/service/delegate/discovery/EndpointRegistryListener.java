@@ -0,0 +1,8 @@
+package eu.nimble.service.delegate.discovery;
+
+/**
+ * Listener which is notified whenever a new endpoint registry snapshot is published
+ */
+public interface EndpointRegistryListener {
+    void onRegistryChanged(EndpointRegistry registry);
+}
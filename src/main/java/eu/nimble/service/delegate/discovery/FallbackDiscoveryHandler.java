@@ -0,0 +1,73 @@
+package eu.nimble.service.delegate.discovery;
+
+import java.util.List;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Fallback Discovery Handler - uses the primary discovery (Eureka) as long as it knows any delegate,
+ * and switches to the fallback peer list when the primary is not available (e.g. Eureka outage on startup).
+ */
+public class FallbackDiscoveryHandler extends AbstractDiscoveryHandler {
+    private static Logger logger = LogManager.getLogger(FallbackDiscoveryHandler.class);
+
+    private final DiscoveryHandler primary;
+    private final DiscoveryHandler fallback;
+    private volatile boolean primaryInitialized = false;
+    private boolean usingFallback = false;
+
+    public FallbackDiscoveryHandler(DiscoveryHandler primary, DiscoveryHandler fallback) {
+        this.primary = primary;
+        this.fallback = fallback;
+    }
+
+    @Override
+    public boolean init() {
+        EndpointRegistryListener listener = new EndpointRegistryListener() {
+            @Override
+            public void onRegistryChanged(EndpointRegistry registry) {
+                refresh();
+            }
+        };
+        primary.addRegistryListener(listener);
+        fallback.addRegistryListener(listener);
+
+        primaryInitialized = primary.init();
+        if (!primaryInitialized) {
+            logger.error("Failed to initialize the primary discovery, using the fallback peer list only");
+        }
+        boolean fallbackInitialized = fallback.init();
+        refresh();
+        return primaryInitialized || fallbackInitialized;
+    }
+
+    private synchronized void refresh() {
+        List<ServiceEndpoint> endpoints = primary.getEndpoints();
+        boolean useFallback = endpoints.isEmpty();
+        if (useFallback) {
+            endpoints = fallback.getEndpoints();
+        }
+        if (useFallback != usingFallback) {
+            usingFallback = useFallback;
+            logger.warn(useFallback ? "primary discovery has no delegates, switching to the fallback peer list" : "primary discovery is available again");
+        }
+        updateEndpoints(endpoints);
+    }
+
+    @Override
+    public String getId() {
+        return primaryInitialized ? primary.getId() : fallback.getId();
+    }
+
+    @Override
+    public String getAppName() {
+        return primaryInitialized ? primary.getAppName() : fallback.getAppName();
+    }
+
+    @Override
+    public void destroy() {
+        primary.destroy();
+        fallback.destroy();
+    }
+}
@@ -0,0 +1,146 @@
+package eu.nimble.service.delegate.discovery;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Client side load balancer over the replicas of the Delegate services.
+ * All the instances with the same app name form one logical delegate, and every request is sent to a single instance
+ * which is picked by power of two choices: two random healthy instances are compared by their outstanding requests
+ * and recent latency, and the less loaded one is used.
+ * An instance is considered unhealthy for a cool down period after several consecutive failures.
+ */
+public class LoadBalancer implements EndpointRegistryListener {
+    private static Logger logger = LogManager.getLogger(LoadBalancer.class);
+
+    private static final int UNHEALTHY_AFTER_FAILURES = 3;
+    private static final long UNHEALTHY_COOLDOWN_MS = 10000;
+    // weight of the latest latency sample in the moving average
+    private static final double LATENCY_DECAY = 0.3;
+    // latency assumed for an instance which didn't answer yet, so new instances get traffic
+    private static final double INITIAL_LATENCY_MS = 1;
+
+    private final ConcurrentHashMap<ServiceEndpoint, InstanceStats> stats = new ConcurrentHashMap<ServiceEndpoint, InstanceStats>();
+
+    // Returns a single instance of every delegate in the registry
+    public List<ServiceEndpoint> selectDelegates(EndpointRegistry registry) {
+        List<ServiceEndpoint> delegates = new ArrayList<ServiceEndpoint>(registry.getEndpointsByAppName().size());
+        for (List<ServiceEndpoint> instances : registry.getEndpointsByAppName().values()) {
+            delegates.add(choose(instances));
+        }
+        return delegates;
+    }
+
+    // Returns the instance of the delegate which should get the next request, or null if the delegate is unknown
+    public ServiceEndpoint selectDelegate(EndpointRegistry registry, String appName) {
+        List<ServiceEndpoint> instances = registry.getEndpointsByAppName(appName);
+        return instances.isEmpty() ? null : choose(instances);
+    }
+
+    // Returns another instance of the endpoint's delegate, or the endpoint itself if it has no other replica
+    public ServiceEndpoint selectAlternative(EndpointRegistry registry, ServiceEndpoint endpoint) {
+        List<ServiceEndpoint> others = new ArrayList<ServiceEndpoint>(registry.getEndpointsByAppName(endpoint.getAppName()));
+        others.remove(endpoint);
+        return others.isEmpty() ? endpoint : choose(others);
+    }
+
+    ServiceEndpoint choose(List<ServiceEndpoint> instances) {
+        if (instances.size() == 1) {
+            return instances.get(0);
+        }
+        long now = System.currentTimeMillis();
+        List<ServiceEndpoint> healthy = new ArrayList<ServiceEndpoint>(instances.size());
+        for (ServiceEndpoint instance : instances) {
+            if (getStats(instance).isHealthy(now)) {
+                healthy.add(instance);
+            }
+        }
+        // when all the instances are unhealthy, trying one of them is better than failing the request
+        List<ServiceEndpoint> candidates = healthy.isEmpty() ? instances : healthy;
+        if (candidates.size() == 1) {
+            return candidates.get(0);
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int first = random.nextInt(candidates.size());
+        int second = random.nextInt(candidates.size() - 1);
+        if (second >= first) {
+            second++;
+        }
+        ServiceEndpoint a = candidates.get(first);
+        ServiceEndpoint b = candidates.get(second);
+        return getStats(a).load() <= getStats(b).load() ? a : b;
+    }
+
+    public void requestStarted(ServiceEndpoint endpoint) {
+        getStats(endpoint).outstanding.incrementAndGet();
+    }
+
+    // success is false for connection failures, timeouts and server errors
+    public void requestCompleted(ServiceEndpoint endpoint, long latencyMillis, boolean success) {
+        InstanceStats instanceStats = getStats(endpoint);
+        instanceStats.outstanding.decrementAndGet();
+        instanceStats.recordLatency(latencyMillis);
+        if (success) {
+            instanceStats.consecutiveFailures.set(0);
+        }
+        else if (instanceStats.consecutiveFailures.incrementAndGet() >= UNHEALTHY_AFTER_FAILURES) {
+            if (instanceStats.unhealthyUntil < System.currentTimeMillis()) {
+                logger.warn("instance " + endpoint.getId() + " of " + endpoint.getAppName() + " is unhealthy, skipping it for " + UNHEALTHY_COOLDOWN_MS + " ms");
+            }
+            instanceStats.unhealthyUntil = System.currentTimeMillis() + UNHEALTHY_COOLDOWN_MS;
+        }
+    }
+
+    // a cancelled request says nothing about the instance's health or latency
+    public void requestCancelled(ServiceEndpoint endpoint) {
+        getStats(endpoint).outstanding.decrementAndGet();
+    }
+
+    // the stats of instances which are no longer registered are dropped
+    @Override
+    public void onRegistryChanged(EndpointRegistry registry) {
+        Set<ServiceEndpoint> endpoints = new HashSet<ServiceEndpoint>(registry.getEndpoints());
+        stats.keySet().retainAll(endpoints);
+    }
+
+    private InstanceStats getStats(ServiceEndpoint endpoint) {
+        InstanceStats instanceStats = stats.get(endpoint);
+        if (instanceStats == null) {
+            InstanceStats created = new InstanceStats();
+            instanceStats = stats.putIfAbsent(endpoint, created);
+            if (instanceStats == null) {
+                instanceStats = created;
+            }
+        }
+        return instanceStats;
+    }
+
+    private static class InstanceStats {
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private final AtomicInteger consecutiveFailures = new AtomicInteger();
+        private volatile double latencyMillis = INITIAL_LATENCY_MS;
+        private volatile long unhealthyUntil = 0;
+
+        private boolean isHealthy(long now) {
+            return unhealthyUntil <= now;
+        }
+
+        // expected cost of sending one more request to the instance
+        private double load() {
+            return (Math.max(outstanding.get(), 0) + 1) * latencyMillis;
+        }
+
+        // a racy update may lose a sample, which is fine for a moving average
+        private void recordLatency(long sampleMillis) {
+            latencyMillis = latencyMillis + LATENCY_DECAY * (Math.max(sampleMillis, INITIAL_LATENCY_MS) - latencyMillis);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package eu.nimble.service.delegate.discovery;
+
+import java.net.URI;
+
+import javax.json.bind.annotation.JsonbTransient;
+import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.UriBuilder;
+
+/**
+ * Eureka Service Endpoint information
+ * The endpoint is immutable and is identified by its id, app name and base uri, so it can be safely used
+ * as a (concurrent) map key. Per-response data is kept in {@link eu.nimble.service.delegate.http.EndpointResult}.
+ *
+ * Created by Nir Rozenbaum (nirro@il.ibm.com) 04/06/2019.
+ */
+public final class ServiceEndpoint {
+    private final String id;
+    private final String hostName;
+    private final int port;
+    private final String appName;
+    // precomputed when the endpoint registry is built, so requests don't need to rebuild them
+    private final URI baseUri;
+    private final WebTarget target;
+    private final int hash;
+
+    public ServiceEndpoint(String id, String hostName, int port, String appName) {
+        this(id, hostName, port, appName, null);
+    }
+
+    public ServiceEndpoint(String id, String hostName, int port, String appName, WebTarget target) {
+        this.id = id;
+        this.hostName = hostName;
+        this.port = port;
+        this.appName = appName;
+        UriBuilder uriBuilder = UriBuilder.fromUri("").scheme("http").host(hostName);
+        if (port > 0) { // in case the request is sent to nginx, no port is needed (will be set to -1)
+            uriBuilder.port(port);
+        }
+        this.baseUri = uriBuilder.build();
+        this.target = target;
+        this.hash = computeHash();
+    }
+
+    public String getId() {
+    	return this.id;
+    }
+
+    public String getHostName() {
+    	return this.hostName;
+    }
+
+    public int getPort() {
+    	return this.port;
+    }
+
+    public String getAppName() {
+    	return this.appName;
+    }
+
+    public URI getBaseUri() {
+    	return this.baseUri;
+    }
+
+    // pre-built web target pointing to the base uri of the delegate
+    @JsonbTransient
+    public WebTarget getTarget() {
+    	return this.target;
+    }
+
+    private int computeHash() {
+    	int result = id == null ? 0 : id.hashCode();
+    	result = 31 * result + (appName == null ? 0 : appName.hashCode());
+    	result = 31 * result + baseUri.hashCode();
+    	return result;
+    }
+
+    // the web target is derived from the base uri, so it is not part of the endpoint identity
+    @Override
+    public boolean equals(Object other) {
+    	if (this == other) {
+    		return true;
+    	}
+    	if (!(other instanceof ServiceEndpoint)) {
+    		return false;
+    	}
+    	ServiceEndpoint endpoint = (ServiceEndpoint) other;
+    	return hash == endpoint.hash &&
+    			(id == null ? endpoint.id == null : id.equals(endpoint.id)) &&
+    			(appName == null ? endpoint.appName == null : appName.equals(endpoint.appName)) &&
+    			baseUri.equals(endpoint.baseUri);
+    }
+
+    @Override
+    public int hashCode() {
+    	return hash;
+    }
+
+    @Override
+    public String toString() {
+    	return "Service Endpoint:\n\t"
+    			+ "id: " + this.id + ",\n\t"
+				+ "hostname: " + this.hostName + ",\n\t"
+				+ "port: " + this.port + ",\n\t"
+				+ "appName: " + this.appName + "\n";
+    }
+}
+
@@ -0,0 +1,162 @@
+package eu.nimble.service.delegate.discovery;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * Static Discovery Handler - reads the Delegate services of the federation from a peers file instead of Eureka.
+ * The file is reloaded whenever it changes, so peers can be added or removed without restarting the service.
+ *
+ * Two file formats are supported (chosen by the file extension):
+ * - json: an array of peers, e.g. [{"id": "delegate-1", "appName": "NIMBLE-A", "hostName": "localhost", "port": 8881}]
+ *   (id is optional and defaults to hostName:port, port is optional)
+ * - properties: one peer per line in the form id=appName@hostName:port, e.g. delegate-1=NIMBLE-A@localhost:8881
+ *
+ * Like in Eureka, the local delegate should be listed in the file as well.
+ */
+public class StaticDiscoveryHandler extends AbstractDiscoveryHandler {
+    private static Logger logger = LogManager.getLogger(StaticDiscoveryHandler.class);
+
+    private final File peersFile;
+    private final int reloadIntervalSec;
+    private final String id;
+    private final String appName;
+
+    private ScheduledExecutorService reloadExecutor;
+    private long loadedLastModified = -1;
+    private long loadedLength = -1;
+
+    public StaticDiscoveryHandler(String peersFilePath, int reloadIntervalSec, String id, String appName) {
+        this.peersFile = new File(peersFilePath);
+        this.reloadIntervalSec = reloadIntervalSec;
+        this.id = id;
+        this.appName = appName;
+    }
+
+    @Override
+    public boolean init() {
+        logger.info("loading delegates from peers file " + peersFile.getAbsolutePath());
+        if (!reload()) {
+            return false;
+        }
+        if (reloadIntervalSec > 0) {
+            reloadExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "peers-file-reload");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            reloadExecutor.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    reloadIfChanged();
+                }
+            }, reloadIntervalSec, reloadIntervalSec, TimeUnit.SECONDS);
+        }
+        logger.info("Delegate is using static discovery: " + appName + " (" + id + ")");
+        return true;
+    }
+
+    private synchronized void reloadIfChanged() {
+        if (peersFile.lastModified() == loadedLastModified && peersFile.length() == loadedLength) {
+            return;
+        }
+        logger.info("peers file has changed, reloading it");
+        reload();
+    }
+
+    // a file which can't be parsed (e.g. while it is being written) keeps the previous peer list
+    private synchronized boolean reload() {
+        long lastModified = peersFile.lastModified();
+        long length = peersFile.length();
+        try {
+            List<ServiceEndpoint> endpoints = peersFile.getName().endsWith(".json") ? readJsonPeers() : readPropertiesPeers();
+            loadedLastModified = lastModified;
+            loadedLength = length;
+            updateEndpoints(endpoints);
+            return true;
+        } catch (Exception e) {
+            logger.error("Failed to load peers file " + peersFile.getAbsolutePath(), e);
+            return false;
+        }
+    }
+
+    private List<ServiceEndpoint> readJsonPeers() throws Exception {
+        List<ServiceEndpoint> endpoints = new ArrayList<ServiceEndpoint>();
+        try (Reader reader = new InputStreamReader(new FileInputStream(peersFile), StandardCharsets.UTF_8)) {
+            for (JsonElement element : new JsonParser().parse(reader).getAsJsonArray()) {
+                JsonObject peer = element.getAsJsonObject();
+                String hostName = peer.get("hostName").getAsString();
+                int port = peer.has("port") ? peer.get("port").getAsInt() : -1;
+                String peerId = peer.has("id") ? peer.get("id").getAsString() : defaultId(hostName, port);
+                endpoints.add(new ServiceEndpoint(peerId, hostName, port, peer.get("appName").getAsString()));
+            }
+        }
+        return endpoints;
+    }
+
+    private List<ServiceEndpoint> readPropertiesPeers() throws Exception {
+        Properties properties = new Properties();
+        try (Reader reader = new InputStreamReader(new FileInputStream(peersFile), StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        }
+        List<ServiceEndpoint> endpoints = new ArrayList<ServiceEndpoint>();
+        for (String peerId : properties.stringPropertyNames()) {
+            String value = properties.getProperty(peerId).trim();
+            int at = value.indexOf('@');
+            if (at <= 0) {
+                throw new IllegalArgumentException("peer " + peerId + " is not in the form appName@hostName:port");
+            }
+            String address = value.substring(at + 1);
+            String hostName = address;
+            int port = -1;
+            int colon = address.lastIndexOf(':');
+            if (colon > 0) {
+                hostName = address.substring(0, colon);
+                port = Integer.parseInt(address.substring(colon + 1));
+            }
+            endpoints.add(new ServiceEndpoint(peerId, hostName, port, value.substring(0, at)));
+        }
+        return endpoints;
+    }
+
+    private static String defaultId(String hostName, int port) {
+        return port > 0 ? hostName + ":" + port : hostName;
+    }
+
+    @Override
+    public String getId() {
+        return id;
+    }
+
+    @Override
+    public String getAppName() {
+        return appName;
+    }
+
+    @Override
+    public void destroy() {
+        if (reloadExecutor != null) {
+            reloadExecutor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package eu.nimble.service.delegate.encoding;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.ws.rs.core.MediaType;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonPrimitive;
+
+import eu.nimble.service.delegate.metrics.Metrics;
+import eu.nimble.service.delegate.metrics.MetricsSource;
+
+/**
+ * Binary (Smile) encoding of the responses of the local APIs. The json responses of the local APIs are sent as Smile
+ * to the delegates which accept it, and these delegates build the json trees they merge directly from the Smile
+ * data, instead of parsing the json text. The delegates which don't accept it (older versions) and the clients get
+ * the json text as before.
+ *
+ * DELEGATE_BINARY_ENCODING - true to request Smile responses from the other delegates (default false). the local
+ *                            APIs send Smile to the delegates which request it regardless of this setting
+ */
+public final class BinaryEncoding {
+    public static final String SMILE = "application/x-jackson-smile";
+    public static final MediaType SMILE_TYPE = MediaType.valueOf(SMILE);
+
+    private static final boolean enabled = Boolean.parseBoolean(System.getenv("DELEGATE_BINARY_ENCODING"));
+
+    private static final JsonFactory jsonFactory = new JsonFactory();
+    private static final SmileFactory smileFactory = new SmileFactory();
+
+    private static final Stats stats = new Stats();
+
+    static {
+        Metrics.register("binaryEncoding", stats);
+    }
+
+    private BinaryEncoding() {
+    }
+
+    // true if the responses of the other delegates are requested as Smile
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static boolean isSmile(MediaType mediaType) {
+        return mediaType != null && SMILE_TYPE.isCompatible(mediaType) && !mediaType.isWildcardType() && !mediaType.isWildcardSubtype();
+    }
+
+    // true if the Accept header values accept Smile (explicitly, wildcards don't count)
+    static boolean accepts(List<String> acceptHeaders) {
+        if (acceptHeaders == null) {
+            return false;
+        }
+        for (String header : acceptHeaders) {
+            for (String element : header.split(",")) {
+                String[] parts = element.trim().split(";");
+                if (!parts[0].trim().equalsIgnoreCase(SMILE)) {
+                    continue;
+                }
+                for (int i = 1; i < parts.length; i++) {
+                    String param = parts[i].trim().replace(" ", "");
+                    if (param.startsWith("q=") && param.matches("q=0(\\.0*)?")) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Returns the json text encoded as Smile, or null if it's not a (single) json value
+    static byte[] encode(String json) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(json.length() / 2 + 16);
+        try {
+            JsonParser parser = jsonFactory.createParser(json);
+            try {
+                if (parser.nextToken() == null) {
+                    return null;
+                }
+                JsonGenerator generator = smileFactory.createGenerator(out);
+                generator.copyCurrentStructure(parser);
+                generator.close();
+                if (parser.nextToken() != null) {
+                    return null;
+                }
+            } finally {
+                parser.close();
+            }
+        } catch (IOException e) {
+            stats.notEncoded.incrementAndGet();
+            return null;
+        }
+        stats.encoded.incrementAndGet();
+        stats.jsonChars.addAndGet(json.length());
+        stats.smileBytes.addAndGet(out.size());
+        return out.toByteArray();
+    }
+
+    // Returns the Smile data as json text
+    public static String toJsonText(byte[] smile) {
+        StringWriter out = new StringWriter(smile.length * 2);
+        try {
+            JsonParser parser = smileFactory.createParser(smile);
+            try {
+                JsonGenerator generator = jsonFactory.createGenerator(out);
+                while (parser.nextToken() != null) {
+                    generator.copyCurrentStructure(parser);
+                }
+                generator.close();
+            } finally {
+                parser.close();
+            }
+        } catch (IOException e) {
+            throw new JsonParseException("invalid Smile data", e);
+        }
+        return out.toString();
+    }
+
+    // Returns the Smile data as a json tree (null if empty), without the json text in between.
+    // throws JsonParseException if it's not valid Smile data, like the json parser does for invalid json
+    public static JsonElement toJsonTree(byte[] smile) {
+        try {
+            JsonParser parser = smileFactory.createParser(smile);
+            try {
+                return parser.nextToken() == null ? null : readTree(parser);
+            } finally {
+                parser.close();
+            }
+        } catch (IOException e) {
+            throw new JsonParseException("invalid Smile data", e);
+        }
+    }
+
+    // reads the value at the current token
+    private static JsonElement readTree(JsonParser parser) throws IOException {
+        switch (parser.getCurrentToken()) {
+            case START_OBJECT:
+                JsonObject object = new JsonObject();
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String name = parser.getCurrentName();
+                    parser.nextToken();
+                    object.add(name, readTree(parser));
+                }
+                return object;
+            case START_ARRAY:
+                JsonArray array = new JsonArray();
+                while (parser.nextToken() != JsonToken.END_ARRAY) {
+                    array.add(readTree(parser));
+                }
+                return array;
+            case VALUE_STRING:
+                return new JsonPrimitive(parser.getText());
+            case VALUE_NUMBER_INT:
+            case VALUE_NUMBER_FLOAT:
+                return new JsonPrimitive(parser.getNumberValue());
+            case VALUE_TRUE:
+                return new JsonPrimitive(Boolean.TRUE);
+            case VALUE_FALSE:
+                return new JsonPrimitive(Boolean.FALSE);
+            case VALUE_NULL:
+                return JsonNull.INSTANCE;
+            default:
+                throw new IOException("unexpected token " + parser.getCurrentToken());
+        }
+    }
+
+    // the responses of the local APIs which were sent as Smile
+    private static class Stats implements MetricsSource {
+        private final AtomicLong encoded = new AtomicLong();
+        private final AtomicLong notEncoded = new AtomicLong();
+        private final AtomicLong jsonChars = new AtomicLong();
+        private final AtomicLong smileBytes = new AtomicLong();
+
+        @Override
+        public Object getMetrics() {
+            Map<String, Object> metrics = new LinkedHashMap<String, Object>();
+            metrics.put("requested", enabled);
+            metrics.put("encodedResponses", encoded.get());
+            metrics.put("invalidJsonResponses", notEncoded.get());
+            metrics.put("jsonChars", jsonChars.get());
+            metrics.put("smileBytes", smileBytes.get());
+            return metrics;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package eu.nimble.service.delegate.encoding;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import javax.ws.rs.ConstrainedTo;
+import javax.ws.rs.RuntimeType;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.client.ClientRequestContext;
+import javax.ws.rs.client.ClientRequestFilter;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.ext.ReaderInterceptor;
+import javax.ws.rs.ext.ReaderInterceptorContext;
+
+/**
+ * Binary encoding of the calls to the other delegates (registered on the client of these calls when it's enabled) -
+ * Smile is added to the accepted media types of the requests. The Smile responses are read as bytes by the
+ * fan-outs (see EndpointResult), and converted to json text for the callers which read them as anything else.
+ */
+@ConstrainedTo(RuntimeType.CLIENT)
+public class BinaryEncodingClientFilter implements ClientRequestFilter, ReaderInterceptor {
+
+    @Override
+    public void filter(ClientRequestContext requestContext) throws IOException {
+        List<Object> accept = requestContext.getHeaders().get(HttpHeaders.ACCEPT);
+        if (accept == null || accept.isEmpty()) {
+            // anything else is still accepted, e.g. the zip exports
+            requestContext.getHeaders().putSingle(HttpHeaders.ACCEPT, BinaryEncoding.SMILE + ", */*");
+        } else {
+            accept.add(0, BinaryEncoding.SMILE);
+        }
+    }
+
+    @Override
+    public Object aroundReadFrom(ReaderInterceptorContext context) throws IOException, WebApplicationException {
+        if (BinaryEncoding.isSmile(context.getMediaType()) && context.getType() != byte[].class) {
+            String json = BinaryEncoding.toJsonText(readAll(context.getInputStream()));
+            context.setInputStream(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+            context.setMediaType(MediaType.APPLICATION_JSON_TYPE.withCharset("UTF-8"));
+        }
+        return context.proceed();
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int length;
+        while ((length = in.read(buffer)) != -1) {
+            out.write(buffer, 0, length);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,37 @@
+package eu.nimble.service.delegate.encoding;
+
+import java.io.IOException;
+
+import javax.ws.rs.ConstrainedTo;
+import javax.ws.rs.RuntimeType;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.ext.Provider;
+
+/**
+ * Binary Encoding Filter - sends the json responses of the local APIs as Smile to the delegates which accept it
+ * (see BinaryEncoding). Responses which are not valid json are sent as they are.
+ */
+@Provider
+@ConstrainedTo(RuntimeType.SERVER)
+public class BinaryEncodingFilter implements ContainerResponseFilter {
+
+	@Override
+	public void filter(ContainerRequestContext requestContext, ContainerResponseContext responseContext) throws IOException {
+		if (!requestContext.getUriInfo().getPath().endsWith("/local")) {
+			return;
+		}
+		responseContext.getHeaders().add(HttpHeaders.VARY, HttpHeaders.ACCEPT);
+		if (!(responseContext.getEntity() instanceof String) || !MediaType.APPLICATION_JSON_TYPE.isCompatible(responseContext.getMediaType())
+				|| !BinaryEncoding.accepts(requestContext.getHeaders().get(HttpHeaders.ACCEPT))) {
+			return;
+		}
+		byte[] smile = BinaryEncoding.encode((String) responseContext.getEntity());
+		if (smile != null) {
+			responseContext.setEntity(smile, responseContext.getEntityAnnotations(), BinaryEncoding.SMILE_TYPE);
+		}
+	}
+}
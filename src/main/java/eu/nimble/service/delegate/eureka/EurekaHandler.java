@@ -10,16 +10,22 @@ import com.netflix.appinfo.ApplicationInfoManager;
 import com.netflix.appinfo.InstanceInfo;
 import com.netflix.appinfo.MyDataCenterInstanceConfig;
 import com.netflix.appinfo.providers.EurekaConfigBasedInstanceInfoProvider;
+import com.netflix.discovery.CacheRefreshedEvent;
 import com.netflix.discovery.DefaultEurekaClientConfig;
 import com.netflix.discovery.DiscoveryClient;
 import com.netflix.discovery.EurekaClient;
+import com.netflix.discovery.EurekaEvent;
+import com.netflix.discovery.EurekaEventListener;
+
+import eu.nimble.service.delegate.discovery.AbstractDiscoveryHandler;
+import eu.nimble.service.delegate.discovery.ServiceEndpoint;
 
 /**
- * Eureka Handler
+ * Eureka Handler - discovers the Delegate services which are registered in the Eureka server
  *
  * Created by Nir Rozenbaum (nirro@il.ibm.com) 07/30/2019.
  */
-public class EurekaHandler {
+public class EurekaHandler extends AbstractDiscoveryHandler {
 	private static Logger logger = LogManager.getLogger(EurekaHandler.class);
 	private static String VIP_ADDRESS = "eu.nimble.delegate";
 	
@@ -27,7 +33,8 @@ public class EurekaHandler {
     private EurekaClient eurekaClient;
 	
 	 // Initializes Eureka client and registers the service with the Eureka server
-    public boolean initEureka() {
+    @Override
+    public boolean init() {
         try {
         	logger.info("trying to init eureka client");
         	MyDataCenterInstanceConfig instanceConfig = new MyDataCenterInstanceConfig();
@@ -35,6 +42,16 @@ public class EurekaHandler {
         	applicationInfoManager = new ApplicationInfoManager(instanceConfig, instanceInfo);
         	eurekaClient = new DiscoveryClient(applicationInfoManager, new DefaultEurekaClientConfig());
         	applicationInfoManager.setInstanceStatus(InstanceInfo.InstanceStatus.UP);
+        	// rebuild the endpoint registry only when the eureka client refreshes its local cache
+        	eurekaClient.registerEventListener(new EurekaEventListener() {
+        		@Override
+        		public void onEvent(EurekaEvent event) {
+        			if (event instanceof CacheRefreshedEvent) {
+        				refreshRegistry();
+        			}
+        		}
+        	});
+        	refreshRegistry();
         	logger.info("Delegate has been registered in Eureka: " +
         				instanceInfo.getAppName() + "/" +
         				instanceInfo.getVIPAddress() + "(" +
@@ -49,9 +66,16 @@ public class EurekaHandler {
         return true;
     }
     
-    // Returns a list of Delegate services registered in Eureka server
-    public List<ServiceEndpoint> getEndpointsFromEureka() {
-        List<ServiceEndpoint> delegateList = new ArrayList<ServiceEndpoint>();
+    // Rebuilds the registry snapshot from the eureka client cache, if the set of UP delegates has changed
+    public void refreshRegistry() {
+    	if (eurekaClient == null) {
+    		return;
+    	}
+    	updateEndpoints(buildEndpointList());
+    }
+    
+    private List<ServiceEndpoint> buildEndpointList() {
+    	List<ServiceEndpoint> delegateList = new ArrayList<ServiceEndpoint>();
         List<InstanceInfo> instanceList = eurekaClient.getInstancesByVipAddress(VIP_ADDRESS, false);
         for (InstanceInfo info : instanceList) {
            // Filter out services that are not UP
@@ -60,28 +84,23 @@ public class EurekaHandler {
            }
         }
         return delegateList;
-    } 
-	
-    public ServiceEndpoint getEndpointByAppName(String appName) {
-    	List<InstanceInfo> instanceList = eurekaClient.getInstancesByVipAddressAndAppName(VIP_ADDRESS, appName, false);
-    	for (InstanceInfo info : instanceList) {
-    		// Filter out services that are not UP
-            if (info.getStatus() == InstanceInfo.InstanceStatus.UP) {
-                return new ServiceEndpoint(info.getId(), info.getHomePageUrl(), info.getPort(), info.getAppName());
-            }
-        }
-    	return null;
     }
     
+    @Override
     public String getId() {
     	return applicationInfoManager.getInfo().getId();
     }
 
+    @Override
     public String getAppName() {
         return applicationInfoManager.getInfo().getAppName();
     }
     
+    @Override
     public void destroy() {
+    	if (applicationInfoManager == null) {
+    		return;
+    	}
     	logger.info("setting eureka instance status to DOWN");
     	applicationInfoManager.setInstanceStatus(InstanceInfo.InstanceStatus.DOWN);
     }
@@ -0,0 +1,236 @@
+package eu.nimble.service.delegate.http;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MultivaluedMap;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import eu.nimble.service.delegate.metrics.MetricsSource;
+
+/**
+ * A short-lived cache of the local backend responses, in front of the forwarders of the local APIs. The other delegates
+ * send the same searches and catalog queries as their users browse, so the successful responses of the cacheable
+ * backends are kept for a few seconds, keyed by the backend request (method, uri with the query params, body, and the
+ * headers other than the delegate's own token). Identical requests which arrive while the response is loaded wait for
+ * it, instead of calling the backend too.
+ * Any write which is forwarded by this delegate invalidates the whole cache, the backends may update each other's data.
+ * The responses are kept within a size budget, the least recently used responses are evicted first.
+ *
+ * DELEGATE_LOCAL_CACHE_TTL_MS - how long a response is kept, 0 disables the cache (default 5000)
+ * DELEGATE_LOCAL_CACHE_MAX_MB - size budget of the cached responses (default 32)
+ * DELEGATE_LOCAL_CACHE_BACKENDS - comma separated names of the cached backends (default indexing,catalog)
+ */
+class BackendResponseCache implements MetricsSource {
+    private static Logger logger = LogManager.getLogger(BackendResponseCache.class);
+
+    // a single response takes at most this share of the budget
+    private static final int MAX_ENTRY_SHARE = 8;
+
+    // loads the data of a successful backend response, or returns null if the response failed (which isn't cached)
+    interface Loader {
+        String load();
+    }
+
+    private final long ttlMillis;
+    private final long maxBytes;
+    private final long maxWaitMillis;
+    private final Set<String> backends = new LinkedHashSet<String>();
+    private final ObjectMapper mapper = new ObjectMapper().configure(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS, true);
+
+    // the responses in the order of their last use
+    private final LinkedHashMap<String, CachedResponse> responses = new LinkedHashMap<String, CachedResponse>(16, 0.75f, true);
+    private final ConcurrentHashMap<String, CompletableFuture<String>> loading = new ConcurrentHashMap<String, CompletableFuture<String>>();
+    private long bytes = 0;
+    // incremented by every invalidation, a response which was loaded before it isn't kept
+    private long generation = 0;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong collapsed = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    BackendResponseCache(long maxWaitMillis) {
+        this.maxWaitMillis = maxWaitMillis;
+        this.ttlMillis = Math.max(0, getIntEnv("DELEGATE_LOCAL_CACHE_TTL_MS", 5000));
+        this.maxBytes = Math.max(1, getIntEnv("DELEGATE_LOCAL_CACHE_MAX_MB", 32)) * 1024L * 1024L;
+        String names = System.getenv("DELEGATE_LOCAL_CACHE_BACKENDS");
+        for (String name : (names == null ? "indexing,catalog" : names).split(",")) {
+            if (!name.trim().isEmpty()) {
+                backends.add(name.trim());
+            }
+        }
+        if (ttlMillis > 0) {
+            logger.info("the responses of the backends " + backends + " are cached for " + ttlMillis + " ms");
+        }
+    }
+
+    boolean isCached(String backend) {
+        return ttlMillis > 0 && backend != null && backends.contains(backend);
+    }
+
+    // Builds the key of a backend request, the map entries of the body are sorted so equal bodies get the same key
+    String key(String method, String uri, Object body, MultivaluedMap<String, Object> headers) {
+        StringBuilder key = new StringBuilder(method).append(' ').append(uri);
+        if (body != null) {
+            try {
+                key.append(' ').append(mapper.writeValueAsString(body));
+            } catch (JsonProcessingException e) {
+                return null;
+            }
+        }
+        if (headers != null) {
+            TreeMap<String, List<Object>> scope = new TreeMap<String, List<Object>>();
+            for (Entry<String, List<Object>> header : headers.entrySet()) {
+                if (!header.getKey().equalsIgnoreCase(HttpHeaders.AUTHORIZATION)) {
+                    scope.put(header.getKey().toLowerCase(), header.getValue());
+                }
+            }
+            key.append(' ').append(scope);
+        }
+        return key.toString();
+    }
+
+    // Returns the cached data of the request, or loads it. a request which is identical to one that is loaded waits for
+    // its data, and loads it itself if the response failed
+    String get(String backend, String key, Loader loader) {
+        if (key == null || !isCached(backend)) {
+            return loader.load();
+        }
+        long loadedGeneration;
+        synchronized (this) {
+            CachedResponse cached = responses.get(key);
+            if (cached != null && cached.expiresAt > System.currentTimeMillis()) {
+                hits.incrementAndGet();
+                return cached.data;
+            }
+            if (cached != null) {
+                remove(key, cached);
+            }
+            loadedGeneration = generation;
+        }
+        CompletableFuture<String> loaded = new CompletableFuture<String>();
+        CompletableFuture<String> inFlight = loading.putIfAbsent(key, loaded);
+        if (inFlight != null) {
+            collapsed.incrementAndGet();
+            String data = await(inFlight);
+            return data != null ? data : loader.load();
+        }
+        misses.incrementAndGet();
+        String data = null;
+        try {
+            data = loader.load();
+            if (data != null) {
+                put(key, data, loadedGeneration);
+            }
+        } finally {
+            loading.remove(key, loaded);
+            loaded.complete(data);
+        }
+        return data;
+    }
+
+    private String await(CompletableFuture<String> inFlight) {
+        try {
+            return inFlight.get(maxWaitMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private synchronized void put(String key, String data, long loadedGeneration) {
+        // the strings are kept as utf-16
+        long size = 2L * (key.length() + data.length());
+        if (loadedGeneration != generation || size > maxBytes / MAX_ENTRY_SHARE) {
+            return;
+        }
+        CachedResponse previous = responses.get(key);
+        if (previous != null) {
+            remove(key, previous);
+        }
+        responses.put(key, new CachedResponse(data, size, System.currentTimeMillis() + ttlMillis));
+        bytes += size;
+        Iterator<Map.Entry<String, CachedResponse>> leastRecentlyUsed = responses.entrySet().iterator();
+        while (bytes > maxBytes && leastRecentlyUsed.hasNext()) {
+            Map.Entry<String, CachedResponse> evicted = leastRecentlyUsed.next();
+            bytes -= evicted.getValue().size;
+            leastRecentlyUsed.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    private void remove(String key, CachedResponse cached) {
+        responses.remove(key);
+        bytes -= cached.size;
+    }
+
+    // called when a write is forwarded to a backend
+    synchronized void invalidate() {
+        if (ttlMillis == 0) {
+            return;
+        }
+        generation++;
+        invalidations.incrementAndGet();
+        responses.clear();
+        bytes = 0;
+    }
+
+    private static class CachedResponse {
+        final String data;
+        final long size;
+        final long expiresAt;
+
+        CachedResponse(String data, long size, long expiresAt) {
+            this.data = data;
+            this.size = size;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    @Override
+    public Object getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<String, Object>();
+        metrics.put("ttlMillis", ttlMillis);
+        metrics.put("backends", backends);
+        synchronized (this) {
+            metrics.put("responses", responses.size());
+            metrics.put("bytes", bytes);
+        }
+        metrics.put("maxBytes", maxBytes);
+        metrics.put("hits", hits.get());
+        metrics.put("misses", misses.get());
+        metrics.put("collapsed", collapsed.get());
+        metrics.put("evictions", evictions.get());
+        metrics.put("invalidations", invalidations.get());
+        return metrics;
+    }
+
+    private static int getIntEnv(String name, int defaultValue) {
+        try {
+            return Integer.parseInt(System.getenv(name));
+        } catch (Exception ex) {
+            return defaultValue;
+        }
+    }
+}
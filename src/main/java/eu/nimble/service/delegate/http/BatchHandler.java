@@ -0,0 +1,385 @@
+package eu.nimble.service.delegate.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
+import javax.ws.rs.core.StreamingOutput;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.glassfish.jersey.internal.MapPropertiesDelegate;
+import org.glassfish.jersey.server.ApplicationHandler;
+import org.glassfish.jersey.server.ContainerRequest;
+import org.glassfish.jersey.server.ContainerResponse;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import eu.nimble.service.delegate.InboundRequests;
+import eu.nimble.service.delegate.metrics.Metrics;
+import eu.nimble.service.delegate.metrics.MetricsSource;
+import eu.nimble.service.delegate.threads.VirtualThreads;
+
+/**
+ * Handler of the batches of local calls which the other delegates send to this delegate (see BatchingConnector).
+ * The calls of a batch run concurrently, dispatched in process to the local APIs (like InProcessConnector), and
+ * their responses are streamed back as json lines tagged by the call id, in the order they complete:
+ *
+ *   POST /batch/local  - the headers which are common to all the calls are sent once, as the headers of the batch
+ *   {"timeoutMillis": 5000, "calls": [{"id": "0", "method": "GET", "uri": "collaboration-groups/local?offset=0", "headers": {...}}, ...]}
+ *
+ *   {"id": "0", "status": 200, "headers": {"Content-Type": ["application/json"]}, "body": "..."}
+ *
+ * The uri of a call is relative to the base uri of the delegate. Calls which didn't complete within the timeout
+ * of the batch get 504. The authorization of the batch is validated once by the caller, so the calls which use it
+ * are trusted like the in-process calls - which is why a batch may hold only the calls which BatchingConnector sends,
+ * gets of the local APIs (and not another batch or an export).
+ * The calls of all the batches share DELEGATE_BATCH_MAX_CONCURRENT threads (default 100, like the initial concurrency
+ * limit of the local APIs), a call which finds them all busy gets 503.
+ */
+public class BatchHandler implements MetricsSource {
+    private static Logger logger = LogManager.getLogger(BatchHandler.class);
+
+    public static final String PATH = "/batch/local";
+    public static final String MEDIA_TYPE = "application/x-ndjson";
+    // the maximal number of calls in a batch
+    static final int MAX_CALLS = 100;
+    private static final long MAX_TIMEOUT_MILLIS = 60000;
+
+    // headers of the batch request itself (its transport and content) which are not passed to its calls
+    private static final String[] BATCH_HEADERS = {"Host", "Connection", "Keep-Alive", "Proxy-Connection", "Transfer-Encoding", "Upgrade", "TE", "HTTP2-Settings",
+            "Expect", HttpHeaders.CONTENT_TYPE, HttpHeaders.CONTENT_LENGTH, HttpHeaders.CONTENT_ENCODING, HttpHeaders.ACCEPT, HttpHeaders.ACCEPT_ENCODING, InProcessCalls.HEADER};
+    // headers of a call which are not passed to it (the in-process secret is added by this handler only)
+    private static final String[] CONNECTION_HEADERS = {"Host", "Connection", "Keep-Alive", "Proxy-Connection", "Transfer-Encoding", "Upgrade", "TE", "HTTP2-Settings",
+            HttpHeaders.CONTENT_LENGTH, InProcessCalls.HEADER};
+
+    private final ExecutorService executor;
+    // bounds the calls which run at once, since they don't pass the servlet filters which limit the local APIs
+    private final int maxConcurrent;
+    private final Semaphore permits;
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong timedOutCalls = new AtomicLong();
+    private final AtomicLong failedCalls = new AtomicLong();
+    private final AtomicLong rejectedCalls = new AtomicLong();
+
+    public BatchHandler() {
+        maxConcurrent = Math.max(1, getIntEnv("DELEGATE_BATCH_MAX_CONCURRENT", 100));
+        permits = new Semaphore(maxConcurrent);
+        if (VirtualThreads.isEnabled()) {
+            executor = VirtualThreads.newExecutor("delegate-batch");
+        } else {
+            executor = Executors.newCachedThreadPool(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "delegate-batch");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        Metrics.register("localBatches", this);
+    }
+
+    public void destroy() {
+        executor.shutdownNow();
+    }
+
+    public static boolean isBatch(String path) {
+        return path.equals(PATH) || path.equals(PATH.substring(1));
+    }
+
+    // true if the header belongs to the batch request rather than to its calls
+    static boolean isBatchHeader(String name) {
+        return contains(BATCH_HEADERS, name);
+    }
+
+    static boolean isConnectionHeader(String name) {
+        return contains(CONNECTION_HEADERS, name);
+    }
+
+    private static boolean contains(String[] headers, String name) {
+        for (String header : headers) {
+            if (header.equalsIgnoreCase(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Runs the calls of the batch (its authorization is already validated) and streams their responses.
+    // the base uri is the base uri of the batch request, which the uris of the calls are relative to
+    public Response execute(URI baseUri, HttpHeaders headers, String envelope) {
+        final ApplicationHandler applicationHandler = InProcessCalls.getApplicationHandler();
+        if (applicationHandler == null) {
+            return Response.status(Status.SERVICE_UNAVAILABLE).entity("the delegate application is not started").build();
+        }
+        final List<Call> callList = new ArrayList<Call>();
+        long timeoutMillis = MAX_TIMEOUT_MILLIS;
+        try {
+            JsonObject batch = new JsonParser().parse(envelope).getAsJsonObject();
+            if (batch.has("timeoutMillis")) {
+                timeoutMillis = Math.max(1, Math.min(batch.get("timeoutMillis").getAsLong(), MAX_TIMEOUT_MILLIS));
+            }
+            JsonArray calls = batch.getAsJsonArray("calls");
+            if (calls.size() > MAX_CALLS) {
+                return Response.status(Status.REQUEST_ENTITY_TOO_LARGE).entity("a batch has at most " + MAX_CALLS + " calls").build();
+            }
+            Set<String> ids = new LinkedHashSet<String>();
+            for (JsonElement element : calls) {
+                Call call = new Call(element.getAsJsonObject(), baseUri);
+                if (!ids.add(call.id)) {
+                    throw new IllegalArgumentException("duplicate call id " + call.id);
+                }
+                callList.add(call);
+            }
+        } catch (RuntimeException e) {
+            logger.warn("got an invalid batch: {}", e.toString());
+            return Response.status(Status.BAD_REQUEST).entity("invalid batch: " + e.getMessage()).build();
+        }
+        batches.incrementAndGet();
+        calls.addAndGet(callList.size());
+
+        final MultivaluedMap<String, String> batchHeaders = headers.getRequestHeaders();
+        final String authorization = headers.getHeaderString(HttpHeaders.AUTHORIZATION);
+        final long deadline = System.currentTimeMillis() + timeoutMillis;
+        final BlockingQueue<JsonObject> results = new LinkedBlockingQueue<JsonObject>();
+        final List<Future<?>> futures = new ArrayList<Future<?>>(callList.size());
+        for (final Call call : callList) {
+            if (!permits.tryAcquire()) {
+                rejectedCalls.incrementAndGet();
+                results.add(error(call.id, Status.SERVICE_UNAVAILABLE.getStatusCode(), "the delegate service is overloaded"));
+                continue;
+            }
+            try {
+                futures.add(executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            JsonObject result = dispatch(applicationHandler, call, batchHeaders, authorization, deadline);
+                            if (result != null) {
+                                results.add(result);
+                            }
+                        } finally {
+                            permits.release();
+                        }
+                    }
+                }));
+            } catch (RejectedExecutionException e) {
+                permits.release();
+                rejectedCalls.incrementAndGet();
+                results.add(error(call.id, Status.SERVICE_UNAVAILABLE.getStatusCode(), "the delegate service is overloaded"));
+            }
+        }
+        StreamingOutput output = new StreamingOutput() {
+            @Override
+            public void write(OutputStream out) throws IOException {
+                Set<String> pending = new LinkedHashSet<String>();
+                for (Call call : callList) {
+                    pending.add(call.id);
+                }
+                try {
+                    while (!pending.isEmpty()) {
+                        JsonObject result = results.poll(deadline - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+                        if (result == null) {
+                            break;
+                        }
+                        pending.remove(result.get("id").getAsString());
+                        writeLine(out, result);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    for (Future<?> future : futures) {
+                        future.cancel(true);
+                    }
+                }
+                for (String id : pending) {
+                    timedOutCalls.incrementAndGet();
+                    writeLine(out, error(id, Status.GATEWAY_TIMEOUT.getStatusCode(), "the call timed out in the batch"));
+                }
+            }
+        };
+        return Response.ok(output, MEDIA_TYPE).build();
+    }
+
+    // runs the call in process, returns null if it didn't complete in time
+    private JsonObject dispatch(ApplicationHandler applicationHandler, Call call, MultivaluedMap<String, String> batchHeaders, String authorization, long deadline) {
+        try {
+            ContainerRequest request = new ContainerRequest(call.baseUri, call.uri, call.method, null, new MapPropertiesDelegate());
+            for (Map.Entry<String, List<String>> header : batchHeaders.entrySet()) {
+                if (!isBatchHeader(header.getKey()) && !call.headers.containsKey(header.getKey())) {
+                    request.headers(header.getKey(), header.getValue());
+                }
+            }
+            for (Map.Entry<String, List<String>> header : call.headers.entrySet()) {
+                request.headers(header.getKey(), header.getValue());
+            }
+            String callAuthorization = request.getHeaderString(HttpHeaders.AUTHORIZATION);
+            if (authorization != null && authorization.equals(callAuthorization)) {
+                request.header(InProcessCalls.HEADER, InProcessCalls.getSecret());
+            }
+            request.setEntityStream(new ByteArrayInputStream(call.body));
+
+            ByteArrayOutputStream responseBody = new ByteArrayOutputStream();
+            ContainerResponse response = applicationHandler.apply(request, responseBody).get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+            return result(call.id, response.getStatus(), response.getStringHeaders(), response.getMediaType(), responseBody.toByteArray());
+        } catch (TimeoutException e) {
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (Exception e) {
+            logger.error("failed to run the call {} {} of a batch", call.method, call.uri, e);
+            failedCalls.incrementAndGet();
+            return error(call.id, Status.INTERNAL_SERVER_ERROR.getStatusCode(), "the call failed in the batch");
+        }
+    }
+
+    // textual bodies are sent as text, others (e.g. zip) as base64
+    private static JsonObject result(String id, int status, MultivaluedMap<String, String> headers, MediaType mediaType, byte[] body) {
+        JsonObject result = new JsonObject();
+        result.addProperty("id", id);
+        result.addProperty("status", status);
+        JsonObject resultHeaders = new JsonObject();
+        for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+            if (isConnectionHeader(header.getKey())) {
+                continue;
+            }
+            JsonArray values = new JsonArray();
+            for (String value : header.getValue()) {
+                values.add(value);
+            }
+            resultHeaders.add(header.getKey(), values);
+        }
+        result.add("headers", resultHeaders);
+        if (isText(mediaType)) {
+            result.addProperty("body", new String(body, StandardCharsets.UTF_8));
+        } else {
+            result.addProperty("base64Body", Base64.getEncoder().encodeToString(body));
+        }
+        return result;
+    }
+
+    private static JsonObject error(String id, int status, String message) {
+        JsonObject result = new JsonObject();
+        result.addProperty("id", id);
+        result.addProperty("status", status);
+        result.add("headers", new JsonObject());
+        result.addProperty("body", message);
+        return result;
+    }
+
+    private static boolean isText(MediaType mediaType) {
+        if (mediaType == null) {
+            return true;
+        }
+        String subtype = mediaType.getSubtype();
+        return mediaType.getType().equals("text") || subtype.equals("json") || subtype.endsWith("+json") || subtype.equals("xml") || subtype.endsWith("+xml");
+    }
+
+    private static void writeLine(OutputStream out, JsonObject result) throws IOException {
+        out.write(result.toString().getBytes(StandardCharsets.UTF_8));
+        out.write('\n');
+        // every response is sent as soon as it's written
+        out.flush();
+    }
+
+    @Override
+    public Object getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<String, Object>();
+        metrics.put("batches", batches.get());
+        metrics.put("calls", calls.get());
+        metrics.put("timedOutCalls", timedOutCalls.get());
+        metrics.put("failedCalls", failedCalls.get());
+        metrics.put("rejectedCalls", rejectedCalls.get());
+        metrics.put("activeCalls", maxConcurrent - permits.availablePermits());
+        return metrics;
+    }
+
+    private static int getIntEnv(String name, int defaultValue) {
+        try {
+            return Integer.parseInt(System.getenv(name));
+        } catch (Exception ex) {
+            return defaultValue;
+        }
+    }
+
+    // a call of a batch
+    private static class Call {
+        private final String id;
+        private final String method;
+        private final URI baseUri;
+        private final URI uri;
+        private final Map<String, List<String>> headers = new TreeMap<String, List<String>>(String.CASE_INSENSITIVE_ORDER);
+        private final byte[] body;
+
+        Call(JsonObject call, URI baseUri) {
+            this.id = call.get("id").getAsString();
+            this.method = call.has("method") ? call.get("method").getAsString() : "GET";
+            if (!method.equals("GET")) {
+                throw new IllegalArgumentException("invalid call method " + method);
+            }
+            String relativeUri = call.get("uri").getAsString();
+            URI uri = URI.create(relativeUri);
+            if (uri.isAbsolute() || uri.getRawAuthority() != null || relativeUri.startsWith("/")) {
+                throw new IllegalArgumentException("invalid call uri " + relativeUri);
+            }
+            this.baseUri = baseUri;
+            this.uri = baseUri.resolve(uri);
+            // the resolved (and decoded) path is checked, a relative path may climb out of its segments
+            String basePath = baseUri.getPath().endsWith("/") ? baseUri.getPath() : baseUri.getPath() + "/";
+            String path = this.uri.getPath();
+            if (path == null || !path.startsWith(basePath) || path.contains("/./") || path.contains("/../") || path.contains("//")) {
+                throw new IllegalArgumentException("invalid call uri " + relativeUri);
+            }
+            String localPath = path.substring(basePath.length() - 1);
+            if (!localPath.endsWith("/local") || isBatch(localPath) || InboundRequests.isExport(localPath)) {
+                throw new IllegalArgumentException("not a local api call " + relativeUri);
+            }
+            if (call.has("headers")) {
+                for (Map.Entry<String, JsonElement> header : call.getAsJsonObject("headers").entrySet()) {
+                    if (isConnectionHeader(header.getKey())) {
+                        continue;
+                    }
+                    List<String> values = new ArrayList<String>();
+                    for (JsonElement value : header.getValue().getAsJsonArray()) {
+                        values.add(value.getAsString());
+                    }
+                    headers.put(header.getKey(), values);
+                }
+            }
+            this.body = call.has("body") ? call.get("body").getAsString().getBytes(StandardCharsets.UTF_8) : new byte[0];
+        }
+    }
+}
@@ -0,0 +1,553 @@
+package eu.nimble.service.delegate.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.ws.rs.ProcessingException;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.UriBuilder;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.WWWAuthenticationProtocolHandler;
+import org.eclipse.jetty.client.api.Request;
+import org.eclipse.jetty.client.api.Response;
+import org.eclipse.jetty.client.api.Result;
+import org.eclipse.jetty.client.util.BufferingResponseListener;
+import org.eclipse.jetty.client.util.StringContentProvider;
+import org.eclipse.jetty.http.HttpField;
+import org.eclipse.jetty.util.HttpCookieStore;
+import org.glassfish.jersey.client.ClientProperties;
+import org.glassfish.jersey.client.ClientRequest;
+import org.glassfish.jersey.client.ClientResponse;
+import org.glassfish.jersey.client.spi.AsyncConnectorCallback;
+import org.glassfish.jersey.client.spi.Connector;
+import org.glassfish.jersey.message.internal.Statuses;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import eu.nimble.service.delegate.metrics.Metrics;
+import eu.nimble.service.delegate.metrics.MetricsSource;
+
+/**
+ * Client connector which combines the concurrent calls to the local APIs of a delegate into batches (see
+ * BatchHandler). A call waits a short window for other calls to the same delegate, and the batch is sent when the
+ * window is over or when it's full. The batch response is parsed as it streams in, so every call completes when its
+ * own response arrives rather than with the slowest call of the batch.
+ * The calls of a batch share its authorization, calls with another token go in another batch. A call which got
+ * no company within the window is sent as is, and so are the calls to a delegate which doesn't know batches
+ * (an older version), for a while.
+ *
+ * DELEGATE_BATCH_WINDOW_MS - time a call waits for other calls to the same delegate (default 5)
+ * DELEGATE_BATCH_MAX_CALLS - maximal number of calls in a batch (default 20)
+ * DELEGATE_BATCH_FALLBACK_SEC - time a delegate without batches is called without them before it's tried again (default 300)
+ */
+class BatchingConnector implements Connector, MetricsSource {
+    private static Logger logger = LogManager.getLogger(BatchingConnector.class);
+
+    // request property with the base uri of the delegate, which the uri of the call is relative to in the batch
+    static final String BASE_URI_PROPERTY = "delegate.batch.baseUri";
+
+    private final HttpClient httpClient;
+    // closes the windows of the batches
+    private final ScheduledThreadPoolExecutor windows;
+    private final long windowMillis;
+    private final int maxCalls;
+    private final long fallbackMillis;
+    // the batches which are still open, by delegate and authorization
+    private final Map<String, Batch> openBatches = new HashMap<String, Batch>();
+    private final Map<String, Peer> peers = new ConcurrentHashMap<String, Peer>();
+
+    BatchingConnector() {
+        this.windowMillis = getIntEnv("DELEGATE_BATCH_WINDOW_MS", 5);
+        this.maxCalls = Math.max(1, Math.min(getIntEnv("DELEGATE_BATCH_MAX_CALLS", 20), BatchHandler.MAX_CALLS));
+        this.fallbackMillis = getIntEnv("DELEGATE_BATCH_FALLBACK_SEC", 300) * 1000L;
+        // the gzip responses are decoded by Jetty as they arrive (there's no compression filter on this client)
+        httpClient = new HttpClient();
+        httpClient.setCookieStore(new HttpCookieStore.Empty());
+        try {
+            httpClient.start();
+        } catch (Exception e) {
+            throw new ProcessingException("failed to start the delegates client", e);
+        }
+        // the local APIs answer 401 without a challenge, which is passed to the caller as is
+        httpClient.getProtocolHandlers().remove(WWWAuthenticationProtocolHandler.NAME);
+        windows = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "delegate-batch-windows");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        Metrics.register("peerBatches", this);
+    }
+
+    // false while the delegate is called without batches
+    boolean acceptsBatches(URI baseUri) {
+        return !getPeer(baseUri.toString()).isFallback();
+    }
+
+    @Override
+    public ClientResponse apply(ClientRequest request) {
+        final CompletableFuture<ClientResponse> future = new CompletableFuture<ClientResponse>();
+        apply(request, new AsyncConnectorCallback() {
+            @Override
+            public void response(ClientResponse response) {
+                future.complete(response);
+            }
+
+            @Override
+            public void failure(Throwable failure) {
+                future.completeExceptionally(failure);
+            }
+        });
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ProcessingException(e);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof ProcessingException ? (ProcessingException) e.getCause() : new ProcessingException(e.getCause());
+        }
+    }
+
+    @Override
+    public Future<?> apply(ClientRequest request, AsyncConnectorCallback callback) {
+        Call call = new Call(request, callback);
+        Object baseUri = request.getProperty(BASE_URI_PROPERTY);
+        if (!(baseUri instanceof URI) || request.hasEntity() || !acceptsBatches((URI) baseUri)) {
+            sendCall(call);
+            return call.done;
+        }
+        call.relativeUri = relativeUri((URI) baseUri, request.getUri());
+        final String key = baseUri + " " + request.getHeaderString(HttpHeaders.AUTHORIZATION);
+        Batch fullBatch = null;
+        synchronized (openBatches) {
+            Batch batch = openBatches.get(key);
+            if (batch == null) {
+                final Batch newBatch = new Batch(getPeer(baseUri.toString()), (URI) baseUri);
+                openBatches.put(key, newBatch);
+                windows.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        closeWindow(key, newBatch);
+                    }
+                }, windowMillis, TimeUnit.MILLISECONDS);
+                batch = newBatch;
+            }
+            batch.calls.add(call);
+            if (batch.calls.size() >= maxCalls) {
+                openBatches.remove(key);
+                fullBatch = batch;
+            }
+        }
+        if (fullBatch != null) {
+            send(fullBatch);
+        }
+        return call.done;
+    }
+
+    private void closeWindow(String key, Batch batch) {
+        synchronized (openBatches) {
+            if (openBatches.get(key) != batch) {
+                // it was full and sent already
+                return;
+            }
+            openBatches.remove(key);
+        }
+        send(batch);
+    }
+
+    private void send(final Batch batch) {
+        if (batch.calls.size() == 1) {
+            sendCall(batch.calls.get(0));
+            return;
+        }
+        batch.peer.batchSent(batch.calls.size());
+        Request batchRequest = httpClient.newRequest(UriBuilder.fromUri(batch.baseUri).path(BatchHandler.PATH).build())
+                .method("POST")
+                .header(HttpHeaders.ACCEPT, BatchHandler.MEDIA_TYPE);
+        Map<String, List<String>> commonHeaders = commonHeaders(batch.calls);
+        for (Map.Entry<String, List<String>> header : commonHeaders.entrySet()) {
+            for (String value : header.getValue()) {
+                batchRequest.header(header.getKey(), value);
+            }
+        }
+        long timeoutMillis = 0;
+        final Map<String, Call> pending = new LinkedHashMap<String, Call>();
+        JsonArray calls = new JsonArray();
+        for (Call call : batch.calls) {
+            String id = String.valueOf(pending.size());
+            pending.put(id, call);
+            JsonObject callObject = new JsonObject();
+            callObject.addProperty("id", id);
+            callObject.addProperty("method", call.request.getMethod());
+            callObject.addProperty("uri", call.relativeUri);
+            JsonObject callHeaders = new JsonObject();
+            for (Map.Entry<String, List<String>> header : call.request.getStringHeaders().entrySet()) {
+                if (commonHeaders.containsKey(header.getKey()) || BatchHandler.isConnectionHeader(header.getKey())) {
+                    continue;
+                }
+                JsonArray values = new JsonArray();
+                for (String value : header.getValue()) {
+                    values.add(value);
+                }
+                callHeaders.add(header.getKey(), values);
+            }
+            callObject.add("headers", callHeaders);
+            calls.add(callObject);
+            timeoutMillis = Math.max(timeoutMillis, getTimeoutMillis(call.request));
+        }
+        JsonObject envelope = new JsonObject();
+        if (timeoutMillis > 0) {
+            envelope.addProperty("timeoutMillis", timeoutMillis);
+            batchRequest.timeout(timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+        envelope.add("calls", calls);
+        batchRequest.content(new StringContentProvider(MediaType.APPLICATION_JSON, envelope.toString(), StandardCharsets.UTF_8));
+
+        batchRequest.send(new Response.Listener.Adapter() {
+            private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+            private int status;
+
+            @Override
+            public void onBegin(Response response) {
+                status = response.getStatus();
+            }
+
+            @Override
+            public void onContent(Response response, ByteBuffer content) {
+                while (content.hasRemaining()) {
+                    byte b = content.get();
+                    if (b == '\n' && status == 200) {
+                        completeCall(pending, new String(line.toByteArray(), StandardCharsets.UTF_8));
+                        line.reset();
+                    } else {
+                        line.write(b);
+                    }
+                }
+            }
+
+            @Override
+            public void onComplete(Result result) {
+                if (result.isFailed()) {
+                    for (Call call : pending.values()) {
+                        fail(call, new ProcessingException(result.getFailure()));
+                    }
+                } else if (status == 404 || status == 405) {
+                    // the delegate doesn't know batches, nothing was processed
+                    if (batch.peer.fallBack(fallbackMillis)) {
+                        logger.warn("calling {} without batches, it doesn't support them (status {})", batch.peer.name, status);
+                    }
+                    for (Call call : pending.values()) {
+                        sendCall(call);
+                    }
+                } else if (status != 200) {
+                    // the batch was refused as a whole (e.g. unauthorized), so is every call
+                    byte[] body = line.toByteArray();
+                    for (Call call : pending.values()) {
+                        respond(call, toClientResponse(call.request, result.getResponse(), body));
+                    }
+                } else {
+                    if (line.size() > 0) {
+                        completeCall(pending, new String(line.toByteArray(), StandardCharsets.UTF_8));
+                    }
+                    for (Call call : pending.values()) {
+                        fail(call, new ProcessingException("no response to the call in the batch"));
+                    }
+                }
+                pending.clear();
+            }
+        });
+    }
+
+    // completes the call of a response line of the batch
+    private void completeCall(Map<String, Call> pending, String line) {
+        JsonObject result;
+        try {
+            result = new JsonParser().parse(line).getAsJsonObject();
+        } catch (RuntimeException e) {
+            logger.warn("got an invalid line in a batch response: {}", e.toString());
+            return;
+        }
+        Call call = pending.remove(result.get("id").getAsString());
+        if (call == null) {
+            return;
+        }
+        ClientResponse response = new ClientResponse(Statuses.from(result.get("status").getAsInt()), call.request);
+        for (Map.Entry<String, JsonElement> header : result.getAsJsonObject("headers").entrySet()) {
+            for (JsonElement value : header.getValue().getAsJsonArray()) {
+                response.getHeaders().add(header.getKey(), value.getAsString());
+            }
+        }
+        byte[] body;
+        if (result.has("base64Body")) {
+            body = Base64.getDecoder().decode(result.get("base64Body").getAsString());
+        } else {
+            body = result.has("body") ? result.get("body").getAsString().getBytes(StandardCharsets.UTF_8) : new byte[0];
+        }
+        response.setEntityStream(new ByteArrayInputStream(body));
+        respond(call, response);
+    }
+
+    // sends the call by itself
+    private void sendCall(final Call call) {
+        ClientRequest request = call.request;
+        Request callRequest = httpClient.newRequest(request.getUri()).method(request.getMethod());
+        for (Map.Entry<String, List<String>> header : request.getStringHeaders().entrySet()) {
+            if (BatchHandler.isConnectionHeader(header.getKey())) {
+                continue;
+            }
+            for (String value : header.getValue()) {
+                callRequest.header(header.getKey(), value);
+            }
+        }
+        long timeoutMillis = getTimeoutMillis(request);
+        if (timeoutMillis > 0) {
+            callRequest.timeout(timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+        Object baseUri = request.getProperty(BASE_URI_PROPERTY);
+        if (baseUri != null) {
+            getPeer(baseUri.toString()).callSent();
+        }
+        callRequest.send(new BufferingResponseListener(Integer.MAX_VALUE) {
+            @Override
+            public void onComplete(Result result) {
+                if (result.isFailed()) {
+                    fail(call, new ProcessingException(result.getFailure()));
+                } else {
+                    respond(call, toClientResponse(call.request, result.getResponse(), getContent()));
+                }
+            }
+        });
+    }
+
+    // the headers which all the calls have with the same values, they're sent once as the headers of the batch
+    private static Map<String, List<String>> commonHeaders(List<Call> calls) {
+        Map<String, List<String>> common = new TreeMap<String, List<String>>(String.CASE_INSENSITIVE_ORDER);
+        for (Map.Entry<String, List<String>> header : calls.get(0).request.getStringHeaders().entrySet()) {
+            if (!BatchHandler.isBatchHeader(header.getKey())) {
+                common.put(header.getKey(), header.getValue());
+            }
+        }
+        for (int i = 1; i < calls.size() && !common.isEmpty(); i++) {
+            List<String> names = new ArrayList<String>(common.keySet());
+            for (String name : names) {
+                if (!common.get(name).equals(calls.get(i).request.getStringHeaders().get(name))) {
+                    common.remove(name);
+                }
+            }
+        }
+        return common;
+    }
+
+    // the uri of the call relative to the base uri of the delegate, with the query
+    private static String relativeUri(URI baseUri, URI uri) {
+        String basePath = baseUri.getRawPath() == null ? "" : baseUri.getRawPath();
+        String path = uri.getRawPath();
+        if (path.startsWith(basePath)) {
+            path = path.substring(basePath.length());
+        }
+        while (path.startsWith("/")) {
+            path = path.substring(1);
+        }
+        return uri.getRawQuery() == null ? path : path + "?" + uri.getRawQuery();
+    }
+
+    private static long getTimeoutMillis(ClientRequest request) {
+        Integer timeout = request.resolveProperty(ClientProperties.READ_TIMEOUT, Integer.class);
+        return timeout == null ? 0 : timeout;
+    }
+
+    // Jetty decoded the gzip bodies already
+    private static ClientResponse toClientResponse(ClientRequest request, Response response, byte[] content) {
+        ClientResponse clientResponse = new ClientResponse(Statuses.from(response.getStatus()), request);
+        for (HttpField field : response.getHeaders()) {
+            if (field.getName().equalsIgnoreCase(HttpHeaders.CONTENT_ENCODING) || field.getName().equalsIgnoreCase(HttpHeaders.CONTENT_LENGTH)) {
+                continue;
+            }
+            clientResponse.getHeaders().add(field.getName(), field.getValue());
+        }
+        clientResponse.setEntityStream(new ByteArrayInputStream(content == null ? new byte[0] : content));
+        return clientResponse;
+    }
+
+    // the callbacks read and parse the responses, so they run on the client's threads rather than on the one
+    // which reads the rest of the batch
+    private void respond(final Call call, final ClientResponse response) {
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    call.callback.response(response);
+                } finally {
+                    call.done.complete(null);
+                }
+            }
+        });
+    }
+
+    private void fail(final Call call, final Throwable failure) {
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    call.callback.failure(failure);
+                } finally {
+                    call.done.complete(null);
+                }
+            }
+        });
+    }
+
+    private void execute(Runnable task) {
+        Executor executor = httpClient.getExecutor();
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            task.run();
+        }
+    }
+
+    private Peer getPeer(String name) {
+        Peer peer = peers.get(name);
+        if (peer == null) {
+            peers.putIfAbsent(name, new Peer(name));
+            peer = peers.get(name);
+        }
+        return peer;
+    }
+
+    @Override
+    public String getName() {
+        return "batching";
+    }
+
+    @Override
+    public void close() {
+        windows.shutdownNow();
+        try {
+            httpClient.stop();
+        } catch (Exception e) {
+            logger.warn("failed to stop the delegates client", e);
+        }
+    }
+
+    @Override
+    public Object getMetrics() {
+        Map<String, Object> metrics = new TreeMap<String, Object>();
+        for (Peer peer : peers.values()) {
+            metrics.put(peer.name, peer.getMetrics());
+        }
+        return metrics;
+    }
+
+    // a call to a local API of a delegate
+    private static class Call {
+        private final ClientRequest request;
+        private final AsyncConnectorCallback callback;
+        private final CompletableFuture<Void> done = new CompletableFuture<Void>();
+        private String relativeUri;
+
+        Call(ClientRequest request, AsyncConnectorCallback callback) {
+            this.request = request;
+            this.callback = callback;
+        }
+    }
+
+    // the calls to a delegate within a window
+    private static class Batch {
+        private final Peer peer;
+        private final URI baseUri;
+        private final List<Call> calls = new ArrayList<Call>();
+
+        Batch(Peer peer, URI baseUri) {
+            this.peer = peer;
+            this.baseUri = baseUri;
+        }
+    }
+
+    // the batches of a delegate (base uri)
+    private static class Peer {
+        private final String name;
+        private final AtomicLong batches = new AtomicLong();
+        private final AtomicLong batchedCalls = new AtomicLong();
+        private final AtomicLong singleCalls = new AtomicLong();
+        private final AtomicLong fallbacks = new AtomicLong();
+        // the delegate is called without batches until then
+        private volatile long fallbackUntil;
+
+        Peer(String name) {
+            this.name = name;
+        }
+
+        boolean isFallback() {
+            return fallbackUntil > System.currentTimeMillis();
+        }
+
+        void batchSent(int calls) {
+            batches.incrementAndGet();
+            batchedCalls.addAndGet(calls);
+        }
+
+        void callSent() {
+            singleCalls.incrementAndGet();
+        }
+
+        // returns false if it's already falling back
+        boolean fallBack(long millis) {
+            boolean first = !isFallback();
+            fallbackUntil = System.currentTimeMillis() + millis;
+            if (first) {
+                fallbacks.incrementAndGet();
+            }
+            return first;
+        }
+
+        Map<String, Object> getMetrics() {
+            Map<String, Object> metrics = new TreeMap<String, Object>();
+            long batchCount = batches.get();
+            metrics.put("batching", !isFallback());
+            metrics.put("batches", batchCount);
+            metrics.put("batchedCalls", batchedCalls.get());
+            metrics.put("callsPerBatch", batchCount == 0 ? 0 : Math.round(batchedCalls.get() * 100.0 / batchCount) / 100.0);
+            metrics.put("singleCalls", singleCalls.get());
+            metrics.put("fallbacks", fallbacks.get());
+            return metrics;
+        }
+    }
+
+    private static int getIntEnv(String name, int defaultValue) {
+        try {
+            return Integer.parseInt(System.getenv(name));
+        } catch (Exception ex) {
+            return defaultValue;
+        }
+    }
+}
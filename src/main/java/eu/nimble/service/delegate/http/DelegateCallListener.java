@@ -0,0 +1,16 @@
+package eu.nimble.service.delegate.http;
+
+import eu.nimble.service.delegate.discovery.ServiceEndpoint;
+
+/**
+ * Gets notified about every request sent to a Delegate service, used to keep the per-delegate statistics
+ * (load balancing, circuit breakers, timeouts) up to date.
+ */
+interface DelegateCallListener {
+    void requestStarted(ServiceEndpoint endpoint);
+
+    // status is EndpointResult.NO_RESPONSE when no response was received (connection failure, timeout etc.),
+    // and PendingResponse.CANCELLED when the request was cancelled since its response was not needed,
+    // or PendingResponse.REJECTED when the request was not sent
+    void requestCompleted(ServiceEndpoint endpoint, String route, long latencyMillis, int status);
+}
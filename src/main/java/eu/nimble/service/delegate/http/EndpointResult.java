@@ -0,0 +1,109 @@
+package eu.nimble.service.delegate.http;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+
+import eu.nimble.service.delegate.discovery.ServiceEndpoint;
+import eu.nimble.service.delegate.encoding.BinaryEncoding;
+
+/**
+ * The result of a single request sent to a Delegate service.
+ * Holds the per-response metadata, so the endpoint itself stays immutable and can be shared between requests.
+ */
+public final class EndpointResult {
+    // status used when no response was received from the delegate (connection failure, timeout etc.)
+    public static final int NO_RESPONSE = 0;
+
+    private final ServiceEndpoint endpoint;
+    private final int status;
+    private volatile String data;
+    // the data as Smile, when the delegate sent it so (see BinaryEncoding)
+    private final byte[] smile;
+    private final String frontendServiceUrl;
+    private final long latencyMillis;
+    private final long bytes;
+    // the data parsed as json, parsed once on the first request
+    private volatile JsonElement json;
+
+    public EndpointResult(ServiceEndpoint endpoint, int status, String data, String frontendServiceUrl, long latencyMillis, long bytes) {
+        this.endpoint = endpoint;
+        this.status = status;
+        this.data = data;
+        this.smile = null;
+        this.frontendServiceUrl = frontendServiceUrl;
+        this.latencyMillis = latencyMillis;
+        this.bytes = bytes;
+    }
+
+    public EndpointResult(ServiceEndpoint endpoint, int status, byte[] smile, String frontendServiceUrl, long latencyMillis, long bytes) {
+        this.endpoint = endpoint;
+        this.status = status;
+        this.smile = smile;
+        this.frontendServiceUrl = frontendServiceUrl;
+        this.latencyMillis = latencyMillis;
+        this.bytes = bytes;
+    }
+
+    public static EndpointResult noResponse(ServiceEndpoint endpoint, long latencyMillis) {
+        return new EndpointResult(endpoint, NO_RESPONSE, (String) null, null, latencyMillis, 0);
+    }
+
+    public ServiceEndpoint getEndpoint() {
+        return endpoint;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    // Smile data is converted to json text on the first request
+    public String getData() {
+        String text = data;
+        if (text == null && smile != null) {
+            text = BinaryEncoding.toJsonText(smile);
+            data = text;
+        }
+        return text;
+    }
+
+    // Returns the data parsed as json (null if there's no data), throws JsonParseException if it's not a valid json.
+    // the parsed element is kept, so changes to it are seen by the later callers
+    public JsonElement getJson() {
+        JsonElement parsed = json;
+        if (parsed == null && smile != null) {
+            parsed = BinaryEncoding.toJsonTree(smile);
+            json = parsed;
+        } else if (parsed == null && data != null) {
+            parsed = new JsonParser().parse(data);
+            json = parsed;
+        }
+        return parsed;
+    }
+
+    public String getFrontendServiceUrl() {
+        return frontendServiceUrl;
+    }
+
+    public long getLatencyMillis() {
+        return latencyMillis;
+    }
+
+    // size of the response body, based on the content length header when available
+    public long getBytes() {
+        return bytes;
+    }
+
+    public boolean isSuccessful() {
+        return status >= 200 && status <= 300;
+    }
+
+    @Override
+    public String toString() {
+        return "Endpoint Result:\n\t"
+                + "appName: " + endpoint.getAppName() + ",\n\t"
+                + "status: " + status + ",\n\t"
+                + "frontendServiceUrl: " + frontendServiceUrl + ",\n\t"
+                + "latencyMillis: " + latencyMillis + ",\n\t"
+                + "bytes: " + bytes + "\n";
+    }
+}
@@ -0,0 +1,37 @@
+package eu.nimble.service.delegate.http;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import eu.nimble.service.delegate.discovery.ServiceEndpoint;
+
+/**
+ * The successful results of a request which was sent to several Delegate services, by endpoint.
+ * Also keeps the delegates (app names) of the fan-out which failed or timed out, so a caller can tell a degraded
+ * fan-out from one which was sent to fewer delegates (e.g. since a delegate left the registry).
+ */
+public class FanOutResults extends LinkedHashMap<ServiceEndpoint, EndpointResult> {
+    private static final long serialVersionUID = 1L;
+
+    private final Set<String> failedDelegates = new LinkedHashSet<String>();
+
+    public void addFailed(String delegateId) {
+        failedDelegates.add(delegateId);
+    }
+
+    // adds the results and the failed delegates of another fan-out of the same request
+    public void addAll(HashMap<ServiceEndpoint, EndpointResult> results) {
+        putAll(results);
+        failedDelegates.addAll(getFailedDelegates(results));
+    }
+
+    // the failed delegates of the results, none if they aren't the results of a fan-out
+    public static Set<String> getFailedDelegates(HashMap<ServiceEndpoint, EndpointResult> results) {
+        if (results instanceof FanOutResults) {
+            return ((FanOutResults) results).failedDelegates;
+        }
+        return new LinkedHashSet<String>();
+    }
+}
@@ -0,0 +1,85 @@
+package eu.nimble.service.delegate.http;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import eu.nimble.service.delegate.metrics.MetricsSource;
+import eu.nimble.service.delegate.resilience.RequestBudget;
+
+/**
+ * Configuration and statistics of hedged requests - a read request which got no response within the usual latency
+ * (a percentile of the route's latency) is sent again, and the first response is used.
+ * The hedges are limited by a global budget, so a slow delegate doesn't get twice the load.
+ *
+ * DELEGATE_HEDGING_ENABLED - true to send hedged requests (default false)
+ * DELEGATE_HEDGING_PERCENTILE - the latency percentile after which a hedge is sent (default 95)
+ * DELEGATE_HEDGING_BUDGET_PERCENT - hedges per 100 requests (default 5)
+ */
+class HedgingPolicy implements MetricsSource {
+    private static Logger logger = LogManager.getLogger(HedgingPolicy.class);
+
+    private static final double BUDGET_REFILL_PER_SEC = 1;
+    private static final double BUDGET_MAX_TOKENS = 10;
+
+    private final boolean enabled;
+    private final double percentile;
+    private final RequestBudget budget;
+    private final AtomicLong hedgesSent = new AtomicLong();
+    private final AtomicLong hedgesWon = new AtomicLong();
+
+    HedgingPolicy() {
+        enabled = Boolean.parseBoolean(System.getenv("DELEGATE_HEDGING_ENABLED"));
+        percentile = getDoubleEnv("DELEGATE_HEDGING_PERCENTILE", 95);
+        budget = new RequestBudget(getDoubleEnv("DELEGATE_HEDGING_BUDGET_PERCENT", 5), BUDGET_REFILL_PER_SEC, BUDGET_MAX_TOKENS);
+        if (enabled) {
+            logger.info("hedged requests are sent after the p" + percentile + " latency");
+        }
+    }
+
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    double getPercentile() {
+        return percentile;
+    }
+
+    // called for every request which may be hedged, it adds to the budget
+    void requestSent() {
+        budget.deposit();
+    }
+
+    boolean tryHedge() {
+        if (budget.tryWithdraw()) {
+            hedgesSent.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    void hedgeWon() {
+        hedgesWon.incrementAndGet();
+    }
+
+    @Override
+    public Object getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<String, Object>();
+        metrics.put("enabled", enabled);
+        metrics.put("sent", hedgesSent.get());
+        metrics.put("won", hedgesWon.get());
+        metrics.put("budget", budget.getMetrics());
+        return metrics;
+    }
+
+    private static double getDoubleEnv(String name, double defaultValue) {
+        try {
+            return Double.parseDouble(System.getenv(name));
+        } catch (Exception ex) {
+            return defaultValue;
+        }
+    }
+}
@@ -0,0 +1,375 @@
+package eu.nimble.service.delegate.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.ws.rs.ProcessingException;
+import javax.ws.rs.core.HttpHeaders;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.eclipse.jetty.client.AbstractConnectionPool;
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.HttpDestination;
+import org.eclipse.jetty.client.WWWAuthenticationProtocolHandler;
+import org.eclipse.jetty.client.api.Destination;
+import org.eclipse.jetty.client.api.Request;
+import org.eclipse.jetty.client.api.Response;
+import org.eclipse.jetty.client.api.Result;
+import org.eclipse.jetty.client.util.BufferingResponseListener;
+import org.eclipse.jetty.client.util.BytesContentProvider;
+import org.eclipse.jetty.http.HttpField;
+import org.eclipse.jetty.http2.client.HTTP2Client;
+import org.eclipse.jetty.http2.client.http.HttpClientTransportOverHTTP2;
+import org.eclipse.jetty.util.HttpCookieStore;
+import org.glassfish.jersey.client.ClientProperties;
+import org.glassfish.jersey.client.ClientRequest;
+import org.glassfish.jersey.client.ClientResponse;
+import org.glassfish.jersey.client.spi.AsyncConnectorCallback;
+import org.glassfish.jersey.client.spi.Connector;
+import org.glassfish.jersey.message.internal.OutboundMessageContext;
+import org.glassfish.jersey.message.internal.Statuses;
+
+import eu.nimble.service.delegate.metrics.Metrics;
+import eu.nimble.service.delegate.metrics.MetricsSource;
+
+/**
+ * HTTP/2 connector of the calls to the other delegates - the concurrent calls to a delegate are multiplexed as
+ * streams over a few long-lived connections (h2c with prior knowledge, the delegates are called over plain HTTP),
+ * with the HTTP/2 flow control. A delegate which doesn't speak HTTP/2 (the first call failed before any response)
+ * is called over HTTP/1.1, and probed again after a while. The failed call is sent again over HTTP/1.1 only if its
+ * request wasn't sent, or it's a GET (or HEAD, OPTIONS) call, so a write is never processed twice.
+ *
+ * DELEGATE_HTTP2_CONNECTIONS - maximal number of HTTP/2 connections per delegate (default 2)
+ * DELEGATE_HTTP2_STREAM_WINDOW_KB - receive window of a stream (default 1024)
+ * DELEGATE_HTTP2_SESSION_WINDOW_KB - receive window of a connection (default 8192)
+ * DELEGATE_HTTP2_FALLBACK_SEC - time a delegate is called over HTTP/1.1 before HTTP/2 is tried again (default 300)
+ */
+class Http2Connector implements Connector, MetricsSource {
+    private static Logger logger = LogManager.getLogger(Http2Connector.class);
+
+    // hop-by-hop headers, which HTTP/2 doesn't allow
+    private static final String[] CONNECTION_HEADERS = {"Connection", "Keep-Alive", "Proxy-Connection", "Transfer-Encoding", "Upgrade", "Host", HttpHeaders.CONTENT_LENGTH};
+
+    private final HttpClient http2Client;
+    private final HttpClient http1Client;
+    private final long fallbackMillis;
+    private final Map<String, Peer> peers = new ConcurrentHashMap<String, Peer>();
+
+    Http2Connector() {
+        this.fallbackMillis = getIntEnv("DELEGATE_HTTP2_FALLBACK_SEC", 300) * 1000L;
+        HTTP2Client transport = new HTTP2Client();
+        transport.setInitialStreamRecvWindow(getIntEnv("DELEGATE_HTTP2_STREAM_WINDOW_KB", 1024) * 1024);
+        transport.setInitialSessionRecvWindow(getIntEnv("DELEGATE_HTTP2_SESSION_WINDOW_KB", 8192) * 1024);
+        http2Client = new HttpClient(new HttpClientTransportOverHTTP2(transport), null);
+        http2Client.setMaxConnectionsPerDestination(getIntEnv("DELEGATE_HTTP2_CONNECTIONS", 2));
+        http1Client = new HttpClient();
+        start(http2Client);
+        start(http1Client);
+        Metrics.register("peerHttp2", this);
+    }
+
+    private static void start(HttpClient client) {
+        client.setCookieStore(new HttpCookieStore.Empty());
+        try {
+            client.start();
+        } catch (Exception e) {
+            throw new ProcessingException("failed to start the delegates client", e);
+        }
+        // the responses are decompressed by the compression filter
+        client.getContentDecoderFactories().clear();
+        // the local APIs answer 401 without a challenge, which is passed to the caller as is
+        client.getProtocolHandlers().remove(WWWAuthenticationProtocolHandler.NAME);
+    }
+
+    @Override
+    public ClientResponse apply(ClientRequest request) {
+        final CompletableFuture<ClientResponse> future = new CompletableFuture<ClientResponse>();
+        apply(request, new AsyncConnectorCallback() {
+            @Override
+            public void response(ClientResponse response) {
+                future.complete(response);
+            }
+
+            @Override
+            public void failure(Throwable failure) {
+                future.completeExceptionally(failure);
+            }
+        });
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ProcessingException(e);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof ProcessingException ? (ProcessingException) e.getCause() : new ProcessingException(e.getCause());
+        }
+    }
+
+    @Override
+    public Future<?> apply(final ClientRequest request, final AsyncConnectorCallback callback) {
+        final CompletableFuture<Void> done = new CompletableFuture<Void>();
+        final byte[] body;
+        try {
+            body = writeEntity(request);
+        } catch (IOException e) {
+            callback.failure(new ProcessingException(e));
+            done.complete(null);
+            return done;
+        }
+        final Peer peer = getPeer(request.getUri().getHost() + ":" + request.getUri().getPort());
+        if (peer.isHttp1()) {
+            send(http1Client, request, body, callback, done);
+            return done;
+        }
+        peer.streamStarted();
+        // a request whose headers weren't sent was never seen by the delegate, so it may be sent again over HTTP/1.1
+        final AtomicBoolean committed = new AtomicBoolean();
+        Request http2Request = buildRequest(http2Client, request, body).onRequestCommit(new Request.CommitListener() {
+            @Override
+            public void onCommit(Request committedRequest) {
+                committed.set(true);
+            }
+        });
+        http2Request.send(new BufferingResponseListener(Integer.MAX_VALUE) {
+            private volatile boolean responded;
+
+            @Override
+            public void onBegin(Response response) {
+                responded = true;
+                super.onBegin(response);
+            }
+
+            @Override
+            public void onComplete(Result result) {
+                peer.streamCompleted();
+                if (!result.isFailed()) {
+                    peer.http2Confirmed();
+                    complete(request, result, getContent(), callback, done);
+                } else if (!responded && !(result.getFailure() instanceof TimeoutException) && peer.fallBack(fallbackMillis)) {
+                    // the delegate may not speak HTTP/2, the next calls use HTTP/1.1. the stream may have failed after
+                    // the delegate got the request (GOAWAY, RST_STREAM or a dropped connection), so the request is sent
+                    // again only if it wasn't sent or it's safe to repeat
+                    if (!committed.get() || isSafe(request.getMethod())) {
+                        logger.warn("calling {} over HTTP/1.1, HTTP/2 failed: {}", peer.name, result.getFailure().toString());
+                        send(http1Client, request, body, callback, done);
+                    } else {
+                        logger.warn("calling {} over HTTP/1.1 from now on, HTTP/2 failed after the {} request was sent: {}", peer.name, request.getMethod(), result.getFailure().toString());
+                        complete(request, result, null, callback, done);
+                    }
+                } else {
+                    if (!responded) {
+                        // the delegate may have been replaced, the next call probes it again
+                        peer.reset();
+                    }
+                    complete(request, result, null, callback, done);
+                }
+            }
+        });
+        return done;
+    }
+
+    private void send(HttpClient client, final ClientRequest request, byte[] body, final AsyncConnectorCallback callback, final CompletableFuture<Void> done) {
+        buildRequest(client, request, body).send(new BufferingResponseListener(Integer.MAX_VALUE) {
+            @Override
+            public void onComplete(Result result) {
+                complete(request, result, getContent(), callback, done);
+            }
+        });
+    }
+
+    private static void complete(ClientRequest request, Result result, byte[] content, AsyncConnectorCallback callback, CompletableFuture<Void> done) {
+        try {
+            if (result.isFailed()) {
+                callback.failure(new ProcessingException(result.getFailure()));
+            } else {
+                callback.response(toClientResponse(request, result.getResponse(), content));
+            }
+        } finally {
+            done.complete(null);
+        }
+    }
+
+    // the entity is written before, since the writer interceptors may add headers
+    private static Request buildRequest(HttpClient client, ClientRequest request, byte[] body) {
+        Request delegateRequest = client.newRequest(request.getUri()).method(request.getMethod());
+        for (Map.Entry<String, List<String>> header : request.getStringHeaders().entrySet()) {
+            if (isConnectionHeader(header.getKey())) {
+                continue;
+            }
+            for (String value : header.getValue()) {
+                delegateRequest.header(header.getKey(), value);
+            }
+        }
+        if (body != null) {
+            delegateRequest.content(new BytesContentProvider(body), request.getStringHeaders().getFirst(HttpHeaders.CONTENT_TYPE));
+        }
+        Integer timeout = request.resolveProperty(ClientProperties.READ_TIMEOUT, Integer.class);
+        if (timeout != null && timeout > 0) {
+            delegateRequest.timeout(timeout, TimeUnit.MILLISECONDS);
+        }
+        Boolean followRedirects = request.resolveProperty(ClientProperties.FOLLOW_REDIRECTS, Boolean.class);
+        if (followRedirects != null) {
+            delegateRequest.followRedirects(followRedirects);
+        }
+        return delegateRequest;
+    }
+
+    private static byte[] writeEntity(ClientRequest request) throws IOException {
+        if (!request.hasEntity()) {
+            return null;
+        }
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        request.setStreamProvider(new OutboundMessageContext.StreamProvider() {
+            @Override
+            public OutputStream getOutputStream(int contentLength) throws IOException {
+                return body;
+            }
+        });
+        request.writeEntity();
+        return body.toByteArray();
+    }
+
+    private static boolean isSafe(String method) {
+        return "GET".equals(method) || "HEAD".equals(method) || "OPTIONS".equals(method);
+    }
+
+    private static boolean isConnectionHeader(String name) {
+        for (String header : CONNECTION_HEADERS) {
+            if (header.equalsIgnoreCase(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static ClientResponse toClientResponse(ClientRequest request, Response response, byte[] content) {
+        ClientResponse clientResponse = new ClientResponse(Statuses.from(response.getStatus()), request);
+        for (HttpField field : response.getHeaders()) {
+            clientResponse.getHeaders().add(field.getName(), field.getValue());
+        }
+        clientResponse.setEntityStream(new ByteArrayInputStream(content == null ? new byte[0] : content));
+        return clientResponse;
+    }
+
+    private Peer getPeer(String name) {
+        Peer peer = peers.get(name);
+        if (peer == null) {
+            peers.putIfAbsent(name, new Peer(name));
+            peer = peers.get(name);
+        }
+        return peer;
+    }
+
+    @Override
+    public String getName() {
+        return "HTTP/2 (h2c), falling back to HTTP/1.1";
+    }
+
+    @Override
+    public void close() {
+        try {
+            http2Client.stop();
+            http1Client.stop();
+        } catch (Exception e) {
+            logger.warn("failed to stop the delegates client", e);
+        }
+    }
+
+    @Override
+    public Object getMetrics() {
+        Map<String, Object> metrics = new TreeMap<String, Object>();
+        for (Peer peer : peers.values()) {
+            Map<String, Object> peerMetrics = peer.getMetrics();
+            for (Destination destination : http2Client.getDestinations()) {
+                if (peer.name.equals(destination.getHost() + ":" + destination.getPort()) && destination instanceof HttpDestination
+                        && ((HttpDestination) destination).getConnectionPool() instanceof AbstractConnectionPool) {
+                    AbstractConnectionPool pool = (AbstractConnectionPool) ((HttpDestination) destination).getConnectionPool();
+                    peerMetrics.put("connections", pool.getConnectionCount());
+                    peerMetrics.put("pendingConnections", pool.getPendingCount());
+                    peerMetrics.put("queuedRequests", ((HttpDestination) destination).getQueuedRequestCount());
+                }
+            }
+            metrics.put(peer.name, peerMetrics);
+        }
+        return metrics;
+    }
+
+    // the protocol and the streams of a delegate (host:port)
+    private static class Peer {
+        private final String name;
+        private final AtomicInteger activeStreams = new AtomicInteger();
+        private final AtomicLong streams = new AtomicLong();
+        private final AtomicLong fallbacks = new AtomicLong();
+        // true once a call over HTTP/2 succeeded
+        private volatile boolean http2;
+        // the delegate is called over HTTP/1.1 until then
+        private volatile long http1Until;
+
+        Peer(String name) {
+            this.name = name;
+        }
+
+        boolean isHttp1() {
+            return http1Until > System.currentTimeMillis();
+        }
+
+        void streamStarted() {
+            activeStreams.incrementAndGet();
+            streams.incrementAndGet();
+        }
+
+        void streamCompleted() {
+            activeStreams.decrementAndGet();
+        }
+
+        void http2Confirmed() {
+            http2 = true;
+        }
+
+        // falls back to HTTP/1.1 unless the delegate already responded over HTTP/2
+        boolean fallBack(long millis) {
+            if (http2) {
+                return false;
+            }
+            http1Until = System.currentTimeMillis() + millis;
+            fallbacks.incrementAndGet();
+            return true;
+        }
+
+        void reset() {
+            http2 = false;
+        }
+
+        Map<String, Object> getMetrics() {
+            Map<String, Object> metrics = new TreeMap<String, Object>();
+            metrics.put("protocol", isHttp1() ? "HTTP/1.1" : http2 ? "HTTP/2" : "unknown");
+            metrics.put("activeStreams", activeStreams.get());
+            metrics.put("streams", streams.get());
+            metrics.put("fallbacks", fallbacks.get());
+            return metrics;
+        }
+    }
+
+    private static int getIntEnv(String name, int defaultValue) {
+        try {
+            return Integer.parseInt(System.getenv(name));
+        } catch (Exception ex) {
+            return defaultValue;
+        }
+    }
+}
@@ -1,38 +1,80 @@
 package eu.nimble.service.delegate.http;
 
 import java.io.InputStream;
+import java.net.SocketTimeoutException;
 import java.net.URI;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 import java.util.zip.ZipOutputStream;
 
 import javax.servlet.http.HttpServletResponse;
+import javax.ws.rs.ProcessingException;
 import javax.ws.rs.client.Client;
 import javax.ws.rs.client.ClientBuilder;
 import javax.ws.rs.client.Entity;
 import javax.ws.rs.client.Invocation.Builder;
+import javax.ws.rs.client.InvocationCallback;
+import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.Configuration;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.MultivaluedMap;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.UriBuilder;
 import javax.ws.rs.core.Response.Status;
 
+import com.google.gson.JsonParseException;
+
 import eu.nimble.service.delegate.DelegateResponse;
+import eu.nimble.service.delegate.InboundRequests;
 import eu.nimble.service.delegate.businessprocess.BusinessProcessHandler;
 import eu.nimble.service.delegate.businessprocess.MergeOption;
+import eu.nimble.service.delegate.compression.CompressionClientFilter;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.eclipse.jetty.client.WWWAuthenticationProtocolHandler;
 
-import eu.nimble.service.delegate.eureka.EurekaHandler;
-import eu.nimble.service.delegate.eureka.ServiceEndpoint;
+import eu.nimble.service.delegate.discovery.DiscoveryHandler;
+import eu.nimble.service.delegate.discovery.LoadBalancer;
+import eu.nimble.service.delegate.discovery.ServiceEndpoint;
+import eu.nimble.service.delegate.encoding.BinaryEncoding;
+import eu.nimble.service.delegate.encoding.BinaryEncodingClientFilter;
+import eu.nimble.service.delegate.metrics.Metrics;
+import eu.nimble.service.delegate.resilience.AdaptiveTimeouts;
+import eu.nimble.service.delegate.resilience.Bulkhead;
+import eu.nimble.service.delegate.resilience.BulkheadRegistry;
+import eu.nimble.service.delegate.resilience.CircuitBreakerRegistry;
+import eu.nimble.service.delegate.resilience.HealthProbe;
+import eu.nimble.service.delegate.resilience.RetryPolicy;
+import eu.nimble.service.delegate.resilience.SkippedDelegates;
+import eu.nimble.service.delegate.threads.VirtualThreads;
+import eu.nimble.service.delegate.threads.VirtualThreadsClientExecutor;
+import org.glassfish.jersey.client.ClientConfig;
+import org.glassfish.jersey.client.ClientProperties;
 import org.glassfish.jersey.client.HttpUrlConnectorProvider;
+import org.glassfish.jersey.client.spi.Connector;
+import org.glassfish.jersey.client.spi.ConnectorProvider;
+import org.glassfish.jersey.jetty.connector.JettyClientProperties;
+import org.glassfish.jersey.jetty.connector.JettyConnectorProvider;
 
 /**
  * Http calls handler
@@ -41,14 +83,338 @@ import org.glassfish.jersey.client.HttpUrlConnectorProvider;
  */
 public class HttpHelper {
     private static Logger logger = LogManager.getLogger(HttpHelper.class);
+    // the maximal timeout of the calls to the other delegates
     private static final int REQ_TIMEOUT_SEC = 15;
+    // the maximal timeout of the calls to the local backend services (which had no timeout before)
+    private static final int BACKEND_TIMEOUT_CEILING_SEC = 60;
+    // federation id (app name) of the delegate which sends the request
+    public static final String CLIENT_FEDERATION_ID_HEADER = "clientFederationIdHeader";
 
     private Client httpClient;
-    private EurekaHandler eurekaHandler;
+    // client of the calls to the other delegates, on a non-blocking (NIO) connector so a pending call holds no thread
+    private Client peerClient;
+    // client of the calls to the own cluster (app name) of this delegate, dispatched in process (null if disabled)
+    private Client selfClient;
+    private ExecutorService selfExecutor;
+    // client of the get calls to the local APIs of the other delegates, combined into batches (null if disabled)
+    private Client batchClient;
+    private BatchingConnector batchingConnector;
+    // client of the hedges to a delegate without another replica, sent on new connections which aren't pooled with the
+    // slow ones (null if hedging is disabled)
+    private Client hedgeClient;
+    private DiscoveryHandler discoveryHandler;
+    private LoadBalancer loadBalancer;
+    private CircuitBreakerRegistry circuitBreakers;
+    private HealthProbe healthProbe;
+    // timeouts of the calls to the other delegates and to the local backend services, learned per (target, route)
+    private AdaptiveTimeouts peerTimeouts;
+    private AdaptiveTimeouts backendTimeouts;
+    private HedgingPolicy hedging;
+    private RetryPolicy retryPolicy;
+    private RequestCoalescing coalescing;
+    private BackendResponseCache responseCache;
+    // concurrency limits per delegate (app name) and per local backend service
+    private BulkheadRegistry peerBulkheads;
+    private BulkheadRegistry backendBulkheads;
+    // names of the local backend services by host:port, for their bulkheads
+    private final Map<String, String> backendNames = new ConcurrentHashMap<String, String>();
+    // times out the delegates of the asynchronous fan-outs, so no thread waits for their responses
+    private ScheduledThreadPoolExecutor deadlines;
 
-    public HttpHelper(EurekaHandler eurekaHandler) {
+    public HttpHelper(DiscoveryHandler discoveryHandler) {
         httpClient = ClientBuilder.newClient().property(HttpUrlConnectorProvider.SET_METHOD_WORKAROUND,true);
-        this.eurekaHandler = eurekaHandler;
+        if (VirtualThreads.isEnabled()) {
+            httpClient.register(VirtualThreadsClientExecutor.class);
+        }
+        peerClient = buildPeerClient();
+        selfClient = buildSelfClient();
+        batchClient = buildBatchClient();
+        this.discoveryHandler = discoveryHandler;
+        // the pre-built targets of the delegates are created by the peer client
+        this.discoveryHandler.setHttpClient(peerClient);
+        this.loadBalancer = new LoadBalancer();
+        this.discoveryHandler.addRegistryListener(loadBalancer);
+        this.circuitBreakers = new CircuitBreakerRegistry();
+        this.healthProbe = new HealthProbe(discoveryHandler, circuitBreakers, peerClient);
+        this.healthProbe.start();
+        this.peerTimeouts = new AdaptiveTimeouts("DELEGATE_PEER_TIMEOUT", REQ_TIMEOUT_SEC * 1000L);
+        this.backendTimeouts = new AdaptiveTimeouts("DELEGATE_BACKEND_TIMEOUT", BACKEND_TIMEOUT_CEILING_SEC * 1000L);
+        Metrics.register("circuitBreakers", circuitBreakers);
+        Metrics.register("peerTimeouts", peerTimeouts);
+        this.hedging = new HedgingPolicy();
+        this.hedgeClient = hedging.isEnabled() ? buildPeerClient() : null;
+        this.retryPolicy = new RetryPolicy();
+        this.coalescing = new RequestCoalescing();
+        this.responseCache = new BackendResponseCache(BACKEND_TIMEOUT_CEILING_SEC * 1000L);
+        this.peerBulkheads = new BulkheadRegistry("peer", 50, 50, 1000);
+        this.backendBulkheads = new BulkheadRegistry("backend", 40, 100, 5000);
+        Metrics.register("backendTimeouts", backendTimeouts);
+        Metrics.register("hedging", hedging);
+        Metrics.register("retries", retryPolicy);
+        Metrics.register("coalescing", coalescing);
+        Metrics.register("localResponseCache", responseCache);
+        Metrics.register("peerBulkheads", peerBulkheads);
+        Metrics.register("backendBulkheads", backendBulkheads);
+        this.deadlines = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "delegate-deadlines");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        // most of the deadlines are cancelled since the response arrived in time
+        this.deadlines.setRemoveOnCancelPolicy(true);
+    }
+
+    public void destroy() {
+        healthProbe.stop();
+        retryPolicy.stop();
+        deadlines.shutdownNow();
+        peerClient.close();
+        if (selfClient != null) {
+            selfClient.close();
+            selfExecutor.shutdown();
+        }
+        if (batchClient != null) {
+            batchClient.close();
+        }
+        if (hedgeClient != null) {
+            hedgeClient.close();
+        }
+    }
+
+    // DELEGATE_PEER_CONNECTOR - nio (default) for the Jetty connector, or blocking for the HttpUrlConnection connector.
+    // DELEGATE_PEER_HTTP2 - true to call the other delegates over HTTP/2 (h2c), falling back to HTTP/1.1 (default false)
+    // the calls to the other delegates are compressed (see Compression)
+    private Client buildPeerClient() {
+        String connector = System.getenv("DELEGATE_PEER_CONNECTOR");
+        if ("blocking".equalsIgnoreCase(connector)) {
+            logger.info("the calls to the other delegates use the blocking connector");
+            Client client = ClientBuilder.newClient().property(HttpUrlConnectorProvider.SET_METHOD_WORKAROUND,true);
+            if (VirtualThreads.isEnabled()) {
+                client.register(VirtualThreadsClientExecutor.class);
+            }
+            return registerPeerFilters(client);
+        }
+        if ("true".equalsIgnoreCase(System.getenv("DELEGATE_PEER_HTTP2"))) {
+            logger.info("the calls to the other delegates use HTTP/2");
+            ClientConfig config = new ClientConfig().connectorProvider(new ConnectorProvider() {
+                @Override
+                public Connector getConnector(Client client, Configuration runtimeConfig) {
+                    return new Http2Connector();
+                }
+            });
+            return registerPeerFilters(ClientBuilder.newClient(config));
+        }
+        logger.info("the calls to the other delegates use the non-blocking connector");
+        ClientConfig config = new ClientConfig().connectorProvider(new JettyConnectorProvider());
+        config.property(JettyClientProperties.DISABLE_COOKIES, true);
+        Client client = registerPeerFilters(ClientBuilder.newClient(config));
+        // the responses are decompressed by the compression filter, so Jetty shouldn't request and decode gzip itself
+        JettyConnectorProvider.getHttpClient(client).getContentDecoderFactories().clear();
+        // the local APIs answer 401 without a challenge, which is passed to the caller as is
+        JettyConnectorProvider.getHttpClient(client).getProtocolHandlers().remove(WWWAuthenticationProtocolHandler.NAME);
+        return client;
+    }
+
+    // DELEGATE_IN_PROCESS_SELF_CALLS - false to send the calls to the own cluster over HTTP as well (default true)
+    private Client buildSelfClient() {
+        if ("false".equalsIgnoreCase(System.getenv("DELEGATE_IN_PROCESS_SELF_CALLS"))) {
+            return null;
+        }
+        logger.info("the calls to the own cluster of the delegate are dispatched in process");
+        if (VirtualThreads.isEnabled()) {
+            selfExecutor = VirtualThreads.newExecutor("delegate-in-process");
+        } else {
+            selfExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "delegate-in-process");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        ClientConfig config = new ClientConfig().connectorProvider(new ConnectorProvider() {
+            @Override
+            public Connector getConnector(Client client, Configuration runtimeConfig) {
+                return new InProcessConnector(selfExecutor);
+            }
+        });
+        return ClientBuilder.newClient(config);
+    }
+
+    // DELEGATE_PEER_BATCHING - true to combine the concurrent get calls to the other delegates into batches (default false)
+    private Client buildBatchClient() {
+        if (!"true".equalsIgnoreCase(System.getenv("DELEGATE_PEER_BATCHING"))) {
+            return null;
+        }
+        logger.info("the get calls to the other delegates are combined into batches");
+        batchingConnector = new BatchingConnector();
+        ClientConfig config = new ClientConfig().connectorProvider(new ConnectorProvider() {
+            @Override
+            public Connector getConnector(Client client, Configuration runtimeConfig) {
+                return batchingConnector;
+            }
+        });
+        return ClientBuilder.newClient(config);
+    }
+
+    private static Client registerPeerFilters(Client client) {
+        client.register(new CompressionClientFilter());
+        if (BinaryEncoding.isEnabled()) {
+            logger.info("the responses of the other delegates are requested as Smile");
+            client.register(new BinaryEncodingClientFilter());
+        }
+        return client;
+    }
+
+    // Returns a single instance of every delegate, replicas of the same app name are load balanced.
+    // delegates with an open circuit breaker are left out and reported as skipped
+    public List<ServiceEndpoint> selectDelegates() {
+        return selectDelegates(null);
+    }
+
+    // same as selectDelegates(), limited to the given delegates (all delegates if null)
+    private List<ServiceEndpoint> selectDelegates(List<String> delegateIds) {
+        List<ServiceEndpoint> delegates = new ArrayList<ServiceEndpoint>();
+        for (ServiceEndpoint endpoint : loadBalancer.selectDelegates(discoveryHandler.getRegistry())) {
+            if ((delegateIds == null || delegateIds.contains(endpoint.getAppName())) && allowRequest(endpoint.getAppName())) {
+                delegates.add(endpoint);
+            }
+        }
+        return delegates;
+    }
+
+    // Returns the instance of the delegate (app name) which should get the next request, null if it's not registered
+    public ServiceEndpoint selectDelegate(String delegateId) {
+        return loadBalancer.selectDelegate(discoveryHandler.getRegistry(), delegateId);
+    }
+
+    // Returns the highest utilization of the bulkheads of the delegates (0 to 1), for work which runs on spare capacity only
+    public double getDelegatesLoad() {
+        double load = 0;
+        for (ServiceEndpoint endpoint : loadBalancer.selectDelegates(discoveryHandler.getRegistry())) {
+            load = Math.max(load, peerBulkheads.get(endpoint.getAppName()).getUtilization());
+        }
+        return load;
+    }
+
+    // the calls to the given host and port get the bulkhead of the named backend service (e.g. indexing),
+    // calls to unregistered hosts get a bulkhead per host:port. services behind the same host and port share a bulkhead
+    public synchronized void registerBackend(String name, String host, int port) {
+        String key = host + ":" + (port > 0 ? port : -1);
+        String registered = backendNames.get(key);
+        backendNames.put(key, registered == null || registered.equals(name) ? name : registered + "," + name);
+    }
+
+    public CircuitBreakerRegistry getCircuitBreakers() {
+        return circuitBreakers;
+    }
+
+    private boolean allowRequest(String delegateId) {
+        if (circuitBreakers.get(delegateId).allowRequest()) {
+            return true;
+        }
+        logger.warn("skipping delegate {}, its circuit breaker is open", delegateId);
+        SkippedDelegates.add(delegateId);
+        return false;
+    }
+
+    // the statistics of every delegate call are kept for load balancing, circuit breaking and timeouts
+    private final DelegateCallListener callListener = new DelegateCallListener() {
+        @Override
+        public void requestStarted(ServiceEndpoint endpoint) {
+            loadBalancer.requestStarted(endpoint);
+        }
+
+        @Override
+        public void requestCompleted(ServiceEndpoint endpoint, String route, long latencyMillis, int status) {
+            if (status == PendingResponse.REJECTED) {
+                loadBalancer.requestCancelled(endpoint);
+                return;
+            }
+            peerBulkheads.get(endpoint.getAppName()).release();
+            if (status == PendingResponse.CANCELLED) {
+                loadBalancer.requestCancelled(endpoint);
+                return;
+            }
+            // client errors (e.g. not found from the catalog services which don't have the entity) are valid responses
+            boolean success = status != EndpointResult.NO_RESPONSE && status < 500;
+            loadBalancer.requestCompleted(endpoint, latencyMillis, success);
+            circuitBreakers.get(endpoint.getAppName()).record(latencyMillis, success);
+            // failed connections return fast and would pull the timeout down, timeouts are recorded when they occur
+            if (status != EndpointResult.NO_RESPONSE) {
+                peerTimeouts.record(endpoint.getAppName(), route, latencyMillis);
+            }
+        }
+    };
+
+    // idempotent calls which failed to connect are sent again to the same instance after a backoff
+    private final PendingResponse.Retrier retrier = new PendingResponse.Retrier() {
+        @Override
+        public boolean scheduleRetry(final PendingResponse pending, Throwable failure, int attempt) {
+            return retryPolicy.scheduleRetry(pending.getEndpoint().getAppName(), attempt, failure, pending.getRemainingMillis(), new Runnable() {
+                @Override
+                public void run() {
+                    pending.resend();
+                }
+            });
+        }
+    };
+
+    // response of a single delegate request which was not sent since the delegate's circuit breaker is open
+    private DelegateResponse unavailableDelegateResponse(String delegateId) {
+        return new DelegateResponse(Status.SERVICE_UNAVAILABLE.getStatusCode(), "delegate " + delegateId + " is temporarily unavailable");
+    }
+
+    // returns a web target for the given path on the delegate, based on the pre-built target of the endpoint.
+    // the calls to the own cluster are dispatched in process, except for the exports which write to the servlet response
+    private WebTarget buildDelegateTarget(ServiceEndpoint endpoint, String urlPath) {
+        return buildDelegateTarget(endpoint, urlPath, false);
+    }
+
+    // batchable calls (the get calls) to the local APIs of the other delegates may be combined into batches
+    private WebTarget buildDelegateTarget(ServiceEndpoint endpoint, String urlPath, boolean batchable) {
+        if (selfClient != null && endpoint.getAppName().equals(discoveryHandler.getAppName()) && !InboundRequests.isExport(urlPath)) {
+            return selfClient.target(endpoint.getBaseUri()).path(urlPath);
+        }
+        if (batchable && batchClient != null && urlPath.endsWith("/local") && !InboundRequests.isExport(urlPath) && batchingConnector.acceptsBatches(endpoint.getBaseUri())) {
+            return batchClient.target(endpoint.getBaseUri()).path(urlPath);
+        }
+        WebTarget target = endpoint.getTarget();
+        if (target == null) {
+            target = peerClient.target(endpoint.getBaseUri());
+        }
+        return target.path(urlPath);
+    }
+
+    private WebTarget buildDelegateTarget(ServiceEndpoint endpoint, String urlPath, HashMap<String, String> queryParams) {
+        return buildDelegateTarget(endpoint, urlPath, queryParams, false);
+    }
+
+    private WebTarget buildDelegateTarget(ServiceEndpoint endpoint, String urlPath, HashMap<String, String> queryParams, boolean batchable) {
+        return withQueryParams(buildDelegateTarget(endpoint, urlPath, batchable), queryParams);
+    }
+
+    private static WebTarget withQueryParams(WebTarget target, HashMap<String, String> queryParams) {
+        if (queryParams != null) {
+            for (Entry<String, String> queryParam : queryParams.entrySet()) {
+                target = target.queryParam(queryParam.getKey(), queryParam.getValue());
+            }
+        }
+        return target;
+    }
+
+    // the calling delegate is identified by its app name in the client federation id header (used by the peer quotas),
+    // unless the header is already set by the caller
+    private Builder delegateRequest(WebTarget target, MultivaluedMap<String, Object> headers) {
+        Builder builder = target.request().headers(headers);
+        if (headers == null || !headers.containsKey(CLIENT_FEDERATION_ID_HEADER)) {
+            builder.header(CLIENT_FEDERATION_ID_HEADER, discoveryHandler.getAppName());
+        }
+        return builder;
     }
 
     public URI buildUri(String host, int port, String path, HashMap<String, List<String>> queryParams) {
@@ -85,26 +451,79 @@ public class HttpHelper {
         return uriBuilder.build();
     }
 
-    // forward get request
-    public Response forwardGetRequest(String from, String to, MultivaluedMap<String, Object> headers, String frontendServiceUrlToPutInResponse) {
-        logger.info("got a GET request to endpoint " + from + ", forwarding it to " + to);
+    // sends a synchronous request with a read timeout which is learned from the latency of the previous calls to the same route
+    private Response invokeBackend(String to, MultivaluedMap<String, Object> headers, String method, Entity<?> entity) {
+        WebTarget target = httpClient.target(to);
+        String host = target.getUri().getHost() + ":" + target.getUri().getPort();
+        String route = AdaptiveTimeouts.normalizeRoute(target.getUri().getPath());
+        long timeoutMillis = backendTimeouts.getTimeoutMillis(host, route);
 
-        Builder builder = httpClient.target(to).request();
+        Builder builder = target.request().property(ClientProperties.READ_TIMEOUT, (int) timeoutMillis);
         if (headers != null) {
             builder.headers(headers);
         }
-        Response response = builder.get();
-
-        if (response.getStatus() >= 200 && response.getStatus() <= 300) {
-            String data = response.readEntity(String.class);
-            return Response.status(Status.OK)
-                    .entity(data)
-                    .type(MediaType.APPLICATION_JSON)
-                    .header("frontendServiceUrl", frontendServiceUrlToPutInResponse)
-                    .build();
+        String backendName = backendNames.get(host);
+        Bulkhead bulkhead = backendBulkheads.get(backendName == null ? host : backendName);
+        if (!bulkhead.tryAcquire()) {
+            logger.warn("rejecting the call to {}, too many concurrent calls to {}", to, bulkhead.getName());
+            return Response.status(Status.SERVICE_UNAVAILABLE).entity(bulkhead.getName() + " service is busy").build();
         }
-        else {
+        long start = System.nanoTime();
+        try {
+            Response response = entity == null ? builder.method(method) : builder.method(method, entity);
+            backendTimeouts.record(host, route, (System.nanoTime() - start) / 1000000L);
             return response;
+        } catch (ProcessingException e) {
+            if (e.getCause() instanceof SocketTimeoutException) {
+                logger.error("Timeout ({} ms) while waiting for {}", timeoutMillis, to);
+                backendTimeouts.record(host, route, timeoutMillis);
+            }
+            throw e;
+        } finally {
+            bulkhead.release();
+        }
+    }
+
+    // forward get request
+    public Response forwardGetRequest(String from, String to, MultivaluedMap<String, Object> headers, String frontendServiceUrlToPutInResponse) {
+        logger.info("got a GET request to endpoint " + from + ", forwarding it to " + to);
+
+        return forwardReadRequest(to, headers, "GET", null, null, frontendServiceUrlToPutInResponse);
+    }
+
+    // forwards a request which doesn't change the backend's data, the successful responses of the cached backends are
+    // shared by the identical requests for a short time (see BackendResponseCache)
+    private Response forwardReadRequest(final String to, final MultivaluedMap<String, Object> headers, final String method, final Entity<?> entity, Object body, String frontendServiceUrlToPutInResponse) {
+        final Response[] failed = new Response[1];
+        BackendResponseCache.Loader loader = new BackendResponseCache.Loader() {
+            @Override
+            public String load() {
+                Response response = invokeBackend(to, headers, method, entity);
+                if (response.getStatus() >= 200 && response.getStatus() <= 300) {
+                    return response.readEntity(String.class);
+                }
+                failed[0] = response;
+                return null;
+            }
+        };
+        String backend = getBackendName(to);
+        String data = responseCache.isCached(backend) ? responseCache.get(backend, responseCache.key(method, to, body, headers), loader) : loader.load();
+        if (data == null) {
+            return failed[0];
+        }
+        return Response.status(Status.OK)
+                .entity(data)
+                .type(MediaType.APPLICATION_JSON)
+                .header("frontendServiceUrl", frontendServiceUrlToPutInResponse)
+                .build();
+    }
+
+    private String getBackendName(String to) {
+        try {
+            URI uri = URI.create(to);
+            return backendNames.get(uri.getHost() + ":" + uri.getPort());
+        } catch (IllegalArgumentException e) {
+            return null;
         }
     }
 
@@ -154,11 +573,8 @@ public class HttpHelper {
     public Response forwardPatchRequest(String from, String to,String body, MultivaluedMap<String, Object> headers, String frontendServiceUrlToPutInResponse) {
         logger.info("got a PATCH request to endpoint " + from + ", forwarding it to " + to);
 
-        Builder builder = httpClient.target(to).request();
-        if (headers != null) {
-            builder.headers(headers);
-        }
-        Response response = builder.method("PATCH",Entity.json(body == null ? "" : body));
+        Response response = invokeBackend(to, headers, "PATCH", Entity.json(body == null ? "" : body));
+        responseCache.invalidate();
 
         if (response.getStatus() >= 200 && response.getStatus() <= 300) {
             String data = response.readEntity(String.class);
@@ -173,28 +589,18 @@ public class HttpHelper {
         }
     }
 
-    // forward post request
+    // forward post request, the requests which are forwarded this way are searches, so their responses may be cached
     public Response forwardPostRequest(String from, String to, Map<String, Object> body, MultivaluedMap<String, Object> headers, String frontendServiceUrlToPutInResponse) {
         logger.info("got a POST request to endpoint " + from + ", forwarding it to " + to + " with body: " + body.toString());
 
-        Response response = httpClient.target(to).request().headers(headers).post(Entity.json(body));
-        if (response.getStatus() >= 200 && response.getStatus() <= 300) {
-            String data = response.readEntity(String.class);
-            return Response.status(Status.OK)
-                    .entity(data)
-                    .type(MediaType.APPLICATION_JSON)
-                    .header("frontendServiceUrl", frontendServiceUrlToPutInResponse)
-                    .build();
-        }
-        else {
-            return response;
-        }
+        return forwardReadRequest(to, headers, "POST", Entity.json(body), body, frontendServiceUrlToPutInResponse);
     }
 
     public Response forwardPostRequestWithStringBody(String from, String to, String body, MultivaluedMap<String, Object> headers, String frontendServiceUrlToPutInResponse) {
         logger.info("got a POST request to endpoint " + from + ", forwarding it to " + to);
 
-        Response response = httpClient.target(to).request().headers(headers).post(body == null ? null: Entity.json(body));
+        Response response = invokeBackend(to, headers, "POST", body == null ? null: Entity.json(body));
+        responseCache.invalidate();
         if (response.getStatus() >= 200 && response.getStatus() <= 300) {
             String data = response.readEntity(String.class);
             return Response.status(Status.OK)
@@ -211,7 +617,8 @@ public class HttpHelper {
     public Response forwardDeleteRequestWithStringBody(String from, String to, MultivaluedMap<String, Object> headers, String frontendServiceUrlToPutInResponse) {
         logger.info("got a DELETE request to endpoint " + from + ", forwarding it to " + to);
 
-        Response response = httpClient.target(to).request().headers(headers).delete();
+        Response response = invokeBackend(to, headers, "DELETE", null);
+        responseCache.invalidate();
         if (response.getStatus() >= 200 && response.getStatus() <= 300) {
             String data = response.readEntity(String.class);
             return Response.status(Status.OK)
@@ -226,183 +633,242 @@ public class HttpHelper {
     }
 
     public Response sendGetRequest(URI uri, MultivaluedMap<String, Object> headers) {
-        Builder builder = httpClient.target(uri.toString()).request();
-        if (headers != null) {
-            builder.headers(headers);
-        }
-        return builder.get();
+        return invokeBackend(uri.toString(), headers, "GET", null);
     }
 
     public Response sendPostRequest(URI uri, MultivaluedMap<String, Object> headers, Map<String, Object> body) {
-        Builder builder = httpClient.target(uri.toString()).request();
-        if (headers != null) {
-            builder.headers(headers);
-        }
-        return builder.post(Entity.json(body));
+        return invokeBackend(uri.toString(), headers, "POST", Entity.json(body));
     }
 
     // Sends the get request to all the Delegate services which are registered in the Eureka server
-    public HashMap<ServiceEndpoint, String> sendGetRequestToAllDelegates(String urlPath, MultivaluedMap<String, Object> headers, HashMap<String, List<String>> queryParams) {
+    public HashMap<ServiceEndpoint, EndpointResult> sendGetRequestToAllDelegates(String urlPath, MultivaluedMap<String, Object> headers, HashMap<String, List<String>> queryParams) {
+        return getResponseListFromAllDelegates(sendGetRequests(urlPath, headers, queryParams));
+    }
+
+    // Sends the get request to all the Delegate services without waiting for the responses.
+    // the future completes with the successful results when all the delegates responded or timed out,
+    // and cancelling it cancels the requests which are still pending.
+    // with parseJson every response is parsed (EndpointResult.getJson()) as soon as it arrives, while the other
+    // delegates are still awaited, so the merge gets the parsed responses.
+    // an identical request which is in flight is joined (see RequestCoalescing), so the results may be shared by
+    // several requests and must not be changed by the merge
+    public CompletableFuture<HashMap<ServiceEndpoint, EndpointResult>> sendGetRequestToAllDelegatesAsync(final String urlPath, final MultivaluedMap<String, Object> headers, final HashMap<String, List<String>> queryParams, final boolean parseJson) {
+        return coalescing.join(coalescing.key("results", urlPath, queryParams, headers, null), new Supplier<CompletableFuture<HashMap<ServiceEndpoint, EndpointResult>>>() {
+            @Override
+            public CompletableFuture<HashMap<ServiceEndpoint, EndpointResult>> get() {
+                List<PendingResponse> pendingList = sendGetRequests(urlPath, headers, queryParams);
+                return cancelOnCancellation(getResultsFromAllDelegatesAsync(pendingList, parseJson).thenApply(successfulResults), pendingList);
+            }
+        });
+    }
+
+    private List<PendingResponse> sendGetRequests(String urlPath, MultivaluedMap<String, Object> headers, HashMap<String, List<String>> queryParams) {
         logger.info("send get requests to all delegates");
-        List<ServiceEndpoint> endpointList = eurekaHandler.getEndpointsFromEureka();
-        List<Future<Response>> futureList = new ArrayList<Future<Response>>();
+        List<ServiceEndpoint> endpointList = selectDelegates();
+        List<PendingResponse> pendingList = new ArrayList<PendingResponse>();
 
         for (ServiceEndpoint endpoint : endpointList) {
-            // Prepare the destination URL
-            UriBuilder uriBuilder = UriBuilder.fromUri("");
-            uriBuilder.scheme("http");
+            WebTarget target = buildDelegateTarget(endpoint, urlPath, true);
             // add all query params to the request
             if (queryParams != null) {
                 for (Entry<String, List<String>> queryParam : queryParams.entrySet()) {
-                    for (String paramValue : queryParam.getValue()) {
-                        uriBuilder.queryParam(queryParam.getKey(), paramValue);
-                    }
+                    target = target.queryParam(queryParam.getKey(), queryParam.getValue().toArray());
                 }
             }
-            URI uri = uriBuilder.host(endpoint.getHostName()).port(endpoint.getPort()).path(urlPath).build();
 
             logger.info("sending the request to " + endpoint.toString() + "...");
-            Future<Response> result = httpClient.target(uri.toString()).request().headers(headers).async().get();
-            futureList.add(result);
+            pendingList.add(sendAsync(endpoint, urlPath, delegateRequest(target, headers), "GET", null));
         }
-        return getResponseListFromAllDelegates(endpointList, futureList);
+        return pendingList;
     }
 
     public DelegateResponse sendGetRequestToAllDelegates(String urlPath, MultivaluedMap<String, Object> headers, HashMap<String, String> queryParams, MergeOption mergeOption,HttpServletResponse response,List<String> delegateIds) {
-        logger.info("send get requests to all delegates");
-        List<ServiceEndpoint> endpointList = eurekaHandler.getEndpointsFromEureka();
-        List<Future<Response>> futureList = new ArrayList<Future<Response>>();
+        List<PendingResponse> pendingList = sendGetRequests(urlPath, headers, queryParams, delegateIds);
+        if(mergeOption == MergeOption.ProcessInstanceData){
+            // process instance data is streamed to the servlet response, so the raw responses are passed to the merge
+            List<ServiceEndpoint> requestedEndpoints = new ArrayList<ServiceEndpoint>();
+            List<Future<Response>> futureList = new ArrayList<Future<Response>>();
+            for (PendingResponse pending : pendingList) {
+                requestedEndpoints.add(pending.getEndpoint());
+                futureList.add(pending.getFuture());
+            }
+            BusinessProcessHandler.mergeProcessInstanceData(requestedEndpoints,futureList,response);
+            return new DelegateResponse(200,"");
+        }
 
-        for (ServiceEndpoint endpoint : endpointList) {
-            if(delegateIds == null || delegateIds.contains(endpoint.getAppName())){
-                // Prepare the destination URL
-                UriBuilder uriBuilder = UriBuilder.fromUri("");
-                uriBuilder.scheme("http");
-                // add all query params to the request
-                if (queryParams != null) {
-                    for (Entry<String, String> queryParam : queryParams.entrySet()) {
-                        uriBuilder.queryParam(queryParam.getKey(), queryParam.getValue());
-                    }
-                }
-                URI uri = uriBuilder.host(endpoint.getHostName()).port(endpoint.getPort()).path(urlPath).build();
+        return new DelegateResponse(200,mergeResults(mergeOption, getResultsFromAllDelegates(pendingList)));
+    }
 
-                logger.info("sending the request to " + endpoint.toString() + "...");
-                Future<Response> result = httpClient.target(uri.toString()).request().headers(headers).async().get();
-                futureList.add(result);
+    // Sends the get request to the given (or all) Delegate services without waiting for the responses, the future completes
+    // with the merged results. Process instance data is streamed to the servlet response, so it can't be merged this way.
+    // an identical request which is in flight is joined, and gets the same merged results (see RequestCoalescing)
+    public CompletableFuture<DelegateResponse> sendGetRequestToAllDelegatesAsync(final String urlPath, final MultivaluedMap<String, Object> headers, final HashMap<String, String> queryParams, final MergeOption mergeOption, final List<String> delegateIds) {
+        return coalescing.join(coalescing.key(mergeOption.name(), urlPath, queryParams, headers, delegateIds), new Supplier<CompletableFuture<DelegateResponse>>() {
+            @Override
+            public CompletableFuture<DelegateResponse> get() {
+                List<PendingResponse> pendingList = sendGetRequests(urlPath, headers, queryParams, delegateIds);
+                return cancelOnCancellation(getResultsFromAllDelegatesAsync(pendingList, mergeOption.isJson()).thenApply(new Function<List<EndpointResult>, DelegateResponse>() {
+                    @Override
+                    public DelegateResponse apply(List<EndpointResult> results) {
+                        return new DelegateResponse(200,mergeResults(mergeOption, results));
+                    }
+                }), pendingList);
             }
+        });
+    }
+
+    private List<PendingResponse> sendGetRequests(String urlPath, MultivaluedMap<String, Object> headers, HashMap<String, String> queryParams, List<String> delegateIds) {
+        logger.info("send get requests to all delegates");
+        List<ServiceEndpoint> endpointList = selectDelegates(delegateIds);
+        List<PendingResponse> pendingList = new ArrayList<PendingResponse>();
+
+        for (ServiceEndpoint endpoint : endpointList) {
+            logger.info("sending the request to " + endpoint.toString() + "...");
+            pendingList.add(sendAsync(endpoint, urlPath, delegateRequest(buildDelegateTarget(endpoint, urlPath, queryParams, true), headers), "GET", null));
         }
+        return pendingList;
+    }
+
+    private static String mergeResults(MergeOption mergeOption, List<EndpointResult> results) {
         String data = "";
         if(mergeOption == MergeOption.BooleanResults){
-            data = BusinessProcessHandler.mergeBooleanResults(futureList);
+            data = BusinessProcessHandler.mergeBooleanResults(results);
         }
         else if(mergeOption == MergeOption.DoubleResults){
-            data = BusinessProcessHandler.mergeDoubleResults(futureList);
+            data = BusinessProcessHandler.mergeDoubleResults(results);
         }
         else if(mergeOption == MergeOption.AverageResponseTimeForMonths){
-            data = BusinessProcessHandler.mergeAverageResponseTimeForMonths(futureList);
+            data = BusinessProcessHandler.mergeAverageResponseTimeForMonths(results);
         }
         else if(mergeOption == MergeOption.RatingSummaries){
-            data = BusinessProcessHandler.mergeRatingSummaries(futureList);
+            data = BusinessProcessHandler.mergeRatingSummaries(results);
         }
         else if(mergeOption == MergeOption.CollaborationGroups){
-            data = BusinessProcessHandler.mergeCollaborationGroups(endpointList, futureList);
+            data = BusinessProcessHandler.mergeCollaborationGroups(results);
         }
         else if(mergeOption == MergeOption.IndividualRatingsAndReviews){
-            data = BusinessProcessHandler.mergeIndividualRatingsAndReviews(futureList);
-        }
-        else if(mergeOption == MergeOption.ProcessInstanceData){
-            BusinessProcessHandler.mergeProcessInstanceData(endpointList,futureList,response);
+            data = BusinessProcessHandler.mergeIndividualRatingsAndReviews(results);
         }
         else if(mergeOption == MergeOption.OverallStatistics){
-            data = BusinessProcessHandler.mergeOverallStatistics(futureList);
+            data = BusinessProcessHandler.mergeOverallStatistics(results);
         }
         else if(mergeOption == MergeOption.ListResults){
-            data = BusinessProcessHandler.mergeListResults(futureList);
+            data = BusinessProcessHandler.mergeListResults(results);
         }
-        return new DelegateResponse(200,data);
+        return data;
     }
 
     public DelegateResponse sendGetRequestToSingleDelegate(String urlPath, MultivaluedMap<String, Object> headers, HashMap<String, String> queryParams, String delegateId, HttpServletResponse servletResponse) {
         logger.info("send get requests to single delegate: {}",delegateId);
-        List<ServiceEndpoint> endpointList = eurekaHandler.getEndpointsFromEureka();
-        Future<Response> response = null;
+        ServiceEndpoint endpoint = selectDelegate(delegateId);
+        if (endpoint == null) {
+            return null;
+        }
+        if (!allowRequest(delegateId)) {
+            return unavailableDelegateResponse(delegateId);
+        }
+        logger.info("sending the request to " + endpoint.toString() + "...");
+        PendingResponse pending = sendHedgedGet(endpoint, urlPath, headers, queryParams);
+        return getResponseFromSingleDelegate(pending, servletResponse);
+    }
 
-        for (ServiceEndpoint endpoint : endpointList) {
-            if(endpoint.getAppName().contentEquals(delegateId)){
-                // Prepare the destination URL
-                UriBuilder uriBuilder = UriBuilder.fromUri("");
-                uriBuilder.scheme("http");
-                // add all query params to the request
-                if (queryParams != null) {
-                    for (Entry<String, String> queryParam : queryParams.entrySet()) {
-                        uriBuilder.queryParam(queryParam.getKey(), queryParam.getValue());
-                    }
-                }
-                URI uri = uriBuilder.host(endpoint.getHostName()).port(endpoint.getPort()).path(urlPath).build();
+    // Sends a get request, and if there is no response within the usual latency of the route, sends it again to another
+    // replica of the delegate, or to the same instance on a new connection if the delegate has no other replica (the
+    // first request may be stuck on a stale pooled connection). The get routes which change state aren't hedged.
+    // Returns the first request which completed successfully, the other one is cancelled.
+    private PendingResponse sendHedgedGet(ServiceEndpoint endpoint, String urlPath, MultivaluedMap<String, Object> headers, HashMap<String, String> queryParams) {
+        PendingResponse primary = sendAsync(endpoint, urlPath, delegateRequest(buildDelegateTarget(endpoint, urlPath, queryParams, true), headers), "GET", null);
+        if (!hedging.isEnabled() || !retryPolicy.isIdempotent("GET", primary.getRoute())) {
+            return primary;
+        }
+        hedging.requestSent();
+        long hedgeDelay = peerTimeouts.getPercentileMillis(endpoint.getAppName(), primary.getRoute(), hedging.getPercentile());
+        if (hedgeDelay < 0 || hedgeDelay >= primary.getTimeoutMillis()) {
+            return primary;
+        }
+        try {
+            primary.getCompletion().get(hedgeDelay, TimeUnit.MILLISECONDS);
+            return primary;
+        } catch (TimeoutException e) {
+            // no response yet, a hedge may be sent
+        } catch (Exception e) {
+            return primary;
+        }
+        ServiceEndpoint hedgeEndpoint = loadBalancer.selectAlternative(discoveryHandler.getRegistry(), endpoint);
+        boolean sameInstance = hedgeEndpoint.equals(endpoint);
+        // the calls to the own cluster are dispatched in process, there's no connection to replace
+        if (sameInstance && selfClient != null && endpoint.getAppName().equals(discoveryHandler.getAppName())) {
+            return primary;
+        }
+        if (!hedging.tryHedge()) {
+            return primary;
+        }
+        Builder hedgeRequest;
+        if (sameInstance) {
+            logger.info("no response from " + endpoint.toString() + " after " + hedgeDelay + " ms, sending a hedged request on a new connection");
+            hedgeRequest = delegateRequest(withQueryParams(hedgeClient.target(endpoint.getBaseUri()).path(urlPath), queryParams), headers)
+                    .header("Connection", "close");
+        } else {
+            logger.info("no response from " + endpoint.toString() + " after " + hedgeDelay + " ms, sending a hedged request to " + hedgeEndpoint.toString());
+            hedgeRequest = delegateRequest(buildDelegateTarget(hedgeEndpoint, urlPath, queryParams, true), headers);
+        }
+        PendingResponse hedge = sendAsync(hedgeEndpoint, urlPath, hedgeRequest, "GET", null);
+        PendingResponse winner = awaitFirstSuccessful(primary, hedge);
+        (winner == primary ? hedge : primary).cancel();
+        if (winner == hedge) {
+            hedging.hedgeWon();
+        }
+        return winner;
+    }
 
-                logger.info("sending the request to " + endpoint.toString() + "...");
-                response = httpClient.target(uri.toString()).request().headers(headers).async().get();
-                return getResponseFromSingleDelegate( response,endpoint,servletResponse);
+    // waits for the first of the requests which got a response (a failure is used only if both requests failed),
+    // if none completed within the timeout of the first request, the first request is returned
+    private PendingResponse awaitFirstSuccessful(PendingResponse first, PendingResponse second) {
+        try {
+            CompletableFuture.anyOf(first.getCompletion(), second.getCompletion()).get(first.getRemainingMillis(), TimeUnit.MILLISECONDS);
+            PendingResponse done = first.getCompletion().isDone() ? first : second;
+            PendingResponse other = done == first ? second : first;
+            if (done.getCompletion().get() == EndpointResult.NO_RESPONSE) {
+                other.getCompletion().get(Math.max(other.getRemainingMillis(), first.getRemainingMillis()), TimeUnit.MILLISECONDS);
+                return other;
             }
+            return done;
+        } catch (Exception e) {
+            return first;
         }
-        return null;
     }
 
     public DelegateResponse sendPatchRequestToSingleDelegate(String urlPath, MultivaluedMap<String, Object> headers, HashMap<String, String> queryParams,String body, String delegateId) {
         logger.info("send patch request to single delegate: {}",delegateId);
-        List<ServiceEndpoint> endpointList = eurekaHandler.getEndpointsFromEureka();
-        Future<Response> response = null;
-
-        for (ServiceEndpoint endpoint : endpointList) {
-            if(endpoint.getAppName().contentEquals(delegateId)){
-                // Prepare the destination URL
-                UriBuilder uriBuilder = UriBuilder.fromUri("");
-                uriBuilder.scheme("http");
-                // add all query params to the request
-                if (queryParams != null) {
-                    for (Entry<String, String> queryParam : queryParams.entrySet()) {
-                        uriBuilder.queryParam(queryParam.getKey(), queryParam.getValue());
-                    }
-                }
-                URI uri = uriBuilder.host(endpoint.getHostName()).port(endpoint.getPort()).path(urlPath).build();
-
-                logger.info("sending the request to " + endpoint.toString() + "...");
-                response = httpClient.target(uri.toString()).request().headers(headers).async().method("PATCH",Entity.json(body == null ? "" : body));
-                return getResponseFromSingleDelegate( response,endpoint);
-            }
+        ServiceEndpoint endpoint = selectDelegate(delegateId);
+        if (endpoint == null) {
+            return null;
         }
-        return null;
+        if (!allowRequest(delegateId)) {
+            return unavailableDelegateResponse(delegateId);
+        }
+        logger.info("sending the request to " + endpoint.toString() + "...");
+        PendingResponse pending = sendAsync(endpoint, urlPath, delegateRequest(buildDelegateTarget(endpoint, urlPath, queryParams), headers), "PATCH", Entity.json(body == null ? "" : body));
+        return getResponseFromSingleDelegate(pending);
     }
 
     public DelegateResponse sendDeleteRequestToSingleDelegate(String urlPath, MultivaluedMap<String, Object> headers, HashMap<String, String> queryParams, String delegateId) {
-        logger.info("send get requests to single delegates");
-        List<ServiceEndpoint> endpointList = eurekaHandler.getEndpointsFromEureka();
-        Future<Response> response = null;
-
-        for (ServiceEndpoint endpoint : endpointList) {
-            if(endpoint.getAppName().contentEquals(delegateId)){
-                // Prepare the destination URL
-                UriBuilder uriBuilder = UriBuilder.fromUri("");
-                uriBuilder.scheme("http");
-                // add all query params to the request
-                if (queryParams != null) {
-                    for (Entry<String, String> queryParam : queryParams.entrySet()) {
-                        uriBuilder.queryParam(queryParam.getKey(), queryParam.getValue());
-                    }
-                }
-                URI uri = uriBuilder.host(endpoint.getHostName()).port(endpoint.getPort()).path(urlPath).build();
-
-                logger.info("sending the request to " + endpoint.toString() + "...");
-                response = httpClient.target(uri.toString()).request().headers(headers).async().delete();
-                return getResponseFromSingleDelegate( response,endpoint);
-            }
+        logger.info("send delete request to single delegate: {}",delegateId);
+        ServiceEndpoint endpoint = selectDelegate(delegateId);
+        if (endpoint == null) {
+            return null;
         }
-        return null;
+        if (!allowRequest(delegateId)) {
+            return unavailableDelegateResponse(delegateId);
+        }
+        logger.info("sending the request to " + endpoint.toString() + "...");
+        PendingResponse pending = sendAsync(endpoint, urlPath, delegateRequest(buildDelegateTarget(endpoint, urlPath, queryParams), headers), "DELETE", null);
+        return getResponseFromSingleDelegate(pending);
     }
 
 //    public String sendPatchRequestToSingleDelegate(String urlPath, MultivaluedMap<String, Object> headers, HashMap<String, String> queryParams, String body, String delegateId) {
 //        logger.info("send patch request to single delegates");
-//        List<ServiceEndpoint> endpointList = eurekaHandler.getEndpointsFromEureka();
+//        List<ServiceEndpoint> endpointList = discoveryHandler.getEndpoints();
 //        Future<Response> response = null;
 //
 //        for (ServiceEndpoint endpoint : endpointList) {
@@ -427,66 +893,238 @@ public class HttpHelper {
 //    }
 
     // Sends the post request to all the Delegate services which are registered in the Eureka server
-    public HashMap<ServiceEndpoint, String> sendPostRequestToAllDelegates(List<ServiceEndpoint> endpointList, String urlPath, MultivaluedMap<String, Object> headers, Map<String, Object> body) {
+    public HashMap<ServiceEndpoint, EndpointResult> sendPostRequestToAllDelegates(List<ServiceEndpoint> endpointList, String urlPath, MultivaluedMap<String, Object> headers, Map<String, Object> body) {
+        return getResponseListFromAllDelegates(sendPostRequests(endpointList, urlPath, headers, body));
+    }
+
+    // Sends the post request to the given Delegate services without waiting for the responses (see sendGetRequestToAllDelegatesAsync).
+    // the body is serialized when the requests are actually sent, so it must not be changed afterwards
+    public CompletableFuture<HashMap<ServiceEndpoint, EndpointResult>> sendPostRequestToAllDelegatesAsync(List<ServiceEndpoint> endpointList, String urlPath, MultivaluedMap<String, Object> headers, Map<String, Object> body, boolean parseJson) {
+        List<PendingResponse> pendingList = sendPostRequests(endpointList, urlPath, headers, body);
+        return cancelOnCancellation(getResultsFromAllDelegatesAsync(pendingList, parseJson).thenApply(successfulResults), pendingList);
+    }
+
+    private List<PendingResponse> sendPostRequests(List<ServiceEndpoint> endpointList, String urlPath, MultivaluedMap<String, Object> headers, Map<String, Object> body) {
         logger.info("send post requests to all delegates");
-        List<Future<Response>> futureList = new ArrayList<Future<Response>>();
+        List<PendingResponse> pendingList = new ArrayList<PendingResponse>();
 
         for (ServiceEndpoint endpoint : endpointList) {
-            URI uri = buildUri(endpoint.getHostName(), endpoint.getPort(), urlPath, null);
             logger.info("sending the request to " + endpoint.toString() + "...");
-            Future<Response> result = httpClient.target(uri.toString()).request().headers(headers).async().post(Entity.json(body));
-            futureList.add(result);
+            pendingList.add(sendAsync(endpoint, urlPath, delegateRequest(buildDelegateTarget(endpoint, urlPath), headers), "POST", Entity.json(body)));
         }
-        return getResponseListFromAllDelegates(endpointList, futureList);
+        return pendingList;
     }
 
     public DelegateResponse sendPostRequestToSingleDelegate( String urlPath, MultivaluedMap<String, Object> headers, HashMap<String, String> queryParams,String body, String delegateId) {
         logger.info("send post requests to single delegate");
-        List<ServiceEndpoint> endpointList = eurekaHandler.getEndpointsFromEureka();
-        Future<Response> response = null;
+        ServiceEndpoint endpoint = selectDelegate(delegateId);
+        if (endpoint == null) {
+            return null;
+        }
+        if (!allowRequest(delegateId)) {
+            return unavailableDelegateResponse(delegateId);
+        }
+        logger.info("sending the request to " + endpoint.toString() + "...");
+        PendingResponse pending = sendAsync(endpoint, urlPath, delegateRequest(buildDelegateTarget(endpoint, urlPath, queryParams), headers), "POST", Entity.json(body));
+        return getResponseFromSingleDelegate(pending);
+    }
 
-        for (ServiceEndpoint endpoint : endpointList) {
-            if(endpoint.getAppName().contentEquals(delegateId)){
-                URI uri = buildUriWithStringParams(endpoint.getHostName(), endpoint.getPort(), urlPath, queryParams);
-                logger.info("sending the request to " + endpoint.toString() + "...");
-                Future<Response> result = httpClient.target(uri.toString()).request().headers(headers).async().post(Entity.json(body));
-                return getResponseFromSingleDelegate( result,endpoint);
+    private PendingResponse sendAsync(ServiceEndpoint endpoint, String urlPath, final Builder builder, final String method, final Entity<?> entity) {
+        String route = AdaptiveTimeouts.normalizeRoute(urlPath);
+        boolean idempotent = retryPolicy.isIdempotent(method, route);
+        if (idempotent) {
+            retryPolicy.callSent();
+        }
+        PendingResponse pending = new PendingResponse(endpoint, route, peerTimeouts.getTimeoutMillis(endpoint.getAppName(), route), callListener, idempotent ? retrier : null);
+        // the connector aborts the exchange by itself when the timeout is over, cancelling the pending future doesn't
+        builder.property(ClientProperties.READ_TIMEOUT, (int) pending.getTimeoutMillis());
+        builder.property(BatchingConnector.BASE_URI_PROPERTY, endpoint.getBaseUri());
+        if (!peerBulkheads.get(endpoint.getAppName()).tryAcquire()) {
+            logger.warn("skipping delegate {}, too many concurrent calls", endpoint.getAppName());
+            SkippedDelegates.add(endpoint.getAppName());
+            pending.reject(new RejectedExecutionException("too many concurrent calls to " + endpoint.getAppName()));
+            return pending;
+        }
+        pending.send(new PendingResponse.Sender() {
+            @Override
+            public Future<Response> send(InvocationCallback<Response> callback) {
+                if (entity == null) {
+                    return builder.async().method(method, callback);
+                }
+                return builder.async().method(method, entity, callback);
+            }
+        });
+        return pending;
+    }
+
+    // get the successful responses from all Delegate services which are registered in the Eureka server
+    private HashMap<ServiceEndpoint, EndpointResult> getResponseListFromAllDelegates(List<PendingResponse> pendingList) {
+        return successfulResults.apply(getResultsFromAllDelegates(pendingList));
+    }
+
+    // the delegates which failed or timed out are kept with the results (see FanOutResults)
+    private final Function<List<EndpointResult>, HashMap<ServiceEndpoint, EndpointResult>> successfulResults = new Function<List<EndpointResult>, HashMap<ServiceEndpoint, EndpointResult>>() {
+        @Override
+        public HashMap<ServiceEndpoint, EndpointResult> apply(List<EndpointResult> results) {
+            FanOutResults resList = new FanOutResults();
+            for (EndpointResult result : results) {
+                if (result.isSuccessful()) {
+                    resList.put(result.getEndpoint(), result);
+                } else {
+                    resList.addFailed(result.getEndpoint().getAppName());
+                }
             }
+            logger.info("aggregated results: \n" + resList.values().toString());
+            return resList;
+        }
+    };
+
+    // Wait (one by one) for the responses from all the services.
+    // a result is returned for every request, failed requests get EndpointResult.NO_RESPONSE status
+    private List<EndpointResult> getResultsFromAllDelegates(List<PendingResponse> pendingList) {
+        List<EndpointResult> results = new ArrayList<EndpointResult>(pendingList.size());
+        for (PendingResponse pending : pendingList) {
+            results.add(getResult(pending));
+        }
+        return results;
+    }
+
+    private EndpointResult getResult(PendingResponse pending) {
+        ServiceEndpoint endpoint = pending.getEndpoint();
+        try {
+            Response res = pending.getFuture().get(pending.getRemainingMillis(), TimeUnit.MILLISECONDS);
+            return readResult(pending, res);
+        } catch(TimeoutException e) {
+            return timedOut(pending);
+        } catch(Exception e) {
+            logger.error("Failed to send request to eureka endpoint: app name: {}, ({}:{})",endpoint.getAppName(),endpoint.getHostName(),endpoint.getPort(),e);
+            return EndpointResult.noResponse(endpoint, pending.getLatencyMillis());
         }
+    }
 
-        return null;
+    // Asynchronous version of getResultsFromAllDelegates - the future completes when all the delegates responded or timed out
+    private CompletableFuture<List<EndpointResult>> getResultsFromAllDelegatesAsync(List<PendingResponse> pendingList, boolean parseJson) {
+        final List<CompletableFuture<EndpointResult>> futureList = new ArrayList<CompletableFuture<EndpointResult>>(pendingList.size());
+        for (PendingResponse pending : pendingList) {
+            futureList.add(getResultAsync(pending, parseJson));
+        }
+        return CompletableFuture.allOf(futureList.toArray(new CompletableFuture<?>[0])).thenApply(new Function<Void, List<EndpointResult>>() {
+            @Override
+            public List<EndpointResult> apply(Void done) {
+                List<EndpointResult> results = new ArrayList<EndpointResult>(futureList.size());
+                for (CompletableFuture<EndpointResult> future : futureList) {
+                    results.add(future.join());
+                }
+                return results;
+            }
+        });
     }
 
-    // get responses from all Delegate services which are registered in the Eureka server
-    public HashMap<ServiceEndpoint, String> getResponseListFromAllDelegates(List<ServiceEndpoint> endpointList, List<Future<Response>> futureList) {
-        // Wait (one by one) for the responses from all the services
-        HashMap<ServiceEndpoint, String> resList = new HashMap<ServiceEndpoint, String>();
-        for(int i = 0; i< futureList.size(); i++) {
-            Future<Response> response = futureList.get(i);
-            ServiceEndpoint endpoint = endpointList.get(i);
-            logger.info("got response from " + endpoint.toString());
-            try {
-                Response res = response.get(REQ_TIMEOUT_SEC, TimeUnit.SECONDS);
-                if (res.getStatus() > 300) {
-                    logger.warn("got failure status code {} from appName {} ({}:{})",res.getStatus(),endpoint.getAppName(),endpoint.getHostName(),endpoint.getPort());
-                    continue;
+    // Completes with the result of the request when its response arrives (the response is read, and parsed if parseJson
+    // is set, by the thread which received it), or with EndpointResult.NO_RESPONSE when its timeout is over
+    private CompletableFuture<EndpointResult> getResultAsync(final PendingResponse pending, final boolean parseJson) {
+        final ServiceEndpoint endpoint = pending.getEndpoint();
+        final CompletableFuture<EndpointResult> result = new CompletableFuture<EndpointResult>();
+        final ScheduledFuture<?> deadline = deadlines.schedule(new Runnable() {
+            @Override
+            public void run() {
+                // a response which already arrived is being read
+                if (!pending.getCompletion().isDone()) {
+                    result.complete(timedOut(pending));
                 }
-                String data = res.readEntity(String.class);
-                endpoint.setFrontendServiceUrl(res.getHeaderString("frontendServiceUrl"));
-                resList.put(endpoint, data);
-            } catch(Exception e) {
-                logger.error("Failed to send request to eureka endpoint: app name: {}, ({}:{})",endpoint.getAppName(),endpoint.getHostName(),endpoint.getPort(),e);
             }
+        }, pending.getRemainingMillis(), TimeUnit.MILLISECONDS);
+        pending.getFuture().whenComplete(new BiConsumer<Response, Throwable>() {
+            @Override
+            public void accept(Response res, Throwable failure) {
+                deadline.cancel(false);
+                if (result.isDone()) {
+                    return;
+                }
+                try {
+                    if (failure instanceof CancellationException) {
+                        // abandoned (timed out) or cancelled, the outcome is already logged
+                        result.complete(EndpointResult.noResponse(endpoint, pending.getLatencyMillis()));
+                    }
+                    else if (failure != null) {
+                        logger.error("Failed to send request to eureka endpoint: app name: {}, ({}:{})",endpoint.getAppName(),endpoint.getHostName(),endpoint.getPort(),failure);
+                        result.complete(EndpointResult.noResponse(endpoint, pending.getLatencyMillis()));
+                    }
+                    else {
+                        EndpointResult endpointResult = readResult(pending, res);
+                        if (parseJson) {
+                            parseAhead(endpointResult);
+                        }
+                        result.complete(endpointResult);
+                    }
+                } catch(Exception e) {
+                    logger.error("Failed to read the response of eureka endpoint: app name: {}, ({}:{})",endpoint.getAppName(),endpoint.getHostName(),endpoint.getPort(),e);
+                    result.complete(EndpointResult.noResponse(endpoint, pending.getLatencyMillis()));
+                }
+            }
+        });
+        return result;
+    }
+
+    // the requests which are still pending are cancelled when the future is cancelled (e.g. the client disconnected)
+    private static <T> CompletableFuture<T> cancelOnCancellation(final CompletableFuture<T> future, final List<PendingResponse> pendingList) {
+        future.whenComplete(new BiConsumer<T, Throwable>() {
+            @Override
+            public void accept(T result, Throwable failure) {
+                if (future.isCancelled()) {
+                    for (PendingResponse pending : pendingList) {
+                        pending.cancel();
+                    }
+                }
+            }
+        });
+        return future;
+    }
+
+    private EndpointResult readResult(PendingResponse pending, Response res) {
+        ServiceEndpoint endpoint = pending.getEndpoint();
+        logger.info("got response from " + endpoint.toString());
+        if (res.getStatus() > 300) {
+            logger.warn("got failure status code {} from appName {} ({}:{})",res.getStatus(),endpoint.getAppName(),endpoint.getHostName(),endpoint.getPort());
+        }
+        if (BinaryEncoding.isSmile(res.getMediaType())) {
+            byte[] smile = res.readEntity(byte[].class);
+            return new EndpointResult(endpoint, res.getStatus(), smile, res.getHeaderString("frontendServiceUrl"), pending.getLatencyMillis(), smile.length);
+        }
+        String data = res.readEntity(String.class);
+        long bytes = res.getLength() >= 0 ? res.getLength() : (data == null ? 0 : data.length());
+        return new EndpointResult(endpoint, res.getStatus(), data, res.getHeaderString("frontendServiceUrl"), pending.getLatencyMillis(), bytes);
+    }
+
+    // a response which can't be parsed is left to the merge, which reports it
+    private static void parseAhead(EndpointResult result) {
+        if (!result.isSuccessful()) {
+            return;
+        }
+        try {
+            result.getJson();
+        } catch (JsonParseException e) {
+            logger.debug("the response of {} is not a valid json", result.getEndpoint().getAppName());
         }
-        logger.info("aggregated results: \n" + resList.toString());
-        return resList;
     }
 
-    public DelegateResponse getResponseFromSingleDelegate(Future<Response> response, ServiceEndpoint endpoint, HttpServletResponse servletResponse) {
+    private EndpointResult timedOut(PendingResponse pending) {
+        ServiceEndpoint endpoint = pending.getEndpoint();
+        logger.error("Timeout ({} ms) while waiting for eureka endpoint: app name: {}, ({}:{})",pending.getTimeoutMillis(),endpoint.getAppName(),endpoint.getHostName(),endpoint.getPort());
+        peerTimeouts.record(endpoint.getAppName(), pending.getRoute(), pending.getTimeoutMillis());
+        pending.abandon();
+        return EndpointResult.noResponse(endpoint, pending.getLatencyMillis());
+    }
+
+    private DelegateResponse getResponseFromSingleDelegate(PendingResponse pending, HttpServletResponse servletResponse) {
+        ServiceEndpoint endpoint = pending.getEndpoint();
+        if (pending.isRejected()) {
+            return unavailableDelegateResponse(endpoint.getAppName());
+        }
         String data = null;
         int status = 200;
         try {
-            Response res = response.get(REQ_TIMEOUT_SEC, TimeUnit.SECONDS);
+            Response res = pending.getFuture().get(pending.getRemainingMillis(), TimeUnit.MILLISECONDS);
             status = res.getStatus();
             if (res.getStatus() > 300) {
                 logger.warn("got failure status code " + res.getStatus() + " message: "+res.getEntity().toString()+" from appName:" + endpoint.getAppName() +
@@ -528,6 +1166,10 @@ public class HttpHelper {
                     zos.close();
                 }
             }
+        } catch(TimeoutException e) {
+            logger.error("Timeout ({} ms) while waiting for eureka endpoint: app name: {}, ({}:{})",pending.getTimeoutMillis(),endpoint.getAppName(),endpoint.getHostName(),endpoint.getPort());
+            peerTimeouts.record(endpoint.getAppName(), pending.getRoute(), pending.getTimeoutMillis());
+            pending.abandon();
         } catch(Exception e) {
             logger.error("Failed to send request to eureka endpoint: app name: {}, ({}:{})",endpoint.getAppName(),endpoint.getHostName(),endpoint.getPort(),e);
         }
@@ -535,11 +1177,15 @@ public class HttpHelper {
         return new DelegateResponse(status,data);
     }
 
-    public DelegateResponse getResponseFromSingleDelegate(Future<Response> response, ServiceEndpoint endpoint) {
+    private DelegateResponse getResponseFromSingleDelegate(PendingResponse pending) {
+        ServiceEndpoint endpoint = pending.getEndpoint();
+        if (pending.isRejected()) {
+            return unavailableDelegateResponse(endpoint.getAppName());
+        }
         String data = null;
         int status = 200;
         try {
-            Response res = response.get(REQ_TIMEOUT_SEC, TimeUnit.SECONDS);
+            Response res = pending.getFuture().get(pending.getRemainingMillis(), TimeUnit.MILLISECONDS);
             status = res.getStatus();
             if (res.getStatus() > 300) {
                 logger.warn("got failure status code " + res.getStatus() + " message: "+res.getEntity().toString()+" from appName:" + endpoint.getAppName() +
@@ -547,6 +1193,10 @@ public class HttpHelper {
                         ":" + endpoint.getPort() + ")");
             }
             data = res.readEntity(String.class);
+        } catch(TimeoutException e) {
+            logger.error("Timeout ({} ms) while waiting for eureka endpoint: app name: {}, ({}:{})",pending.getTimeoutMillis(),endpoint.getAppName(),endpoint.getHostName(),endpoint.getPort());
+            peerTimeouts.record(endpoint.getAppName(), pending.getRoute(), pending.getTimeoutMillis());
+            pending.abandon();
         } catch(Exception e) {
             logger.error("Failed to send request to eureka endpoint: app name: {}, ({}:{})",endpoint.getAppName(),endpoint.getHostName(),endpoint.getPort(),e);
         }
@@ -0,0 +1,64 @@
+package eu.nimble.service.delegate.http;
+
+import java.security.SecureRandom;
+
+import javax.ws.rs.ext.Provider;
+
+import org.glassfish.jersey.server.ApplicationHandler;
+import org.glassfish.jersey.server.spi.Container;
+import org.glassfish.jersey.server.spi.ContainerLifecycleListener;
+
+/**
+ * Calls which this delegate sends to its own cluster (its app name) are dispatched in process to the Jersey
+ * application of this delegate (see InProcessConnector), without the loopback HTTP call.
+ * The in-process requests carry a secret header which is generated on startup and never leaves the JVM,
+ * so the local APIs can trust them without validating the federation token with the identity service.
+ *
+ * Registered as a container lifecycle listener to get the application handler when the container starts.
+ */
+@Provider
+public class InProcessCalls implements ContainerLifecycleListener {
+    public static final String HEADER = "inProcessCall";
+
+    private static final String secret = newSecret();
+    private static volatile ApplicationHandler applicationHandler;
+
+    // true if the header value is the secret of this JVM, i.e. the request was dispatched in process
+    public static boolean isInProcess(String headerValue) {
+        return secret.equals(headerValue);
+    }
+
+    static String getSecret() {
+        return secret;
+    }
+
+    // null until the container starts
+    static ApplicationHandler getApplicationHandler() {
+        return applicationHandler;
+    }
+
+    @Override
+    public void onStartup(Container container) {
+        applicationHandler = container.getApplicationHandler();
+    }
+
+    @Override
+    public void onReload(Container container) {
+        applicationHandler = container.getApplicationHandler();
+    }
+
+    @Override
+    public void onShutdown(Container container) {
+        applicationHandler = null;
+    }
+
+    private static String newSecret() {
+        byte[] bytes = new byte[32];
+        new SecureRandom().nextBytes(bytes);
+        StringBuilder builder = new StringBuilder();
+        for (byte b : bytes) {
+            builder.append(String.format("%02x", b));
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,111 @@
+package eu.nimble.service.delegate.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import javax.ws.rs.ProcessingException;
+import javax.ws.rs.core.UriBuilder;
+
+import org.glassfish.jersey.client.ClientRequest;
+import org.glassfish.jersey.client.ClientResponse;
+import org.glassfish.jersey.client.spi.AsyncConnectorCallback;
+import org.glassfish.jersey.client.spi.Connector;
+import org.glassfish.jersey.internal.MapPropertiesDelegate;
+import org.glassfish.jersey.message.internal.OutboundMessageContext;
+import org.glassfish.jersey.server.ApplicationHandler;
+import org.glassfish.jersey.server.ContainerRequest;
+import org.glassfish.jersey.server.ContainerResponse;
+
+/**
+ * Client connector which hands the request to the Jersey application of this delegate instead of sending it
+ * over HTTP. The request runs through the same filters and resource method as a request from another delegate,
+ * and the response is read by the client as usual. The bodies are passed as in-memory streams, so the local API
+ * can't change the body which is shared with the requests to the other delegates.
+ * Asynchronous requests are handled by the given executor, since the local API blocks on the backend services.
+ */
+class InProcessConnector implements Connector {
+    private final ExecutorService executor;
+
+    InProcessConnector(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    @Override
+    public ClientResponse apply(ClientRequest request) {
+        ApplicationHandler applicationHandler = InProcessCalls.getApplicationHandler();
+        if (applicationHandler == null) {
+            throw new ProcessingException("the delegate application is not started");
+        }
+        try {
+            // the entity is written first, since the writer interceptors may add headers
+            byte[] requestBody = writeEntity(request);
+            URI baseUri = UriBuilder.fromUri(request.getUri()).replacePath("/").replaceQuery(null).build();
+            ContainerRequest containerRequest = new ContainerRequest(baseUri, request.getUri(), request.getMethod(), null, new MapPropertiesDelegate());
+            containerRequest.headers(request.getStringHeaders());
+            containerRequest.header(InProcessCalls.HEADER, InProcessCalls.getSecret());
+            containerRequest.setEntityStream(new ByteArrayInputStream(requestBody));
+
+            ByteArrayOutputStream responseBody = new ByteArrayOutputStream();
+            ContainerResponse containerResponse = applicationHandler.apply(containerRequest, responseBody).get();
+
+            ClientResponse response = new ClientResponse(containerResponse.getStatusInfo(), request);
+            response.headers(containerResponse.getStringHeaders());
+            response.setEntityStream(new ByteArrayInputStream(responseBody.toByteArray()));
+            return response;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ProcessingException(e);
+        } catch (ExecutionException e) {
+            throw new ProcessingException(e.getCause());
+        } catch (IOException e) {
+            throw new ProcessingException(e);
+        }
+    }
+
+    private static byte[] writeEntity(ClientRequest request) throws IOException {
+        if (!request.hasEntity()) {
+            return new byte[0];
+        }
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        request.setStreamProvider(new OutboundMessageContext.StreamProvider() {
+            @Override
+            public OutputStream getOutputStream(int contentLength) throws IOException {
+                return body;
+            }
+        });
+        request.writeEntity();
+        return body.toByteArray();
+    }
+
+    @Override
+    public Future<?> apply(final ClientRequest request, final AsyncConnectorCallback callback) {
+        return executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                ClientResponse response;
+                try {
+                    response = apply(request);
+                } catch (Throwable t) {
+                    callback.failure(t);
+                    return;
+                }
+                callback.response(response);
+            }
+        });
+    }
+
+    @Override
+    public String getName() {
+        return "in-process";
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,182 @@
+package eu.nimble.service.delegate.http;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.ws.rs.client.InvocationCallback;
+import javax.ws.rs.core.Response;
+
+import eu.nimble.service.delegate.discovery.ServiceEndpoint;
+
+/**
+ * An asynchronous request which was sent to a Delegate service and whose response is not consumed yet.
+ * Registered as the invocation callback, so the latency is measured (and reported to the call listener)
+ * when the response arrives and not when it is consumed.
+ * A request with a retrier may be sent again after a failure, the waiting side sees only the final outcome.
+ */
+class PendingResponse implements InvocationCallback<Response> {
+    // status reported for a request which was cancelled since it's no longer needed (e.g. the other hedged request won)
+    static final int CANCELLED = -1;
+    // status reported for a request which was not sent since the delegate's bulkhead is full
+    static final int REJECTED = -2;
+
+    private final ServiceEndpoint endpoint;
+    private final String route;
+    private final long timeoutMillis;
+    private final DelegateCallListener listener;
+    private final long startNanos;
+    private volatile long endNanos;
+    // the completion is reported once, either by the callback or when the response is abandoned
+    private final AtomicBoolean reported = new AtomicBoolean(false);
+    private final Retrier retrier;
+    private Sender sender;
+    private int retries = 0;
+    private volatile boolean rejected = false;
+    // the future of the current attempt
+    private volatile Future<Response> attemptFuture;
+    // the final response, completed by the last attempt
+    private final CompletableFuture<Response> future = new CompletableFuture<Response>();
+    // completed with the response status (or EndpointResult.NO_RESPONSE) when the request is done
+    private final CompletableFuture<Integer> completion = new CompletableFuture<Integer>();
+
+    // retrier is null for requests which must not be retried
+    PendingResponse(ServiceEndpoint endpoint, String route, long timeoutMillis, DelegateCallListener listener, Retrier retrier) {
+        this.endpoint = endpoint;
+        this.route = route;
+        this.timeoutMillis = timeoutMillis;
+        this.listener = listener;
+        this.retrier = retrier;
+        this.startNanos = System.nanoTime();
+        listener.requestStarted(endpoint);
+    }
+
+    void send(Sender sender) {
+        this.sender = sender;
+        attemptFuture = sender.send(this);
+    }
+
+    // sends the next attempt, unless the request was abandoned or cancelled meanwhile
+    void resend() {
+        if (reported.get()) {
+            return;
+        }
+        try {
+            attemptFuture = sender.send(this);
+        } catch (Exception e) {
+            failed(e);
+        }
+    }
+
+    @Override
+    public void completed(Response response) {
+        endNanos = System.nanoTime();
+        report(response.getStatus());
+        completion.complete(response.getStatus());
+        if (!future.complete(response)) {
+            // nobody waits for the response anymore
+            response.close();
+        }
+    }
+
+    @Override
+    public void failed(Throwable throwable) {
+        if (retrier != null && !reported.get() && retrier.scheduleRetry(this, throwable, retries)) {
+            retries++;
+            return;
+        }
+        endNanos = System.nanoTime();
+        report(EndpointResult.NO_RESPONSE);
+        completion.complete(EndpointResult.NO_RESPONSE);
+        future.completeExceptionally(throwable);
+    }
+
+    // called when the response is not waited for anymore (timeout), the request is cancelled and counted as failed
+    void abandon() {
+        report(EndpointResult.NO_RESPONSE);
+        cancelAttempt();
+        completion.complete(EndpointResult.NO_RESPONSE);
+    }
+
+    // called instead of send(), when the request may not be sent
+    void reject(Throwable reason) {
+        rejected = true;
+        endNanos = System.nanoTime();
+        report(REJECTED);
+        completion.complete(EndpointResult.NO_RESPONSE);
+        future.completeExceptionally(reason);
+    }
+
+    boolean isRejected() {
+        return rejected;
+    }
+
+    // called when the response is not needed anymore, the delegate is not blamed for it.
+    // a response which already arrived is closed, so its connection is released
+    void cancel() {
+        // reported first, so the failure callback of the cancelled request is not counted
+        report(CANCELLED);
+        cancelAttempt();
+        completion.complete(CANCELLED);
+    }
+
+    private void cancelAttempt() {
+        Future<Response> attempt = attemptFuture;
+        if (attempt != null) {
+            attempt.cancel(true);
+        }
+        if (!future.cancel(true) && !future.isCompletedExceptionally()) {
+            future.join().close();
+        }
+    }
+
+    private void report(int status) {
+        if (reported.compareAndSet(false, true)) {
+            listener.requestCompleted(endpoint, route, getLatencyMillis(), status);
+        }
+    }
+
+    ServiceEndpoint getEndpoint() {
+        return endpoint;
+    }
+
+    String getRoute() {
+        return route;
+    }
+
+    long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    // the timeout counts from the time the request was sent, not from the time the response is waited for
+    long getRemainingMillis() {
+        return Math.max(0, timeoutMillis - (System.nanoTime() - startNanos) / 1000000L);
+    }
+
+    CompletableFuture<Integer> getCompletion() {
+        return completion;
+    }
+
+    CompletableFuture<Response> getFuture() {
+        return future;
+    }
+
+    long getLatencyMillis() {
+        long end = endNanos;
+        if (end == 0) {
+            end = System.nanoTime();
+        }
+        return (end - startNanos) / 1000000L;
+    }
+
+    // sends a single attempt of the request with the given callback
+    interface Sender {
+        Future<Response> send(InvocationCallback<Response> callback);
+    }
+
+    // decides whether a failed attempt is retried (attempt is the number of retries done so far),
+    // and if it is, schedules PendingResponse.resend()
+    interface Retrier {
+        boolean scheduleRetry(PendingResponse pending, Throwable failure, int attempt);
+    }
+}
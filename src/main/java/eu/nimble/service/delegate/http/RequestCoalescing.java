@@ -0,0 +1,232 @@
+package eu.nimble.service.delegate.http;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MultivaluedMap;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import eu.nimble.service.delegate.businessprocess.BusinessProcessHandler;
+import eu.nimble.service.delegate.metrics.MetricsSource;
+import eu.nimble.service.delegate.resilience.SkippedDelegates;
+
+/**
+ * Single-flight coalescing of the federated get requests - a request which is identical to a fan-out that is still
+ * in flight (the same path, query params and headers) attaches to it and gets its results, instead of sending its
+ * own requests to all the delegates. Nothing is kept once the fan-out completes, so the results are never older than
+ * the request.
+ * The delegate's own federation token is left out of the key, but the headers which identify the user (the original
+ * authorization header of the business process calls) are part of it, so users whose results may differ by their
+ * permissions are never coalesced. The paths whose results are the same for every user are listed in
+ * DELEGATE_COALESCING_SHARED_PATHS, and coalesced across users.
+ * Every request gets its own future, so cancelling a request (the client disconnected) only detaches it, the fan-out
+ * is cancelled when no request waits for it.
+ *
+ * DELEGATE_COALESCING_ENABLED - false to send a fan-out for every request (default true)
+ * DELEGATE_COALESCING_SHARED_PATHS - comma separated local paths, coalesced across users (default /ratingsSummary/local)
+ */
+class RequestCoalescing implements MetricsSource {
+    private static Logger logger = LogManager.getLogger(RequestCoalescing.class);
+
+    // the headers of the business process calls which carry the user's identity
+    private static final Set<String> USER_HEADERS = new HashSet<String>(Arrays.asList("originalauthorizationheader", "tokentobecheckedheader"));
+
+    private final boolean enabled;
+    private final Set<String> sharedPaths = new LinkedHashSet<String>();
+    private final ConcurrentHashMap<String, Flight<?>> flights = new ConcurrentHashMap<String, Flight<?>>();
+    private final AtomicLong fanOuts = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong cancelledFanOuts = new AtomicLong();
+
+    RequestCoalescing() {
+        enabled = !"false".equalsIgnoreCase(System.getenv("DELEGATE_COALESCING_ENABLED"));
+        String paths = System.getenv("DELEGATE_COALESCING_SHARED_PATHS");
+        if (paths == null) {
+            paths = BusinessProcessHandler.GET_RATING_SUMMARY_LOCAL_PATH;
+        }
+        for (String path : paths.split(",")) {
+            if (!path.trim().isEmpty()) {
+                sharedPaths.add(path.trim());
+            }
+        }
+        if (enabled) {
+            logger.info("identical federated requests are coalesced, shared across users: " + sharedPaths);
+        }
+    }
+
+    // Builds the key of a get fan-out, the variant tells apart the fan-outs of the same request with different results
+    String key(String variant, String urlPath, Map<String, ?> queryParams, MultivaluedMap<String, Object> headers, List<String> delegateIds) {
+        StringBuilder key = new StringBuilder(variant).append(' ').append(urlPath);
+        if (queryParams != null) {
+            key.append(' ').append(new TreeMap<String, Object>(queryParams));
+        }
+        if (delegateIds != null) {
+            key.append(" delegates=").append(delegateIds);
+        }
+        boolean shared = sharedPaths.contains(urlPath);
+        TreeMap<String, Object> scope = new TreeMap<String, Object>();
+        if (headers != null) {
+            for (Entry<String, List<Object>> header : headers.entrySet()) {
+                String name = header.getKey().toLowerCase();
+                if (name.equalsIgnoreCase(HttpHeaders.AUTHORIZATION) || (shared && USER_HEADERS.contains(name))) {
+                    continue;
+                }
+                scope.put(name, header.getValue());
+            }
+        }
+        return key.append(' ').append(scope).toString();
+    }
+
+    // Returns the results of the fan-out in flight with the same key, or of a new fan-out
+    <T> CompletableFuture<T> join(String key, Supplier<CompletableFuture<T>> fanOut) {
+        if (!enabled) {
+            return fanOut.get();
+        }
+        while (true) {
+            Flight<?> existing = flights.get(key);
+            if (existing != null) {
+                @SuppressWarnings("unchecked")
+                CompletableFuture<T> follower = ((Flight<T>) existing).attach();
+                if (follower != null) {
+                    coalesced.incrementAndGet();
+                    // the delegates which the fan-out skipped are reported in the response of every request
+                    SkippedDelegates.get().addAll(existing.getSkipped());
+                    return follower;
+                }
+                flights.remove(key, existing);
+                continue;
+            }
+            Flight<T> flight = new Flight<T>(key);
+            if (flights.putIfAbsent(key, flight) != null) {
+                continue;
+            }
+            CompletableFuture<T> leader = flight.attach();
+            fanOuts.incrementAndGet();
+            try {
+                flight.start(fanOut.get());
+            } catch (RuntimeException e) {
+                flight.fail(e);
+                throw e;
+            }
+            return leader;
+        }
+    }
+
+    private class Flight<T> {
+        private final String key;
+        private final CompletableFuture<T> result = new CompletableFuture<T>();
+        private final Set<String> skipped = new LinkedHashSet<String>();
+        private CompletableFuture<T> fanOut;
+        private int attached = 0;
+        private boolean closed = false;
+
+        Flight(String key) {
+            this.key = key;
+        }
+
+        void start(final CompletableFuture<T> started) {
+            synchronized (this) {
+                fanOut = started;
+                skipped.addAll(SkippedDelegates.get());
+            }
+            started.whenComplete(new BiConsumer<T, Throwable>() {
+                @Override
+                public void accept(T value, Throwable failure) {
+                    close();
+                    if (failure != null) {
+                        result.completeExceptionally(failure);
+                    } else {
+                        result.complete(value);
+                    }
+                }
+            });
+        }
+
+        synchronized Set<String> getSkipped() {
+            return new LinkedHashSet<String>(skipped);
+        }
+
+        void fail(Throwable failure) {
+            close();
+            result.completeExceptionally(failure);
+        }
+
+        // Returns the future of a request which waits for the results, or null if the fan-out is already closed
+        synchronized CompletableFuture<T> attach() {
+            if (closed) {
+                return null;
+            }
+            attached++;
+            final CompletableFuture<T> request = new CompletableFuture<T>();
+            request.whenComplete(new BiConsumer<T, Throwable>() {
+                @Override
+                public void accept(T value, Throwable failure) {
+                    if (request.isCancelled()) {
+                        detach();
+                    }
+                }
+            });
+            result.whenComplete(new BiConsumer<T, Throwable>() {
+                @Override
+                public void accept(T value, Throwable failure) {
+                    if (failure != null) {
+                        request.completeExceptionally(failure);
+                    } else {
+                        request.complete(value);
+                    }
+                }
+            });
+            return request;
+        }
+
+        private void detach() {
+            CompletableFuture<T> cancelled = null;
+            synchronized (this) {
+                attached--;
+                if (attached == 0 && !closed && fanOut != null) {
+                    closed = true;
+                    cancelled = fanOut;
+                }
+            }
+            if (cancelled != null) {
+                flights.remove(key, this);
+                cancelledFanOuts.incrementAndGet();
+                cancelled.cancel(true);
+            }
+        }
+
+        private void close() {
+            synchronized (this) {
+                closed = true;
+            }
+            flights.remove(key, this);
+        }
+    }
+
+    @Override
+    public Object getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<String, Object>();
+        metrics.put("enabled", enabled);
+        metrics.put("sharedPaths", sharedPaths);
+        metrics.put("inFlight", flights.size());
+        metrics.put("fanOuts", fanOuts.get());
+        metrics.put("coalescedRequests", coalesced.get());
+        metrics.put("cancelledFanOuts", cancelledFanOuts.get());
+        return metrics;
+    }
+}
@@ -2,6 +2,7 @@ package eu.nimble.service.delegate.indexing;
 
 import java.io.IOException;
 import java.net.URI;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -11,6 +12,10 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.Map.Entry;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Function;
 
 import javax.ws.rs.core.MultivaluedMap;
 import javax.ws.rs.core.Response;
@@ -26,9 +31,12 @@ import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 
-import eu.nimble.service.delegate.eureka.EurekaHandler;
-import eu.nimble.service.delegate.eureka.ServiceEndpoint;
+import eu.nimble.service.delegate.discovery.DiscoveryHandler;
+import eu.nimble.service.delegate.discovery.ServiceEndpoint;
+import eu.nimble.service.delegate.http.EndpointResult;
+import eu.nimble.service.delegate.http.FanOutResults;
 import eu.nimble.service.delegate.http.HttpHelper;
+import eu.nimble.service.delegate.metrics.Metrics;
 
 /**
  * Indexing Service Handler
@@ -49,17 +57,20 @@ public class IndexingHandler {
     public static String POST_ITEM_SEARCH_LOCAL_PATH = "/item/search/local";
     public static String POST_PARTY_SEARCH_PATH = "/party/search";
     public static String POST_PARTY_SEARCH_LOCAL_PATH = "/party/search/local";
+    // the field of the item search body which pages the search with a cursor (see SearchCursors)
+    public static final String SEARCH_CURSOR_FIELD = "cursor";
     
     public String BaseUrl;
     public int Port;
     public String PathPrefix;
     
-    private EurekaHandler _eurekaHandler;
+    private DiscoveryHandler _discoveryHandler;
     private HttpHelper _httpHelper;
     private ObjectMapper _mapper;
     private JsonParser _jsonParser;
+    private SearchCursors _searchCursors;
     
-    public IndexingHandler(HttpHelper httpHelper, EurekaHandler eurekaHandler) {
+    public IndexingHandler(HttpHelper httpHelper, DiscoveryHandler discoveryHandler) {
     	try {
 	    	BaseUrl = System.getenv(SERVICE_URL);
 			try {
@@ -82,21 +93,41 @@ public class IndexingHandler {
     	}
     	
     	this._httpHelper = httpHelper;
-    	this._eurekaHandler = eurekaHandler;
+    	this._discoveryHandler = discoveryHandler;
     	
     	_mapper = new ObjectMapper();
     	_jsonParser = new JsonParser();
+    	_searchCursors = new SearchCursors();
+    	Metrics.register("searchCursors", _searchCursors);
     	
     	logger.info("Service Handler is being initialized with base url = " + BaseUrl + ", path prefix = " + PathPrefix + ", port = " + Port + "...");
     }
     
-    @SuppressWarnings("unchecked")
-  	public HashMap<ServiceEndpoint, String> getPostItemSearchAggregatedResults(MultivaluedMap<String, Object> headers, Map<String, Object> body) throws JsonParseException, JsonMappingException, IOException {
-      	int requestedPageSize = Integer.parseInt(body.get("rows").toString()); // save it before manipulating
+    // Sends the search in phases - a dummy search (no rows) gets the total elements of every delegate, and then the rows
+    // of the page are requested from the delegates by their share of the total elements.
+    // the phases are chained without waiting, so the future completes when the last phase is done
+  	public CompletableFuture<HashMap<ServiceEndpoint, EndpointResult>> getPostItemSearchAggregatedResults(final MultivaluedMap<String, Object> headers, final Map<String, Object> body) {
+      	final int requestedPageSize = Integer.parseInt(body.get("rows").toString()); // save it before manipulating
       	// manipulate body in order to get results from all delegates.
-      	List<ServiceEndpoint> endpointList = _eurekaHandler.getEndpointsFromEureka();
-      	body.put("rows", 0); // send dummy request just to get totalElements fields from all delegates
-      	HashMap<ServiceEndpoint, String> dummyResultList = _httpHelper.sendPostRequestToAllDelegates(endpointList, POST_ITEM_SEARCH_LOCAL_PATH, headers, body);
+      	final List<ServiceEndpoint> endpointList = new ArrayList<ServiceEndpoint>(_httpHelper.selectDelegates()); // a single instance of every delegate
+      	// every phase gets its own copy of the body, since the body is serialized only when the request is sent
+      	Map<String, Object> dummyBody = new LinkedHashMap<String, Object>(body);
+      	dummyBody.put("rows", 0); // send dummy request just to get totalElements fields from all delegates
+      	return _httpHelper.sendPostRequestToAllDelegatesAsync(endpointList, POST_ITEM_SEARCH_LOCAL_PATH, headers, dummyBody, true)
+      			.thenCompose(new Function<HashMap<ServiceEndpoint, EndpointResult>, CompletionStage<HashMap<ServiceEndpoint, EndpointResult>>>() {
+      				@Override
+      				public CompletionStage<HashMap<ServiceEndpoint, EndpointResult>> apply(HashMap<ServiceEndpoint, EndpointResult> dummyResultList) {
+      					try {
+      						return sendItemSearchPage(endpointList, dummyResultList, headers, body, requestedPageSize);
+      					} catch (IOException e) {
+      						throw new CompletionException(e);
+      					}
+      				}
+      			});
+      }
+
+  	private CompletableFuture<HashMap<ServiceEndpoint, EndpointResult>> sendItemSearchPage(List<ServiceEndpoint> endpointList, HashMap<ServiceEndpoint, EndpointResult> dummyResultList,
+  			MultivaluedMap<String, Object> headers, Map<String, Object> body, int requestedPageSize) throws JsonParseException, JsonMappingException, IOException {
       	List<ServiceEndpoint> endpointsToRemove = new LinkedList<ServiceEndpoint>();
       	
       	for (ServiceEndpoint endpoint : endpointList) {
@@ -105,7 +136,7 @@ public class IndexingHandler {
       		}
       	}
       	for (ServiceEndpoint endpoint : dummyResultList.keySet()) {
-      		String result = dummyResultList.get(endpoint);
+      		String result = dummyResultList.get(endpoint).getData();
       		if (result == null || result.isEmpty()) {
       			endpointsToRemove.add(endpoint);
       		}
@@ -117,43 +148,219 @@ public class IndexingHandler {
       	
       	int sumTotalElements = 0;
       	final LinkedHashMap<ServiceEndpoint, Integer> totalElementPerEndpoint = new LinkedHashMap<ServiceEndpoint, Integer>();
-      	for (Entry<ServiceEndpoint, String> entry : dummyResultList.entrySet()) {
-      		Map<String, Object> json = _mapper.readValue(entry.getValue(), Map.class);
-      		int totalElementForEndpoint = Integer.parseInt(json.get("totalElements").toString());
+      	for (Entry<ServiceEndpoint, EndpointResult> entry : dummyResultList.entrySet()) {
+      		// the responses were parsed when they arrived
+      		int totalElementForEndpoint = entry.getValue().getJson().getAsJsonObject().get("totalElements").getAsInt();
       		totalElementPerEndpoint.put(entry.getKey(), totalElementForEndpoint);
       		sumTotalElements += totalElementForEndpoint;
       	}
+      	// the delegates which failed the dummy search are failed delegates of the search as well
+      	final Set<String> failedDelegates = new HashSet<String>(FanOutResults.getFailedDelegates(dummyResultList));
       	if (sumTotalElements <= requestedPageSize || requestedPageSize == 0 || endpointList.size()==1) {
       		body.put("rows", requestedPageSize); 
-      		return _httpHelper.sendPostRequestToAllDelegates(endpointList, POST_ITEM_SEARCH_LOCAL_PATH, headers, body);
+      		return _httpHelper.sendPostRequestToAllDelegatesAsync(endpointList, POST_ITEM_SEARCH_LOCAL_PATH, headers, body, true)
+      				.thenApply(new Function<HashMap<ServiceEndpoint, EndpointResult>, HashMap<ServiceEndpoint, EndpointResult>>() {
+      					@Override
+      					public HashMap<ServiceEndpoint, EndpointResult> apply(HashMap<ServiceEndpoint, EndpointResult> resultList) {
+      						FanOutResults results = new FanOutResults();
+      						results.addAll(resultList);
+      						for (String delegateId : failedDelegates) {
+      							results.addFailed(delegateId);
+      						}
+      						return results;
+      					}
+      				});
       	}
       	// else, we need to decide how many results we want from each delegate
       	// TODO work on this logic!
       	logger.info("we need to decide how many results to get from each delegate");
       	logger.info("sum of total elements = " + sumTotalElements);
       	int numOfRowsAggregated = 0;
-      	HashMap<ServiceEndpoint, String> aggregatedResults = new LinkedHashMap<ServiceEndpoint, String>();
+      	// the delegates are requested together, and their results are aggregated in the order of the endpoints
+      	final List<CompletableFuture<HashMap<ServiceEndpoint, EndpointResult>>> futureList = new ArrayList<CompletableFuture<HashMap<ServiceEndpoint, EndpointResult>>>();
       	for (ServiceEndpoint endpoint : endpointList) {
       		int totalElementOfEndpoint = totalElementPerEndpoint.get(endpoint);
       		logger.info("totalElements of endpoint + " + endpoint.getHostName() + ":" + endpoint.getPort()+ " = " + totalElementOfEndpoint);
       		int endpointRows = Math.min(Math.round(totalElementOfEndpoint/((float)sumTotalElements)*requestedPageSize),(requestedPageSize-numOfRowsAggregated));
       		List<ServiceEndpoint> listForRequest = new LinkedList<ServiceEndpoint>();
       		listForRequest.add(endpoint);
-      		body.put("rows", endpointRows); // manipulate body values
-      		logger.info("requesting from endpoint " + endpointRows + " rows, body = " + body);
-      		aggregatedResults.putAll(_httpHelper.sendPostRequestToAllDelegates(listForRequest, POST_ITEM_SEARCH_LOCAL_PATH, headers, body));
+      		Map<String, Object> endpointBody = new LinkedHashMap<String, Object>(body);
+      		endpointBody.put("rows", endpointRows); // manipulate body values
+      		logger.info("requesting from endpoint " + endpointRows + " rows, body = " + endpointBody);
+      		futureList.add(_httpHelper.sendPostRequestToAllDelegatesAsync(listForRequest, POST_ITEM_SEARCH_LOCAL_PATH, headers, endpointBody, true));
       		numOfRowsAggregated += endpointRows;
       	}
       	
-      	return aggregatedResults;
+      	return CompletableFuture.allOf(futureList.toArray(new CompletableFuture<?>[0])).thenApply(new Function<Void, HashMap<ServiceEndpoint, EndpointResult>>() {
+      		@Override
+      		public HashMap<ServiceEndpoint, EndpointResult> apply(Void done) {
+      			FanOutResults aggregatedResults = new FanOutResults();
+      			for (CompletableFuture<HashMap<ServiceEndpoint, EndpointResult>> future : futureList) {
+      				aggregatedResults.addAll(future.join());
+      			}
+      			for (String delegateId : failedDelegates) {
+      				aggregatedResults.addFailed(delegateId);
+      			}
+      			return aggregatedResults;
+      		}
+      	});
       }
     
+    // Sends a page of an item search which is paged with a cursor (see SearchCursors). the first page of the search
+    // requests the first page of every delegate, and the next pages request only the next page of the delegates whose
+    // results ran out. the future completes with null if the cursor is unknown or expired
+    public CompletableFuture<Map<String, Object>> getItemSearchPage(final MultivaluedMap<String, Object> headers, Map<String, Object> body) {
+    	Object cursorId = body.get(SEARCH_CURSOR_FIELD);
+    	if (!SearchCursors.FIRST_PAGE.equals(cursorId)) {
+    		SearchCursors.Cursor cursor = _searchCursors.get(String.valueOf(cursorId));
+    		if (cursor == null) {
+    			return CompletableFuture.completedFuture(null);
+    		}
+    		return sendCursorPage(cursor, headers);
+    	}
+    	final int pageSize = Math.max(1, Integer.parseInt(body.get("rows").toString()));
+    	final Map<String, Object> search = new LinkedHashMap<String, Object>(body);
+    	search.remove(SEARCH_CURSOR_FIELD);
+    	search.remove("rows");
+    	search.remove("start");
+    	final List<ServiceEndpoint> endpointList = new ArrayList<ServiceEndpoint>(_httpHelper.selectDelegates());
+    	return _httpHelper.sendPostRequestToAllDelegatesAsync(endpointList, POST_ITEM_SEARCH_LOCAL_PATH, headers, cursorPageBody(search, pageSize, 0), true)
+    			.thenCompose(new Function<HashMap<ServiceEndpoint, EndpointResult>, CompletionStage<Map<String, Object>>>() {
+    				@Override
+    				public CompletionStage<Map<String, Object>> apply(HashMap<ServiceEndpoint, EndpointResult> resultList) {
+    					IndexingServiceResult merged = new IndexingServiceResult(pageSize, 0);
+    					List<SearchCursors.Slice> slices = new ArrayList<SearchCursors.Slice>();
+    					// the local instance is merged first
+    					for (ServiceEndpoint endpoint : endpointList) {
+    						SearchCursors.Slice slice = cursorSlice(merged, endpoint, resultList.get(endpoint), 0, 0);
+    						if (isLocalInstance(endpoint)) {
+    							slices.add(0, slice);
+    						} else {
+    							slices.add(slice);
+    						}
+    					}
+    					String facets = merged.getFacets() == null ? null : merged.getFacets().toString();
+    					return sendCursorPage(new SearchCursors.Cursor(search, pageSize, 0, merged.getTotalElements(), facets, slices, 0), headers);
+    				}
+    			});
+    }
+
+    private Map<String, Object> cursorPageBody(Map<String, Object> search, int pageSize, int page) {
+    	Map<String, Object> pageBody = new LinkedHashMap<String, Object>(search);
+    	pageBody.put("rows", pageSize);
+    	pageBody.put("start", page);
+    	return pageBody;
+    }
+
+    private boolean isLocalInstance(ServiceEndpoint endpoint) {
+    	return endpoint.getAppName().equals(_discoveryHandler.getAppName());
+    }
+
+    // the next page of the delegate's results was fetched, a delegate which didn't respond is left out
+    private SearchCursors.Slice cursorSlice(IndexingServiceResult merged, ServiceEndpoint endpoint, EndpointResult result, int fetchedPages, int total) {
+    	if (result == null) {
+    		logger.warn("no search results from " + endpoint.getAppName() + ", its other results are left out of the search");
+    		return new SearchCursors.Slice(endpoint, total, fetchedPages, new LinkedList<JsonObject>(), true, 0);
+    	}
+    	merged.addEndpointResponse(result, isLocalInstance(endpoint));
+    	LinkedList<JsonObject> results = merged.getEndpointResults(endpoint);
+    	if (results == null) {
+    		results = new LinkedList<JsonObject>();
+    	}
+    	String data = result.getData();
+    	if (fetchedPages == 0) {
+    		total = data == null || data.isEmpty() ? 0 : result.getJson().getAsJsonObject().get("totalElements").getAsInt();
+    	}
+    	_searchCursors.resultsFetched(results.size());
+    	// the strings of the results are kept as utf-16
+    	int resultBytes = results.isEmpty() ? 0 : 2 * data.length() / results.size();
+    	// a delegate whose results shrank since the search started has no more pages
+    	return new SearchCursors.Slice(endpoint, results.isEmpty() ? 0 : total, fetchedPages + 1, results, false, resultBytes);
+    }
+
+    // Merges the page round robin from the results which the previous pages didn't return, and fetches the next page of
+    // the delegates which ran out of them
+    private CompletableFuture<Map<String, Object>> sendCursorPage(final SearchCursors.Cursor cursor, final MultivaluedMap<String, Object> headers) {
+    	return fillCursorPage(cursor, SearchCursors.copy(cursor.slices), cursor.next, new JsonArray(), headers);
+    }
+
+    private CompletableFuture<Map<String, Object>> fillCursorPage(final SearchCursors.Cursor cursor, final List<SearchCursors.Slice> slices, int next,
+    		final JsonArray page, final MultivaluedMap<String, Object> headers) {
+    	int size = slices.size();
+    	int exhausted = 0;
+    	boolean ranOut = false;
+    	while (page.size() < cursor.pageSize && exhausted < size) {
+    		SearchCursors.Slice slice = slices.get(next);
+    		if (!slice.pending.isEmpty()) {
+    			page.add(slice.pending.removeFirst());
+    			next = (next + 1) % size;
+    			exhausted = 0;
+    		} else if (slice.hasMorePages(cursor.pageSize)) {
+    			ranOut = true;
+    			break;
+    		} else {
+    			next = (next + 1) % size;
+    			exhausted++;
+    		}
+    	}
+    	if (!ranOut) {
+    		return CompletableFuture.completedFuture(cursorPageResult(cursor, slices, next, page));
+    	}
+    	// the delegates which ran out, or are about to run out before the page is full, are requested together
+    	final int nextSlice = next;
+    	int remaining = cursor.pageSize - page.size();
+    	final List<Integer> fetched = new ArrayList<Integer>();
+    	final List<CompletableFuture<HashMap<ServiceEndpoint, EndpointResult>>> futureList = new ArrayList<CompletableFuture<HashMap<ServiceEndpoint, EndpointResult>>>();
+    	for (int i = 0; i < size; i++) {
+    		SearchCursors.Slice slice = slices.get(i);
+    		if (slice.hasMorePages(cursor.pageSize) && (long) slice.pending.size() * size < remaining) {
+    			List<ServiceEndpoint> listForRequest = new LinkedList<ServiceEndpoint>();
+    			listForRequest.add(slice.endpoint);
+    			fetched.add(i);
+    			futureList.add(_httpHelper.sendPostRequestToAllDelegatesAsync(listForRequest, POST_ITEM_SEARCH_LOCAL_PATH, headers, cursorPageBody(cursor.body, cursor.pageSize, slice.fetchedPages), true));
+    		}
+    	}
+    	return CompletableFuture.allOf(futureList.toArray(new CompletableFuture<?>[0])).thenCompose(new Function<Void, CompletionStage<Map<String, Object>>>() {
+    		@Override
+    		public CompletionStage<Map<String, Object>> apply(Void done) {
+    			IndexingServiceResult merged = new IndexingServiceResult(cursor.pageSize, 0);
+    			for (int i = 0; i < fetched.size(); i++) {
+    				SearchCursors.Slice slice = slices.get(fetched.get(i));
+    				SearchCursors.Slice fetchedSlice = cursorSlice(merged, slice.endpoint, futureList.get(i).join().get(slice.endpoint), slice.fetchedPages, slice.total);
+    				fetchedSlice.pending.addAll(0, slice.pending);
+    				slices.set(fetched.get(i), fetchedSlice);
+    			}
+    			return fillCursorPage(cursor, slices, nextSlice, page, headers);
+    		}
+    	});
+    }
+
+    // builds the page as the merged search results, with the cursor of the next page (null after the last page)
+    private Map<String, Object> cursorPageResult(SearchCursors.Cursor cursor, List<SearchCursors.Slice> slices, int next, JsonArray page) {
+    	SearchCursors.Cursor nextCursor = new SearchCursors.Cursor(cursor.body, cursor.pageSize, cursor.page + 1, cursor.totalElements, cursor.facets, slices, next);
+    	_searchCursors.pageReturned(page.size());
+    	Map<String, Object> aggregatedResults = new LinkedHashMap<String, Object>();
+    	aggregatedResults.put("totalElements", cursor.totalElements);
+    	aggregatedResults.put("totalPages", (int) Math.ceil(((double) cursor.totalElements) / cursor.pageSize));
+    	aggregatedResults.put("pageSize", cursor.pageSize);
+    	aggregatedResults.put("currentPage", cursor.page);
+    	try {
+    		aggregatedResults.put("result", _mapper.readValue(page.toString(), _mapper.getTypeFactory().constructCollectionType(List.class, Map.class)));
+    		aggregatedResults.put("facets", cursor.facets == null ? null : _mapper.readValue(cursor.facets, Map.class));
+    	} catch (IOException e) {
+    		throw new CompletionException(e);
+    	}
+    	aggregatedResults.put(SEARCH_CURSOR_FIELD, nextCursor.isDone() ? null : _searchCursors.put(nextCursor));
+    	return aggregatedResults;
+    }
+
     // if field name exists in more than one instance, putting the entry just once, ignoring doc count field
-    public List<Map<String, Object>> mergeGetResponsesByFieldName(HashMap<ServiceEndpoint, String> resultList) {
+    public List<Map<String, Object>> mergeGetResponsesByFieldName(HashMap<ServiceEndpoint, EndpointResult> resultList) {
     	logger.info("merging results of GET request based on field name");
     	List<Map<String, Object>> aggregatedResults = new LinkedList<Map<String, Object>>();
     	
-    	for (String results : resultList.values()) {
+    	for (EndpointResult endpointResult : resultList.values()) {
+    		String results = endpointResult.getData();
     		if (results == null || results.isEmpty()) {
 				continue;
 			}
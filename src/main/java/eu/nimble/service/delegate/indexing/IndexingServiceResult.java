@@ -16,9 +16,9 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
 
-import eu.nimble.service.delegate.eureka.ServiceEndpoint;
+import eu.nimble.service.delegate.discovery.ServiceEndpoint;
+import eu.nimble.service.delegate.http.EndpointResult;
 
 /**
  * Indexing Service Result
@@ -38,7 +38,6 @@ public class IndexingServiceResult {
 	private JsonObject facets;
 	// response fields end
 	
-	private JsonParser jsonParser;
 	private ObjectMapper mapper;
 	
 	private ArrayList<ServiceEndpoint> endpointsArray;
@@ -52,32 +51,34 @@ public class IndexingServiceResult {
     	result = new JsonArray();
     	facets = null;
     	
-    	jsonParser = new JsonParser();
     	mapper = new ObjectMapper();
     	
     	endpointsArray = new ArrayList<ServiceEndpoint>();
     	resultsPerEndpoint = new LinkedHashMap<ServiceEndpoint, LinkedList<JsonObject>>();
 	}
 	
-	public void addEndpointResponse(ServiceEndpoint endpoint, String responseJson, boolean localInstance) {
+	public void addEndpointResponse(EndpointResult endpointResult, boolean localInstance) {
+		ServiceEndpoint endpoint = endpointResult.getEndpoint();
+		String responseJson = endpointResult.getData();
 		logger.info("adding response from instance " + endpoint.getAppName() + ", localInstance = " + localInstance);
 		if (responseJson == null || responseJson.isEmpty()) {
 			return;
 		}
-		JsonObject jsonObject = jsonParser.parse(responseJson).getAsJsonObject();
+		// usually parsed already, when the response arrived
+		JsonObject jsonObject = endpointResult.getJson().getAsJsonObject();
 		// summarize totalElements
 		this.totalElements += jsonObject.get("totalElements").getAsInt();
 		// prepare result field for merge later while calculating final result
-		this.addEndpointResults(endpoint, jsonObject.get("result").getAsJsonArray(), localInstance);
+		this.addEndpointResults(endpoint, endpointResult.getFrontendServiceUrl(), jsonObject.get("result").getAsJsonArray(), localInstance);
 		// merge facets
 		this.addFacets(jsonObject.get("facets"));
 	}
 	
-	private void addEndpointResults(ServiceEndpoint endpoint, JsonArray resultArray, boolean localInstance) {
+	private void addEndpointResults(ServiceEndpoint endpoint, String frontendServiceUrl, JsonArray resultArray, boolean localInstance) {
 		LinkedList<JsonObject> resultArrayInList = new LinkedList<JsonObject>();
 		for (JsonElement element : resultArray) {
 			JsonObject elementAsObj = element.getAsJsonObject();
-			elementAsObj.addProperty("sourceFrontendServiceUrl", endpoint.getFrontendServiceUrl());
+			elementAsObj.addProperty("sourceFrontendServiceUrl", frontendServiceUrl);
 			elementAsObj.addProperty("nimbleInstanceName", endpoint.getAppName());
 			elementAsObj.addProperty("isFromLocalInstance", localInstance);
 			resultArrayInList.add(elementAsObj);
@@ -158,6 +159,19 @@ public class IndexingServiceResult {
 		return null;
 	}
 	
+	// the results of the delegate as they're merged, null if it sent none
+	LinkedList<JsonObject> getEndpointResults(ServiceEndpoint endpoint) {
+		return resultsPerEndpoint.get(endpoint);
+	}
+	
+	int getTotalElements() {
+		return totalElements;
+	}
+	
+	JsonObject getFacets() {
+		return facets;
+	}
+	
 	@SuppressWarnings("unchecked")
 	public Map<String, Object> getFinalResult() throws JsonParseException, JsonMappingException, IOException {
 		Map<String, Object> aggregatedResults = new LinkedHashMap<String, Object>();
@@ -0,0 +1,212 @@
+package eu.nimble.service.delegate.indexing;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.google.gson.JsonObject;
+
+import eu.nimble.service.delegate.discovery.ServiceEndpoint;
+import eu.nimble.service.delegate.metrics.MetricsSource;
+
+/**
+ * The state of the federated searches which are paged with a cursor - for every delegate, how many of its results were
+ * fetched (in pages of the search's page size) and which of them weren't returned yet, and the position of the round
+ * robin merge. A page is merged from the results of the previous pages which weren't returned, and only the delegates
+ * which ran out of them are requested for their next page, so the pages cover the merged results of all the delegates
+ * without gaps or repeats.
+ * A cursor is never changed, every page gets a new cursor for the next page, so a page can be requested again. The
+ * cursors expire when they're not used, and the least recently used cursors are dropped beyond the maximal number or
+ * the size budget. The size of a cursor is estimated from the json size of the results it holds.
+ *
+ * DELEGATE_SEARCH_CURSORS_MAX - maximal number of kept cursors (default 1000)
+ * DELEGATE_SEARCH_CURSORS_MAX_MB - size budget of the kept cursors (default 32)
+ * DELEGATE_SEARCH_CURSOR_TTL_SEC - a cursor expires when it isn't used for this time (default 600)
+ */
+public class SearchCursors implements MetricsSource {
+    private static Logger logger = LogManager.getLogger(SearchCursors.class);
+
+    // the value of the cursor field which starts a search with a cursor
+    public static final String FIRST_PAGE = "*";
+
+    private final int maxCursors;
+    private final long maxBytes;
+    private final long ttlMillis;
+    // the cursors in the order of their last use
+    private final LinkedHashMap<String, Cursor> cursors = new LinkedHashMap<String, Cursor>(16, 0.75f, true);
+    private long bytes = 0;
+
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong pages = new AtomicLong();
+    private final AtomicLong expired = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong fetchedResults = new AtomicLong();
+    private final AtomicLong returnedResults = new AtomicLong();
+
+    public SearchCursors() {
+        maxCursors = Math.max(1, getIntEnv("DELEGATE_SEARCH_CURSORS_MAX", 1000));
+        maxBytes = Math.max(1, getIntEnv("DELEGATE_SEARCH_CURSORS_MAX_MB", 32)) * 1024L * 1024L;
+        ttlMillis = Math.max(1, getIntEnv("DELEGATE_SEARCH_CURSOR_TTL_SEC", 600)) * 1000L;
+        logger.info("up to " + maxCursors + " search cursors (" + maxBytes / (1024 * 1024) + " MB) are kept for " + ttlMillis / 1000 + " seconds");
+    }
+
+    // Returns the cursor, or null if it's unknown or expired
+    public synchronized Cursor get(String id) {
+        Cursor cursor = cursors.get(id);
+        if (cursor == null) {
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        if (now - cursor.lastUsed > ttlMillis) {
+            cursors.remove(id);
+            bytes -= cursor.bytes;
+            expired.incrementAndGet();
+            return null;
+        }
+        cursor.lastUsed = now;
+        return cursor;
+    }
+
+    // Keeps the cursor of the next page and returns its id
+    public synchronized String put(Cursor cursor) {
+        String id = UUID.randomUUID().toString();
+        cursor.lastUsed = System.currentTimeMillis();
+        cursors.put(id, cursor);
+        bytes += cursor.bytes;
+        created.incrementAndGet();
+        // the new cursor is the most recently used, it's dropped last
+        Iterator<Cursor> leastRecentlyUsed = cursors.values().iterator();
+        while ((cursors.size() > maxCursors || bytes > maxBytes) && cursors.size() > 1 && leastRecentlyUsed.hasNext()) {
+            bytes -= leastRecentlyUsed.next().bytes;
+            leastRecentlyUsed.remove();
+            dropped.incrementAndGet();
+        }
+        return id;
+    }
+
+    void pageReturned(int results) {
+        pages.incrementAndGet();
+        returnedResults.addAndGet(results);
+    }
+
+    void resultsFetched(int results) {
+        fetchedResults.addAndGet(results);
+    }
+
+    // The paging state of a federated search, after the pages which were returned
+    public static class Cursor {
+        // the search, without the paging fields
+        final Map<String, Object> body;
+        final int pageSize;
+        // the index of the next page
+        final int page;
+        final int totalElements;
+        // the merged facets of the first page, as json
+        final String facets;
+        // in the order of the merge
+        final List<Slice> slices;
+        // the slice which gives the next result
+        final int next;
+        // the estimated size of the results and the facets which the cursor holds
+        final long bytes;
+        private volatile long lastUsed;
+
+        Cursor(Map<String, Object> body, int pageSize, int page, int totalElements, String facets, List<Slice> slices, int next) {
+            this.body = body;
+            this.pageSize = pageSize;
+            this.page = page;
+            this.totalElements = totalElements;
+            this.facets = facets;
+            this.slices = slices;
+            this.next = next;
+            long size = facets == null ? 0 : 2L * facets.length();
+            for (Slice slice : slices) {
+                size += (long) slice.pending.size() * slice.resultBytes;
+            }
+            this.bytes = size;
+        }
+
+        public int getPage() {
+            return page;
+        }
+
+        boolean isDone() {
+            for (Slice slice : slices) {
+                if (!slice.isDone(pageSize)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    // The results of a single delegate - the pages which were fetched, and the results which weren't returned yet
+    static class Slice {
+        final ServiceEndpoint endpoint;
+        final int total;
+        final int fetchedPages;
+        final LinkedList<JsonObject> pending;
+        // the delegate didn't respond, its other results are left out
+        final boolean failed;
+        // the estimated size of a result, by the json of the last fetched page
+        final int resultBytes;
+
+        Slice(ServiceEndpoint endpoint, int total, int fetchedPages, LinkedList<JsonObject> pending, boolean failed, int resultBytes) {
+            this.endpoint = endpoint;
+            this.total = total;
+            this.fetchedPages = fetchedPages;
+            this.pending = pending;
+            this.failed = failed;
+            this.resultBytes = resultBytes;
+        }
+
+        boolean hasMorePages(int pageSize) {
+            return !failed && (long) fetchedPages * pageSize < total;
+        }
+
+        boolean isDone(int pageSize) {
+            return pending.isEmpty() && !hasMorePages(pageSize);
+        }
+    }
+
+    static List<Slice> copy(List<Slice> slices) {
+        List<Slice> copies = new ArrayList<Slice>();
+        for (Slice slice : slices) {
+            copies.add(new Slice(slice.endpoint, slice.total, slice.fetchedPages, new LinkedList<JsonObject>(slice.pending), slice.failed, slice.resultBytes));
+        }
+        return copies;
+    }
+
+    @Override
+    public Object getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<String, Object>();
+        synchronized (this) {
+            metrics.put("cursors", cursors.size());
+            metrics.put("bytes", bytes);
+        }
+        metrics.put("maxBytes", maxBytes);
+        metrics.put("created", created.get());
+        metrics.put("pages", pages.get());
+        metrics.put("expired", expired.get());
+        metrics.put("dropped", dropped.get());
+        metrics.put("fetchedResults", fetchedResults.get());
+        metrics.put("returnedResults", returnedResults.get());
+        return metrics;
+    }
+
+    private static int getIntEnv(String name, int defaultValue) {
+        try {
+            return Integer.parseInt(System.getenv(name));
+        } catch (Exception ex) {
+            return defaultValue;
+        }
+    }
+}
@@ -0,0 +1,265 @@
+package eu.nimble.service.delegate.indexing;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import eu.nimble.service.delegate.metrics.MetricsSource;
+
+/**
+ * Decides when the next page of a federated search is prefetched into the search results cache (see SearchResultCache),
+ * after a page of the search was served. The searches are grouped by their shape - the search type, the page size,
+ * the number of filter queries and whether there's a query text - and a page is prefetched only for the shapes whose
+ * next page is requested often enough (the click-through rate, counted for every served page whether it was prefetched
+ * or not, so a shape whose rate dropped can recover).
+ * The prefetches use spare capacity only, they're skipped while the delegates are busy (the utilization of their
+ * bulkheads) and at most a few of them run at once. A search for a page which is being prefetched waits for the
+ * prefetch instead of sending the search again.
+ *
+ * DELEGATE_PREFETCH_ENABLED - false to never prefetch (default true)
+ * DELEGATE_PREFETCH_MAX_CONCURRENT - prefetches which run at once (default 2)
+ * DELEGATE_PREFETCH_MAX_LOAD_PERCENT - no prefetch while a delegate's bulkhead is used above this percentage (default 50)
+ * DELEGATE_PREFETCH_MIN_RATE_PERCENT - the click-through rate of a shape from which its next pages are prefetched (default 25)
+ * DELEGATE_PREFETCH_WINDOW_SEC - how long after a page is served a request of the next page counts as a click-through (default 120)
+ */
+public class SearchPrefetcher implements MetricsSource {
+    private static Logger logger = LogManager.getLogger(SearchPrefetcher.class);
+
+    // the searches which are followed for click-throughs, and the prefetched pages which wait to be used
+    private static final int MAX_RECENT_SEARCHES = 10000;
+    private static final int MAX_SHAPES = 256;
+    // the counts of a shape are halved beyond this number of served pages, so the rate follows the recent searches
+    private static final int RATE_DECAY_PAGES = 1000;
+
+    private final SearchResultCache cache;
+    private final boolean enabled;
+    private final Semaphore budget;
+    private final double maxLoad;
+    private final double minRate;
+    private final long windowMillis;
+
+    // the last served page of the recent searches (without their paging), in the order of their last use
+    private final LinkedHashMap<String, ServedPage> recentSearches = new LinkedHashMap<String, ServedPage>(16, 0.75f, true);
+    private final LinkedHashMap<String, ShapeRate> shapes = new LinkedHashMap<String, ShapeRate>(16, 0.75f, true);
+    // the cache keys of the prefetched pages which weren't served yet
+    private final LinkedHashMap<String, Long> prefetched = new LinkedHashMap<String, Long>(16, 0.75f, true);
+    private final ConcurrentHashMap<String, CompletableFuture<?>> inFlight = new ConcurrentHashMap<String, CompletableFuture<?>>();
+
+    private final AtomicLong prefetches = new AtomicLong();
+    private final AtomicLong used = new AtomicLong();
+    private final AtomicLong joined = new AtomicLong();
+    private final AtomicLong skippedRate = new AtomicLong();
+    private final AtomicLong skippedLoad = new AtomicLong();
+    private final AtomicLong skippedBudget = new AtomicLong();
+
+    public SearchPrefetcher(SearchResultCache cache) {
+        this.cache = cache;
+        enabled = cache.isEnabled() && !"false".equalsIgnoreCase(System.getenv("DELEGATE_PREFETCH_ENABLED"));
+        budget = new Semaphore(Math.max(1, getIntEnv("DELEGATE_PREFETCH_MAX_CONCURRENT", 2)));
+        maxLoad = Math.max(0, getIntEnv("DELEGATE_PREFETCH_MAX_LOAD_PERCENT", 50)) / 100.0;
+        minRate = Math.max(0, getIntEnv("DELEGATE_PREFETCH_MIN_RATE_PERCENT", 25)) / 100.0;
+        windowMillis = Math.max(1, getIntEnv("DELEGATE_PREFETCH_WINDOW_SEC", 120)) * 1000L;
+        if (enabled) {
+            logger.info("the next pages of the federated searches are prefetched from a click-through rate of " + Math.round(minRate * 100) + "%");
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    // Records a served page of a search (cache key and body), and counts it as a click-through if the previous page of
+    // the same search was served recently
+    public synchronized void pageServed(String searchType, String key, Map<String, Object> body) {
+        if (!enabled) {
+            return;
+        }
+        if (key != null && prefetched.remove(key) != null) {
+            used.incrementAndGet();
+        }
+        String search = cache.fingerprint(searchType, withoutPaging(body));
+        if (search == null) {
+            return;
+        }
+        ShapeRate rate = getShapeRate(shape(searchType, body));
+        int page = getPage(body);
+        long now = System.currentTimeMillis();
+        ServedPage previous = recentSearches.get(search);
+        if (previous != null && previous.page == page - 1 && now - previous.servedAt <= windowMillis) {
+            rate.followed++;
+        }
+        rate.served++;
+        if (rate.served > RATE_DECAY_PAGES) {
+            rate.served /= 2;
+            rate.followed /= 2;
+        }
+        recentSearches.put(search, new ServedPage(page, now));
+        Iterator<ServedPage> leastRecentlyUsed = recentSearches.values().iterator();
+        while (recentSearches.size() > MAX_RECENT_SEARCHES && leastRecentlyUsed.hasNext()) {
+            leastRecentlyUsed.next();
+            leastRecentlyUsed.remove();
+        }
+    }
+
+    // Returns true if the next page of the search (its cache key) should be prefetched now, by the click-through rate of
+    // the search's shape, the load of the delegates (the highest utilization of their bulkheads) and the prefetch budget.
+    // prefetchDone() must be called when it returns true
+    public boolean tryStart(String searchType, Map<String, Object> body, String nextKey, double delegatesLoad) {
+        if (!enabled || inFlight.containsKey(nextKey)) {
+            return false;
+        }
+        synchronized (this) {
+            if (getShapeRate(shape(searchType, body)).get() < minRate) {
+                skippedRate.incrementAndGet();
+                return false;
+            }
+        }
+        if (delegatesLoad > maxLoad) {
+            skippedLoad.incrementAndGet();
+            return false;
+        }
+        if (!budget.tryAcquire()) {
+            skippedBudget.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    // Keeps the prefetch of the page (its cache key) in flight, so a search for the page can wait for it
+    public <T> void prefetchStarted(String key, CompletableFuture<T> fanOut) {
+        prefetches.incrementAndGet();
+        inFlight.put(key, fanOut);
+    }
+
+    public void prefetchDone(String key, boolean stored) {
+        inFlight.remove(key);
+        budget.release();
+        if (stored) {
+            synchronized (this) {
+                prefetched.put(key, System.currentTimeMillis());
+                Iterator<Long> leastRecentlyUsed = prefetched.values().iterator();
+                while (prefetched.size() > MAX_RECENT_SEARCHES && leastRecentlyUsed.hasNext()) {
+                    leastRecentlyUsed.next();
+                    leastRecentlyUsed.remove();
+                }
+            }
+        }
+    }
+
+    // Returns the results of the prefetch of the page in flight, or null if it isn't prefetched. the results are given
+    // through a dependent future, so the search which waits for them can't cancel the prefetch
+    @SuppressWarnings("unchecked")
+    public <T> CompletableFuture<T> joinPrefetch(String key) {
+        CompletableFuture<T> fanOut = key == null ? null : (CompletableFuture<T>) inFlight.get(key);
+        if (fanOut == null) {
+            return null;
+        }
+        joined.incrementAndGet();
+        return fanOut.thenApply(new Function<T, T>() {
+            @Override
+            public T apply(T results) {
+                return results;
+            }
+        });
+    }
+
+    // the body of the next page of the search
+    public static Map<String, Object> nextPage(Map<String, Object> body) {
+        Map<String, Object> nextBody = new LinkedHashMap<String, Object>(body);
+        nextBody.put("start", getPage(body) + 1);
+        return nextBody;
+    }
+
+    private static int getPage(Map<String, Object> body) {
+        return body.get("start") != null ? Integer.parseInt(body.get("start").toString()) : 0;
+    }
+
+    private static Map<String, Object> withoutPaging(Map<String, Object> body) {
+        Map<String, Object> search = new TreeMap<String, Object>(body);
+        search.remove("start");
+        return search;
+    }
+
+    private static String shape(String searchType, Map<String, Object> body) {
+        Object filters = body.get("fq");
+        Object query = body.get("q");
+        return searchType + " rows=" + body.get("rows")
+                + " filters=" + (filters instanceof List ? ((List<?>) filters).size() : 0)
+                + " query=" + (query != null && !query.toString().trim().isEmpty() && !query.toString().trim().equals("*") ? "text" : "none");
+    }
+
+    // guarded by this
+    private ShapeRate getShapeRate(String shape) {
+        ShapeRate rate = shapes.get(shape);
+        if (rate == null) {
+            rate = new ShapeRate();
+            shapes.put(shape, rate);
+            Iterator<ShapeRate> leastRecentlyUsed = shapes.values().iterator();
+            while (shapes.size() > MAX_SHAPES && leastRecentlyUsed.hasNext()) {
+                leastRecentlyUsed.next();
+                leastRecentlyUsed.remove();
+            }
+        }
+        return rate;
+    }
+
+    private static class ServedPage {
+        final int page;
+        final long servedAt;
+
+        ServedPage(int page, long servedAt) {
+            this.page = page;
+            this.servedAt = servedAt;
+        }
+    }
+
+    // the served pages of a shape and how many of them were followed by their next page
+    private static class ShapeRate {
+        int served = 0;
+        int followed = 0;
+
+        // a new shape starts at a rate of 1/2, so its next pages are prefetched until its searches show otherwise
+        double get() {
+            return (followed + 1.0) / (served + 2.0);
+        }
+    }
+
+    @Override
+    public Object getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<String, Object>();
+        metrics.put("enabled", enabled);
+        metrics.put("prefetches", prefetches.get());
+        metrics.put("inFlight", inFlight.size());
+        metrics.put("used", used.get());
+        metrics.put("joined", joined.get());
+        metrics.put("skippedRate", skippedRate.get());
+        metrics.put("skippedLoad", skippedLoad.get());
+        metrics.put("skippedBudget", skippedBudget.get());
+        synchronized (this) {
+            Map<String, Object> rates = new TreeMap<String, Object>();
+            for (Map.Entry<String, ShapeRate> shape : shapes.entrySet()) {
+                rates.put(shape.getKey(), Math.round(1000.0 * shape.getValue().get()) / 1000.0);
+            }
+            metrics.put("clickThroughRates", rates);
+        }
+        return metrics;
+    }
+
+    private static int getIntEnv(String name, int defaultValue) {
+        try {
+            return Integer.parseInt(System.getenv(name));
+        } catch (Exception ex) {
+            return defaultValue;
+        }
+    }
+}
@@ -0,0 +1,313 @@
+package eu.nimble.service.delegate.indexing;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import eu.nimble.service.delegate.metrics.MetricsSource;
+
+/**
+ * Cache of the merged results of the federated searches, keyed by a fingerprint of the search body - the body with its
+ * map entries sorted, and the filter queries and facet fields in any order, so the same search from another page (or a
+ * refresh of the facets) gets the same key. The rows and the start of the page are part of the key.
+ * The results are kept off the heap as serialized json, in pages of a direct buffer which is allocated on the first
+ * search, so a large cache adds no work to the garbage collector. The least recently used results are evicted first.
+ *
+ * A result is served as is until its TTL, and then for the stale period while a single request refreshes it in the
+ * background (stale-while-revalidate). An older result is kept until the max stale age, and is served only instead of a
+ * degraded search - one which failed or timed out, or in which some of the delegates failed or timed out.
+ *
+ * DELEGATE_SEARCH_CACHE_MAX_MB - size of the off-heap buffer, 0 disables the cache (default 64)
+ * DELEGATE_SEARCH_CACHE_TTL_SEC - how long a result is served as is (default 30)
+ * DELEGATE_SEARCH_CACHE_STALE_SEC - how long an expired result is served while it's refreshed (default 120)
+ * DELEGATE_SEARCH_CACHE_MAX_STALE_SEC - how long an expired result is kept for degraded searches (default 900)
+ */
+public class SearchResultCache implements MetricsSource {
+    private static Logger logger = LogManager.getLogger(SearchResultCache.class);
+
+    // the search fields whose lists are sets, the order of their values doesn't change the results
+    private static final Set<String> UNORDERED_FIELDS = new HashSet<String>(Arrays.asList("fq", "field"));
+    private static final int PAGE_SIZE = 8 * 1024;
+    // a single result takes at most this share of the buffer
+    private static final int MAX_ENTRY_SHARE = 4;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final int pageCount;
+    private final long ttlMillis;
+    private final long staleMillis;
+    private final long maxStaleMillis;
+
+    private ByteBuffer buffer;
+    private int[] freePages;
+    private int freeCount;
+    // the cached results in the order of their last use, the data is in the buffer
+    private final LinkedHashMap<String, CachedResult> results = new LinkedHashMap<String, CachedResult>(16, 0.75f, true);
+    private final Set<String> refreshing = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong staleHits = new AtomicLong();
+    private final AtomicLong degradedHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong refreshes = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public SearchResultCache() {
+        long maxBytes = Math.max(0, Math.min(1024, getIntEnv("DELEGATE_SEARCH_CACHE_MAX_MB", 64))) * 1024L * 1024L;
+        pageCount = (int) (maxBytes / PAGE_SIZE);
+        ttlMillis = Math.max(0, getIntEnv("DELEGATE_SEARCH_CACHE_TTL_SEC", 30)) * 1000L;
+        staleMillis = Math.max(0, getIntEnv("DELEGATE_SEARCH_CACHE_STALE_SEC", 120)) * 1000L;
+        maxStaleMillis = Math.max(staleMillis, getIntEnv("DELEGATE_SEARCH_CACHE_MAX_STALE_SEC", 900) * 1000L);
+        if (isEnabled()) {
+            logger.info("the federated search results are cached off heap (" + maxBytes / (1024 * 1024) + " MB) for " + ttlMillis / 1000 + " seconds");
+        }
+    }
+
+    public boolean isEnabled() {
+        return pageCount > 0 && ttlMillis > 0;
+    }
+
+    // Returns the fingerprint of a search (item or party) by its body, or null if the body can't be serialized
+    public String fingerprint(String searchType, Map<String, Object> body) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] hash = digest.digest(mapper.writeValueAsBytes(canonical(null, body)));
+            StringBuilder key = new StringBuilder(searchType).append(':');
+            for (byte b : hash) {
+                key.append(String.format("%02x", b));
+            }
+            return key.toString();
+        } catch (JsonProcessingException | NoSuchAlgorithmException e) {
+            logger.warn("failed to fingerprint the search: " + e.getMessage());
+            return null;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Object canonical(String field, Object value) {
+        if (value instanceof Map) {
+            TreeMap<String, Object> sorted = new TreeMap<String, Object>();
+            for (Map.Entry<String, Object> entry : ((Map<String, Object>) value).entrySet()) {
+                sorted.put(entry.getKey(), canonical(entry.getKey(), entry.getValue()));
+            }
+            return sorted;
+        }
+        if (value instanceof List) {
+            List<Object> values = new ArrayList<Object>();
+            for (Object element : (List<Object>) value) {
+                values.add(canonical(null, element));
+            }
+            if (UNORDERED_FIELDS.contains(field)) {
+                Collections.sort(values, new Comparator<Object>() {
+                    @Override
+                    public int compare(Object first, Object second) {
+                        return String.valueOf(first).compareTo(String.valueOf(second));
+                    }
+                });
+            }
+            return values;
+        }
+        return value;
+    }
+
+    // Returns the cached result of the search (which may be stale), or null if there's none
+    public synchronized Lookup get(String key) {
+        if (!isEnabled() || key == null) {
+            return null;
+        }
+        CachedResult cached = results.get(key);
+        if (cached == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        long age = System.currentTimeMillis() - cached.storedAt;
+        if (age > ttlMillis + maxStaleMillis) {
+            remove(key, cached);
+            misses.incrementAndGet();
+            return null;
+        }
+        Lookup lookup = new Lookup(read(cached), age);
+        if (lookup.isFresh()) {
+            hits.incrementAndGet();
+        } else if (lookup.isRevalidated()) {
+            staleHits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+        return lookup;
+    }
+
+    // Returns true if a result of the search is cached and fresh, without counting a lookup
+    public synchronized boolean isFresh(String key) {
+        CachedResult cached = key == null ? null : results.get(key);
+        return cached != null && System.currentTimeMillis() - cached.storedAt <= ttlMillis;
+    }
+
+    // Keeps the result of the search
+    public synchronized void put(String key, byte[] json) {
+        if (!isEnabled() || key == null) {
+            return;
+        }
+        int needed = Math.max(1, (json.length + PAGE_SIZE - 1) / PAGE_SIZE);
+        if (needed > pageCount / MAX_ENTRY_SHARE) {
+            return;
+        }
+        if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect(pageCount * PAGE_SIZE);
+            freePages = new int[pageCount];
+            for (int i = 0; i < pageCount; i++) {
+                freePages[i] = pageCount - 1 - i;
+            }
+            freeCount = pageCount;
+        }
+        CachedResult previous = results.get(key);
+        if (previous != null) {
+            remove(key, previous);
+        }
+        Iterator<Map.Entry<String, CachedResult>> leastRecentlyUsed = results.entrySet().iterator();
+        while (freeCount < needed && leastRecentlyUsed.hasNext()) {
+            CachedResult evicted = leastRecentlyUsed.next().getValue();
+            leastRecentlyUsed.remove();
+            release(evicted);
+            evictions.incrementAndGet();
+        }
+        int[] pages = new int[needed];
+        for (int i = 0; i < needed; i++) {
+            pages[i] = freePages[--freeCount];
+            ByteBuffer page = buffer.duplicate();
+            // positioned as a Buffer, since ByteBuffer.position(int) isn't in the java 8 runtime
+            ((Buffer) page).position(pages[i] * PAGE_SIZE);
+            page.put(json, i * PAGE_SIZE, Math.min(PAGE_SIZE, json.length - i * PAGE_SIZE));
+        }
+        results.put(key, new CachedResult(pages, json.length, System.currentTimeMillis()));
+    }
+
+    // Returns true if the caller should refresh the stale result, a single request refreshes it
+    public boolean startRefresh(String key) {
+        if (refreshing.add(key)) {
+            refreshes.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    public void refreshDone(String key) {
+        refreshing.remove(key);
+    }
+
+    // called when a stale result is served instead of a degraded search
+    public void degradedHit() {
+        degradedHits.incrementAndGet();
+    }
+
+    private byte[] read(CachedResult cached) {
+        byte[] json = new byte[cached.length];
+        for (int i = 0; i < cached.pages.length; i++) {
+            ByteBuffer page = buffer.duplicate();
+            ((Buffer) page).position(cached.pages[i] * PAGE_SIZE);
+            page.get(json, i * PAGE_SIZE, Math.min(PAGE_SIZE, cached.length - i * PAGE_SIZE));
+        }
+        return json;
+    }
+
+    private void remove(String key, CachedResult cached) {
+        results.remove(key);
+        release(cached);
+    }
+
+    private void release(CachedResult cached) {
+        for (int page : cached.pages) {
+            freePages[freeCount++] = page;
+        }
+    }
+
+    // a cached result of a search, as read from the buffer
+    public class Lookup {
+        private final byte[] json;
+        private final long ageMillis;
+
+        Lookup(byte[] json, long ageMillis) {
+            this.json = json;
+            this.ageMillis = ageMillis;
+        }
+
+        public byte[] getJson() {
+            return json;
+        }
+
+        public long getAgeMillis() {
+            return ageMillis;
+        }
+
+        public boolean isFresh() {
+            return ageMillis <= ttlMillis;
+        }
+
+        // an expired result which is served while it's refreshed
+        public boolean isRevalidated() {
+            return ageMillis <= ttlMillis + staleMillis;
+        }
+    }
+
+    private static class CachedResult {
+        final int[] pages;
+        final int length;
+        final long storedAt;
+
+        CachedResult(int[] pages, int length, long storedAt) {
+            this.pages = pages;
+            this.length = length;
+            this.storedAt = storedAt;
+        }
+    }
+
+    @Override
+    public Object getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<String, Object>();
+        metrics.put("enabled", isEnabled());
+        long hitCount = hits.get();
+        long staleCount = staleHits.get();
+        long missCount = misses.get();
+        long lookups = hitCount + staleCount + missCount;
+        metrics.put("hits", hitCount);
+        metrics.put("staleHits", staleCount);
+        metrics.put("degradedHits", degradedHits.get());
+        metrics.put("misses", missCount);
+        metrics.put("hitRate", lookups == 0 ? 0 : Math.round(1000.0 * (hitCount + staleCount) / lookups) / 1000.0);
+        metrics.put("refreshes", refreshes.get());
+        metrics.put("evictions", evictions.get());
+        synchronized (this) {
+            metrics.put("results", results.size());
+            metrics.put("offHeapBytes", buffer == null ? 0 : (long) buffer.capacity());
+            metrics.put("usedBytes", buffer == null ? 0 : (long) (pageCount - freeCount) * PAGE_SIZE);
+        }
+        return metrics;
+    }
+
+    private static int getIntEnv(String name, int defaultValue) {
+        try {
+            return Integer.parseInt(System.getenv(name));
+        } catch (Exception ex) {
+            return defaultValue;
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package eu.nimble.service.delegate.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Metrics registry - every component registers its metrics source under a name,
+ * and the metrics API returns a snapshot of all the sources.
+ */
+public class Metrics {
+    private static Logger logger = LogManager.getLogger(Metrics.class);
+
+    private static final Map<String, MetricsSource> sources = new ConcurrentSkipListMap<String, MetricsSource>();
+
+    public static void register(String name, MetricsSource source) {
+        sources.put(name, source);
+    }
+
+    public static Map<String, Object> snapshot() {
+        Map<String, Object> snapshot = new TreeMap<String, Object>();
+        for (Map.Entry<String, MetricsSource> source : sources.entrySet()) {
+            try {
+                snapshot.put(source.getKey(), source.getValue().getMetrics());
+            } catch (Exception e) {
+                logger.error("Failed to get the metrics of " + source.getKey(), e);
+            }
+        }
+        return snapshot;
+    }
+}
@@ -0,0 +1,9 @@
+package eu.nimble.service.delegate.metrics;
+
+/**
+ * A component which exposes its metrics in the metrics API.
+ * The returned object is serialized to json, so it should consist of maps, lists and simple values.
+ */
+public interface MetricsSource {
+    Object getMetrics();
+}
@@ -0,0 +1,112 @@
+package eu.nimble.service.delegate.resilience;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Adaptive concurrency limit (gradient algorithm) - the limit of concurrent requests follows the ratio between the
+ * long term latency and the recent latency. While the recent latency is close to the long term one the limit grows
+ * by about its square root, and when requests start queueing (the recent latency grows) the limit shrinks down to
+ * half, so the accepted load is kept around what can be served without queueing and the extra requests are rejected
+ * right away instead of waiting.
+ */
+public class AdaptiveConcurrencyLimit {
+    // latencies up to twice the long term latency are considered normal
+    private static final double TOLERANCE = 2.0;
+    // weight of a new limit, so the limit doesn't swing on a single window
+    private static final double SMOOTHING = 0.2;
+    // number of samples in a short term latency window
+    private static final int WINDOW_SAMPLES = 10;
+    // number of windows in the long term latency average
+    private static final int LONG_WINDOWS = 60;
+
+    private final String name;
+    private final int minLimit;
+    private final int maxLimit;
+    private final AtomicInteger inflight = new AtomicInteger();
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    private volatile double limit;
+    // guarded by this
+    private double longRttMillis = 0;
+    private double shortRttMillis = 0;
+    private long windowSumNanos = 0;
+    private int windowCount = 0;
+    private int windowMaxInflight = 0;
+
+    public AdaptiveConcurrencyLimit(String name, int initialLimit, int minLimit, int maxLimit) {
+        this.name = name;
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.limit = Math.max(this.minLimit, Math.min(this.maxLimit, initialLimit));
+    }
+
+    // Returns true if the request may be processed, in which case release() must be called when it's done
+    public boolean tryAcquire() {
+        if (inflight.incrementAndGet() > (int) limit) {
+            inflight.decrementAndGet();
+            rejected.incrementAndGet();
+            return false;
+        }
+        accepted.incrementAndGet();
+        return true;
+    }
+
+    // latency of the request which was admitted by tryAcquire()
+    public void release(long latencyNanos) {
+        int current = inflight.getAndDecrement();
+        sample(latencyNanos, current);
+    }
+
+    private synchronized void sample(long latencyNanos, int inflightAtEnd) {
+        windowSumNanos += latencyNanos;
+        windowCount++;
+        windowMaxInflight = Math.max(windowMaxInflight, inflightAtEnd);
+        if (windowCount < WINDOW_SAMPLES) {
+            return;
+        }
+        shortRttMillis = windowSumNanos / (double) windowCount / 1000000.0;
+        int maxInflight = windowMaxInflight;
+        windowSumNanos = 0;
+        windowCount = 0;
+        windowMaxInflight = 0;
+
+        if (longRttMillis == 0) {
+            longRttMillis = shortRttMillis;
+        }
+        else {
+            longRttMillis += (shortRttMillis - longRttMillis) / LONG_WINDOWS;
+        }
+        // after a long overload the long term latency is inflated, let it recover faster
+        if (longRttMillis > shortRttMillis * 2) {
+            longRttMillis *= 0.95;
+        }
+        double gradient = Math.max(0.5, Math.min(1.0, TOLERANCE * longRttMillis / Math.max(shortRttMillis, 0.001)));
+        double current = limit;
+        // a limit which is far from being used says nothing about the capacity, so it's not grown
+        if (gradient >= 1.0 && maxInflight < current / 2) {
+            return;
+        }
+        double newLimit = current * gradient + Math.sqrt(current);
+        newLimit = current * (1 - SMOOTHING) + newLimit * SMOOTHING;
+        limit = Math.max(minLimit, Math.min(maxLimit, newLimit));
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public synchronized Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<String, Object>();
+        metrics.put("limit", (int) limit);
+        metrics.put("inflight", inflight.get());
+        metrics.put("accepted", accepted.get());
+        metrics.put("rejected", rejected.get());
+        metrics.put("shortRttMs", Math.round(shortRttMillis));
+        metrics.put("longRttMs", Math.round(longRttMillis));
+        return metrics;
+    }
+}
@@ -0,0 +1,132 @@
+package eu.nimble.service.delegate.resilience;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import eu.nimble.service.delegate.metrics.MetricsSource;
+
+/**
+ * Adaptive timeouts - keeps a rolling latency histogram per (target, route) and derives the timeout of the next call
+ * from a latency percentile times a multiplier, bounded by floor and ceiling values.
+ * Until there are enough samples, the ceiling is used.
+ *
+ * The configuration is read from env vars with the given prefix:
+ * PREFIX_PERCENTILE, PREFIX_MULTIPLIER, PREFIX_FLOOR_MS, PREFIX_CEILING_MS, PREFIX_MIN_SAMPLES
+ */
+public class AdaptiveTimeouts implements MetricsSource {
+    private static Logger logger = LogManager.getLogger(AdaptiveTimeouts.class);
+
+    private final double percentile;
+    private final double multiplier;
+    private final long floorMillis;
+    private final long ceilingMillis;
+    private final long minSamples;
+
+    private final ConcurrentHashMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<String, LatencyHistogram>();
+
+    public AdaptiveTimeouts(String envPrefix, long defaultCeilingMillis) {
+        percentile = getDoubleEnv(envPrefix + "_PERCENTILE", 99);
+        multiplier = getDoubleEnv(envPrefix + "_MULTIPLIER", 2);
+        ceilingMillis = (long) getDoubleEnv(envPrefix + "_CEILING_MS", defaultCeilingMillis);
+        floorMillis = Math.min(ceilingMillis, (long) getDoubleEnv(envPrefix + "_FLOOR_MS", 500));
+        minSamples = (long) getDoubleEnv(envPrefix + "_MIN_SAMPLES", 20);
+        logger.info(envPrefix + " adaptive timeouts: p" + percentile + " x " + multiplier + " within [" + floorMillis + ", " + ceilingMillis + "] ms");
+    }
+
+    public long getTimeoutMillis(String target, String route) {
+        LatencyHistogram histogram = histograms.get(key(target, route));
+        return histogram == null ? ceilingMillis : computeTimeout(histogram);
+    }
+
+    // Returns the latency of the given percentile of the (target, route), or -1 if there are not enough samples yet
+    public long getPercentileMillis(String target, String route, double percentile) {
+        LatencyHistogram histogram = histograms.get(key(target, route));
+        if (histogram == null || histogram.getCount() < minSamples) {
+            return -1;
+        }
+        return histogram.getPercentile(percentile);
+    }
+
+    // a call which timed out should be recorded with the timeout as its latency, so the timeout can grow back
+    public void record(String target, String route, long latencyMillis) {
+        String key = key(target, route);
+        LatencyHistogram histogram = histograms.get(key);
+        if (histogram == null) {
+            LatencyHistogram created = new LatencyHistogram();
+            histogram = histograms.putIfAbsent(key, created);
+            if (histogram == null) {
+                histogram = created;
+            }
+        }
+        histogram.record(latencyMillis);
+    }
+
+    private long computeTimeout(LatencyHistogram histogram) {
+        if (histogram.getCount() < minSamples) {
+            return ceilingMillis;
+        }
+        long timeout = (long) (histogram.getPercentile(percentile) * multiplier);
+        return Math.max(floorMillis, Math.min(ceilingMillis, timeout));
+    }
+
+    // ids in the path (uuids, numbers) are replaced with *, so the calls of the same api share a histogram
+    public static String normalizeRoute(String path) {
+        if (path == null) {
+            return "";
+        }
+        int queryStart = path.indexOf('?');
+        if (queryStart >= 0) {
+            path = path.substring(0, queryStart);
+        }
+        StringBuilder route = new StringBuilder();
+        for (String segment : path.split("/")) {
+            if (segment.isEmpty()) {
+                continue;
+            }
+            route.append('/').append(isId(segment) ? "*" : segment);
+        }
+        return route.length() == 0 ? "/" : route.toString();
+    }
+
+    private static boolean isId(String segment) {
+        for (int i = 0; i < segment.length(); i++) {
+            if (Character.isDigit(segment.charAt(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String key(String target, String route) {
+        return target + " " + route;
+    }
+
+    @Override
+    public Object getMetrics() {
+        Map<String, Object> metrics = new TreeMap<String, Object>();
+        for (Map.Entry<String, LatencyHistogram> entry : histograms.entrySet()) {
+            LatencyHistogram histogram = entry.getValue();
+            Map<String, Object> routeMetrics = new LinkedHashMap<String, Object>();
+            routeMetrics.put("count", histogram.getCount());
+            routeMetrics.put("p50", histogram.getPercentile(50));
+            routeMetrics.put("p95", histogram.getPercentile(95));
+            routeMetrics.put("p99", histogram.getPercentile(99));
+            routeMetrics.put("timeoutMs", computeTimeout(histogram));
+            metrics.put(entry.getKey(), routeMetrics);
+        }
+        return metrics;
+    }
+
+    private static double getDoubleEnv(String name, double defaultValue) {
+        try {
+            return Double.parseDouble(System.getenv(name));
+        } catch (Exception ex) {
+            return defaultValue;
+        }
+    }
+}
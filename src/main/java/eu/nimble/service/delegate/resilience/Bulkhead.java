@@ -0,0 +1,98 @@
+package eu.nimble.service.delegate.resilience;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits the concurrent calls to a single dependency (a delegate or a local backend service), so a slow dependency
+ * can hold at most its own permits and not the threads which the other dependencies need.
+ * A call which finds no free permit waits in a bounded queue for up to the max wait, and is rejected when the queue
+ * is full or the wait is over (a queue limit of 0 rejects immediately).
+ */
+public class Bulkhead {
+    private final String name;
+    private final int maxConcurrent;
+    private final int maxQueue;
+    private final long maxWaitMillis;
+    private final Semaphore permits;
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final AtomicInteger peakActive = new AtomicInteger();
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    Bulkhead(String name, int maxConcurrent, int maxQueue, long maxWaitMillis) {
+        this.name = name;
+        this.maxConcurrent = maxConcurrent;
+        this.maxQueue = maxQueue;
+        this.maxWaitMillis = maxWaitMillis;
+        this.permits = new Semaphore(maxConcurrent, true);
+    }
+
+    // Returns true if the call may proceed, in which case release() must be called when it's done
+    public boolean tryAcquire() {
+        if (permits.tryAcquire()) {
+            return accept();
+        }
+        if (waiting.incrementAndGet() > maxQueue) {
+            waiting.decrementAndGet();
+            rejected.incrementAndGet();
+            return false;
+        }
+        try {
+            if (permits.tryAcquire(maxWaitMillis, TimeUnit.MILLISECONDS)) {
+                return accept();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            waiting.decrementAndGet();
+        }
+        rejected.incrementAndGet();
+        return false;
+    }
+
+    public void release() {
+        permits.release();
+    }
+
+    private boolean accept() {
+        accepted.incrementAndGet();
+        int active = getActive();
+        int peak = peakActive.get();
+        while (active > peak && !peakActive.compareAndSet(peak, active)) {
+            peak = peakActive.get();
+        }
+        return true;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getActive() {
+        return maxConcurrent - permits.availablePermits();
+    }
+
+    // the share of the permits which are held
+    public double getUtilization() {
+        return (double) getActive() / maxConcurrent;
+    }
+
+    Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<String, Object>();
+        int active = getActive();
+        metrics.put("maxConcurrent", maxConcurrent);
+        metrics.put("active", active);
+        metrics.put("peakActive", peakActive.get());
+        metrics.put("saturationPercent", maxConcurrent == 0 ? 100 : active * 100 / maxConcurrent);
+        metrics.put("waiting", waiting.get());
+        metrics.put("maxQueue", maxQueue);
+        metrics.put("accepted", accepted.get());
+        metrics.put("rejected", rejected.get());
+        return metrics;
+    }
+}
@@ -0,0 +1,77 @@
+package eu.nimble.service.delegate.resilience;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import eu.nimble.service.delegate.metrics.MetricsSource;
+
+/**
+ * Holds a bulkhead per dependency of one kind (delegates or local backend services).
+ * The limits are read from env vars, DELEGATE_BULKHEAD_<KIND>_MAX_CONCURRENT, _MAX_QUEUE and _MAX_WAIT_MS apply to all
+ * the dependencies of the kind, and can be overridden for a single dependency by DELEGATE_BULKHEAD_<NAME>_ env vars
+ * (e.g. DELEGATE_BULKHEAD_INDEXING_MAX_CONCURRENT).
+ */
+public class BulkheadRegistry implements MetricsSource {
+    private static Logger logger = LogManager.getLogger(BulkheadRegistry.class);
+
+    private static final String ENV_PREFIX = "DELEGATE_BULKHEAD_";
+
+    private final int defaultMaxConcurrent;
+    private final int defaultMaxQueue;
+    private final long defaultMaxWaitMillis;
+    private final ConcurrentHashMap<String, Bulkhead> bulkheads = new ConcurrentHashMap<String, Bulkhead>();
+
+    public BulkheadRegistry(String kind, int maxConcurrent, int maxQueue, long maxWaitMillis) {
+        String prefix = ENV_PREFIX + envName(kind);
+        this.defaultMaxConcurrent = getIntEnv(prefix + "_MAX_CONCURRENT", maxConcurrent);
+        this.defaultMaxQueue = getIntEnv(prefix + "_MAX_QUEUE", maxQueue);
+        this.defaultMaxWaitMillis = getIntEnv(prefix + "_MAX_WAIT_MS", (int) maxWaitMillis);
+        logger.info(kind + " bulkheads: " + defaultMaxConcurrent + " concurrent calls, " + defaultMaxQueue + " queued calls, " + defaultMaxWaitMillis + " ms max wait");
+    }
+
+    public Bulkhead get(String name) {
+        Bulkhead bulkhead = bulkheads.get(name);
+        if (bulkhead == null) {
+            Bulkhead created = create(name);
+            bulkhead = bulkheads.putIfAbsent(name, created);
+            if (bulkhead == null) {
+                bulkhead = created;
+            }
+        }
+        return bulkhead;
+    }
+
+    private Bulkhead create(String name) {
+        String prefix = ENV_PREFIX + envName(name);
+        return new Bulkhead(name,
+                Math.max(1, getIntEnv(prefix + "_MAX_CONCURRENT", defaultMaxConcurrent)),
+                Math.max(0, getIntEnv(prefix + "_MAX_QUEUE", defaultMaxQueue)),
+                Math.max(0, getIntEnv(prefix + "_MAX_WAIT_MS", (int) defaultMaxWaitMillis)));
+    }
+
+    // e.g. business-process -> BUSINESS_PROCESS
+    private static String envName(String name) {
+        return name.toUpperCase().replaceAll("[^A-Z0-9]", "_");
+    }
+
+    @Override
+    public Object getMetrics() {
+        Map<String, Object> metrics = new TreeMap<String, Object>();
+        for (Bulkhead bulkhead : bulkheads.values()) {
+            metrics.put(bulkhead.getName(), bulkhead.getMetrics());
+        }
+        return metrics;
+    }
+
+    private static int getIntEnv(String name, int defaultValue) {
+        try {
+            return Integer.parseInt(System.getenv(name));
+        } catch (Exception ex) {
+            return defaultValue;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package eu.nimble.service.delegate.resilience;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Circuit breaker of a single delegate.
+ * The outcomes of the latest calls are kept in a fixed size window. Once the window has enough calls and the rate of
+ * failed (or too slow) calls reaches the threshold, the breaker opens and the delegate is skipped. After the open period,
+ * a single trial call is let through (half open): a success closes the breaker, a failure opens it again.
+ */
+public class CircuitBreaker {
+    private static Logger logger = LogManager.getLogger(CircuitBreaker.class);
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final String name;
+    private final CircuitBreakerRegistry.Config config;
+
+    private State state = State.CLOSED;
+    private long openedAt;
+    private boolean trialInFlight = false;
+    // ring buffer of the latest call outcomes, true for a failure
+    private final boolean[] window;
+    private int windowIndex = 0;
+    private int windowCount = 0;
+    private int windowFailures = 0;
+
+    CircuitBreaker(String name, CircuitBreakerRegistry.Config config) {
+        this.name = name;
+        this.config = config;
+        this.window = new boolean[config.windowSize];
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public synchronized State getState() {
+        if (state == State.OPEN && System.currentTimeMillis() - openedAt >= config.openMillis) {
+            return State.HALF_OPEN;
+        }
+        return state;
+    }
+
+    // Returns true if a call to the delegate is allowed. in half open state, only a single trial call is allowed at a time
+    public synchronized boolean allowRequest() {
+        if (state == State.OPEN && System.currentTimeMillis() - openedAt >= config.openMillis) {
+            state = State.HALF_OPEN;
+            trialInFlight = false;
+        }
+        switch (state) {
+            case CLOSED:
+                return true;
+            case HALF_OPEN:
+                if (trialInFlight) {
+                    return false;
+                }
+                trialInFlight = true;
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    // a call which took longer than the slow call threshold counts as a failure
+    public synchronized void record(long latencyMillis, boolean success) {
+        boolean failure = !success || latencyMillis >= config.slowCallMillis;
+        if (state == State.HALF_OPEN) {
+            trialInFlight = false;
+            if (failure) {
+                open();
+            }
+            else {
+                close();
+            }
+            return;
+        }
+        if (state == State.OPEN) {
+            // late responses of calls sent before the breaker opened
+            return;
+        }
+        if (windowCount == window.length) {
+            if (window[windowIndex]) {
+                windowFailures--;
+            }
+        }
+        else {
+            windowCount++;
+        }
+        window[windowIndex] = failure;
+        if (failure) {
+            windowFailures++;
+        }
+        windowIndex = (windowIndex + 1) % window.length;
+
+        if (windowCount >= config.minimumCalls && windowFailures * 100 >= config.failureRatePercent * windowCount) {
+            open();
+        }
+    }
+
+    // a successful health probe of an open breaker lets the trial call through without waiting for the open period
+    public synchronized void probeSucceeded() {
+        if (state == State.OPEN) {
+            state = State.HALF_OPEN;
+            trialInFlight = false;
+        }
+    }
+
+    // a failed health probe counts as a failed call, so a delegate without traffic is still detected as down
+    public void probeFailed() {
+        record(0, false);
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openedAt = System.currentTimeMillis();
+        logger.warn("circuit breaker of delegate " + name + " is open, skipping it for " + config.openMillis + " ms");
+    }
+
+    private void close() {
+        state = State.CLOSED;
+        windowIndex = 0;
+        windowCount = 0;
+        windowFailures = 0;
+        logger.info("circuit breaker of delegate " + name + " is closed");
+    }
+}
@@ -0,0 +1,79 @@
+package eu.nimble.service.delegate.resilience;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import eu.nimble.service.delegate.metrics.MetricsSource;
+
+/**
+ * Holds a circuit breaker per delegate (app name), all the replicas of a delegate share its breaker.
+ */
+public class CircuitBreakerRegistry implements MetricsSource {
+    private static Logger logger = LogManager.getLogger(CircuitBreakerRegistry.class);
+
+    private static String FAILURE_RATE_PERCENT = "DELEGATE_CIRCUIT_BREAKER_FAILURE_RATE";
+    private static String SLOW_CALL_MS = "DELEGATE_CIRCUIT_BREAKER_SLOW_CALL_MS";
+    private static String OPEN_SEC = "DELEGATE_CIRCUIT_BREAKER_OPEN_SEC";
+    private static String WINDOW_SIZE = "DELEGATE_CIRCUIT_BREAKER_WINDOW";
+    private static String MINIMUM_CALLS = "DELEGATE_CIRCUIT_BREAKER_MIN_CALLS";
+
+    private final Config config;
+    private final ConcurrentHashMap<String, CircuitBreaker> breakers = new ConcurrentHashMap<String, CircuitBreaker>();
+
+    public CircuitBreakerRegistry() {
+        config = new Config();
+        config.failureRatePercent = getIntEnv(FAILURE_RATE_PERCENT, 50);
+        config.slowCallMillis = getIntEnv(SLOW_CALL_MS, 10000);
+        config.openMillis = getIntEnv(OPEN_SEC, 30) * 1000L;
+        config.windowSize = Math.max(1, getIntEnv(WINDOW_SIZE, 20));
+        config.minimumCalls = Math.min(config.windowSize, getIntEnv(MINIMUM_CALLS, 5));
+        logger.info("circuit breakers are initialized with failure rate = " + config.failureRatePercent + "%, slow call = " + config.slowCallMillis +
+                " ms, open period = " + config.openMillis + " ms, window = " + config.windowSize + " calls");
+    }
+
+    public CircuitBreaker get(String delegateId) {
+        CircuitBreaker breaker = breakers.get(delegateId);
+        if (breaker == null) {
+            CircuitBreaker created = new CircuitBreaker(delegateId, config);
+            breaker = breakers.putIfAbsent(delegateId, created);
+            if (breaker == null) {
+                breaker = created;
+            }
+        }
+        return breaker;
+    }
+
+    // current state of every breaker, by delegate id
+    public Map<String, CircuitBreaker.State> getStates() {
+        Map<String, CircuitBreaker.State> states = new TreeMap<String, CircuitBreaker.State>();
+        for (CircuitBreaker breaker : breakers.values()) {
+            states.put(breaker.getName(), breaker.getState());
+        }
+        return states;
+    }
+
+    @Override
+    public Object getMetrics() {
+        return getStates();
+    }
+
+    private static int getIntEnv(String name, int defaultValue) {
+        try {
+            return Integer.parseInt(System.getenv(name));
+        } catch (Exception ex) {
+            return defaultValue;
+        }
+    }
+
+    static class Config {
+        int failureRatePercent;
+        long slowCallMillis;
+        long openMillis;
+        int windowSize;
+        int minimumCalls;
+    }
+}
@@ -0,0 +1,251 @@
+package eu.nimble.service.delegate.resilience;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import eu.nimble.service.delegate.metrics.MetricsSource;
+
+/**
+ * Schedules the inbound (federated) requests over a fixed number of processing slots, by priority lanes and by tenants.
+ * A free slot goes to the interactive lane first, then to the background lane and then to the bulk lane, so a search
+ * never waits behind an export, and the bulk lane may hold only part of the slots so exports can't take all of them.
+ * Within a lane, the tenants (federation ids) are served round robin by their weights, so a tenant with many
+ * queued requests doesn't delay the requests of the others. A request which waits longer than its lane's max wait
+ * is rejected.
+ *
+ * DELEGATE_LANES_MAX_CONCURRENT - processing slots, the scheduling is disabled unless it's set
+ * DELEGATE_LANES_BULK_MAX_CONCURRENT - slots which the bulk lane may hold (default a quarter of the slots)
+ * DELEGATE_LANES_<LANE>_MAX_WAIT_MS - max wait in the lane (defaults 5000, 10000 and 30000)
+ * DELEGATE_LANES_TENANT_WEIGHTS - weights of the tenants, e.g. 1234=2,5678=3 (default 1)
+ */
+public class FairScheduler implements MetricsSource {
+    private static Logger logger = LogManager.getLogger(FairScheduler.class);
+
+    // in priority order
+    public enum Lane { INTERACTIVE, BACKGROUND, BULK }
+
+    private final int maxConcurrent;
+    private final int bulkMaxConcurrent;
+    private final Map<String, Integer> tenantWeights = new HashMap<String, Integer>();
+    private final Map<Lane, LaneQueue> lanes = new LinkedHashMap<Lane, LaneQueue>();
+    // guarded by this
+    private int busy = 0;
+
+    public FairScheduler() {
+        maxConcurrent = getIntEnv("DELEGATE_LANES_MAX_CONCURRENT", 0);
+        bulkMaxConcurrent = Math.max(1, getIntEnv("DELEGATE_LANES_BULK_MAX_CONCURRENT", maxConcurrent / 4));
+        lanes.put(Lane.INTERACTIVE, new LaneQueue(getIntEnv("DELEGATE_LANES_INTERACTIVE_MAX_WAIT_MS", 5000)));
+        lanes.put(Lane.BACKGROUND, new LaneQueue(getIntEnv("DELEGATE_LANES_BACKGROUND_MAX_WAIT_MS", 10000)));
+        lanes.put(Lane.BULK, new LaneQueue(getIntEnv("DELEGATE_LANES_BULK_MAX_WAIT_MS", 30000)));
+        String weights = System.getenv("DELEGATE_LANES_TENANT_WEIGHTS");
+        if (weights != null) {
+            for (String weight : weights.split(",")) {
+                String[] parts = weight.trim().split("=");
+                try {
+                    tenantWeights.put(parts[0].trim(), Math.max(1, Integer.parseInt(parts[1].trim())));
+                } catch (Exception e) {
+                    logger.error("invalid tenant weight: " + weight);
+                }
+            }
+        }
+        if (isEnabled()) {
+            logger.info("inbound requests are scheduled over " + maxConcurrent + " slots, bulk requests may hold " + bulkMaxConcurrent);
+        }
+    }
+
+    public boolean isEnabled() {
+        return maxConcurrent > 0;
+    }
+
+    // Waits for a processing slot, returns false if the max wait of the lane is over.
+    // release() must be called when a slot was acquired
+    public boolean acquire(Lane lane, String tenant) {
+        LaneQueue queue = lanes.get(lane);
+        Ticket ticket = new Ticket();
+        synchronized (this) {
+            if (canStartNow(lane)) {
+                start(lane);
+                queue.waits.record(0);
+                return true;
+            }
+            queue.add(tenant, ticket, getTenantWeight(tenant));
+        }
+        try {
+            ticket.latch.await(queue.maxWaitMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        boolean granted;
+        synchronized (this) {
+            // the slot may be granted right after the wait is over
+            granted = ticket.granted;
+            if (!granted) {
+                queue.remove(tenant, ticket);
+                queue.rejected++;
+            }
+        }
+        queue.waits.record((System.nanoTime() - ticket.createdNanos) / 1000000L);
+        return granted;
+    }
+
+    public synchronized void release(Lane lane) {
+        busy--;
+        lanes.get(lane).active--;
+        dispatch();
+    }
+
+    // a request starts right away only if no request of the same or a higher priority is waiting
+    private boolean canStartNow(Lane lane) {
+        if (busy >= maxConcurrent || !isLaneAllowed(lane)) {
+            return false;
+        }
+        for (Map.Entry<Lane, LaneQueue> entry : lanes.entrySet()) {
+            if (entry.getKey().ordinal() > lane.ordinal()) {
+                break;
+            }
+            if (entry.getValue().depth > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean isLaneAllowed(Lane lane) {
+        return lane != Lane.BULK || lanes.get(Lane.BULK).active < bulkMaxConcurrent;
+    }
+
+    private void start(Lane lane) {
+        busy++;
+        lanes.get(lane).active++;
+    }
+
+    // hands the free slots to the waiting requests by priority
+    private void dispatch() {
+        for (Map.Entry<Lane, LaneQueue> entry : lanes.entrySet()) {
+            LaneQueue queue = entry.getValue();
+            while (busy < maxConcurrent && queue.depth > 0 && isLaneAllowed(entry.getKey())) {
+                Ticket ticket = queue.next();
+                start(entry.getKey());
+                ticket.granted = true;
+                ticket.latch.countDown();
+            }
+        }
+    }
+
+    private int getTenantWeight(String tenant) {
+        Integer weight = tenantWeights.get(tenant);
+        return weight == null ? 1 : weight;
+    }
+
+    @Override
+    public synchronized Object getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<String, Object>();
+        metrics.put("enabled", isEnabled());
+        metrics.put("maxConcurrent", maxConcurrent);
+        metrics.put("busy", busy);
+        for (Map.Entry<Lane, LaneQueue> entry : lanes.entrySet()) {
+            LaneQueue queue = entry.getValue();
+            Map<String, Object> laneMetrics = new LinkedHashMap<String, Object>();
+            laneMetrics.put("active", queue.active);
+            laneMetrics.put("queueDepth", queue.depth);
+            laneMetrics.put("waitingTenants", queue.rotation.size());
+            laneMetrics.put("waitP50Ms", queue.waits.getPercentile(50));
+            laneMetrics.put("waitP99Ms", queue.waits.getPercentile(99));
+            laneMetrics.put("rejected", queue.rejected);
+            metrics.put(entry.getKey().name().toLowerCase(), laneMetrics);
+        }
+        return metrics;
+    }
+
+    private static int getIntEnv(String name, int defaultValue) {
+        try {
+            return Integer.parseInt(System.getenv(name));
+        } catch (Exception ex) {
+            return defaultValue;
+        }
+    }
+
+    private static class Ticket {
+        private final CountDownLatch latch = new CountDownLatch(1);
+        private final long createdNanos = System.nanoTime();
+        // guarded by the scheduler
+        private boolean granted = false;
+    }
+
+    // queues of the waiting requests of a lane, by tenant (guarded by the scheduler)
+    private static class LaneQueue {
+        private final long maxWaitMillis;
+        private final Map<String, ArrayDeque<Ticket>> queues = new HashMap<String, ArrayDeque<Ticket>>();
+        // tenants with waiting requests, in their serving order
+        private final ArrayDeque<String> rotation = new ArrayDeque<String>();
+        // requests which the tenant at the head of the rotation may still take in its turn
+        private final Map<String, Integer> credits = new HashMap<String, Integer>();
+        private final Map<String, Integer> weights = new HashMap<String, Integer>();
+        private final LatencyHistogram waits = new LatencyHistogram();
+        private int depth = 0;
+        private int active = 0;
+        private long rejected = 0;
+
+        private LaneQueue(long maxWaitMillis) {
+            this.maxWaitMillis = maxWaitMillis;
+        }
+
+        private void add(String tenant, Ticket ticket, int weight) {
+            ArrayDeque<Ticket> queue = queues.get(tenant);
+            if (queue == null) {
+                queue = new ArrayDeque<Ticket>();
+                queues.put(tenant, queue);
+                rotation.addLast(tenant);
+                credits.put(tenant, weight);
+                weights.put(tenant, weight);
+            }
+            queue.addLast(ticket);
+            depth++;
+        }
+
+        private void remove(String tenant, Ticket ticket) {
+            ArrayDeque<Ticket> queue = queues.get(tenant);
+            if (queue == null || !queue.remove(ticket)) {
+                return;
+            }
+            depth--;
+            if (queue.isEmpty()) {
+                removeTenant(tenant);
+            }
+        }
+
+        // weighted round robin - the tenant at the head takes up to its weight requests, then moves to the back
+        private Ticket next() {
+            String tenant = rotation.peekFirst();
+            ArrayDeque<Ticket> queue = queues.get(tenant);
+            Ticket ticket = queue.pollFirst();
+            depth--;
+            int credit = credits.get(tenant) - 1;
+            if (queue.isEmpty()) {
+                removeTenant(tenant);
+            }
+            else if (credit <= 0) {
+                rotation.addLast(rotation.pollFirst());
+                credits.put(tenant, weights.get(tenant));
+            }
+            else {
+                credits.put(tenant, credit);
+            }
+            return ticket;
+        }
+
+        private void removeTenant(String tenant) {
+            queues.remove(tenant);
+            rotation.remove(tenant);
+            credits.remove(tenant);
+            weights.remove(tenant);
+        }
+    }
+}
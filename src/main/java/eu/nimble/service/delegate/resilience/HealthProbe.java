@@ -0,0 +1,113 @@
+package eu.nimble.service.delegate.resilience;
+
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.InvocationCallback;
+import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.Response;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.glassfish.jersey.client.ClientProperties;
+
+import eu.nimble.service.delegate.discovery.DiscoveryHandler;
+import eu.nimble.service.delegate.discovery.ServiceEndpoint;
+
+/**
+ * Optional active health probes - periodically sends a lightweight GET (the hello API) to every delegate
+ * and reports the outcome to its circuit breaker, so a down delegate is detected even without traffic
+ * and a recovered one is retried without waiting for the whole open period.
+ */
+public class HealthProbe {
+    private static Logger logger = LogManager.getLogger(HealthProbe.class);
+
+    private static String PROBE_INTERVAL_SEC = "DELEGATE_HEALTH_PROBE_INTERVAL_SEC";
+    private static final String PROBE_PATH = "/";
+    private static final int PROBE_TIMEOUT_MS = 2000;
+
+    private final DiscoveryHandler discoveryHandler;
+    private final CircuitBreakerRegistry circuitBreakers;
+    private final Client httpClient;
+    private ScheduledExecutorService executor;
+
+    public HealthProbe(DiscoveryHandler discoveryHandler, CircuitBreakerRegistry circuitBreakers, Client httpClient) {
+        this.discoveryHandler = discoveryHandler;
+        this.circuitBreakers = circuitBreakers;
+        this.httpClient = httpClient;
+    }
+
+    // probes are disabled unless an interval is configured
+    public void start() {
+        int intervalSec = 0;
+        try {
+            intervalSec = Integer.parseInt(System.getenv(PROBE_INTERVAL_SEC));
+        } catch (Exception ex) {}
+        if (intervalSec <= 0) {
+            return;
+        }
+        logger.info("delegates health probes are sent every " + intervalSec + " seconds");
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "delegate-health-probe");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                probeAll();
+            }
+        }, intervalSec, intervalSec, TimeUnit.SECONDS);
+    }
+
+    public void stop() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    private void probeAll() {
+        try {
+            for (Entry<String, List<ServiceEndpoint>> delegate : discoveryHandler.getRegistry().getEndpointsByAppName().entrySet()) {
+                probe(delegate.getKey(), delegate.getValue().get(0));
+            }
+        } catch (Exception e) {
+            logger.error("Failed to send health probes", e);
+        }
+    }
+
+    private void probe(final String delegateId, ServiceEndpoint endpoint) {
+        final CircuitBreaker breaker = circuitBreakers.get(delegateId);
+        WebTarget target = endpoint.getTarget() != null ? endpoint.getTarget() : httpClient.target(endpoint.getBaseUri());
+        target.path(PROBE_PATH).request()
+                .property(ClientProperties.CONNECT_TIMEOUT, PROBE_TIMEOUT_MS)
+                .property(ClientProperties.READ_TIMEOUT, PROBE_TIMEOUT_MS)
+                .async().get(new InvocationCallback<Response>() {
+            @Override
+            public void completed(Response response) {
+                int status = response.getStatus();
+                response.close();
+                if (status < 500) {
+                    breaker.probeSucceeded();
+                }
+                else {
+                    breaker.probeFailed();
+                }
+            }
+
+            @Override
+            public void failed(Throwable throwable) {
+                logger.warn("health probe of delegate " + delegateId + " failed: " + throwable.getMessage());
+                breaker.probeFailed();
+            }
+        });
+    }
+}
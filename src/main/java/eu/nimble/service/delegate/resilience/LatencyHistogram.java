@@ -0,0 +1,105 @@
+package eu.nimble.service.delegate.resilience;
+
+import java.util.Arrays;
+
+/**
+ * Rolling latency histogram.
+ * Latencies are counted in log scale buckets (each bucket is 20% wider than the previous one), and the counts are kept
+ * in time slices, so only the samples of the last window (6 slices of 10 seconds) are used to compute percentiles.
+ */
+public class LatencyHistogram {
+    private static final double BUCKET_FACTOR = 1.2;
+    private static final long MAX_LATENCY_MS = 300000;
+    private static final int SLICES = 6;
+    private static final long SLICE_MS = 10000;
+
+    // upper bound (inclusive) of every bucket
+    private static final long[] BUCKET_BOUNDS = buildBucketBounds();
+
+    private final long[][] counts = new long[SLICES][BUCKET_BOUNDS.length];
+    private final long[] sliceEpochs = new long[SLICES];
+
+    private static long[] buildBucketBounds() {
+        int size = (int) Math.ceil(Math.log(MAX_LATENCY_MS) / Math.log(BUCKET_FACTOR)) + 1;
+        long[] bounds = new long[size];
+        double bound = 1;
+        for (int i = 0; i < size; i++) {
+            bounds[i] = Math.max(i == 0 ? 1 : bounds[i - 1] + 1, (long) Math.ceil(bound));
+            bound *= BUCKET_FACTOR;
+        }
+        return bounds;
+    }
+
+    public synchronized void record(long latencyMillis) {
+        long epoch = System.currentTimeMillis() / SLICE_MS;
+        int slice = (int) (epoch % SLICES);
+        if (sliceEpochs[slice] != epoch) {
+            sliceEpochs[slice] = epoch;
+            Arrays.fill(counts[slice], 0);
+        }
+        counts[slice][bucketOf(latencyMillis)]++;
+    }
+
+    // number of samples in the window
+    public synchronized long getCount() {
+        long count = 0;
+        long[] window = sumWindow();
+        for (long bucketCount : window) {
+            count += bucketCount;
+        }
+        return count;
+    }
+
+    // Returns the latency (upper bound of the bucket) of the given percentile (0-100), or -1 if there are no samples
+    public synchronized long getPercentile(double percentile) {
+        long[] window = sumWindow();
+        long total = 0;
+        for (long bucketCount : window) {
+            total += bucketCount;
+        }
+        if (total == 0) {
+            return -1;
+        }
+        long rank = (long) Math.ceil(total * percentile / 100.0);
+        long seen = 0;
+        for (int i = 0; i < window.length; i++) {
+            seen += window[i];
+            if (seen >= rank) {
+                return BUCKET_BOUNDS[i];
+            }
+        }
+        return BUCKET_BOUNDS[BUCKET_BOUNDS.length - 1];
+    }
+
+    private long[] sumWindow() {
+        long currentEpoch = System.currentTimeMillis() / SLICE_MS;
+        long[] window = new long[BUCKET_BOUNDS.length];
+        for (int slice = 0; slice < SLICES; slice++) {
+            if (currentEpoch - sliceEpochs[slice] >= SLICES) {
+                continue;
+            }
+            for (int i = 0; i < window.length; i++) {
+                window[i] += counts[slice][i];
+            }
+        }
+        return window;
+    }
+
+    private static int bucketOf(long latencyMillis) {
+        int low = 0;
+        int high = BUCKET_BOUNDS.length - 1;
+        if (latencyMillis >= BUCKET_BOUNDS[high]) {
+            return high;
+        }
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (BUCKET_BOUNDS[mid] < latencyMillis) {
+                low = mid + 1;
+            }
+            else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
@@ -0,0 +1,159 @@
+package eu.nimble.service.delegate.resilience;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import eu.nimble.service.delegate.metrics.MetricsSource;
+
+/**
+ * Quotas of the other delegates on the local APIs, which protect the local backend services from a single busy peer.
+ * The backend capacity (requests per second) minus a share which is reserved for the local users is divided between
+ * the active peers by their weights, and every peer gets a token bucket with its share as the refill rate.
+ * An idle peer leaves its share to the others.
+ *
+ * DELEGATE_PEER_QUOTA_CAPACITY_RPS - capacity of the local backend services, the quotas are disabled unless it's set
+ * DELEGATE_PEER_QUOTA_LOCAL_RESERVE_PERCENT - share of the capacity reserved for the local users (default 30)
+ * DELEGATE_PEER_QUOTA_BURST_SEC - bucket size, in seconds of the peer's rate (default 2)
+ * DELEGATE_PEER_QUOTA_WEIGHTS - weights of the peers, e.g. NIMBLE-A=2,NIMBLE-B=1 (default 1)
+ */
+public class PeerQuotas implements MetricsSource {
+    private static Logger logger = LogManager.getLogger(PeerQuotas.class);
+
+    // peers without the client federation id header share a single quota
+    public static final String UNKNOWN_PEER = "unknown";
+    // a peer which sent no request during this period doesn't take a share
+    private static final long ACTIVE_PERIOD_MS = 10000;
+    // the header is set by the caller, so the number of tracked peers is bounded
+    private static final int MAX_PEERS = 500;
+
+    private final double peersRate;
+    private final double burstSec;
+    private final Map<String, Double> weights = new HashMap<String, Double>();
+    private final Map<String, PeerBucket> buckets = new HashMap<String, PeerBucket>();
+    private long localAccepted = 0;
+
+    public PeerQuotas() {
+        double capacity = getDoubleEnv("DELEGATE_PEER_QUOTA_CAPACITY_RPS", 0);
+        double reservePercent = Math.max(0, Math.min(100, getDoubleEnv("DELEGATE_PEER_QUOTA_LOCAL_RESERVE_PERCENT", 30)));
+        this.peersRate = capacity * (100 - reservePercent) / 100;
+        this.burstSec = Math.max(0.1, getDoubleEnv("DELEGATE_PEER_QUOTA_BURST_SEC", 2));
+        String weightsValue = System.getenv("DELEGATE_PEER_QUOTA_WEIGHTS");
+        if (weightsValue != null) {
+            for (String weight : weightsValue.split(",")) {
+                String[] parts = weight.trim().split("=");
+                try {
+                    weights.put(parts[0].trim(), Double.parseDouble(parts[1].trim()));
+                } catch (Exception e) {
+                    logger.error("invalid peer quota weight: " + weight);
+                }
+            }
+        }
+        if (isEnabled()) {
+            logger.info("peer quotas: " + peersRate + " requests per second are shared by the peers, weights: " + weights);
+        }
+    }
+
+    public boolean isEnabled() {
+        return peersRate > 0;
+    }
+
+    // Returns 0 if the request of the peer may proceed, otherwise the time in milliseconds until it would be allowed
+    public synchronized long tryAcquire(String peer) {
+        if (peer == null || peer.isEmpty()) {
+            peer = UNKNOWN_PEER;
+        }
+        long now = System.currentTimeMillis();
+        if (!buckets.containsKey(peer) && buckets.size() >= MAX_PEERS) {
+            peer = UNKNOWN_PEER;
+        }
+        PeerBucket bucket = buckets.get(peer);
+        if (bucket == null) {
+            bucket = new PeerBucket(getWeight(peer), now);
+            buckets.put(peer, bucket);
+        }
+        bucket.lastSeen = now;
+        double rate = peersRate * bucket.weight / getActiveWeights(now);
+        double maxTokens = Math.max(1, rate * burstSec);
+        bucket.tokens = Math.min(maxTokens, bucket.tokens + (now - bucket.lastRefill) / 1000.0 * rate);
+        bucket.lastRefill = now;
+        bucket.rate = rate;
+        if (bucket.tokens >= 1) {
+            bucket.tokens -= 1;
+            bucket.accepted++;
+            return 0;
+        }
+        bucket.throttled++;
+        return Math.max(1, (long) Math.ceil((1 - bucket.tokens) / rate * 1000));
+    }
+
+    // the calls which this delegate dispatched in process to its own local APIs aren't limited, they're only counted
+    public synchronized void localCallAccepted() {
+        localAccepted++;
+    }
+
+    private double getWeight(String peer) {
+        Double weight = weights.get(peer);
+        return weight == null || weight <= 0 ? 1 : weight;
+    }
+
+    private double getActiveWeights(long now) {
+        double sum = 0;
+        for (PeerBucket bucket : buckets.values()) {
+            if (now - bucket.lastSeen < ACTIVE_PERIOD_MS) {
+                sum += bucket.weight;
+            }
+        }
+        return sum;
+    }
+
+    @Override
+    public synchronized Object getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<String, Object>();
+        Map<String, Object> peers = new TreeMap<String, Object>();
+        for (Map.Entry<String, PeerBucket> entry : buckets.entrySet()) {
+            PeerBucket bucket = entry.getValue();
+            Map<String, Object> peerMetrics = new LinkedHashMap<String, Object>();
+            peerMetrics.put("weight", bucket.weight);
+            peerMetrics.put("rate", Math.round(bucket.rate * 100) / 100.0);
+            peerMetrics.put("accepted", bucket.accepted);
+            peerMetrics.put("throttled", bucket.throttled);
+            peers.put(entry.getKey(), peerMetrics);
+        }
+        metrics.put("enabled", isEnabled());
+        metrics.put("peersRate", peersRate);
+        metrics.put("localAccepted", localAccepted);
+        metrics.put("peers", peers);
+        return metrics;
+    }
+
+    private static double getDoubleEnv(String name, double defaultValue) {
+        try {
+            return Double.parseDouble(System.getenv(name));
+        } catch (Exception ex) {
+            return defaultValue;
+        }
+    }
+
+    private static class PeerBucket {
+        private final double weight;
+        private double tokens;
+        private double rate;
+        private long lastRefill;
+        private long lastSeen;
+        private long accepted = 0;
+        private long throttled = 0;
+
+        private PeerBucket(double weight, long now) {
+            this.weight = weight;
+            this.lastRefill = now;
+            this.lastSeen = now;
+            // a new peer starts with a single request, so it can't burst before its rate is known
+            this.tokens = 1;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package eu.nimble.service.delegate.resilience;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import eu.nimble.service.delegate.metrics.MetricsSource;
+
+/**
+ * Token bucket which limits the extra requests (hedges, retries) to a ratio of the regular requests.
+ * Every regular request deposits a fraction of a token, the bucket is also refilled by a small rate per second
+ * so a low traffic delegate can still get some extra requests, and every extra request withdraws a whole token.
+ */
+public class RequestBudget implements MetricsSource {
+    private final double depositPerRequest;
+    private final double refillPerSecond;
+    private final double maxTokens;
+
+    private double tokens;
+    private long lastRefillNanos;
+    private long granted = 0;
+    private long rejected = 0;
+
+    // ratioPercent - extra requests per 100 regular requests, maxTokens - the largest burst of extra requests
+    public RequestBudget(double ratioPercent, double refillPerSecond, double maxTokens) {
+        this.depositPerRequest = ratioPercent / 100.0;
+        this.refillPerSecond = refillPerSecond;
+        this.maxTokens = maxTokens;
+        this.tokens = maxTokens;
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+    public synchronized void deposit() {
+        refill();
+        tokens = Math.min(maxTokens, tokens + depositPerRequest);
+    }
+
+    // Returns true if the extra request may be sent
+    public synchronized boolean tryWithdraw() {
+        refill();
+        if (tokens >= 1) {
+            tokens -= 1;
+            granted++;
+            return true;
+        }
+        rejected++;
+        return false;
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(maxTokens, tokens + (now - lastRefillNanos) / 1e9 * refillPerSecond);
+        lastRefillNanos = now;
+    }
+
+    @Override
+    public synchronized Object getMetrics() {
+        refill();
+        Map<String, Object> metrics = new LinkedHashMap<String, Object>();
+        metrics.put("tokens", Math.floor(tokens * 100) / 100);
+        metrics.put("granted", granted);
+        metrics.put("rejected", rejected);
+        return metrics;
+    }
+}
@@ -0,0 +1,198 @@
+package eu.nimble.service.delegate.resilience;
+
+import java.io.EOFException;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.SocketException;
+import java.net.UnknownHostException;
+import java.nio.channels.ClosedChannelException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import eu.nimble.service.delegate.metrics.MetricsSource;
+
+/**
+ * Retries of the calls to the other delegates.
+ * Only idempotent calls (GET requests other than the few which change state, and the search POST requests) are
+ * retried, and only on connection level
+ * failures (refused or reset connections), which are usually transient on pooled connections. A call which got a
+ * response or timed out is never retried. The retries are spread by a jittered exponential backoff and limited by a
+ * global budget, so an outage doesn't multiply the load on the delegates.
+ *
+ * DELEGATE_RETRY_MAX - retries of a single call (default 2, 0 disables the retries)
+ * DELEGATE_RETRY_BACKOFF_MS - base backoff, doubled on every retry (default 50)
+ * DELEGATE_RETRY_BUDGET_PERCENT - retries per 100 idempotent calls (default 10)
+ * DELEGATE_RETRY_IDEMPOTENT_POST_ROUTES - comma separated POST routes which are safe to retry (default the search routes)
+ * DELEGATE_RETRY_NON_IDEMPOTENT_GET_ROUTES - comma separated GET routes which change state and are never retried
+ *     (default the unmerge of collaboration groups and the clauses added to contracts, * matches any path segment)
+ */
+public class RetryPolicy implements MetricsSource {
+    private static Logger logger = LogManager.getLogger(RetryPolicy.class);
+
+    private static final String DEFAULT_IDEMPOTENT_POST_ROUTES = "/item/search/local,/party/search/local";
+    private static final String DEFAULT_NON_IDEMPOTENT_GET_ROUTES = "/collaboration-groups/unmerge/local,/documents/*/contract/clause/document/local";
+    private static final double BUDGET_REFILL_PER_SEC = 1;
+    private static final double BUDGET_MAX_TOKENS = 20;
+
+    private final int maxRetries;
+    private final long backoffMillis;
+    private final Set<String> idempotentPostRoutes;
+    private final Set<String> nonIdempotentGetRoutes;
+    private final RequestBudget budget;
+    private final ConcurrentHashMap<String, AtomicLong> retries = new ConcurrentHashMap<String, AtomicLong>();
+    private final ConcurrentHashMap<String, AtomicLong> budgetRejections = new ConcurrentHashMap<String, AtomicLong>();
+    private final ScheduledExecutorService scheduler;
+
+    public RetryPolicy() {
+        maxRetries = (int) getDoubleEnv("DELEGATE_RETRY_MAX", 2);
+        backoffMillis = (long) getDoubleEnv("DELEGATE_RETRY_BACKOFF_MS", 50);
+        budget = new RequestBudget(getDoubleEnv("DELEGATE_RETRY_BUDGET_PERCENT", 10), BUDGET_REFILL_PER_SEC, BUDGET_MAX_TOKENS);
+        String routes = System.getenv("DELEGATE_RETRY_IDEMPOTENT_POST_ROUTES");
+        idempotentPostRoutes = new HashSet<String>(Arrays.asList((routes == null ? DEFAULT_IDEMPOTENT_POST_ROUTES : routes).split("\\s*,\\s*")));
+        routes = System.getenv("DELEGATE_RETRY_NON_IDEMPOTENT_GET_ROUTES");
+        nonIdempotentGetRoutes = new HashSet<String>(Arrays.asList((routes == null ? DEFAULT_NON_IDEMPOTENT_GET_ROUTES : routes).split("\\s*,\\s*")));
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "delegate-retry");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        logger.info("idempotent delegate calls are retried up to " + maxRetries + " times, idempotent post routes: " + idempotentPostRoutes +
+                ", non idempotent get routes: " + nonIdempotentGetRoutes);
+    }
+
+    public void stop() {
+        scheduler.shutdownNow();
+    }
+
+    // route is the normalized route of the call (see AdaptiveTimeouts.normalizeRoute)
+    public boolean isIdempotent(String method, String route) {
+        if ("GET".equals(method) || "HEAD".equals(method)) {
+            for (String nonIdempotentRoute : nonIdempotentGetRoutes) {
+                if (matches(nonIdempotentRoute, route)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return "POST".equals(method) && idempotentPostRoutes.contains(route);
+    }
+
+    // a * segment of the pattern matches any segment of the route, so the ids which aren't normalized are matched too
+    private static boolean matches(String pattern, String route) {
+        String[] patternSegments = pattern.split("/");
+        String[] routeSegments = route.split("/");
+        if (patternSegments.length != routeSegments.length) {
+            return false;
+        }
+        for (int i = 0; i < patternSegments.length; i++) {
+            if (!patternSegments[i].equals("*") && !patternSegments[i].equals(routeSegments[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // called for every idempotent call, it adds to the retry budget
+    public void callSent() {
+        budget.deposit();
+    }
+
+    // Schedules the retry of a failed call if it's allowed (attempt is the number of retries done so far),
+    // returns false if the call should fail
+    public boolean scheduleRetry(String peer, int attempt, Throwable failure, long remainingMillis, Runnable retry) {
+        if (attempt >= maxRetries || !isConnectionFailure(failure)) {
+            return false;
+        }
+        long backoff = ThreadLocalRandom.current().nextLong((backoffMillis << attempt) + 1);
+        if (backoff >= remainingMillis) {
+            return false;
+        }
+        if (!budget.tryWithdraw()) {
+            increment(budgetRejections, peer);
+            logger.warn("not retrying the call to {}, the retry budget is exhausted", peer);
+            return false;
+        }
+        increment(retries, peer);
+        logger.warn("retrying the call to {} in {} ms after a connection failure: {}", peer, backoff, failure.toString());
+        try {
+            scheduler.schedule(retry, backoff, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (Exception e) {
+            // the scheduler is stopped
+            return false;
+        }
+    }
+
+    // connection refused or reset, usually a stale pooled connection or a restarting peer (read timeouts are not included).
+    // Jetty reports a reset pooled connection as an EofException (an EOFException) or an AsynchronousCloseException
+    // (a ClosedChannelException) rather than a SocketException
+    static boolean isConnectionFailure(Throwable failure) {
+        for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ConnectException || cause instanceof NoRouteToHostException ||
+                    cause instanceof UnknownHostException || cause instanceof SocketException ||
+                    cause instanceof EOFException || cause instanceof ClosedChannelException) {
+                return true;
+            }
+            if (cause.getCause() == cause) {
+                break;
+            }
+        }
+        return false;
+    }
+
+    private static void increment(ConcurrentHashMap<String, AtomicLong> counters, String peer) {
+        AtomicLong counter = counters.get(peer);
+        if (counter == null) {
+            AtomicLong created = new AtomicLong();
+            counter = counters.putIfAbsent(peer, created);
+            if (counter == null) {
+                counter = created;
+            }
+        }
+        counter.incrementAndGet();
+    }
+
+    @Override
+    public Object getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<String, Object>();
+        Map<String, Object> peers = new TreeMap<String, Object>();
+        Set<String> peerNames = new HashSet<String>(retries.keySet());
+        peerNames.addAll(budgetRejections.keySet());
+        for (String peer : peerNames) {
+            Map<String, Object> peerMetrics = new LinkedHashMap<String, Object>();
+            AtomicLong retried = retries.get(peer);
+            AtomicLong rejected = budgetRejections.get(peer);
+            peerMetrics.put("retries", retried == null ? 0 : retried.get());
+            peerMetrics.put("budgetRejected", rejected == null ? 0 : rejected.get());
+            peers.put(peer, peerMetrics);
+        }
+        metrics.put("peers", peers);
+        metrics.put("budget", budget.getMetrics());
+        return metrics;
+    }
+
+    private static double getDoubleEnv(String name, double defaultValue) {
+        try {
+            return Double.parseDouble(System.getenv(name));
+        } catch (Exception ex) {
+            return defaultValue;
+        }
+    }
+}
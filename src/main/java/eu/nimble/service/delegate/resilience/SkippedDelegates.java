@@ -0,0 +1,39 @@
+package eu.nimble.service.delegate.resilience;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Collects the delegates which were skipped (open circuit breaker) while serving the current request,
+ * so they can be reported in the merged response. The requests to the delegates are sent by the thread which
+ * serves the request, so the delegates are kept per thread and cleared when the request starts (a suspended
+ * request keeps the set of its thread, see SkippedDelegatesFilter, and a request which is handled on a virtual
+ * thread gets the set of its container thread, see VirtualThreads).
+ */
+public class SkippedDelegates {
+    public static final String HEADER = "skippedDelegates";
+
+    private static final ThreadLocal<Set<String>> skipped = new ThreadLocal<Set<String>>() {
+        @Override
+        protected Set<String> initialValue() {
+            return new LinkedHashSet<String>();
+        }
+    };
+
+    public static void add(String delegateId) {
+        skipped.get().add(delegateId);
+    }
+
+    public static Set<String> get() {
+        return skipped.get();
+    }
+
+    // hands the delegates of a request to the thread which continues serving it
+    public static void set(Set<String> delegates) {
+        skipped.set(delegates);
+    }
+
+    public static void clear() {
+        skipped.remove();
+    }
+}
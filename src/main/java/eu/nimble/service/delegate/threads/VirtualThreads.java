@@ -0,0 +1,151 @@
+package eu.nimble.service.delegate.threads;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import eu.nimble.service.delegate.metrics.MetricsSource;
+import eu.nimble.service.delegate.resilience.SkippedDelegates;
+
+/**
+ * Optional virtual-thread execution mode (Java 21 or later). When it's enabled, the synchronous JAX-RS resource
+ * methods and the asynchronous calls of the blocking (HttpUrlConnection) client connector run on virtual threads,
+ * so a request which blocks on the identity service, the backend services or the delegates doesn't hold a platform
+ * thread. The code itself is not changed, and the service is still built for Java 8 - the virtual threads are
+ * created by reflection, and the mode is ignored (with a warning) on an older runtime.
+ *
+ * Pinning safeguards (up to Java 23 a virtual thread which blocks inside a synchronized section pins its carrier):
+ * - the synchronized sections on the request path only update in-memory state, the waits (e.g. for a priority
+ *   lane slot or a response) are on java.util.concurrent primitives, which unmount the virtual thread
+ * - the non-blocking (Jetty) connector keeps its own platform threads, its selectors and callbacks never run on
+ *   virtual threads
+ * - the resource methods which stream to the servlet response stay on the container thread
+ * - the inbound concurrency limits and the bulkheads still bound the number of requests in flight
+ * Run with -Djdk.tracePinnedThreads=short to log the virtual threads which block while pinned.
+ *
+ * DELEGATE_VIRTUAL_THREADS - true to enable the mode (default false)
+ */
+public final class VirtualThreads {
+    private static Logger logger = LogManager.getLogger(VirtualThreads.class);
+
+    private static final boolean enabled = init();
+
+    private VirtualThreads() {
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    private static boolean init() {
+        if (!Boolean.parseBoolean(System.getenv("DELEGATE_VIRTUAL_THREADS"))) {
+            return false;
+        }
+        if (getJavaVersion() < 21) {
+            logger.warn("virtual threads require Java 21 or later, running on " + System.getProperty("java.version") + " with platform threads");
+            return false;
+        }
+        logger.info("the request handlers and the blocking client calls run on virtual threads");
+        return true;
+    }
+
+    // "1.8" up to Java 8, "21" since Java 9
+    private static int getJavaVersion() {
+        String version = System.getProperty("java.specification.version", "1.8");
+        try {
+            return Integer.parseInt(version.startsWith("1.") ? version.substring(2) : version);
+        } catch (NumberFormatException e) {
+            return 8;
+        }
+    }
+
+    // Returns an executor which starts a new virtual thread for every task (Executors.newThreadPerTaskExecutor)
+    public static ExecutorService newExecutor(String name) {
+        try {
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, name + "-", 0L);
+            ThreadFactory factory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+            return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class).invoke(null, factory);
+        } catch (Exception e) {
+            throw new IllegalStateException("virtual threads are not supported by this runtime", e);
+        }
+    }
+
+    /**
+     * Executor of the request handlers - the handler runs on a new virtual thread with the request state
+     * which is kept per thread (the skipped delegates) of the container thread which submitted it.
+     */
+    static class RequestExecutor extends AbstractExecutorService implements MetricsSource {
+        private final ExecutorService executor;
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final AtomicLong started = new AtomicLong();
+
+        RequestExecutor(ExecutorService executor) {
+            this.executor = executor;
+        }
+
+        @Override
+        public void execute(final Runnable task) {
+            final Set<String> skipped = SkippedDelegates.get();
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    inFlight.incrementAndGet();
+                    started.incrementAndGet();
+                    SkippedDelegates.set(skipped);
+                    try {
+                        task.run();
+                    } finally {
+                        SkippedDelegates.clear();
+                        inFlight.decrementAndGet();
+                    }
+                }
+            });
+        }
+
+        @Override
+        public Object getMetrics() {
+            Map<String, Object> metrics = new LinkedHashMap<String, Object>();
+            metrics.put("handlersInFlight", inFlight.get());
+            metrics.put("handlersStarted", started.get());
+            return metrics;
+        }
+
+        @Override
+        public void shutdown() {
+            executor.shutdown();
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return executor.shutdownNow();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return executor.isShutdown();
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return executor.isTerminated();
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            return executor.awaitTermination(timeout, unit);
+        }
+    }
+}
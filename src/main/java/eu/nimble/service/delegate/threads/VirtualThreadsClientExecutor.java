@@ -0,0 +1,25 @@
+package eu.nimble.service.delegate.threads;
+
+import java.util.concurrent.ExecutorService;
+
+import org.glassfish.jersey.client.ClientAsyncExecutor;
+import org.glassfish.jersey.spi.ExecutorServiceProvider;
+
+/**
+ * Async executor of a client on the blocking (HttpUrlConnection) connector in the virtual-thread mode - every
+ * asynchronous call blocks a virtual thread instead of a thread of the client's pool.
+ * The non-blocking connector doesn't need it, its calls don't block the executor.
+ */
+@ClientAsyncExecutor
+public class VirtualThreadsClientExecutor implements ExecutorServiceProvider {
+
+    @Override
+    public ExecutorService getExecutorService() {
+        return VirtualThreads.newExecutor("delegate-client");
+    }
+
+    @Override
+    public void dispose(ExecutorService executorService) {
+        executorService.shutdown();
+    }
+}
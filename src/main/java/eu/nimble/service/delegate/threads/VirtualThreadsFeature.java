@@ -0,0 +1,96 @@
+package eu.nimble.service.delegate.threads;
+
+import java.util.concurrent.ExecutorService;
+
+import javax.servlet.http.HttpServletResponse;
+import javax.ws.rs.core.Configuration;
+import javax.ws.rs.core.Feature;
+import javax.ws.rs.core.FeatureContext;
+import javax.ws.rs.ext.Provider;
+
+import org.glassfish.jersey.server.ManagedAsyncExecutor;
+import org.glassfish.jersey.server.model.ModelProcessor;
+import org.glassfish.jersey.server.model.Parameter;
+import org.glassfish.jersey.server.model.Resource;
+import org.glassfish.jersey.server.model.ResourceMethod;
+import org.glassfish.jersey.server.model.ResourceModel;
+import org.glassfish.jersey.spi.ExecutorServiceProvider;
+
+import eu.nimble.service.delegate.metrics.Metrics;
+
+/**
+ * Virtual Threads Feature - runs the synchronous resource methods on virtual threads when the virtual-thread
+ * mode is enabled (see VirtualThreads). The methods are marked as managed async, so the container thread is
+ * released as soon as the request is dispatched and the method runs on the managed async executor, which
+ * starts a virtual thread per request. The suspended (asynchronous) methods are already released, and the
+ * methods which write to the servlet response themselves stay on the container thread.
+ */
+@Provider
+public class VirtualThreadsFeature implements Feature {
+
+	@Override
+	public boolean configure(FeatureContext context) {
+		if (!VirtualThreads.isEnabled()) {
+			return false;
+		}
+		context.register(VirtualThreadsModelProcessor.class);
+		context.register(VirtualThreadsExecutorProvider.class);
+		return true;
+	}
+
+	public static class VirtualThreadsModelProcessor implements ModelProcessor {
+		@Override
+		public ResourceModel processResourceModel(ResourceModel resourceModel, Configuration configuration) {
+			ResourceModel.Builder builder = new ResourceModel.Builder(false);
+			for (Resource resource : resourceModel.getResources()) {
+				builder.addResource(runOnVirtualThreads(resource));
+			}
+			return builder.build();
+		}
+
+		@Override
+		public ResourceModel processSubResource(ResourceModel subResourceModel, Configuration configuration) {
+			return subResourceModel;
+		}
+
+		private static Resource runOnVirtualThreads(Resource resource) {
+			Resource.Builder builder = Resource.builder(resource);
+			for (ResourceMethod method : resource.getResourceMethods()) {
+				if (isBlocking(method)) {
+					builder.updateMethod(method).managedAsync().build();
+				}
+			}
+			for (Resource child : resource.getChildResources()) {
+				builder.replaceChildResource(child, runOnVirtualThreads(child));
+			}
+			return builder.build();
+		}
+
+		private static boolean isBlocking(ResourceMethod method) {
+			if (method.isSuspendDeclared() || method.isManagedAsyncDeclared() || method.getInvocable() == null) {
+				return false;
+			}
+			for (Parameter parameter : method.getInvocable().getParameters()) {
+				if (HttpServletResponse.class.isAssignableFrom(parameter.getRawType())) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	@ManagedAsyncExecutor
+	public static class VirtualThreadsExecutorProvider implements ExecutorServiceProvider {
+		@Override
+		public ExecutorService getExecutorService() {
+			VirtualThreads.RequestExecutor executor = new VirtualThreads.RequestExecutor(VirtualThreads.newExecutor("delegate-handler"));
+			Metrics.register("virtualThreads", executor);
+			return executor;
+		}
+
+		@Override
+		public void dispose(ExecutorService executorService) {
+			executorService.shutdown();
+		}
+	}
+}